@@ -7,7 +7,7 @@ import java.util.*;
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -18,6 +18,7 @@ public class Aggregate extends Operator {
     private Aggregator.Op aOp;
     private Aggregator aggItself;			// use to determine whether it's a stringAggregator or an IntegerAggregator
     private DbIterator resIt;
+    private TupleBatch batch;
 
     /**
      * Constructor.
@@ -106,13 +107,24 @@ public class Aggregate extends Operator {
     TransactionAbortedException {
 	super.open();
 	dbIt.open();
-	while (dbIt.hasNext()) {
-		aggItself.mergeTupleIntoGroup(dbIt.next());
-	}
+	mergeChild(aggItself);
 	resIt = aggItself.iterator();
 	resIt.open();
 }
 
+    /**
+     * Merge the tuples of the open child into the aggregator. The child is
+     * read a batch at a time.
+     */
+    protected void mergeChild(Aggregator agg) throws DbException,
+            TransactionAbortedException {
+	BatchIterator child = BatchAdapter.of(dbIt);
+	TupleBatch b;
+	while ((b = child.nextBatch()) != null) {
+		agg.mergeBatchIntoGroup(b);
+	}
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -129,6 +141,23 @@ public class Aggregate extends Operator {
 		
     }
 
+    /**
+     * Returns the results a batch at a time; see {@link #fetchNext}. The rows
+     * have the schema of the tuples fetchNext returns.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	if(resIt == null)
+    		throw new DbException("");
+    	if(!resIt.hasNext())
+    		return null;
+    	if(batch == null)
+    		batch = new TupleBatch(resIt.getTupleDesc(), TupleBatch.DEFAULT_CAPACITY);
+    	batch.clear();
+    	while(!batch.isFull() && resIt.hasNext())
+    		batch.appendTuple(resIt.next());
+    	return batch.numSelected() > 0 ? batch : null;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
     	dbIt.rewind();
     	resIt.rewind();
@@ -76,6 +76,14 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected rows of a batch, as mergeTupleIntoGroup does for
+     * each of them.
+     *
+     * @param b the batch whose rows have an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(TupleBatch b);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,57 @@
+package simpledb;
+
+/**
+ * Reads a DbIterator as batches, for operators whose child does not
+ * implement {@link BatchIterator}.
+ */
+public class BatchAdapter implements BatchIterator {
+
+	private final DbIterator m_child;
+	private TupleBatch m_batch;
+
+	/**
+	 * @param child
+	 *            the iterator to read; it may be opened through the adapter
+	 *            or directly
+	 */
+	public BatchAdapter(DbIterator child) {
+		m_child = child;
+	}
+
+	/**
+	 * @return it if it returns batches itself, or else an adapter reading it
+	 */
+	public static BatchIterator of(DbIterator it) {
+		if (it instanceof BatchIterator)
+			return (BatchIterator) it;
+		return new BatchAdapter(it);
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		m_child.open();
+	}
+
+	public TupleBatch nextBatch() throws DbException,
+			TransactionAbortedException {
+		if (m_batch == null)
+			m_batch = new TupleBatch(m_child.getTupleDesc(),
+					TupleBatch.DEFAULT_CAPACITY);
+		m_batch.clear();
+		while (!m_batch.isFull() && m_child.hasNext())
+			m_batch.appendTuple(m_child.next());
+		return m_batch.numSelected() > 0 ? m_batch : null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		m_child.rewind();
+	}
+
+	public TupleDesc getTupleDesc() {
+		return m_child.getTupleDesc();
+	}
+
+	public void close() {
+		m_child.close();
+		m_batch = null;
+	}
+}
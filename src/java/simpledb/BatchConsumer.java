@@ -0,0 +1,14 @@
+package simpledb;
+
+/**
+ * The consumer at the end of a fused pipeline, which the producer at its
+ * start hands each batch of rows to (see {@link SeqScan#produce}).
+ */
+public interface BatchConsumer {
+    /**
+     * Consume the selected rows of b. The batch belongs to the producer and
+     * is only valid during the call.
+     */
+    public void consume(TupleBatch b) throws DbException,
+            TransactionAbortedException;
+}
@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * BatchIterator is the interface of operators that can return their results
+ * a {@link TupleBatch} at a time rather than a Tuple at a time, which saves
+ * the per-tuple calls and objects of a DbIterator. Operators implement it
+ * alongside DbIterator: once opened, such an operator is read either with
+ * next() or with nextBatch(), not both. {@link BatchAdapter} reads any
+ * DbIterator as batches, and {@link BatchTupleIterator} reads batches as a
+ * DbIterator.
+ */
+public interface BatchIterator {
+    /**
+     * Opens the iterator. This must be called before any of the other
+     * methods.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of results. The batch belongs to the iterator
+     * and is only valid until the next call, but the caller may narrow its
+     * selection.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more results
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the batches
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a {@link BatchIterator} a Tuple at a time.
+ */
+public class BatchTupleIterator extends Operator {
+
+	private static final long serialVersionUID = 1L;
+
+	private BatchIterator m_child;
+	/** The current batch, and the position in its selection. */
+	private TupleBatch m_batch;
+	private int m_pos;
+
+	public BatchTupleIterator(BatchIterator child) {
+		m_child = child;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return m_child.getTupleDesc();
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException {
+		m_child.open();
+		super.open();
+		m_batch = null;
+	}
+
+	public void close() {
+		super.close();
+		m_child.close();
+		m_batch = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		m_child.rewind();
+		m_batch = null;
+	}
+
+	protected Tuple fetchNext() throws DbException,
+			TransactionAbortedException {
+		while (m_batch == null || m_pos == m_batch.numSelected()) {
+			m_batch = m_child.nextBatch();
+			m_pos = 0;
+			if (m_batch == null)
+				return null;
+		}
+		return m_batch.getTuple(m_batch.selection()[m_pos++]);
+	}
+
+	@Override
+	public DbIterator[] getChildren() {
+		if (m_child instanceof DbIterator)
+			return new DbIterator[] { (DbIterator) m_child };
+		return new DbIterator[0];
+	}
+
+	@Override
+	public void setChildren(DbIterator[] children) {
+		m_child = BatchAdapter.of(children[0]);
+	}
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * A nested-loops join that reads the outer relation a block of tuples at a
+ * time and scans the inner relation once per block rather than once per
+ * outer tuple. Works with any join predicate.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+	private static final long serialVersionUID = 1L;
+
+	private JoinPredicate m_predicate;
+	private DbIterator m_outer;
+	private DbIterator m_inner;
+	private final int m_blockTuples;
+	private final TupleDesc m_td;
+
+	/** The current block of outer tuples. */
+	private final ArrayList<Tuple> m_block = new ArrayList<Tuple>();
+	/** The inner tuple being matched against the block. */
+	private Tuple m_innerTuple;
+	/** Position of the next outer tuple of the block to try. */
+	private int m_pos;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 * @param blockTuples
+	 *            The number of outer tuples to hold in memory at a time
+	 */
+	public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+			DbIterator child2, int blockTuples) {
+		m_predicate = p;
+		m_outer = child1;
+		m_inner = child2;
+		m_blockTuples = Math.max(1, blockTuples);
+		m_td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+	}
+
+	public JoinPredicate getJoinPredicate() {
+		return m_predicate;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return m_td;
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException {
+		m_outer.open();
+		m_inner.open();
+		super.open();
+		loadBlock();
+	}
+
+	public void close() {
+		m_outer.close();
+		m_inner.close();
+		super.close();
+		m_block.clear();
+		m_innerTuple = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		m_outer.rewind();
+		m_inner.rewind();
+		loadBlock();
+	}
+
+	/** Read the next block of outer tuples. */
+	private void loadBlock() throws DbException, TransactionAbortedException {
+		m_block.clear();
+		while (m_block.size() < m_blockTuples && m_outer.hasNext())
+			m_block.add(m_outer.next());
+		m_innerTuple = null;
+		m_pos = 0;
+	}
+
+	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while (!m_block.isEmpty()) {
+			if (m_innerTuple != null) {
+				while (m_pos < m_block.size()) {
+					Tuple outer = m_block.get(m_pos++);
+					if (m_predicate.filter(outer, m_innerTuple))
+						return merge(outer, m_innerTuple);
+				}
+			}
+			if (m_inner.hasNext()) {
+				m_innerTuple = m_inner.next();
+				m_pos = 0;
+			} else {
+				// the block is done: scan the inner again for the next one
+				m_inner.rewind();
+				loadBlock();
+			}
+		}
+		return null;
+	}
+
+	private Tuple merge(Tuple outer, Tuple inner) {
+		Tuple t = new Tuple(m_td);
+		int n1 = outer.getTupleDesc().numFields();
+		for (int i = 0; i < n1; i++)
+			t.setField(i, outer.getField(i));
+		for (int i = 0; i < inner.getTupleDesc().numFields(); i++)
+			t.setField(n1 + i, inner.getField(i));
+		return t;
+	}
+
+	@Override
+	public DbIterator[] getChildren() {
+		return new DbIterator[] { m_outer, m_inner };
+	}
+
+	@Override
+	public void setChildren(DbIterator[] children) {
+		m_outer = children[0];
+		m_inner = children[1];
+	}
+}
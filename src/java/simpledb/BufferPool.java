@@ -1,8 +1,14 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -12,11 +18,42 @@ import java.util.Map;
  * The BufferPool is also responsible for locking; when a transaction fetches a
  * page, BufferPool checks that the transaction has the appropriate locks to
  * read/write the page.
+ * <p>
+ * Read-only transactions registered with {@link #beginSnapshot} take no locks
+ * at all. They are handed the committed image of each page as of the moment
+ * they started, using the versions kept in a {@link VersionStore}, so they
+ * never block writers and never see uncommitted data.
+ * <p>
+ * In row-locking mode (see {@link #setRowLocking}) HeapFile inserts and
+ * deletes take intention-exclusive locks on pages and exclusive locks on the
+ * RecordIds they touch, so concurrent writers only conflict on the same row.
+ * Their changes are kept in a {@link RowChangeLog} so an abort can undo them
+ * tuple by tuple. Ordinary page reads still take shared page locks.
+ * <p>
+ * Pages handed out for writing are remembered in a dirty list, both globally
+ * and per transaction, so flushes never scan the whole pool; dirty pages of
+ * the same HeapFile are written in page order, adjacent pages with a single
+ * write. Eviction picks the least recently used clean page. An optional
+ * background writer (see {@link #startBackgroundWriter}) writes out dirty
+ * pages no running transaction is still changing, so eviction can usually
+ * take a clean frame straight away; a write it fails leaves the pages dirty
+ * and is reported by the next flush or commit.
+ * <p>
+ * Tables may have pages of different sizes (see {@link Catalog#getPageSize}),
+ * so the pool is sized in bytes rather than pages: a page is charged its
+ * table's page size, and as many least recently used clean pages are evicted
+ * as it takes to make room for a new one.
+ * <p>
+ * The data of cached HeapPages is kept off the heap, each page in a frame of
+ * a {@link FrameArena} as large as the pool, and decoded from there as it is
+ * read, so the heap holds little more than the tuples being changed however
+ * large the pool is. A page leaving the pool moves its data back onto the
+ * heap, so it can still be read by whoever holds it.
  * 
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Default bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
 
     private static int pageSize = PAGE_SIZE;
@@ -29,31 +66,153 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     /**
-     * The max number of pages in this buffer pool
+     * The max number of bytes of the pages in this buffer pool
+     */
+    private final long m_maxBytes;
+
+    /**
+     * The number of bytes of the pages in this buffer pool
      */
-    private static int m_numPages;
+    private long m_usedBytes = 0;
 
     /**
-     * Store the pages stored for this BufferPool
+     * The bytes charged for each page in this buffer pool
+     */
+    private final Map<PageId, Integer> m_frameBytes;
+
+    /**
+     * The off-heap memory of the frames of the cached HeapPages
+     */
+    private final FrameArena m_arena;
+
+    /**
+     * Store the pages stored for this BufferPool, least recently used first
      */
     Map<PageId, Page> m_pageMap;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Pages that may be dirty, in the order they were first handed out for
+     * writing. A page stays listed until it is written or discarded.
+     */
+    private final Set<PageId> m_dirtyPages;
+
+    /**
+     * The pages each running transaction may have dirtied
+     */
+    private final Map<TransactionId, Set<PageId>> m_dirtiedBy;
+
+    /**
+     * The background writer, or null if it is not running
+     */
+    private BackgroundWriter m_writer = null;
+
+    /**
+     * The first write the background writer failed since the last flush
+     * reported it, or null
+     */
+    private IOException m_writeFailure = null;
+
+    /**
+     * Page locks held by running transactions
+     */
+    private final LockManager m_lockManager;
+
+    /**
+     * Timestamp of the most recent commit
+     */
+    private long m_commitTs = 0;
+
+    /**
+     * The snapshot timestamp of each running read-only transaction
+     */
+    private final Map<TransactionId, Long> m_snapshots;
+
+    /**
+     * Committed page images handed out to snapshot readers. Writers never
+     * modify these, so readers can iterate them without locks.
+     */
+    private final Map<PageId, Page> m_committedImages;
+
+    /**
+     * Committed images that have been superseded but may still be visible to
+     * a running snapshot
+     */
+    private final VersionStore m_versions;
+
+    /**
+     * True if HeapFile writers lock tuples rather than whole pages
+     */
+    private boolean m_rowLocking = false;
+
+    /**
+     * Uncommitted tuple-level changes made in row-locking mode
+     */
+    private final RowChangeLog m_rowChanges;
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * size.
      * 
      * @param numPages
      *            maximum number of pages in this buffer pool.
      */
     public BufferPool(final int numPages) {
+	this((long) numPages * getPageSize());
+    }
+
+    /**
+     * Creates a BufferPool that caches pages of up to maxBytes bytes in all,
+     * whatever the page sizes of their tables.
+     * 
+     * @param maxBytes
+     *            maximum number of bytes of pages in this buffer pool.
+     */
+    public BufferPool(final long maxBytes) {
 	// some code goes here
-	m_numPages = numPages;
-	m_pageMap = new HashMap<PageId, Page>();
+	m_maxBytes = maxBytes;
+	m_frameBytes = new HashMap<PageId, Integer>();
+	m_arena = new FrameArena(maxBytes, getPageSize());
+	m_pageMap = new LinkedHashMap<PageId, Page>(16, 0.75f, true);
+	m_dirtyPages = new LinkedHashSet<PageId>();
+	m_dirtiedBy = new HashMap<TransactionId, Set<PageId>>();
+	m_lockManager = new LockManager();
+	m_snapshots = new HashMap<TransactionId, Long>();
+	m_committedImages = new HashMap<PageId, Page>();
+	m_versions = new VersionStore();
+	m_rowChanges = new RowChangeLog();
     }
 
+    /**
+     * @return the default number of bytes per page, of the tables that do not
+     *         set their own page size
+     * @see Catalog#getPageSize
+     */
     public static int getPageSize() {
 	return pageSize;
     }
 
+    /**
+     * @return the maximum number of bytes of pages in this buffer pool
+     */
+    public long getMaxBytes() {
+	return m_maxBytes;
+    }
+
+    /**
+     * @return the number of bytes of the pages in this buffer pool
+     */
+    public synchronized long getUsedBytes() {
+	return m_usedBytes;
+    }
+
+    /**
+     * @return the number of bytes of the frames, off the heap, of the pages
+     *         in this buffer pool
+     */
+    public synchronized long getOffHeapBytes() {
+	return m_arena.getUsedBytes();
+    }
+
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(final int pageSize) {
 	BufferPool.pageSize = pageSize;
@@ -81,23 +240,226 @@ public class BufferPool {
 	    DbException {
 	// some code goes here
 
+	Long snapshotTs;
+	synchronized (this) {
+	    snapshotTs = m_snapshots.get(tid);
+	}
+	if (snapshotTs != null)
+	    return getSnapshotPage(tid, pid, perm, snapshotTs);
+
+	// may block; must not hold the BufferPool monitor while waiting
+	m_lockManager.acquire(tid, pid, perm);
+
+	synchronized (this) {
+	    Page p = cachedPage(pid);
+	    if (perm == Permissions.READ_WRITE)
+		noteDirty(tid, pid);
+	    return p;
+	}
+    }
+
+    /**
+     * @return the cached page for pid, reading it from disk (and evicting
+     *         another page if needed) if it is not in the pool
+     */
+    private synchronized Page cachedPage(final PageId pid) throws DbException {
 	Page p = m_pageMap.get(pid);
 	if (p == null) {
-	    if (m_pageMap.size() >= m_numPages)
+	    int bytes = Database.getCatalog().getPageSize(pid.getTableId());
+	    if (bytes > m_maxBytes)
+		throw new DbException("page of " + bytes
+		        + " bytes does not fit in a buffer pool of " + m_maxBytes
+		        + " bytes");
+	    while (m_usedBytes + bytes > m_maxBytes)
 		evictPage();
-	    /*
-	     * throw new DbException("Max Num pages ( " + m_numPages +
-	     * ") exceeded.");
-	     */
 	    // Read page from disk
 	    p = Database.getCatalog().getDatabaseFile(pid.getTableId())
 		    .readPage(pid);
+	    if (p instanceof HeapPage) {
+		FrameArena.Frame frame = m_arena.allocate(bytes);
+		// pages of mixed sizes can leave no run of free blocks long
+		// enough; evict until there is one, or else keep the page on the
+		// heap
+		while (frame == null && findCleanPage() != null) {
+		    evictPage();
+		    frame = m_arena.allocate(bytes);
+		}
+		if (frame != null)
+		    ((HeapPage) p).attach(frame);
+	    }
 	    m_pageMap.put(pid, p);
+	    m_frameBytes.put(pid, bytes);
+	    m_usedBytes += bytes;
 	}
+	return p;
+    }
+
+    /**
+     * Add pid to the dirty lists; called whenever tid may change the page.
+     */
+    private synchronized void noteDirty(final TransactionId tid,
+	    final PageId pid) {
+	m_dirtyPages.add(pid);
+	Set<PageId> pages = m_dirtiedBy.get(tid);
+	if (pages == null) {
+	    pages = new LinkedHashSet<PageId>();
+	    m_dirtiedBy.put(tid, pages);
+	}
+	pages.add(pid);
+    }
 
+    /**
+     * Switch between page-level locking (the default) and row-level locking
+     * for HeapFile inserts and deletes. Should only be changed while no
+     * transactions are running.
+     */
+    public synchronized void setRowLocking(final boolean rowLocking) {
+	m_rowLocking = rowLocking;
+    }
+
+    /**
+     * @return true if HeapFile writers lock individual tuples
+     */
+    public synchronized boolean isRowLocking() {
+	return m_rowLocking;
+    }
+
+    /**
+     * Retrieve the specified page for a tuple-level update in row-locking
+     * mode. Takes an intention-exclusive lock on the page, which other
+     * tuple-level writers can share; the caller must lock each tuple it
+     * changes with {@link #lockTuple} or {@link #tryLockTuple} and modify the
+     * page only while synchronized on it.
+     */
+    public Page getPageForRowUpdate(final TransactionId tid, final PageId pid)
+	    throws TransactionAbortedException, DbException {
+	if (isSnapshot(tid))
+	    throw new DbException("snapshot transaction " + tid.getId()
+		    + " is read-only");
+	m_lockManager.acquire(tid, pid, LockManager.Mode.IX);
+	synchronized (this) {
+	    Page p = cachedPage(pid);
+	    noteDirty(tid, pid);
+	    return p;
+	}
+    }
+
+    /**
+     * Acquire an exclusive lock on a single tuple, blocking until it is
+     * available.
+     */
+    public void lockTuple(final TransactionId tid, final RecordId rid)
+	    throws TransactionAbortedException {
+	m_lockManager.acquire(tid, rid, LockManager.Mode.X);
+    }
+
+    /**
+     * Acquire an exclusive lock on a single tuple only if that is possible
+     * without waiting.
+     *
+     * @return true if the lock is now held
+     */
+    public boolean tryLockTuple(final TransactionId tid, final RecordId rid) {
+	return m_lockManager.tryAcquire(tid, rid, LockManager.Mode.X);
+    }
+
+    /**
+     * Announce that tid is about to change tuples on page pid in row-locking
+     * mode. Must be called before the page is modified.
+     */
+    public synchronized void beginRowChange(final TransactionId tid,
+	    final PageId pid) {
+	m_rowChanges.addWriter(tid, pid);
+    }
+
+    /**
+     * Record that tid inserted a tuple into the given slot of page.
+     */
+    public synchronized void tupleInserted(final TransactionId tid,
+	    final HeapPage page, final int slot) {
+	m_rowChanges.recordInsert(tid, page.getId(), slot);
+	page.markDirty(true, tid);
+    }
+
+    /**
+     * Record that tid deleted tuple t from the given slot of page.
+     */
+    public synchronized void tupleDeleted(final TransactionId tid,
+	    final HeapPage page, final int slot, final Tuple t) {
+	m_rowChanges.recordDelete(tid, page.getId(), slot, t);
+	page.markDirty(true, tid);
+    }
+
+    /**
+     * Register tid as a read-only transaction reading a snapshot of the
+     * database as of the last commit. Its getPage calls will not take locks
+     * and must ask for READ_ONLY permissions; the snapshot is released by
+     * {@link #transactionComplete}.
+     */
+    public synchronized void beginSnapshot(final TransactionId tid) {
+	m_snapshots.put(tid, m_commitTs);
+    }
+
+    /**
+     * @return true if tid is a running snapshot transaction
+     */
+    public synchronized boolean isSnapshot(final TransactionId tid) {
+	return m_snapshots.containsKey(tid);
+    }
+
+    /**
+     * Return the committed image of pid visible at snapshotTs.
+     */
+    private synchronized Page getSnapshotPage(final TransactionId tid,
+	    final PageId pid, final Permissions perm, final long snapshotTs)
+	    throws DbException {
+	if (perm == Permissions.READ_WRITE)
+	    throw new DbException("snapshot transaction " + tid.getId()
+		    + " is read-only");
+
+	Page p = m_versions.lookup(pid, snapshotTs);
+	if (p != null)
+	    return p;
+
+	p = m_committedImages.get(pid);
+	if (p == null) {
+	    // the before image is the last committed state even while a
+	    // writer is modifying the cached page
+	    p = cachedPage(pid).getBeforeImage();
+	    m_committedImages.put(pid, p);
+	}
 	return p;
     }
 
+    /**
+     * A page written by a committing transaction is about to get a new
+     * committed image; keep the old one if a running snapshot may need it.
+     */
+    private void retireCommittedImage(final Page page, final long commitTs) {
+	Page old = m_committedImages.remove(page.getId());
+	if (m_snapshots.isEmpty())
+	    return;
+	if (old == null)
+	    old = page.getBeforeImage();
+	m_versions.addVersion(old, commitTs);
+    }
+
+    /**
+     * Release the snapshot of tid and drop the versions no remaining
+     * snapshot can see.
+     */
+    private void endSnapshot(final TransactionId tid) {
+	m_snapshots.remove(tid);
+	if (m_snapshots.isEmpty()) {
+	    m_versions.clear();
+	    return;
+	}
+	long oldest = Long.MAX_VALUE;
+	for (long ts : m_snapshots.values())
+	    oldest = Math.min(oldest, ts);
+	m_versions.garbageCollect(oldest);
+    }
+
     /**
      * Releases the lock on a page. Calling this is very risky, and may result
      * in wrong behavior. Think hard about who needs to call this and why, and
@@ -110,7 +472,7 @@ public class BufferPool {
      */
     public void releasePage(final TransactionId tid, final PageId pid) {
 	// some code goes here
-	// not necessary for lab1|lab2
+	m_lockManager.release(tid, pid);
     }
 
     /**
@@ -121,7 +483,7 @@ public class BufferPool {
      */
     public void transactionComplete(final TransactionId tid) throws IOException {
 	// some code goes here
-	// not necessary for lab1|lab2
+	transactionComplete(tid, true);
     }
 
     /**
@@ -129,8 +491,7 @@ public class BufferPool {
      */
     public boolean holdsLock(final TransactionId tid, final PageId p) {
 	// some code goes here
-	// not necessary for lab1|lab2
-	return false;
+	return m_lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -145,7 +506,71 @@ public class BufferPool {
     public void transactionComplete(final TransactionId tid,
 	    final boolean commit) throws IOException {
 	// some code goes here
-	// not necessary for lab1|lab2
+	try {
+	    synchronized (this) {
+		if (m_snapshots.containsKey(tid)) {
+		    endSnapshot(tid);
+		} else if (commit) {
+		    // Transaction.commit may already have flushed the pages, so
+		    // go by the exclusive locks rather than the dirty flags
+		    long commitTs = ++m_commitTs;
+		    Set<PageId> rowPages = m_rowChanges.pagesChangedBy(tid);
+		    List<Page> exclusive = new ArrayList<Page>();
+		    for (PageId pid : m_lockManager.getLockedPages(tid)) {
+			Page p = m_pageMap.get(pid);
+			if (p == null)
+			    continue;
+			if (m_lockManager.holdsExclusive(tid, pid))
+			    exclusive.add(p);
+			else if (!rowPages.contains(pid))
+			    continue;
+			retireCommittedImage(p, commitTs);
+		    }
+		    m_rowChanges.forget(tid);
+		    writeDirtyPages(tid);
+		    // the committed contents are the new before image
+		    for (Page p : exclusive)
+			p.setBeforeImage();
+		    finishRowPages(rowPages);
+		} else {
+		    // NO STEAL: dirty pages never reached disk, so just drop them
+		    Set<PageId> rowPages = m_rowChanges.pagesChangedBy(tid);
+		    for (PageId pid : dirtyPages(tid))
+			if (!rowPages.contains(pid))
+			    discardPage(pid);
+		    // other transactions may have changed the same pages, so
+		    // undo this one's tuple changes individually
+		    m_rowChanges.undo(tid, m_pageMap);
+		    finishRowPages(rowPages);
+		}
+		m_dirtiedBy.remove(tid);
+	    }
+	    reportWriteFailure();
+	}
+	finally {
+	    m_lockManager.releaseAll(tid);
+	}
+    }
+
+    /**
+     * After a transaction finished, bring the before image of each page it
+     * changed in row-locking mode up to date, and write out the pages that no
+     * running transaction has uncommitted changes on any more.
+     */
+    private void finishRowPages(final Set<PageId> rowPages) throws IOException {
+	for (PageId pid : rowPages) {
+	    HeapPage p = (HeapPage) m_pageMap.get(pid);
+	    if (p == null)
+		continue;
+	    if (m_rowChanges.hasWriters(pid)) {
+		p.setBeforeImage(m_rowChanges.committedImage(p).getPageData());
+	    } else {
+		synchronized (p) {
+		    flushPage(pid);
+		    p.setBeforeImage();
+		}
+	    }
+	}
     }
 
     /**
@@ -171,7 +596,8 @@ public class BufferPool {
 	// some code goes here
 	// not necessary for lab1
 	// indirection to Dbfile's insert
-	Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+	markDirty(tid, Database.getCatalog().getDatabaseFile(tableId)
+	        .insertTuple(tid, t));
     }
 
     /**
@@ -192,10 +618,22 @@ public class BufferPool {
 	    throws DbException, IOException, TransactionAbortedException {
 	// some code goes here
 	// not necessary for lab1
-	Database.getCatalog()
+	markDirty(tid, Database.getCatalog()
 	        .getDatabaseFile(t.getRecordId().getPageId().getTableId())
-	        .deleteTuple(tid, t);
+	        .deleteTuple(tid, t));
+    }
 
+    /**
+     * Mark the pages a DbFile reports as changed by tid as dirty.
+     */
+    private synchronized void markDirty(final TransactionId tid,
+	    final List<Page> pages) {
+	if (pages == null)
+	    return;
+	for (Page p : pages) {
+	    p.markDirty(true, tid);
+	    noteDirty(tid, p.getId());
+	}
     }
 
     /**
@@ -206,9 +644,8 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
 	// some code goes here
 	// not necessary for lab1
-	// traverse through the map and flush everything
-	for (PageId key : m_pageMap.keySet())
-	    flushPage(key);
+	writePages(new ArrayList<PageId>(m_dirtyPages));
+	reportWriteFailure();
     }
 
     /**
@@ -218,37 +655,180 @@ public class BufferPool {
      */
     public synchronized void discardPage(final PageId pid) {
 	// some code goes here
-	// only necessary for lab5
+	removeFrame(pid);
+	m_dirtyPages.remove(pid);
+    }
+
+    /**
+     * Remove pid from the pool and give back the bytes charged for it.
+     */
+    private void removeFrame(final PageId pid) {
+	Page p = m_pageMap.remove(pid);
+	if (p instanceof HeapPage) {
+	    FrameArena.Frame frame = ((HeapPage) p).detach();
+	    if (frame != null)
+		m_arena.free(frame);
+	}
+	Integer bytes = m_frameBytes.remove(pid);
+	if (bytes != null)
+	    m_usedBytes -= bytes;
     }
 
     /**
      * Flushes a certain page to disk
-     * 
+     *
      * @param pid
      *            an ID indicating the page to flush
      */
     private synchronized void flushPage(final PageId pid) throws IOException {
 	// some code goes here
 	// not necessary for lab1
-	try {
-	    HeapPage myPage = (HeapPage) m_pageMap.get(pid);
-	    if (myPage.isDirty() != null)
-		Database.getCatalog().getDatabaseFile(pid.getTableId())
-		        .writePage(myPage);
-	    // notice that writePage takes care of change page to not dirty
+	List<PageId> pids = new ArrayList<PageId>();
+	pids.add(pid);
+	writePages(pids);
+    }
+
+    /**
+     * Write out the given pages if they are cached and dirty, and take them
+     * off the dirty list. Pages of a HeapFile are written together so that
+     * runs of adjacent pages become a single write.
+     */
+    private synchronized void writePages(final Collection<PageId> pids)
+	    throws IOException {
+	Map<Integer, List<Page>> byTable = new HashMap<Integer, List<Page>>();
+	for (PageId pid : pids) {
+	    Page p = m_pageMap.get(pid);
+	    if (p == null || p.isDirty() == null) {
+		m_dirtyPages.remove(pid);
+		continue;
+	    }
+	    addByTable(byTable, p);
 	}
-	catch (IOException e) {
-	    e.printStackTrace();
+
+	for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+	    writeTablePages(e.getKey(), e.getValue());
+	    // writing takes care of marking the pages clean
+	    for (Page p : e.getValue())
+		m_dirtyPages.remove(p.getId());
+	}
+    }
+
+    /**
+     * Add p to the list of pages of its table in byTable.
+     */
+    private static void addByTable(final Map<Integer, List<Page>> byTable,
+	    final Page p) {
+	List<Page> pages = byTable.get(p.getId().getTableId());
+	if (pages == null) {
+	    pages = new ArrayList<Page>();
+	    byTable.put(p.getId().getTableId(), pages);
+	}
+	pages.add(p);
+    }
+
+    /**
+     * Write out pages of table tableid; pages of a HeapFile are written
+     * together so that runs of adjacent pages become a single write.
+     */
+    private static void writeTablePages(final int tableid,
+	    final List<Page> pages) throws IOException {
+	DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+	if (file instanceof HeapFile) {
+	    ((HeapFile) file).writePages(pages);
+	} else {
+	    for (Page p : pages)
+		file.writePage(p);
 	}
     }
 
     /**
      * Write all pages of the specified transaction to disk.
+     * 
+     * @throws IOException
+     *             if they cannot be written, or if the background writer
+     *             failed to write a page since the last flush
      */
     public synchronized void flushPages(final TransactionId tid)
 	    throws IOException {
 	// some code goes here
-	// not necessary for lab1|lab2
+	writeDirtyPages(tid);
+	reportWriteFailure();
+    }
+
+    /**
+     * Throw the failure the background writer recorded, if any, once.
+     */
+    private synchronized void reportWriteFailure() throws IOException {
+	IOException e = m_writeFailure;
+	if (e == null)
+	    return;
+	m_writeFailure = null;
+	throw new IOException("background write failed: " + e.getMessage(), e);
+    }
+
+    /**
+     * Write the pages tid dirtied; in row-locking mode only the rows of tid
+     * and of committed transactions are written.
+     */
+    private synchronized void writeDirtyPages(final TransactionId tid)
+	    throws IOException {
+	Set<PageId> pages = m_dirtiedBy.get(tid);
+	if (pages == null)
+	    return;
+	List<PageId> toWrite = new ArrayList<PageId>();
+	for (PageId pid : pages) {
+	    // in row-locking mode the page may hold other uncommitted changes,
+	    // which must not reach the disk
+	    if (m_rowChanges.hasOtherWriters(pid, tid))
+		writeCommittedImage(pid, tid);
+	    else
+		toWrite.add(pid);
+	}
+	writePages(toWrite);
+    }
+
+    /**
+     * Write the contents pid will have once tid commits, without the
+     * uncommitted changes other transactions have made to it. The cached
+     * page stays dirty until its last writer finishes.
+     */
+    private synchronized void writeCommittedImage(final PageId pid,
+	    final TransactionId tid) throws IOException {
+	Page p = m_pageMap.get(pid);
+	if (p == null || p.isDirty() == null)
+	    return;
+	Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(
+	        m_rowChanges.committedImage((HeapPage) p, tid));
+    }
+
+    /**
+     * @return the ids of the cached pages tid may have dirtied that are
+     *         still dirty
+     */
+    private synchronized List<PageId> dirtyPages(final TransactionId tid) {
+	List<PageId> result = new ArrayList<PageId>();
+	Set<PageId> pages = m_dirtiedBy.get(tid);
+	if (pages == null)
+	    return result;
+	for (PageId pid : pages) {
+	    Page p = m_pageMap.get(pid);
+	    if (p != null && p.isDirty() != null)
+		result.add(pid);
+	}
+	return result;
+    }
+
+    /**
+     * @return the dirty pages that no running transaction is changing, which
+     *         NO STEAL allows to be written at any time
+     */
+    private synchronized List<PageId> committedDirtyPages() {
+	List<PageId> result = new ArrayList<PageId>();
+	for (PageId pid : m_dirtyPages)
+	    if (!m_lockManager.isWriteLocked(pid)
+		    && !m_rowChanges.hasWriters(pid))
+		result.add(pid);
+	return result;
     }
 
     /**
@@ -258,22 +838,159 @@ public class BufferPool {
     private synchronized void evictPage() throws DbException {
 	// some code goes here
 	// not necessary for lab1
-	if (m_numPages == 0)
+	if (m_pageMap.isEmpty())
 	    throw new DbException("bufferpool is empty");
 
-	for (PageId key : m_pageMap.keySet())
-	    if (m_pageMap.get(key).isDirty() == null)// make sure the page is
-		                                     // unpinned
-	    {
+	PageId victim = findCleanPage();
+	if (victim == null) {
+	    // write out what the background writer has not got to yet
+	    try {
+		writePages(committedDirtyPages());
+	    }
+	    catch (IOException e) {
+		throw new DbException("could not write dirty pages: "
+		        + e.getMessage());
+	    }
+	    victim = findCleanPage();
+	}
+	// NO STEAL: pages with uncommitted changes must stay in memory
+	if (victim == null)
+	    throw new DbException("all " + m_pageMap.size()
+		    + " pages in the buffer pool are dirty or being written");
+
+	removeFrame(victim);
+	m_committedImages.remove(victim);
+	m_dirtyPages.remove(victim);
+
+	// wake the background writer early if clean frames are running out
+	if (m_writer != null && m_dirtyPages.size() * 4 >= m_pageMap.size() * 3)
+	    notifyAll();
+    }
+
+    /**
+     * @return the least recently used page that is clean and not locked by a
+     *         writer, or null if there is none
+     */
+    private synchronized PageId findCleanPage() {
+	for (Map.Entry<PageId, Page> e : m_pageMap.entrySet())
+	    if (e.getValue().isDirty() == null
+		    && !m_lockManager.isWriteLocked(e.getKey()))
+		return e.getKey();
+	return null;
+    }
+
+    /**
+     * Start a daemon thread that writes out the dirty pages no running
+     * transaction is changing every intervalMillis milliseconds, or sooner
+     * when eviction runs short of clean pages. Does nothing if it is already
+     * running.
+     */
+    public synchronized void startBackgroundWriter(final long intervalMillis) {
+	if (m_writer != null)
+	    return;
+	m_writer = new BackgroundWriter(intervalMillis);
+	m_writer.start();
+    }
+
+    /**
+     * Stop the background writer and wait for it to finish its current
+     * batch of writes.
+     */
+    public void stopBackgroundWriter() throws InterruptedException {
+	BackgroundWriter writer;
+	synchronized (this) {
+	    writer = m_writer;
+	    if (writer == null)
+		return;
+	    m_writer = null;
+	    writer.m_stopped = true;
+	    notifyAll();
+	}
+	writer.join();
+    }
+
+    /**
+     * Writes out committed dirty pages in the background. Under NO STEAL it
+     * never touches pages with uncommitted changes.
+     */
+    private class BackgroundWriter extends Thread {
+	private final long m_interval;
+	private volatile boolean m_stopped = false;
+
+	/** The transaction the writer locks the pages it writes for. */
+	private final TransactionId m_tid = new TransactionId();
+
+	BackgroundWriter(final long intervalMillis) {
+	    super("BufferPool background writer");
+	    m_interval = intervalMillis;
+	    setDaemon(true);
+	}
+
+	public void run() {
+	    while (true) {
+		List<PageId> pids;
+		synchronized (BufferPool.this) {
+		    if (m_stopped)
+			return;
+		    try {
+			BufferPool.this.wait(m_interval);
+		    }
+		    catch (InterruptedException e) {
+			return;
+		    }
+		    if (m_stopped)
+			return;
+		    pids = committedDirtyPages();
+		}
+		// written without holding the pool, so that getPage and
+		// eviction do not wait for the disk
 		try {
-		    flushPage(key);
+		    writeLockedPages(m_tid, pids);
 		}
 		catch (IOException e) {
-		    // TODO Auto-generated catch block
-		    e.printStackTrace();
+		    // the pages stay dirty; the next flush reports the failure
+		    Debug.log(0, "BufferPool background writer: %s", e);
+		    synchronized (BufferPool.this) {
+			if (m_writeFailure == null)
+			    m_writeFailure = e;
+		    }
 		}
-		m_pageMap.remove(key);
-		break;
 	    }
+	}
+    }
+
+    /**
+     * Write out those of the given pages that are still dirty and that no
+     * transaction is changing, without holding the monitor of the pool while
+     * they are written. Each page is share-locked for writer while it is
+     * written, so no transaction can change it, or write a newer version of
+     * it, meanwhile; pages that cannot be locked straight away are skipped.
+     */
+    private void writeLockedPages(final TransactionId writer,
+	    final Collection<PageId> pids) throws IOException {
+	Map<Integer, List<Page>> byTable = new HashMap<Integer, List<Page>>();
+	try {
+	    synchronized (this) {
+		for (PageId pid : pids) {
+		    Page p = m_pageMap.get(pid);
+		    if (p == null || p.isDirty() == null
+			    || m_rowChanges.hasWriters(pid)
+			    || !m_lockManager.tryAcquire(writer, pid,
+			            LockManager.Mode.S))
+			continue;
+		    addByTable(byTable, p);
+		}
+	    }
+	    for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+		writeTablePages(e.getKey(), e.getValue());
+		synchronized (this) {
+		    for (Page p : e.getValue())
+			m_dirtyPages.remove(p.getId());
+		}
+	    }
+	}
+	finally {
+	    m_lockManager.releaseAll(writer);
+	}
     }
 }
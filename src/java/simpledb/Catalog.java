@@ -22,6 +22,9 @@ public class Catalog {
 	private Vector<String> fileName;
 	private Vector<String> fileKey;
 	private Vector<Integer> fileId;
+	private Vector<List<int[]>> fileGroups;
+	/** Number of changes made to the catalog; see getVersion. */
+	private volatile long version = 0;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -33,6 +36,7 @@ public class Catalog {
 		fileName = new Vector<String>();
 		fileKey = new Vector<String>();
 		fileId = new Vector<Integer>();
+		fileGroups = new Vector<List<int[]>>();
 	}
 
     /**
@@ -52,6 +56,7 @@ public class Catalog {
    			fileItself.set(index, file);
     		fileName.set(index, name);
     		fileKey.set(index, pkeyField);
+    		fileGroups.set(index, new ArrayList<int[]>());
    		}
     	else
     	{
@@ -59,7 +64,9 @@ public class Catalog {
    			fileName.add(name);
     		fileId.add(file.getId());
     		fileKey.add(pkeyField);
+    		fileGroups.add(new ArrayList<int[]>());
     	}
+    	version++;
     	
     	return;
     }
@@ -120,6 +127,16 @@ public class Catalog {
     		throw new NoSuchElementException("The tableid does not exist!");
     }
 
+    /**
+     * Returns the number of bytes per page of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @see DbFile#getPageSize()
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+    	return getDatabaseFile(tableid).getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) {
     	if(fileId.contains(tableid))
     		return fileKey.get(fileId.indexOf(tableid));
@@ -127,6 +144,40 @@ public class Catalog {
     		throw new NoSuchElementException("The tableid does not exist!");
     }
 
+    /**
+     * Declare a group of columns of a table whose values are correlated, so
+     * that statistics are kept over their combinations (see
+     * {@link ColumnGroupStats}).
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param fields the names of two or more fields of the table
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     */
+    public void addColumnGroup(int tableid, String... fields) {
+    	if(!fileId.contains(tableid))
+    		throw new NoSuchElementException("The tableid does not exist!");
+    	if(fields.length < 2)
+    		throw new IllegalArgumentException("A column group needs at least two fields");
+    	int index = fileId.indexOf(tableid);
+    	TupleDesc td = fileItself.get(index).getTupleDesc();
+    	int[] group = new int[fields.length];
+    	for (int i = 0; i < fields.length; i++)
+    		group[i] = td.fieldNameToIndex(fields[i]);
+    	fileGroups.get(index).add(group);
+    	version++;
+    }
+
+    /**
+     * @return the column groups declared for a table with addColumnGroup, as
+     *     arrays of field indexes
+     */
+    public List<int[]> getColumnGroups(int tableid) {
+    	if(fileId.contains(tableid))
+    		return Collections.unmodifiableList(fileGroups.get(fileId.indexOf(tableid)));
+    	else
+    		throw new NoSuchElementException("The tableid does not exist!");
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return fileId.iterator();
     }
@@ -144,10 +195,34 @@ public class Catalog {
     	fileName.clear();
     	fileKey.clear();
     	fileId.clear();
+    	fileGroups.clear();
+    	version++;
+    }
+
+    /**
+     * @return a number that changes whenever a table or column group is added
+     *     or the catalog is cleared, so that plans made against an older
+     *     catalog can be recognized
+     */
+    public long getVersion() {
+    	return version;
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * The field list of a table may be followed by <code>pax</code>, to store
+     * the table column by column in a {@link PaxFile}, or by
+     * <code>varlen</code>, to store its strings without padding in a
+     * {@link SlottedFile}, or by <code>compressed</code>, to store its pages
+     * compressed in a {@link CompressedHeapFile}, and then by clauses
+     * <code>stats(field, field, ...)</code> that declare column groups.
+     * A string field may be marked <code>dict</code>, as a field may be marked
+     * <code>pk</code>, to store the table in a {@link DictionaryFile} with that
+     * field dictionary-encoded, unless the table is <code>pax</code>,
+     * <code>varlen</code> or <code>compressed</code>. Any table but a <code>pax</code> or
+     * <code>varlen</code> one may have a clause <code>pagesize(bytes)</code>
+     * to use pages of that many bytes rather than the default, e.g. 64K to
+     * 1M for tables that are mostly scanned.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -165,6 +240,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> coded = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -176,11 +252,13 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("dict"))
+                            coded.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -188,8 +266,58 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String rest = line.substring(line.indexOf(")") + 1).trim();
+                int pageSize = 0;
+                int sizeClause = rest.indexOf("pagesize(");
+                if (sizeClause >= 0) {
+                    int end = rest.indexOf(")", sizeClause);
+                    pageSize = Integer.parseInt(rest.substring(
+                            rest.indexOf("(", sizeClause) + 1, end).trim());
+                    rest = (rest.substring(0, sizeClause) + " " + rest.substring(end + 1)).trim();
+                }
+                DbFile tabHf;
+                if (pageSize > 0 && (rest.startsWith("pax") || rest.startsWith("varlen"))) {
+                    System.out.println("pagesize is not supported for pax and varlen tables: " + name);
+                    System.exit(0);
+                }
+                if (coded.size() > 0 && (rest.startsWith("pax") || rest.startsWith("varlen")
+                        || rest.startsWith("compressed"))) {
+                    System.out.println("dict is not supported for pax, varlen and compressed tables: " + name);
+                    System.exit(0);
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                if (rest.equals("pax") || rest.startsWith("pax ")) {
+                    tabHf = new PaxFile(tabFile, t);
+                    rest = rest.substring(3).trim();
+                } else if (rest.equals("varlen") || rest.startsWith("varlen ")) {
+                    tabHf = new SlottedFile(tabFile, t);
+                    rest = rest.substring(6).trim();
+                } else if (rest.equals("compressed") || rest.startsWith("compressed ")) {
+                    tabHf = pageSize > 0 ? new CompressedHeapFile(tabFile, t, pageSize)
+                            : new CompressedHeapFile(tabFile, t);
+                    rest = rest.substring(10).trim();
+                } else if (coded.size() > 0) {
+                    int[] codedAr = new int[coded.size()];
+                    for (int i = 0; i < codedAr.length; i++)
+                        codedAr[i] = coded.get(i);
+                    tabHf = pageSize > 0 ? new DictionaryFile(tabFile, t, codedAr, pageSize)
+                            : new DictionaryFile(tabFile, t, codedAr);
+                } else if (pageSize > 0)
+                    tabHf = new HeapFile(tabFile, t, pageSize);
+                else
+                    tabHf = new HeapFile(tabFile, t);
                 addTable(tabHf,name,primaryKey);
+                while (rest.length() > 0) {
+                    if (!rest.startsWith("stats") || rest.indexOf("(") < 0) {
+                        System.out.println("Unknown annotation " + rest);
+                        System.exit(0);
+                    }
+                    String[] group = rest.substring(rest.indexOf("(") + 1, rest.indexOf(")")).split(",");
+                    for (int i = 0; i < group.length; i++)
+                        group[i] = group[i].trim();
+                    addColumnGroup(tabHf.getId(), group);
+                    rest = rest.substring(rest.indexOf(")") + 1).trim();
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -198,6 +326,12 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NoSuchElementException e) {
+            System.out.println ("Invalid catalog entry : " + line);
+            System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line);
+            System.exit(0);
         }
     }
 }
@@ -0,0 +1,74 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded field of a
+ * {@link DictionaryFile}, which knows its code in the dictionary of the
+ * table. Two coded fields of the same dictionary are equal, and compare equal,
+ * by their codes, so that hash joins and grouping on such fields compare ints
+ * rather than strings. Each code has a single field, whose string hash is
+ * computed once.
+ */
+public class CodedStringField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The dictionary the code is in; null once the field is deserialized,
+	 * after which it compares by its string.
+	 */
+	private final transient StringDictionary m_dictionary;
+	private final int m_code;
+
+	CodedStringField(String s, StringDictionary dictionary, int code) {
+		super(s, Type.STRING_LEN);
+		m_dictionary = dictionary;
+		m_code = code;
+	}
+
+	/**
+	 * @return the code of the string in its dictionary
+	 */
+	public int getCode() {
+		return m_code;
+	}
+
+	/**
+	 * @return the dictionary the code is in, or null once the field is
+	 *         deserialized
+	 */
+	StringDictionary getDictionary() {
+		return m_dictionary;
+	}
+
+	/**
+	 * @return true if field is coded by the same dictionary as this field
+	 */
+	private boolean sameDictionary(Object field) {
+		return m_dictionary != null && field instanceof CodedStringField
+				&& ((CodedStringField) field).m_dictionary == m_dictionary;
+	}
+
+	/**
+	 * The hash of the string, so that a coded field and a StringField that
+	 * are equal hash alike.
+	 */
+	public int hashCode() {
+		return super.hashCode();
+	}
+
+	public boolean equals(Object field) {
+		if (sameDictionary(field))
+			return ((CodedStringField) field).m_code == m_code;
+		return super.equals(field);
+	}
+
+	public boolean compare(Predicate.Op op, Field val) {
+		if (sameDictionary(val)) {
+			if (op == Predicate.Op.EQUALS)
+				return ((CodedStringField) val).m_code == m_code;
+			if (op == Predicate.Op.NOT_EQUALS)
+				return ((CodedStringField) val).m_code != m_code;
+		}
+		return super.compare(op, val);
+	}
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Statistics over a group of columns of one table that were declared as
+ * correlated in the catalog (see {@link Catalog#addColumnGroup}).
+ * <p>
+ * The group keeps a reservoir sample of its values row by row, the most
+ * common combinations of values, and a {@link HyperLogLog} sketch of the
+ * distinct combinations. A conjunction of predicates on these columns is
+ * estimated from how often the predicates hold together in the sample,
+ * rather than by multiplying per-column selectivities, which badly
+ * underestimates correlated columns such as city and zip code.
+ */
+public class ColumnGroupStats {
+
+    /** Maximum number of rows kept in the sample. */
+    static final int SAMPLE_SIZE = 10000;
+
+    /** Maximum number of most common combinations. */
+    static final int NUM_MCVS = 100;
+
+    /** Indexes of the columns of the group in the table. */
+    private final int[] m_fields;
+
+    private final HyperLogLog m_distinct;
+
+    /** The sample; row r holds the values of m_fields in order. */
+    private Field[][] m_sample = new Field[16][];
+
+    private int m_sampled = 0;
+
+    /** Number of rows added. */
+    private long m_total = 0;
+
+    private final Random m_random = new Random(0);
+
+    /** Most common combinations, computed on first use. */
+    private MostCommonValues<List<Field>> m_mcvs = null;
+
+    /**
+     * @param fields
+     *            indexes of the columns of the group in the table
+     */
+    public ColumnGroupStats(final int[] fields) {
+	this(fields, new HyperLogLog());
+    }
+
+    private ColumnGroupStats(final int[] fields, final HyperLogLog distinct) {
+	m_fields = fields.clone();
+	m_distinct = distinct;
+    }
+
+    /** @return the indexes of the columns of the group in the table */
+    public int[] getFields() {
+	return m_fields.clone();
+    }
+
+    /** Add the values of a tuple of the table. */
+    public synchronized void addTuple(final Tuple t) {
+	Field[] row = new Field[m_fields.length];
+	long key = 0;
+	for (int i = 0; i < m_fields.length; i++) {
+	    row[i] = t.getField(m_fields[i]);
+	    key = key * 31 + HyperLogLog.hash(row[i]);
+	}
+	m_distinct.add(key);
+
+	int slot = -1;
+	if (m_total < SAMPLE_SIZE) {
+	    if (m_sampled == m_sample.length)
+		m_sample = Arrays.copyOf(m_sample, Math.min(2 * m_sampled,
+		        SAMPLE_SIZE));
+	    slot = m_sampled++;
+	} else {
+	    long r = (long) (m_random.nextDouble() * (m_total + 1));
+	    if (r < SAMPLE_SIZE)
+		slot = (int) r;
+	}
+	if (slot >= 0)
+	    m_sample[slot] = row;
+	m_total++;
+	m_mcvs = null;
+    }
+
+    /** @return the position of table column field in the group, or -1 */
+    private int positionOf(final int field) {
+	for (int i = 0; i < m_fields.length; i++)
+	    if (m_fields[i] == field)
+		return i;
+	return -1;
+    }
+
+    /**
+     * @return the number of the given predicates that are on columns of this
+     *         group
+     */
+    public int covered(final List<Predicate> preds) {
+	int n = 0;
+	for (Predicate p : preds)
+	    if (positionOf(p.getField()) >= 0)
+		n++;
+	return n;
+    }
+
+    private synchronized MostCommonValues<List<Field>> mcvs() {
+	if (m_mcvs == null) {
+	    Map<List<Field>, Integer> counts = new HashMap<List<Field>, Integer>();
+	    for (int r = 0; r < m_sampled; r++) {
+		List<Field> combo = Arrays.asList(m_sample[r]);
+		Integer c = counts.get(combo);
+		counts.put(combo, c == null ? 1 : c + 1);
+	    }
+	    m_mcvs = MostCommonValues.fromCounts(counts, m_sampled, NUM_MCVS);
+	}
+	return m_mcvs;
+    }
+
+    /**
+     * Estimate the selectivity of the conjunction of preds, all of which
+     * must be on columns of this group.
+     */
+    public synchronized double estimateSelectivity(final List<Predicate> preds) {
+	if (m_sampled == 0)
+	    return 0;
+
+	// equalities on every column name a single combination
+	Field[] combo = new Field[m_fields.length];
+	boolean allEqual = true;
+	for (Predicate p : preds) {
+	    if (p.getOp() != Predicate.Op.EQUALS) {
+		allEqual = false;
+		continue;
+	    }
+	    int pos = positionOf(p.getField());
+	    if (combo[pos] != null && !combo[pos].equals(p.getOperand()))
+		return 0;
+	    combo[pos] = p.getOperand();
+	}
+	for (Field f : combo)
+	    if (f == null)
+		allEqual = false;
+
+	int matches = 0;
+	for (int r = 0; r < m_sampled; r++) {
+	    boolean all = true;
+	    for (Predicate p : preds) {
+		Field v = m_sample[r][positionOf(p.getField())];
+		if (!v.compare(p.getOp(), p.getOperand())) {
+		    all = false;
+		    break;
+		}
+	    }
+	    if (all)
+		matches++;
+	}
+
+	if (m_sampled == m_total)
+	    return (double) matches / m_sampled;
+	if (allEqual) {
+	    MostCommonValues<List<Field>> mcvs = mcvs();
+	    Double freq = mcvs.frequency(Arrays.asList(combo));
+	    if (freq != null)
+		return freq;
+	    long others = Math.max(1, m_distinct.estimate() - mcvs.size());
+	    return (1 - mcvs.totalFrequency()) / others;
+	}
+	// rows missing from an incomplete sample may still match
+	if (matches == 0)
+	    return 0.5 / m_sampled;
+	return (double) matches / m_sampled;
+    }
+
+    /** Save these statistics so they can be recreated with {@link #read}. */
+    public synchronized void write(final DataOutput out) throws IOException {
+	out.writeInt(m_fields.length);
+	for (int f : m_fields)
+	    out.writeInt(f);
+	out.writeLong(m_total);
+	out.writeInt(m_sampled);
+	for (int r = 0; r < m_sampled; r++) {
+	    for (Field v : m_sample[r]) {
+		if (v instanceof IntField)
+		    out.writeInt(((IntField) v).getValue());
+		else
+		    out.writeUTF(((StringField) v).getValue());
+	    }
+	}
+	m_distinct.write(out);
+    }
+
+    /**
+     * Read statistics saved with {@link #write}.
+     *
+     * @param td
+     *            the schema of the table
+     */
+    public static ColumnGroupStats read(final DataInput in, final TupleDesc td)
+	    throws IOException {
+	int[] fields = new int[in.readInt()];
+	for (int i = 0; i < fields.length; i++) {
+	    fields[i] = in.readInt();
+	    if (fields[i] < 0 || fields[i] >= td.numFields())
+		throw new IOException("column group does not match the schema");
+	}
+	long total = in.readLong();
+	Field[][] sample = new Field[in.readInt()][];
+	for (int r = 0; r < sample.length; r++) {
+	    sample[r] = new Field[fields.length];
+	    for (int i = 0; i < fields.length; i++) {
+		if (td.getFieldType(fields[i]).equals(Type.INT_TYPE))
+		    sample[r][i] = new IntField(in.readInt());
+		else
+		    sample[r][i] = new StringField(in.readUTF(), Type.STRING_LEN);
+	    }
+	}
+	ColumnGroupStats g = new ColumnGroupStats(fields, HyperLogLog.read(in));
+	g.m_total = total;
+	g.m_sample = sample;
+	g.m_sampled = sample.length;
+	return g;
+    }
+}
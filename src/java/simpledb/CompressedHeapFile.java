@@ -0,0 +1,365 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A HeapFile whose pages are stored compressed with Deflate, for cold tables
+ * that are mostly scanned: fixed-width tuples and zero-padded strings compress
+ * to a fraction of their size, and so does the I/O of scanning them. Pages
+ * are decompressed as they are read into the BufferPool, so in memory they are
+ * ordinary HeapPages.
+ * <p>
+ * Since compressed pages vary in size, the file is accompanied by an index
+ * file, the file name followed by <tt>.idx</tt>, holding the offset and
+ * length of each page in the data file. A page written back is written over
+ * its old copy if it still fits there and appended to the data file
+ * otherwise; {@link #compact} reclaims the space of the old copies.
+ * <p>
+ * A table is stored in a CompressedHeapFile when it is marked
+ * <tt>compressed</tt> in the catalog schema.
+ */
+public class CompressedHeapFile extends HeapFile {
+
+	/**
+	 * Bytes of each entry of the index: the offset and length of a page.
+	 */
+	static final int INDEX_ENTRY_SIZE = 12;
+
+	private final File m_indexFile;
+
+	/**
+	 * The offset and length of each page in the data file. Guarded by this.
+	 */
+	private long[] m_offsets;
+	private int[] m_lengths;
+	private int m_numPages;
+
+	/**
+	 * Bytes read from the data file since it was opened.
+	 */
+	private long m_bytesRead;
+
+	/**
+	 * Constructs a compressed heap file backed by the specified file and its
+	 * index file.
+	 *
+	 * @param f
+	 *            the file that stores the compressed pages
+	 */
+	public CompressedHeapFile(File f, TupleDesc td) {
+		super(f, td);
+		m_indexFile = indexFile(f);
+		readIndex();
+	}
+
+	/**
+	 * Constructs a compressed heap file of pages of pageSize bytes before
+	 * compression.
+	 *
+	 * @see HeapFile#HeapFile(File, TupleDesc, int)
+	 */
+	public CompressedHeapFile(File f, TupleDesc td, int pageSize) {
+		super(f, td, pageSize);
+		m_indexFile = indexFile(f);
+		readIndex();
+	}
+
+	/**
+	 * @return the index file of the compressed heap file f
+	 */
+	public static File indexFile(File f) {
+		return new File(f.getPath() + ".idx");
+	}
+
+	private synchronized void readIndex() {
+		m_numPages = (int) (m_indexFile.length() / INDEX_ENTRY_SIZE);
+		m_offsets = new long[Math.max(m_numPages, 16)];
+		m_lengths = new int[m_offsets.length];
+		if (m_numPages == 0)
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(m_indexFile)));
+			try {
+				for (int i = 0; i < m_numPages; i++) {
+					m_offsets[i] = in.readLong();
+					m_lengths[i] = in.readInt();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read " + m_indexFile, e);
+		}
+	}
+
+	/**
+	 * @return the number of bytes of compressed pages read from the file
+	 *         since it was opened
+	 */
+	public synchronized long getBytesRead() {
+		return m_bytesRead;
+	}
+
+	/**
+	 * Returns the number of pages in this file, compressed or not.
+	 */
+	public synchronized int numPages() {
+		return m_numPages;
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		int pgNo = pid.pageNumber();
+		long offset;
+		int length;
+		synchronized (this) {
+			if (pgNo < 0 || pgNo >= m_numPages)
+				throw new IllegalArgumentException("Read past end of table.");
+			offset = m_offsets[pgNo];
+			length = m_lengths[pgNo];
+			m_bytesRead += length;
+		}
+		byte[] compressed = new byte[length];
+		try {
+			RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
+			try {
+				raf.seek(offset);
+				raf.readFully(compressed);
+			} finally {
+				raf.close();
+			}
+			Debug.log(1, "CompressedHeapFile.readPage: read page %d, %d bytes",
+					pgNo, length);
+			return new HeapPage((HeapPageId) pid, decompress(compressed,
+					getPageSize()));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return the data of a page, compressed
+	 */
+	static byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					data.length / 4);
+			byte[] buf = new byte[1024];
+			while (!deflater.finished())
+				out.write(buf, 0, deflater.deflate(buf));
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return the data of a page of pageSize bytes, decompressed
+	 */
+	static byte[] decompress(byte[] compressed, int pageSize)
+			throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] data = new byte[pageSize];
+			int n = 0;
+			while (n < data.length && !inflater.finished()) {
+				int read = inflater.inflate(data, n, data.length - n);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += read;
+			}
+			if (n != data.length || !inflater.finished())
+				throw new IOException("compressed page is " + n
+						+ " bytes long");
+			return data;
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt compressed page: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		byte[] compressed = compress(page.getPageData());
+		int pgNo = page.getId().pageNumber();
+		synchronized (this) {
+			if (pgNo > m_numPages)
+				throw new IllegalArgumentException("page " + pgNo
+						+ " is past the end of the table");
+			long offset;
+			if (pgNo < m_numPages && compressed.length <= m_lengths[pgNo])
+				offset = m_offsets[pgNo];
+			else
+				offset = getFile().length();
+			RandomAccessFile raf = new RandomAccessFile(getFile(), "rw");
+			try {
+				raf.seek(offset);
+				raf.write(compressed);
+			} finally {
+				raf.close();
+			}
+			setIndexEntry(pgNo, offset, compressed.length);
+		}
+		page.markDirty(false, null);
+	}
+
+	/**
+	 * Write each page, compressed; adjacent pages gain nothing from being
+	 * written together, since their sizes vary.
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		List<Page> sorted = new ArrayList<Page>(pages);
+		Collections.sort(sorted, new Comparator<Page>() {
+			public int compare(Page a, Page b) {
+				int pa = a.getId().pageNumber(), pb = b.getId().pageNumber();
+				return pa < pb ? -1 : (pa == pb ? 0 : 1);
+			}
+		});
+		for (Page p : sorted)
+			writePage(p);
+	}
+
+	/**
+	 * Record that page pgNo is at offset in the data file, in memory and in
+	 * the index file.
+	 */
+	private synchronized void setIndexEntry(int pgNo, long offset, int length)
+			throws IOException {
+		if (pgNo == m_offsets.length) {
+			m_offsets = Arrays.copyOf(m_offsets, m_offsets.length * 2);
+			m_lengths = Arrays.copyOf(m_lengths, m_lengths.length * 2);
+		}
+		m_offsets[pgNo] = offset;
+		m_lengths[pgNo] = length;
+		if (pgNo == m_numPages)
+			m_numPages++;
+		RandomAccessFile raf = new RandomAccessFile(m_indexFile, "rw");
+		try {
+			raf.seek((long) pgNo * INDEX_ENTRY_SIZE);
+			raf.writeLong(offset);
+			raf.writeInt(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Rewrite the data file with only the current copy of each page, in page
+	 * order. Must not be called while the table is in use.
+	 */
+	public synchronized void compact() throws IOException {
+		File tmp = new File(getFile().getPath() + ".tmp");
+		File tmpIndex = indexFile(tmp);
+		DataOutputStream index = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpIndex)));
+		OutputStream data = new BufferedOutputStream(new FileOutputStream(tmp));
+		RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
+		long offset = 0;
+		try {
+			for (int i = 0; i < m_numPages; i++) {
+				byte[] compressed = new byte[m_lengths[i]];
+				raf.seek(m_offsets[i]);
+				raf.readFully(compressed);
+				data.write(compressed);
+				index.writeLong(offset);
+				index.writeInt(compressed.length);
+				offset += compressed.length;
+			}
+		} finally {
+			raf.close();
+			data.close();
+			index.close();
+		}
+		if (!tmp.renameTo(getFile()) || !tmpIndex.renameTo(m_indexFile))
+			throw new IOException("cannot replace " + getFile());
+		readIndex();
+	}
+
+	/**
+	 * Write the pages of the uncompressed heap file from to f, compressed,
+	 * with their index. The pages are written directly, not through the
+	 * BufferPool, so f must not be in use.
+	 */
+	public static void convert(File from, File f) throws IOException {
+		convert(from, f, BufferPool.getPageSize());
+	}
+
+	/**
+	 * Write the pages, of pageSize bytes, of the uncompressed heap file from
+	 * to f, compressed, with their index.
+	 */
+	public static void convert(File from, File f, int pageSize)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(from)));
+		DataOutputStream index = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(indexFile(f))));
+		OutputStream data = new BufferedOutputStream(new FileOutputStream(f));
+		try {
+			long numPages = from.length() / pageSize;
+			byte[] page = new byte[pageSize];
+			long offset = 0;
+			for (long i = 0; i < numPages; i++) {
+				in.readFully(page);
+				byte[] compressed = compress(page);
+				data.write(compressed);
+				index.writeLong(offset);
+				index.writeInt(compressed.length);
+				offset += compressed.length;
+			}
+		} finally {
+			in.close();
+			data.close();
+			index.close();
+		}
+	}
+
+	/**
+	 * Returns an iterator over the tuples on disk, decompressing each page
+	 * in turn, bypassing the BufferPool and taking no locks.
+	 *
+	 * @see HeapFile#diskIterator
+	 */
+	public DbFileIterator diskIterator() {
+		return new AbstractDbFileIterator() {
+			private Iterator<Tuple> m_tupleIt;
+			private int m_nextPageNumber = Integer.MAX_VALUE;
+
+			public void open() {
+				m_nextPageNumber = 0;
+				m_tupleIt = null;
+			}
+
+			protected Tuple readNext() {
+				while ((m_tupleIt == null || !m_tupleIt.hasNext())
+						&& m_nextPageNumber < numPages())
+					m_tupleIt = ((HeapPage) readPage(new HeapPageId(getId(),
+							m_nextPageNumber++))).iterator();
+				if (m_tupleIt == null || !m_tupleIt.hasNext())
+					return null;
+				return m_tupleIt.next();
+			}
+
+			public void rewind() {
+				close();
+				open();
+			}
+
+			public void close() {
+				super.close();
+				m_tupleIt = null;
+				m_nextPageNumber = Integer.MAX_VALUE;
+			}
+		};
+	}
+}
@@ -68,6 +68,32 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * filter, each with only some of its fields, as a {@link SeqScan} with
+     * pushed filters and projections reads them. Each file evaluates the
+     * filter as early as its layout allows, so that the tuples rejected and
+     * the fields not returned are not decoded where possible.
+     *
+     * @param filter the filter the tuples must satisfy, on the fields of the
+     *     table, or null
+     * @param columns the field of the table that each field returned is, or
+     *     null for every field
+     * @param td the TupleDesc of the tuples returned
+     */
+    public DbFileIterator iterator(TransactionId tid, TupleFilter filter,
+        int[] columns, TupleDesc td);
+
+    /**
+     * Returns an iterator over the tuples on disk, reading pages with
+     * {@link #readPage} rather than through the buffer pool, so that it takes
+     * no locks. Changes not yet written to disk are not seen, so this is
+     * only suitable for approximate work such as gathering statistics.
+     *
+     * @return an iterator over the tuples stored on disk in this DbFile.
+     */
+    public DbFileIterator diskIterator();
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -88,4 +114,22 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the TupleDesc of the tuples as stored in the pages of this
+     * DbFile, which is that of the table unless the file encodes some
+     * fields.
+     */
+    public TupleDesc getStoredTupleDesc();
+
+    /**
+     * Returns the number of pages in this DbFile.
+     */
+    public int numPages();
+
+    /**
+     * Returns the number of bytes per page of this DbFile.
+     * @see BufferPool#getPageSize()
+     */
+    public int getPageSize();
 }
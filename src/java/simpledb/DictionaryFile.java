@@ -0,0 +1,404 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A DbFile that stores some string fields of its table as int codes, for
+ * string fields with few distinct values. The codes are those of a
+ * {@link StringDictionary} for the table, stored next to the file with the
+ * file name followed by <tt>.dict</tt>. The pages are ordinary HeapPages of
+ * the tuples as stored, with an int in place of each coded string, so they
+ * take a fraction of the space; tuples are decoded into
+ * {@link CodedStringField}s as they leave the file.
+ * <p>
+ * Predicates pushed into a scan of the file are evaluated on the codes: an
+ * equality on a coded field compares the code of the constant, and any other
+ * predicate on a coded field is decided once per string in the dictionary.
+ * Joins and aggregates over coded fields compare codes too (see
+ * CodedStringField).
+ * <p>
+ * A table is stored in a DictionaryFile when some of its string fields are
+ * marked <tt>dict</tt> in the catalog schema.
+ */
+public class DictionaryFile implements DbFile {
+
+	/**
+	 * The tuples as stored, in pages of this file.
+	 */
+	private final HeapFile m_heap;
+
+	/**
+	 * The description of the tuples of the table.
+	 */
+	private final TupleDesc m_tupleDesc;
+
+	/**
+	 * The description of the tuples as stored, with INT_TYPE for the coded
+	 * fields.
+	 */
+	private final TupleDesc m_storedTupleDesc;
+
+	/**
+	 * Whether each field of the table is coded.
+	 */
+	private final boolean[] m_coded;
+
+	private final StringDictionary m_dictionary;
+
+	/**
+	 * Constructs a dictionary-encoded file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the pages
+	 * @param td
+	 *            the TupleDesc of the table
+	 * @param coded
+	 *            the string fields of td to store as codes
+	 */
+	public DictionaryFile(File f, TupleDesc td, int[] coded) {
+		this(f, td, coded, 0);
+	}
+
+	/**
+	 * Constructs a dictionary-encoded file of pages of pageSize bytes, or of
+	 * the default size if pageSize is 0.
+	 *
+	 * @see HeapFile#HeapFile(File, TupleDesc, int)
+	 */
+	public DictionaryFile(File f, TupleDesc td, int[] coded, int pageSize) {
+		m_tupleDesc = td;
+		m_coded = new boolean[td.numFields()];
+		for (int i : coded) {
+			if (td.getFieldType(i) != Type.STRING_TYPE)
+				throw new IllegalArgumentException("field " + i
+						+ " is not a string");
+			m_coded[i] = true;
+		}
+		Type[] types = new Type[td.numFields()];
+		String[] names = new String[td.numFields()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = m_coded[i] ? Type.INT_TYPE : td.getFieldType(i);
+			names[i] = td.getFieldName(i);
+		}
+		m_storedTupleDesc = new TupleDesc(types, names);
+		m_heap = pageSize > 0 ? new HeapFile(f, m_storedTupleDesc, pageSize)
+				: new HeapFile(f, m_storedTupleDesc);
+		m_dictionary = new StringDictionary(dictionaryFile(f));
+	}
+
+	/**
+	 * @return the dictionary file of the dictionary-encoded file f
+	 */
+	public static File dictionaryFile(File f) {
+		return new File(f.getPath() + ".dict");
+	}
+
+	/**
+	 * Returns the File backing this DictionaryFile on disk.
+	 */
+	public File getFile() {
+		return m_heap.getFile();
+	}
+
+	// see DbFile.java for javadocs
+	public int getId() {
+		return m_heap.getId();
+	}
+
+	// see DbFile.java for javadocs
+	public TupleDesc getTupleDesc() {
+		return m_tupleDesc;
+	}
+
+	// see DbFile.java for javadocs
+	public TupleDesc getStoredTupleDesc() {
+		return m_storedTupleDesc;
+	}
+
+	/**
+	 * @return true if field i of the table is stored as codes
+	 */
+	public boolean isCoded(int i) {
+		return m_coded[i];
+	}
+
+	public StringDictionary getDictionary() {
+		return m_dictionary;
+	}
+
+	// see DbFile.java for javadocs
+	public int numPages() {
+		return m_heap.numPages();
+	}
+
+	// see DbFile.java for javadocs
+	public int getPageSize() {
+		return m_heap.getPageSize();
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		return m_heap.readPage(pid);
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page p) throws IOException {
+		m_heap.writePage(p);
+	}
+
+	/**
+	 * @return t as stored, with the code of each coded field, which is added
+	 *         to the dictionary if it is not in it
+	 */
+	private Tuple encode(Tuple t) throws IOException {
+		Tuple stored = new Tuple(m_storedTupleDesc);
+		for (int i = 0; i < m_coded.length; i++) {
+			Field f = t.getField(i);
+			if (m_coded[i])
+				f = new IntField(m_dictionary.encode(((StringField) f)
+						.getValue()));
+			stored.setField(i, f);
+		}
+		return stored;
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		if (!m_tupleDesc.equals(t.getTupleDesc()))
+			throw new DbException("Tuple Desc mismatch");
+		Tuple stored = encode(t);
+		ArrayList<Page> pages = m_heap.insertTuple(tid, stored);
+		t.setRecordId(stored.getRecordId());
+		return pages;
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return m_heap.deleteTuple(tid, t);
+	}
+
+	// see DbFile.java for javadocs
+	public DbFileIterator iterator(TransactionId tid) {
+		return decode(m_heap.iterator(tid), null, m_tupleDesc);
+	}
+
+	// see DbFile.java for javadocs
+	public DbFileIterator diskIterator() {
+		return decode(m_heap.diskIterator(), null, m_tupleDesc);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy the
+	 * predicates of filter, each with only some of its fields. The
+	 * predicates are evaluated on the codes of the coded fields.
+	 *
+	 * @see DbFile#iterator(TransactionId, TupleFilter, int[], TupleDesc)
+	 * @see #iterator(TransactionId, Predicate[], int[], TupleDesc)
+	 */
+	public DbFileIterator iterator(TransactionId tid, TupleFilter filter,
+			int[] columns, TupleDesc td) {
+		return iterator(tid, filter == null ? null : filter.getPredicates(),
+				columns, td);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy every
+	 * predicate of filters, each with only some of its fields. The
+	 * predicates are evaluated on the page data, on the codes of the coded
+	 * fields.
+	 *
+	 * @param filters
+	 *            predicates on the fields of the table, or null
+	 * @param columns
+	 *            the field of the table that each field returned is, or null
+	 *            for every field
+	 * @param td
+	 *            the TupleDesc of the tuples returned
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] filters,
+			int[] columns, TupleDesc td) {
+		TupleFilter filter = filter(filters);
+		if (columns == null)
+			return decode(m_heap.iterator(tid, filter), null, td);
+		Type[] types = new Type[columns.length];
+		for (int k = 0; k < columns.length; k++)
+			types[k] = m_storedTupleDesc.getFieldType(columns[k]);
+		return decode(m_heap.iterator(tid, filter, columns, new TupleDesc(
+				types)), columns, td);
+	}
+
+	/**
+	 * @return a filter of the tuples as stored that evaluates filters, or
+	 *         null if there are none
+	 */
+	TupleFilter filter(Predicate[] filters) {
+		if (filters == null || filters.length == 0)
+			return null;
+		List<Predicate> ints = new ArrayList<Predicate>();
+		List<Predicate> others = new ArrayList<Predicate>();
+		for (Predicate p : filters) {
+			if (!m_coded[p.getField()]) {
+				ints.add(p);
+			} else if (p.getOp() == Predicate.Op.EQUALS
+					|| p.getOp() == Predicate.Op.NOT_EQUALS) {
+				// a string not in the dictionary has no code, and -1 is
+				// the code of no string
+				int code = m_dictionary.getCode(((StringField) p.getOperand())
+						.getValue());
+				ints.add(new Predicate(p.getField(), p.getOp(), new IntField(
+						code)));
+			} else {
+				others.add(p);
+			}
+		}
+		return new CodeFilter(filters, new PredicateFilter(m_storedTupleDesc,
+				ints.toArray(new Predicate[ints.size()])), others);
+	}
+
+	/**
+	 * A filter of the tuples as stored, with predicates on ints and other
+	 * predicates on coded fields, which are evaluated for every string of the
+	 * dictionary when the filter is made.
+	 */
+	private class CodeFilter extends TupleFilter {
+		private final PredicateFilter m_ints;
+		private final Predicate[] m_others;
+		private final int[] m_offsets;
+		/** Whether each code satisfies each of m_others. */
+		private final boolean[][] m_matches;
+
+		CodeFilter(Predicate[] filters, PredicateFilter ints,
+				List<Predicate> others) {
+			super(filters);
+			m_ints = ints;
+			m_others = others.toArray(new Predicate[others.size()]);
+			m_offsets = new int[m_others.length];
+			m_matches = new boolean[m_others.length][];
+			int[] fieldOffsets = fieldOffsets(m_storedTupleDesc);
+			int size = m_dictionary.size();
+			for (int k = 0; k < m_others.length; k++) {
+				m_offsets[k] = fieldOffsets[m_others[k].getField()];
+				m_matches[k] = new boolean[size];
+				for (int code = 0; code < size; code++)
+					m_matches[k][code] = compare(k, code);
+			}
+		}
+
+		/**
+		 * @return true if the string of code satisfies predicate k
+		 */
+		private boolean compare(int k, int code) {
+			return m_dictionary.getField(code).compare(m_others[k].getOp(),
+					m_others[k].getOperand());
+		}
+
+		private boolean matches(int k, int code) {
+			if (code < m_matches[k].length)
+				return m_matches[k][code];
+			// a string added since the filter was made
+			return compare(k, code);
+		}
+
+		public boolean matches(byte[] data, int off) {
+			if (!m_ints.matches(data, off))
+				return false;
+			for (int k = 0; k < m_others.length; k++)
+				if (!matches(k, readInt(data, off + m_offsets[k])))
+					return false;
+			return true;
+		}
+
+		public boolean matches(Tuple t) {
+			if (!m_ints.matches(t))
+				return false;
+			for (int k = 0; k < m_others.length; k++)
+				if (!matches(k, ((IntField) t.getField(m_others[k]
+						.getField())).getValue()))
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * @return an iterator over the tuples of it decoded, with TupleDesc td
+	 * @param columns
+	 *            the field of the table that each field of the tuples of it
+	 *            is, or null for every field
+	 */
+	private DbFileIterator decode(final DbFileIterator it,
+			final int[] columns, final TupleDesc td) {
+		return new AbstractDbFileIterator() {
+			public void open() throws DbException,
+					TransactionAbortedException {
+				it.open();
+			}
+
+			protected Tuple readNext() throws DbException,
+					TransactionAbortedException {
+				if (!it.hasNext())
+					return null;
+				Tuple stored = it.next();
+				Tuple t = new Tuple(td);
+				for (int k = 0; k < td.numFields(); k++) {
+					Field f = stored.getField(k);
+					if (m_coded[columns == null ? k : columns[k]])
+						f = m_dictionary.getField(((IntField) f).getValue());
+					t.setField(k, f);
+				}
+				t.setRecordId(stored.getRecordId());
+				return t;
+			}
+
+			public void rewind() throws DbException,
+					TransactionAbortedException {
+				super.close();
+				it.rewind();
+			}
+
+			public void close() {
+				super.close();
+				it.close();
+			}
+		};
+	}
+
+	/**
+	 * Replace the tuples of the file with tuples, writing the pages
+	 * directly, not through the BufferPool. The file must be in the catalog
+	 * and not in use.
+	 *
+	 * @param tuples
+	 *            an iterator over tuples with the fields of the table, not
+	 *            opened yet
+	 */
+	public void load(DbFileIterator tuples) throws IOException, DbException,
+			TransactionAbortedException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				getFile()));
+		try {
+			int pgNo = 0;
+			HeapPage page = new HeapPage(new HeapPageId(getId(), pgNo),
+					HeapPage.createEmptyPageData(getPageSize()));
+			int free = page.getNumEmptySlots();
+			tuples.open();
+			while (tuples.hasNext()) {
+				if (free == 0) {
+					out.write(page.getPageData());
+					page = new HeapPage(new HeapPageId(getId(), ++pgNo),
+							HeapPage.createEmptyPageData(getPageSize()));
+					free = page.getNumEmptySlots();
+				}
+				page.insertTuple(encode(tuples.next()));
+				free--;
+			}
+			if (free < page.getNumSlots())
+				out.write(page.getPageData());
+		} finally {
+			tuples.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An equi-depth histogram over a single integer field. Bucket boundaries are
+ * chosen so that each bucket holds about the same number of values, which
+ * keeps estimates accurate for skewed columns where fixed-width buckets would
+ * put most values into a few buckets.
+ * <p>
+ * A bucket never splits the occurrences of one value, so a very frequent
+ * value gets a bucket of its own, and within a bucket values are assumed to
+ * be spread evenly over its distinct values.
+ */
+public class EquiDepthHistogram {
+
+    /** Smallest and largest value in each bucket. */
+    private final int[] m_lows, m_highs;
+
+    /** Number of values in each bucket. */
+    private final int[] m_counts;
+
+    /** Number of distinct values in each bucket. */
+    private final int[] m_distinct;
+
+    /** Total number of values in the histogram. */
+    private final int m_total;
+
+    /**
+     * Build a histogram of the given values.
+     *
+     * @param buckets
+     *            the maximum number of buckets
+     * @param values
+     *            the values to build the histogram of; sorted in place
+     * @param n
+     *            the number of entries of values to use
+     */
+    public EquiDepthHistogram(final int buckets, final int[] values,
+	    final int n) {
+	Arrays.sort(values, 0, n);
+	int[] lows = new int[buckets], highs = new int[buckets];
+	int[] counts = new int[buckets], distinct = new int[buckets];
+	int b = 0;
+	int i = 0;
+	while (i < n) {
+	    // fill the bucket with whole runs of equal values up to the depth
+	    // still needed for the remaining values
+	    int depth = Math.max(1, (n - i + (buckets - b) - 1) / (buckets - b));
+	    if (b == buckets - 1)
+		depth = n - i;
+	    int start = i;
+	    lows[b] = values[i];
+	    while (i < n && i - start < depth) {
+		int run = 1;
+		while (i + run < n && values[i + run] == values[i])
+		    run++;
+		// a value too frequent to share a bucket gets one of its own
+		if (i > start && run >= depth)
+		    break;
+		distinct[b]++;
+		i += run;
+	    }
+	    highs[b] = values[i - 1];
+	    counts[b] = i - start;
+	    b++;
+	}
+	m_lows = Arrays.copyOf(lows, b);
+	m_highs = Arrays.copyOf(highs, b);
+	m_counts = Arrays.copyOf(counts, b);
+	m_distinct = Arrays.copyOf(distinct, b);
+	m_total = n;
+    }
+
+    private EquiDepthHistogram(final int[] lows, final int[] highs,
+	    final int[] counts, final int[] distinct) {
+	m_lows = lows;
+	m_highs = highs;
+	m_counts = counts;
+	m_distinct = distinct;
+	int total = 0;
+	for (int c : counts)
+	    total += c;
+	m_total = total;
+    }
+
+    /** @return the smallest value in the histogram */
+    public int min() {
+	return m_lows[0];
+    }
+
+    /** @return the largest value in the histogram */
+    public int max() {
+	return m_highs[m_highs.length - 1];
+    }
+
+    /** @return the number of buckets */
+    public int numBuckets() {
+	return m_counts.length;
+    }
+
+    /** @return the fraction of all values that fall into bucket b */
+    public double bucketFraction(final int b) {
+	return (double) m_counts[b] / m_total;
+    }
+
+    /** @return the value in the middle of bucket b */
+    public int bucketMidpoint(final int b) {
+	return (int) (((long) m_lows[b] + m_highs[b]) / 2);
+    }
+
+    /**
+     * @return the index of the bucket whose range contains v, or -1 if v
+     *         falls between buckets or outside the histogram
+     */
+    private int bucketOf(final int v) {
+	int lo = 0, hi = m_highs.length - 1;
+	while (lo <= hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (m_highs[mid] < v)
+		lo = mid + 1;
+	    else if (m_lows[mid] > v)
+		hi = mid - 1;
+	    else
+		return mid;
+	}
+	return -1;
+    }
+
+    /** @return the fraction of values equal to v */
+    private double equal(final int v) {
+	int b = bucketOf(v);
+	if (b < 0)
+	    return 0;
+	return bucketFraction(b) / m_distinct[b];
+    }
+
+    /** @return the fraction of values less than v */
+    private double lessThan(final int v) {
+	double count = 0;
+	for (int b = 0; b < m_counts.length && m_lows[b] < v; b++) {
+	    if (m_highs[b] < v) {
+		count += m_counts[b];
+	    } else {
+		// part of the bucket lies below v
+		double width = (double) m_highs[b] - m_lows[b] + 1;
+		count += m_counts[b] * ((double) v - m_lows[b]) / width;
+	    }
+	}
+	return count / m_total;
+    }
+
+    /** @return the fraction of values less than or equal to v */
+    private double lessThanOrEq(final int v) {
+	if (v == Integer.MAX_VALUE)
+	    return 1.0;
+	return lessThan(v + 1);
+    }
+
+    /**
+     * @return the fraction of values between lo and hi inclusive
+     */
+    public double fractionBetween(final int lo, final int hi) {
+	if (lo > hi)
+	    return 0;
+	return Math.max(0, lessThanOrEq(hi) - lessThan(lo));
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on the
+     * values of this histogram.
+     *
+     * @param op
+     *            Operator
+     * @param v
+     *            Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(final Predicate.Op op, final int v) {
+	double sel;
+	switch (op) {
+	    case EQUALS:
+	    case LIKE:
+		sel = equal(v);
+		break;
+	    case NOT_EQUALS:
+		sel = 1 - equal(v);
+		break;
+	    case LESS_THAN:
+		sel = lessThan(v);
+		break;
+	    case LESS_THAN_OR_EQ:
+		sel = lessThanOrEq(v);
+		break;
+	    case GREATER_THAN:
+		sel = 1 - lessThanOrEq(v);
+		break;
+	    case GREATER_THAN_OR_EQ:
+		sel = 1 - lessThan(v);
+		break;
+	    default:
+		return -1;
+	}
+	return Math.min(1, Math.max(0, sel));
+    }
+
+    /**
+     * @return the probability that two values drawn from this histogram are
+     *         equal
+     */
+    public double avgSelectivity() {
+	double sel = 0;
+	for (int b = 0; b < m_counts.length; b++) {
+	    double f = bucketFraction(b);
+	    sel += f * f / m_distinct[b];
+	}
+	return sel;
+    }
+
+    /**
+     * Save this histogram so it can be recreated with {@link #read}.
+     */
+    public void write(final DataOutput out) throws IOException {
+	out.writeInt(m_counts.length);
+	for (int b = 0; b < m_counts.length; b++) {
+	    out.writeInt(m_lows[b]);
+	    out.writeInt(m_highs[b]);
+	    out.writeInt(m_counts[b]);
+	    out.writeInt(m_distinct[b]);
+	}
+    }
+
+    /**
+     * Read a histogram saved with {@link #write}.
+     */
+    public static EquiDepthHistogram read(final DataInput in)
+	    throws IOException {
+	int n = in.readInt();
+	int[] lows = new int[n], highs = new int[n];
+	int[] counts = new int[n], distinct = new int[n];
+	for (int b = 0; b < n; b++) {
+	    lows[b] = in.readInt();
+	    highs[b] = in.readInt();
+	    counts[b] = in.readInt();
+	    distinct[b] = in.readInt();
+	}
+	return new EquiDepthHistogram(lows, highs, counts, distinct);
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder("(");
+	for (int b = 0; b < m_counts.length; b++) {
+	    if (b > 0)
+		sb.append(", ");
+	    sb.append("[").append(m_lows[b]).append(",").append(m_highs[b])
+		    .append("]:").append(m_counts[b]);
+	}
+	return sb.append(")").toString();
+    }
+}
@@ -5,12 +5,13 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private Predicate m_predicate;
     private DbIterator m_child;
+    private BatchIterator m_batchChild;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -74,6 +75,41 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Narrows the selection of each batch of the child to the rows that pass
+     * the predicate, comparing the vector of its field.
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (m_batchChild == null)
+            m_batchChild = BatchAdapter.of(m_child);
+        int field = m_predicate.getField();
+        Predicate.Op op = m_predicate.getOp();
+        Field operand = m_predicate.getOperand();
+        TupleBatch b;
+        while ((b = m_batchChild.nextBatch()) != null) {
+            int[] sel = b.selection();
+            int n = 0;
+            if (b.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+                int[] v = b.getInts(field);
+                int value = ((IntField) operand).getValue();
+                for (int k = 0; k < b.numSelected(); k++)
+                    if (IntField.compare(v[sel[k]], op, value))
+                        sel[n++] = sel[k];
+            } else {
+                String[] v = b.getStrings(field);
+                String value = ((StringField) operand).getValue();
+                for (int k = 0; k < b.numSelected(); k++)
+                    if (StringField.compare(v[sel[k]], op, value))
+                        sel[n++] = sel[k];
+            }
+            b.setNumSelected(n);
+            if (n > 0)
+                return b;
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -84,6 +120,7 @@ public class Filter extends Operator {
     public void setChildren(DbIterator[] children) {
         // some code goes here
     	m_child=children[0];
+    	m_batchChild=null;
     }
 
 }
\ No newline at end of file
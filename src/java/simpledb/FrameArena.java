@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Off-heap memory for the frames of the BufferPool: direct ByteBuffers,
+ * outside the Java heap and so never scanned or copied by the garbage
+ * collector, divided into blocks. A frame is a run of contiguous blocks of one
+ * chunk, enough for a page of the size asked for, so pages of different sizes
+ * share the arena. The arena is allocated a chunk at a time, as it fills.
+ * <p>
+ * Not thread-safe; the BufferPool allocates and frees frames while holding
+ * its own lock.
+ */
+public class FrameArena {
+
+	/**
+	 * The largest chunk, so that a multi-gigabyte arena fits in ByteBuffers,
+	 * whose size is an int.
+	 */
+	static final int MAX_CHUNK_SIZE = 1 << 30;
+
+	/**
+	 * A frame of the arena: a view of its blocks, holding one page.
+	 */
+	public static class Frame {
+		private final ByteBuffer m_buffer;
+		private final int m_firstBlock;
+		private final int m_numBlocks;
+
+		Frame(ByteBuffer buffer, int firstBlock, int numBlocks) {
+			m_buffer = buffer;
+			m_firstBlock = firstBlock;
+			m_numBlocks = numBlocks;
+		}
+
+		/**
+		 * @return the memory of the frame, of the size of its page. Use
+		 *         absolute gets and puts only, since the position is shared.
+		 */
+		public ByteBuffer getBuffer() {
+			return m_buffer;
+		}
+	}
+
+	private final int m_blockSize;
+	private final int m_blocksPerChunk;
+	private final int m_numBlocks;
+	private final ByteBuffer[] m_chunks;
+
+	/**
+	 * The blocks in use.
+	 */
+	private final BitSet m_used;
+
+	/**
+	 * Creates an arena of up to capacity bytes, in blocks of blockSize bytes.
+	 */
+	public FrameArena(long capacity, int blockSize) {
+		this(capacity, blockSize, MAX_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates an arena allocated in chunks of up to chunkSize bytes.
+	 */
+	FrameArena(long capacity, int blockSize, int chunkSize) {
+		m_blockSize = blockSize;
+		m_blocksPerChunk = chunkSize / blockSize;
+		m_numBlocks = (int) Math.min(capacity / blockSize, Integer.MAX_VALUE);
+		m_chunks = new ByteBuffer[(m_numBlocks + m_blocksPerChunk - 1)
+				/ m_blocksPerChunk];
+		m_used = new BitSet(m_numBlocks);
+	}
+
+	/**
+	 * @return the number of bytes of the blocks in use
+	 */
+	public long getUsedBytes() {
+		return (long) m_used.cardinality() * m_blockSize;
+	}
+
+	/**
+	 * @return a frame of at least bytes bytes, or null if there is no run of
+	 *         free blocks that long
+	 */
+	public Frame allocate(int bytes) {
+		int n = (bytes + m_blockSize - 1) / m_blockSize;
+		if (n > m_blocksPerChunk)
+			return null;
+		int start = m_used.nextClearBit(0);
+		while (start + n <= m_numBlocks) {
+			int chunkEnd = (start / m_blocksPerChunk + 1) * m_blocksPerChunk;
+			if (start + n > chunkEnd) {
+				// a frame must not straddle two chunks
+				start = m_used.nextClearBit(chunkEnd);
+				continue;
+			}
+			int used = m_used.nextSetBit(start);
+			if (used >= 0 && used < start + n) {
+				start = m_used.nextClearBit(used);
+				continue;
+			}
+			m_used.set(start, start + n);
+			return new Frame(slice(start, bytes), start, n);
+		}
+		return null;
+	}
+
+	/**
+	 * Give back the blocks of frame, which must not be used afterwards.
+	 */
+	public void free(Frame frame) {
+		m_used.clear(frame.m_firstBlock, frame.m_firstBlock + frame.m_numBlocks);
+	}
+
+	/**
+	 * @return a view of bytes bytes from block start, allocating its chunk if
+	 *         it is not allocated yet
+	 */
+	private ByteBuffer slice(int start, int bytes) {
+		int chunk = start / m_blocksPerChunk;
+		if (m_chunks[chunk] == null) {
+			int blocks = Math.min(m_blocksPerChunk, m_numBlocks - chunk
+					* m_blocksPerChunk);
+			m_chunks[chunk] = ByteBuffer.allocateDirect(blocks * m_blockSize);
+		}
+		ByteBuffer b = m_chunks[chunk].duplicate();
+		int off = (start - chunk * m_blocksPerChunk) * m_blockSize;
+		b.position(off);
+		b.limit(off + bytes);
+		return b.slice();
+	}
+}
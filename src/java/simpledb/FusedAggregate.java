@@ -0,0 +1,52 @@
+package simpledb;
+
+/**
+ * An Aggregate over a SeqScan, run as one fused pipeline: rather than each
+ * operator returning Tuples to the next, the scan reads the tuples that
+ * satisfy its filters from each heap page straight into a batch holding only
+ * the group-by and aggregate fields, which is merged into the aggregate. The
+ * scan decodes nothing else, and no Tuple is made for the tuples read from
+ * page data. Made by {@link LogicalPlan#physicalPlan} when pipeline fusion
+ * is on; a scan of a table that is not a heap file is read as Aggregate
+ * reads any child.
+ */
+public class FusedAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    private TupleBatch batch;
+
+    /**
+     * @param scan
+     *            the scan feeding the aggregate, with its filters pushed
+     * @see Aggregate#Aggregate(DbIterator, int, int, Aggregator.Op)
+     */
+    public FusedAggregate(SeqScan scan, int afield, int gfield,
+            Aggregator.Op aop) {
+	super(scan, afield, gfield, aop);
+    }
+
+    protected void mergeChild(final Aggregator agg) throws DbException,
+            TransactionAbortedException {
+	DbIterator child = getChildren()[0];
+	if (child instanceof SeqScan) {
+	    TupleDesc td = child.getTupleDesc();
+	    boolean[] fields = new boolean[td.numFields()];
+	    // a count of strings needs no value, only the number of rows
+	    fields[aggregateField()] = td.getFieldType(aggregateField()) == Type.INT_TYPE;
+	    if (groupField() != Aggregator.NO_GROUPING)
+		fields[groupField()] = true;
+	    if (batch == null || !batch.getTupleDesc().equals(td))
+		batch = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY);
+	    boolean produced = ((SeqScan) child).produce(fields, batch,
+		    new BatchConsumer() {
+		        public void consume(TupleBatch b) {
+			    agg.mergeBatchIntoGroup(b);
+		        }
+		    });
+	    if (produced)
+		return;
+	}
+	super.mergeChild(agg);
+    }
+}
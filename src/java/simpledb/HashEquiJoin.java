@@ -5,15 +5,25 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
     private DbIterator child1, child2;
+    private final int blockTuples;
     private TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /** State of nextBatch: the probe batch and the position in it. */
+    transient private BatchIterator probe = null;
+    transient private TupleBatch probeBatch = null;
+    transient private int probePos;
+    transient private int probeRow;
+    transient private ArrayList<Tuple> matches = null;
+    transient private int matchPos;
+    transient private TupleBatch batch = null;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -26,9 +36,29 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor that bounds the memory used by the join: the outer relation
+     * is hashed blockTuples tuples at a time, and the inner relation is
+     * scanned once for each such block.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockTuples
+     *            The number of outer tuples to hash at a time
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int blockTuples) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockTuples = Math.max(1, blockTuples);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -51,6 +81,7 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** Default number of outer tuples hashed at a time. */
     public final static int MAP_SIZE = 20000;
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
@@ -64,7 +95,7 @@ public class HashEquiJoin extends Operator {
                 map.put(t1.getField(pred.getField1()), list);
             }
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (++cnt == blockTuples)
                 return true;
         }
         return cnt > 0;
@@ -76,6 +107,10 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        super.open();
+        listIt = null;
+        probeBatch = null;
+        matches = null;
         loadMap();
     }
 
@@ -86,12 +121,18 @@ public class HashEquiJoin extends Operator {
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.probeBatch=null;
+        this.matches=null;
         this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        probeBatch = null;
+        matches = null;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -160,6 +201,47 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * Returns the join a batch at a time. The outer relation is hashed as by
+     * fetchNext, and the inner relation is probed a batch at a time, copying
+     * its fields into the result from the vectors of the probe batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException,
+            DbException {
+        if (probe == null)
+            probe = BatchAdapter.of(child2);
+        if (batch == null)
+            batch = new TupleBatch(comboTD, TupleBatch.DEFAULT_CAPACITY);
+        batch.clear();
+        int td1n = child1.getTupleDesc().numFields();
+        int td2n = child2.getTupleDesc().numFields();
+        while (!batch.isFull()) {
+            if (matches != null && matchPos < matches.size()) {
+                int row = batch.addRow();
+                batch.setFields(row, 0, matches.get(matchPos++));
+                for (int i = 0; i < td2n; i++)
+                    batch.copyField(td1n + i, row, probeBatch, i, probeRow);
+                continue;
+            }
+            matches = null;
+            if (probeBatch != null && probePos < probeBatch.numSelected()) {
+                probeRow = probeBatch.selection()[probePos++];
+                matches = map.get(probeBatch.getField(probeRow, pred.getField2()));
+                matchPos = 0;
+                continue;
+            }
+            probeBatch = probe.nextBatch();
+            probePos = 0;
+            if (probeBatch == null) {
+                // child2 is done: advance child1
+                child2.rewind();
+                if (!loadMap())
+                    break;
+            }
+        }
+        return batch.numSelected() > 0 ? batch : null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[]{this.child1, this.child2};
@@ -169,6 +251,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(DbIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.probe = null;
     }
     
 
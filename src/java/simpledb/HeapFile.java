@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -31,6 +32,19 @@ public class HeapFile implements DbFile {
 	 */
 	private final int m_tableid;
 
+	/**
+	 * Bytes per page, or 0 for the default page size of the BufferPool.
+	 */
+	private final int m_pageSize;
+
+	/**
+	 * Tuples inserted into and deleted from this file since it was opened,
+	 * including by transactions that later aborted. TableStats uses these to
+	 * keep its counts current without rescanning.
+	 */
+	private final AtomicLong m_insertCount = new AtomicLong();
+	private final AtomicLong m_deleteCount = new AtomicLong();
+
 	/**
 	 * Constructs a heap file backed by the specified file.
 	 * 
@@ -43,6 +57,32 @@ public class HeapFile implements DbFile {
 		m_file = f;
 		m_tableid = f.getAbsoluteFile().hashCode();
 		m_tupleDesc = td;
+		m_pageSize = 0;
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file, with pages of
+	 * pageSize bytes rather than the default size.
+	 * 
+	 * @param pageSize
+	 *            bytes per page, which must hold at least one tuple
+	 * @see BufferPool#getPageSize()
+	 */
+	public HeapFile(File f, TupleDesc td, int pageSize) {
+		if (pageSize * 8 < td.getSize() * 8 + 1)
+			throw new IllegalArgumentException("page size " + pageSize
+					+ " cannot hold a tuple of " + td.getSize() + " bytes");
+		m_file = f;
+		m_tableid = f.getAbsoluteFile().hashCode();
+		m_tupleDesc = td;
+		m_pageSize = pageSize;
+	}
+
+	/**
+	 * @return the number of bytes per page of this file
+	 */
+	public int getPageSize() {
+		return m_pageSize > 0 ? m_pageSize : BufferPool.getPageSize();
 	}
 
 	/**
@@ -79,6 +119,11 @@ public class HeapFile implements DbFile {
 		return m_tupleDesc;
 	}
 
+	// see DbFile.java for javadocs
+	public TupleDesc getStoredTupleDesc() {
+		return m_tupleDesc;
+	}
+
 	// see DbFile.java for javadocs
 	public Page readPage(PageId pid) {
 		// some code goes here
@@ -86,10 +131,11 @@ public class HeapFile implements DbFile {
 		BufferedInputStream bis = null; // The stream to read file from
 		try {
 			bis = new BufferedInputStream(new FileInputStream(m_file));
-			byte pageBuf[] = new byte[BufferPool.getPageSize()];
+			int pageSize = getPageSize();
+			byte pageBuf[] = new byte[pageSize];
 
 			// Total number of bytes in the pages to skip.
-			long bytesToSkip = hpid.pageNumber() * BufferPool.getPageSize();
+			long bytesToSkip = (long) hpid.pageNumber() * pageSize;
 
 			// Attempt to skip these bytes in the file.
 			long bytesSkipped = bis.skip(bytesToSkip);
@@ -101,13 +147,13 @@ public class HeapFile implements DbFile {
 			}
 
 			// Read the page into pageBuf.
-			int bytesRead = bis.read(pageBuf, 0, BufferPool.getPageSize());
+			int bytesRead = bis.read(pageBuf, 0, pageSize);
 			if (bytesRead == -1) {
 				throw new IllegalArgumentException("Read past end of table.");
 			}
-			if (bytesRead < BufferPool.getPageSize()) {
+			if (bytesRead < pageSize) {
 				throw new IllegalArgumentException("Unable to read "
-						+ BufferPool.getPageSize() + " bytes from heapfile.");
+						+ pageSize + " bytes from heapfile.");
 			}
 			Debug.log(1, "HeapFile.readPage: read page %d", hpid.pageNumber());
 			return new HeapPage(hpid, pageBuf);
@@ -129,11 +175,84 @@ public class HeapFile implements DbFile {
 		// some code goes here
 		// not necessary for lab1
 		RandomAccessFile myFile=new RandomAccessFile(m_file,"rw");
-        long offset= page.getId().pageNumber()*BufferPool.PAGE_SIZE;
-        byte[] data=page.getPageData();
-        myFile.seek(offset);
-        myFile.write(data);
-        page.markDirty(false,null);
+		try {
+			long offset = (long) page.getId().pageNumber() * getPageSize();
+			byte[] data = page.getPageData();
+			myFile.seek(offset);
+			myFile.write(data);
+		} finally {
+			myFile.close();
+		}
+		page.markDirty(false, null);
+	}
+
+	/**
+	 * Write several pages of this file at once. Runs of consecutive page
+	 * numbers are written with a single gathering write, so flushing many
+	 * adjacent dirty pages costs one sequential I/O rather than one seek and
+	 * write per page.
+	 *
+	 * @param pages
+	 *            pages of this file, in any order
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		List<Page> sorted = new ArrayList<Page>(pages);
+		Collections.sort(sorted, new Comparator<Page>() {
+			public int compare(Page a, Page b) {
+				int pa = a.getId().pageNumber(), pb = b.getId().pageNumber();
+				return pa < pb ? -1 : (pa == pb ? 0 : 1);
+			}
+		});
+
+		int pageSize = getPageSize();
+		RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+		try {
+			java.nio.channels.FileChannel channel = raf.getChannel();
+			int start = 0;
+			while (start < sorted.size()) {
+				int end = start + 1;
+				while (end < sorted.size()
+						&& sorted.get(end).getId().pageNumber() == sorted.get(
+								end - 1).getId().pageNumber() + 1)
+					end++;
+
+				java.nio.ByteBuffer[] run = new java.nio.ByteBuffer[end - start];
+				long remaining = 0;
+				for (int i = start; i < end; i++) {
+					run[i - start] = java.nio.ByteBuffer.wrap(sorted.get(i)
+							.getPageData());
+					remaining += run[i - start].remaining();
+				}
+				channel.position((long) sorted.get(start).getId().pageNumber()
+						* pageSize);
+				while (remaining > 0)
+					remaining -= channel.write(run);
+				Debug.log(1, "HeapFile.writePages: wrote pages %d-%d",
+						sorted.get(start).getId().pageNumber(),
+						sorted.get(end - 1).getId().pageNumber());
+				start = end;
+			}
+		} finally {
+			raf.close();
+		}
+		for (Page p : pages)
+			p.markDirty(false, null);
+	}
+
+	/**
+	 * @return the number of tuples inserted into this file since it was
+	 *         opened
+	 */
+	public long getInsertCount() {
+		return m_insertCount.get();
+	}
+
+	/**
+	 * @return the number of tuples deleted from this file since it was
+	 *         opened
+	 */
+	public long getDeleteCount() {
+		return m_deleteCount.get();
 	}
 
 	/**
@@ -144,7 +263,7 @@ public class HeapFile implements DbFile {
 
 		// The # of pages is the size of the physical file in bytes /
 		// The size of each page in bytes.
-		return (int) (m_file.length() / BufferPool.getPageSize());
+		return (int) (m_file.length() / getPageSize());
 	}
 
 	// see DbFile.java for javadocs
@@ -152,30 +271,121 @@ public class HeapFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
 		// not necessary for lab1
+		if (Database.getBufferPool().isRowLocking())
+			return insertTupleRowLocked(tid, t);
 		ArrayList<Page> pagesLists = new ArrayList<Page>();
+		BufferPool bp = Database.getBufferPool();
 		HeapPageId pid;
 		HeapPage page;
-		// traverse through files to find empty page
+		// traverse through files to find empty page; only take a write lock
+		// on the page we actually insert into
 		for (int i = 0; i < numPages(); i++) {
 			pid = new HeapPageId(getId(), i);
-			page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
-					Permissions.READ_WRITE);
+			boolean alreadyLocked = bp.holdsLock(tid, pid);
+			page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
 			if (page.getNumEmptySlots() > 0) {// if the page has spots, add
 												// tuple
+				page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+				page.insertTuple(t);
+				page.markDirty(true, tid);
+				pagesLists.add(page);
+				m_insertCount.incrementAndGet();
+				return pagesLists;
+			}
+			// nothing was read that the transaction depends on, so the lock
+			// can go unless it was held for some earlier reason
+			if (!alreadyLocked)
+				bp.releasePage(tid, pid);
+		}
+		// no pages have spots, add new pages until one we lock has room; a
+		// concurrent insert may fill the page we appended before we get it
+		while (true) {
+			synchronized (this) {
+				// the pageNumber is current size
+				pid = new HeapPageId(getId(), numPages());
+				page = new HeapPage(pid, HeapPage.createEmptyPageData(getPageSize()));
+				writePage(page);//write a empty page to file
+			}
+			page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);//access through bufferpool
+			if (page.getNumEmptySlots() > 0) {
 				page.insertTuple(t);
 				page.markDirty(true, tid);
+				pagesLists.add(page);
+				m_insertCount.incrementAndGet();
+				return pagesLists;
+			}
+		}
+	}
+
+	/**
+	 * Row-locking version of insertTuple: pages are only intention-locked,
+	 * and the tuple goes into a free slot this transaction can lock
+	 * exclusively without waiting. Slots freed by deletes that have not
+	 * committed yet are still locked by the deleter and so are skipped.
+	 */
+	private ArrayList<Page> insertTupleRowLocked(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Page> pagesLists = new ArrayList<Page>();
+		BufferPool bp = Database.getBufferPool();
+		HeapPageId pid;
+		HeapPage page;
+		for (int i = 0; i < numPages(); i++) {
+			pid = new HeapPageId(getId(), i);
+			boolean alreadyLocked = bp.holdsLock(tid, pid);
+			page = (HeapPage) bp.getPageForRowUpdate(tid, pid);
+			if (insertIntoFreeSlot(tid, page, t)) {
 				pagesLists.add(page);
 				return pagesLists;
 			}
+			if (!alreadyLocked)
+				bp.releasePage(tid, pid);
+		}
+		while (true) {
+			synchronized (this) {
+				pid = new HeapPageId(getId(), numPages());
+				page = new HeapPage(pid, HeapPage.createEmptyPageData(getPageSize()));
+				writePage(page);//write a empty page to file
+			}
+			page = (HeapPage) bp.getPageForRowUpdate(tid, pid);
+			if (insertIntoFreeSlot(tid, page, t)) {
+				pagesLists.add(page);
+				return pagesLists;
+			}
+		}
+	}
+
+	/**
+	 * Insert t into some free slot of page that tid can lock without
+	 * waiting.
+	 * 
+	 * @return true if the tuple was inserted
+	 */
+	private boolean insertIntoFreeSlot(TransactionId tid, HeapPage page,
+			Tuple t) throws DbException {
+		if (page.getNumEmptySlots() == 0)
+			return false;
+		BufferPool bp = Database.getBufferPool();
+		int slot = -1;
+		synchronized (page) {
+			for (int i = 0; i < page.getNumSlots(); i++) {
+				if (!page.isSlotUsed(i)
+						&& bp.tryLockTuple(tid, new RecordId(page.getId(), i))) {
+					slot = i;
+					break;
+				}
+			}
+		}
+		if (slot == -1)
+			return false;
+		// only now is tid a writer of the page; the slot stays free for it
+		// since no other inserter can lock it
+		bp.beginRowChange(tid, page.getId());
+		synchronized (page) {
+			page.insertTuple(t, slot);
 		}
-		// no pages have spots, add new page, the pageNumber is current size
-		pid = new HeapPageId(getId(), numPages());
-		page = new HeapPage(pid, HeapPage.createEmptyPageData());
-		writePage(page);//write a empty page to file
-        page=(HeapPage)Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);//access through bufferpool
-		page.insertTuple(t);
-		pagesLists.add(page);
-		return pagesLists;
+		bp.tupleInserted(tid, page, slot);
+		m_insertCount.incrementAndGet();
+		return true;
 	}
 
 	// see DbFile.java for javadocs
@@ -185,21 +395,88 @@ public class HeapFile implements DbFile {
 		// not necessary for lab1
 		ArrayList<Page> changedPages=new ArrayList<Page>();
 		 if(t.getRecordId()!=null && t.getRecordId().getPageId().getTableId()==getId()){
+			 if (Database.getBufferPool().isRowLocking()) {
+				 changedPages.add(deleteTupleRowLocked(tid, t));
+				 return changedPages;
+			 }
 			 //get page through bufferpool
 	            HeapPage page=(HeapPage)Database.getBufferPool().getPage(tid,t.getRecordId().getPageId(),Permissions.READ_WRITE);
 	            page.deleteTuple(t);
 	            page.markDirty(true,tid);
 	            changedPages.add(page);
+	            m_deleteCount.incrementAndGet();
 	            return changedPages;
 	        } else {
 	            throw new DbException("tuple cannot be deleted or is not a member of the file");
 	        }
 	}
 
+	/**
+	 * Row-locking version of deleteTuple: locks only the tuple's RecordId
+	 * exclusively, plus an intention lock on its page.
+	 * 
+	 * @return the page the tuple was deleted from
+	 */
+	private Page deleteTupleRowLocked(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		RecordId rid = t.getRecordId();
+		HeapPage page = (HeapPage) bp.getPageForRowUpdate(tid, rid.getPageId());
+		bp.lockTuple(tid, rid);
+		bp.beginRowChange(tid, page.getId());
+		Tuple old;
+		synchronized (page) {
+			old = page.getTuple(rid.tupleno());
+			if (old == null)
+				throw new DbException("tuple is already deleted");
+			page.deleteTuple(t);
+		}
+		bp.tupleDeleted(tid, page, rid.tupleno(), old);
+		m_deleteCount.incrementAndGet();
+		return page;
+	}
+
 	// see DbFile.java for javadocs
 	public DbFileIterator iterator(TransactionId tid) {
 		// some code goes here
-		return new HeapFileIterator(this, tid);
+		return new HeapFileIterator(this, tid, null, null, null);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy every
+	 * predicate of filters. The predicates are evaluated as each page is
+	 * scanned, against the page data, so tuples that do not satisfy them are
+	 * never decoded.
+	 * 
+	 * @see HeapPage#iterator(Predicate[])
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] filters) {
+		if (filters == null || filters.length == 0)
+			return iterator(tid);
+		return iterator(tid, new PredicateFilter(m_tupleDesc, filters));
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy filter,
+	 * evaluated against the page data as each page is scanned.
+	 * 
+	 * @see HeapPage#iterator(TupleFilter)
+	 */
+	public DbFileIterator iterator(TransactionId tid, TupleFilter filter) {
+		return new HeapFileIterator(this, tid, filter, null, null);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy filter,
+	 * each with only some of its fields. The filter is evaluated against the
+	 * page data, and only the fields returned are decoded from it.
+	 * 
+	 * @see DbFile#iterator(TransactionId, TupleFilter, int[], TupleDesc)
+	 * @see HeapPage#iterator(TupleFilter, int[], TupleDesc)
+	 */
+	public DbFileIterator iterator(TransactionId tid, TupleFilter filter,
+			int[] columns, TupleDesc td) {
+		return new HeapFileIterator(this, tid, filter, columns, td);
 	}
 
 	/**
@@ -227,6 +504,18 @@ public class HeapFile implements DbFile {
 		 */
 		HeapFile m_heapFile;
 
+		/**
+		 * The filter the tuples returned satisfy, or null.
+		 */
+		TupleFilter m_filter;
+
+		/**
+		 * The fields of the tuples returned, and their TupleDesc, or null
+		 * for whole tuples.
+		 */
+		int[] m_columns;
+		TupleDesc m_columnsTd;
+
 		/**
 		 * Set local variables for HeapFile and Transactionid
 		 * 
@@ -234,10 +523,21 @@ public class HeapFile implements DbFile {
 		 *            The underlying HeapFile.
 		 * @param tid
 		 *            The transaction ID.
+		 * @param filter
+		 *            The filter the tuples returned must satisfy, or null.
+		 * @param columns
+		 *            The fields of the tuples to return, or null.
+		 * @param td
+		 *            The TupleDesc of the tuples returned, if columns is not
+		 *            null.
 		 */
-		public HeapFileIterator(HeapFile hf, TransactionId tid) {
+		public HeapFileIterator(HeapFile hf, TransactionId tid,
+				TupleFilter filter, int[] columns, TupleDesc td) {
 			m_heapFile = hf;
 			m_tid = tid;
+			m_filter = filter;
+			m_columns = columns;
+			m_columnsTd = td;
 		}
 
 		/**
@@ -268,7 +568,8 @@ public class HeapFile implements DbFile {
 
 				HeapPage currentPage = (HeapPage) Database.getBufferPool()
 						.getPage(m_tid, currentPageId, Permissions.READ_ONLY);
-				m_tupleIt = currentPage.iterator();
+				m_tupleIt = m_columns == null ? currentPage.iterator(m_filter)
+						: currentPage.iterator(m_filter, m_columns, m_columnsTd);
 
 				// Make sure the iterator has tuples in it
 				if (!m_tupleIt.hasNext())
@@ -302,4 +603,89 @@ public class HeapFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Returns an iterator over the tuples on disk that reads the file
+	 * sequentially through one buffered stream, bypassing the BufferPool and
+	 * taking no locks. Changes still cached in the BufferPool are not seen,
+	 * so this is only suitable for approximate work such as gathering
+	 * statistics.
+	 */
+	public DbFileIterator diskIterator() {
+		return new DiskIterator();
+	}
+
+	/**
+	 * Iterator that parses pages straight from the file.
+	 */
+	class DiskIterator extends AbstractDbFileIterator {
+
+		/**
+		 * Pages read ahead in one go by the underlying stream.
+		 */
+		private static final int READ_AHEAD_PAGES = 16;
+
+		private DataInputStream m_in;
+
+		private Iterator<Tuple> m_tupleIt;
+
+		private int m_nextPageNumber;
+
+		private int m_numPages;
+
+		public void open() throws DbException {
+			int pageSize = getPageSize();
+			try {
+				m_in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(m_file), READ_AHEAD_PAGES
+								* pageSize));
+			} catch (FileNotFoundException e) {
+				throw new DbException("cannot open " + m_file + ": "
+						+ e.getMessage());
+			}
+			m_numPages = numPages();
+			m_nextPageNumber = 0;
+			m_tupleIt = null;
+		}
+
+		@Override
+		protected Tuple readNext() throws DbException {
+			if (m_in == null)
+				return null;
+			while ((m_tupleIt == null || !m_tupleIt.hasNext())
+					&& m_nextPageNumber < m_numPages) {
+				byte[] data = new byte[getPageSize()];
+				try {
+					m_in.readFully(data);
+					m_tupleIt = new HeapPage(new HeapPageId(m_tableid,
+							m_nextPageNumber++), data).iterator();
+				} catch (IOException e) {
+					throw new DbException("cannot read page "
+							+ m_nextPageNumber + " of " + m_file + ": "
+							+ e.getMessage());
+				}
+			}
+			if (m_tupleIt == null || !m_tupleIt.hasNext())
+				return null;
+			return m_tupleIt.next();
+		}
+
+		public void rewind() throws DbException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			m_tupleIt = null;
+			if (m_in != null) {
+				try {
+					m_in.close();
+				} catch (IOException e) {
+					// Ignore failures closing the file
+				}
+				m_in = null;
+			}
+		}
+	}
+
 }
\ No newline at end of file
@@ -2,10 +2,17 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * While the page is cached in the BufferPool, its data is kept off the heap,
+ * in a frame of the BufferPool's {@link FrameArena} that holds the committed
+ * contents of the page, and its tuples are decoded from the frame each time
+ * they are asked for. Only the tuples changed since the page was read are
+ * kept on the heap.
  * 
  * @see HeapFile
  * @see BufferPool
@@ -23,6 +30,11 @@ public class HeapPage implements Page {
 	 */
 	final TupleDesc m_td;
 
+	/**
+	 * Bytes per page of the table.
+	 */
+	final int m_pageSize;
+
 	/**
 	 * Indicates which slots in this page have been used. There is one bit per
 	 * slot, 0 means available, 1 means used.
@@ -30,9 +42,37 @@ public class HeapPage implements Page {
 	byte m_header[];
 
 	/**
-	 * The array of tuples stored in this HeapPage.
+	 * The array of tuples stored in this HeapPage, or null until one is. The
+	 * tuples read from disk are decoded from m_data when they are asked for,
+	 * and kept here unless the page is in a frame, so a used slot may hold
+	 * null. A page in a frame keeps only the tuples changed since its last
+	 * commit.
+	 */
+	private Tuple m_tuples[];
+
+	/**
+	 * The bytes the tuples not yet decoded are read from: the bytes the page
+	 * was created from, which are never modified, or the frame of the page
+	 * while it is in the BufferPool, which holds its committed contents.
+	 * Guarded, with m_frame and oldData, by m_dataLock.
+	 */
+	private ByteBuffer m_data;
+
+	/**
+	 * The frame m_data is, or null if the page is not in a frame.
+	 */
+	private FrameArena.Frame m_frame;
+
+	/**
+	 * A tuple of a frame, copied out for TupleFilters and getPageData, which
+	 * cannot read a frame in place. Guarded by m_dataLock.
+	 */
+	private byte[] m_slotBuf;
+
+	/**
+	 * The offset of each field within a tuple.
 	 */
-	Tuple m_tuples[];
+	final int[] m_fieldOffsets;
 
 	/**
 	 * The number of slots in this HeapPage.
@@ -44,8 +84,12 @@ public class HeapPage implements Page {
 	 */
 	TransactionId m_tid;
 
+	/**
+	 * The committed contents of the page, unless it is in a frame, which
+	 * then holds them.
+	 */
 	byte[] oldData;
-	private final Byte oldDataLock = new Byte((byte) 0);
+	private final Object m_dataLock = new Object();
 
 	/**
 	 * Create a HeapPage from a set of bytes of data read from disk. The format
@@ -53,10 +97,11 @@ public class HeapPage implements Page {
 	 * that are in use, some number of tuple slots. Specifically, the number of
 	 * tuples is equal to:
 	 * <p>
-	 * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+	 * floor((page size*8) / (tuple size * 8 + 1))
 	 * <p>
 	 * where tuple size is the size of tuples in this database table, which can
-	 * be determined via {@link Catalog#getTupleDesc}. The number of 8-bit
+	 * be determined via {@link Catalog#getTupleDesc}, and page size is that of
+	 * the table, from {@link Catalog#getPageSize}. The number of 8-bit
 	 * header words is equal to:
 	 * <p>
 	 * ceiling(no. tuple slots / 8)
@@ -64,32 +109,88 @@ public class HeapPage implements Page {
 	 * 
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
+	 * <p>
+	 * The page keeps data, which must not be modified afterwards, and decodes
+	 * its tuples only when they are asked for.
+	 * 
 	 * @see BufferPool#getPageSize()
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
 		this.m_heapPageId = id;
-		this.m_td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.m_td = storedTupleDesc(id.getTableId());
+		this.m_pageSize = Database.getCatalog().getPageSize(id.getTableId());
 
 		this.m_numSlots = getNumTuples();
-		DataInputStream dis = new DataInputStream(
-				new ByteArrayInputStream(data));
+		if (data.length < m_pageSize)
+			throw new IOException("page data is " + data.length
+					+ " bytes long");
+		m_data = ByteBuffer.wrap(data);
 
 		// allocate and read the header slots of this page
 		m_header = new byte[getHeaderSize()];
-		for (int i = 0; i < m_header.length; i++)
-			m_header[i] = dis.readByte();
+		System.arraycopy(data, 0, m_header, 0, m_header.length);
 
-		m_tuples = new Tuple[m_numSlots];
-		try {
-			// allocate and read the actual records of this page
-			for (int i = 0; i < m_tuples.length; i++)
-				m_tuples[i] = readNextTuple(dis, i);
-		} catch (NoSuchElementException e) {
-			e.printStackTrace();
+		m_fieldOffsets = TupleFilter.fieldOffsets(m_td);
+
+		// data is never modified, so it is the before image as it is
+		oldData = data;
+	}
+
+	/**
+	 * Move the data of the page, which must not be dirty, into frame, which
+	 * then holds its committed contents, so that the page keeps no copy of
+	 * its data on the heap. Called by the BufferPool as the page is cached.
+	 */
+	void attach(FrameArena.Frame frame) {
+		synchronized (m_dataLock) {
+			ByteBuffer b = frame.getBuffer().duplicate();
+			b.clear();
+			b.put(oldData, 0, m_pageSize);
+			m_data = frame.getBuffer();
+			m_frame = frame;
+			oldData = null;
 		}
-		dis.close();
+	}
 
-		setBeforeImage();
+	/**
+	 * Move the data of the page out of its frame back onto the heap, so that
+	 * the page can still be used once the frame is reused. Called by the
+	 * BufferPool as the page leaves it.
+	 * 
+	 * @return the frame the page was in, or null
+	 */
+	FrameArena.Frame detach() {
+		synchronized (m_dataLock) {
+			FrameArena.Frame frame = m_frame;
+			if (frame == null)
+				return null;
+			byte[] data = frameData();
+			m_data = ByteBuffer.wrap(data);
+			m_frame = null;
+			oldData = data;
+			return frame;
+		}
+	}
+
+	/**
+	 * @return a copy of the frame of the page; m_dataLock must be held
+	 */
+	private byte[] frameData() {
+		byte[] data = new byte[m_pageSize];
+		ByteBuffer b = m_frame.getBuffer().duplicate();
+		b.clear();
+		b.get(data);
+		return data;
+	}
+
+	/**
+	 * @return the TupleDesc of the tuples as stored in the pages of table
+	 *         tableid
+	 * @see DbFile#getStoredTupleDesc()
+	 */
+	static TupleDesc storedTupleDesc(int tableid) {
+		return Database.getCatalog().getDatabaseFile(tableid)
+				.getStoredTupleDesc();
 	}
 
 	/**
@@ -100,7 +201,7 @@ public class HeapPage implements Page {
 	private int getNumTuples() {
 		// some code goes here
 		int bitsPerTupleIncludingHeader = m_td.getSize() * 8 + 1;
-		int tuplesPerPage = (BufferPool.getPageSize() * 8)
+		int tuplesPerPage = (m_pageSize * 8)
 				/ bitsPerTupleIncludingHeader; // round down
 		return tuplesPerPage;
 	}
@@ -129,8 +230,8 @@ public class HeapPage implements Page {
 	public HeapPage getBeforeImage() {
 		try {
 			byte[] oldDataRef = null;
-			synchronized (oldDataLock) {
-				oldDataRef = oldData;
+			synchronized (m_dataLock) {
+				oldDataRef = m_frame != null ? frameData() : oldData;
 			}
 			return new HeapPage(m_heapPageId, oldDataRef);
 		} catch (IOException e) {
@@ -142,9 +243,87 @@ public class HeapPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		synchronized (oldDataLock) {
-			oldData = getPageData().clone();
+		synchronized (m_dataLock) {
+			setCommitted(getPageData());
+			// the frame now decodes every tuple as the page has it
+			if (m_frame != null)
+				m_tuples = null;
+		}
+	}
+
+	/**
+	 * Set the before image to the given page data rather than to the current
+	 * contents. Used in row-locking mode, where the page may also hold
+	 * changes of transactions that have not committed yet.
+	 */
+	public void setBeforeImage(byte[] data) {
+		synchronized (m_dataLock) {
+			setCommitted(data.clone());
+			if (m_frame != null)
+				dropCommittedTuples(data);
+		}
+	}
+
+	/**
+	 * Stop keeping the tuples that are in data, the committed contents, as
+	 * the page has them, which the frame now decodes the same; the tuples
+	 * of changes not committed yet are kept. m_dataLock must be held.
+	 */
+	private void dropCommittedTuples(byte[] data) {
+		Tuple[] tuples = m_tuples;
+		if (tuples == null)
+			return;
+		byte[] current = getPageData();
+		int size = m_td.getSize();
+		boolean kept = false;
+		for (int i = 0; i < m_numSlots; i++) {
+			if (tuples[i] == null)
+				continue;
+			int off = slotOffset(i);
+			boolean committed = (data[i / 8] & (1 << (i % 8))) != 0;
+			for (int k = 0; committed && k < size; k++)
+				committed = data[off + k] == current[off + k];
+			if (committed)
+				tuples[i] = null;
+			else
+				kept = true;
+		}
+		if (!kept)
+			m_tuples = null;
+	}
+
+	/**
+	 * Make data, which must not be modified afterwards, the before image of
+	 * the page, writing it to the frame of the page if it is in one. The
+	 * tuples of the frame that the page has not changed since are then as
+	 * they were, so they still decode the same. m_dataLock must be held.
+	 */
+	private void setCommitted(byte[] data) {
+		if (m_frame == null) {
+			oldData = data;
+			return;
+		}
+		ByteBuffer b = m_frame.getBuffer().duplicate();
+		b.clear();
+		b.put(data, 0, m_pageSize);
+	}
+
+	/**
+	 * @return the tuple of slot i kept by the page, decoded or changed, or
+	 *         null
+	 */
+	Tuple cachedTuple(int i) {
+		Tuple[] tuples = m_tuples;
+		return tuples == null ? null : tuples[i];
+	}
+
+	private void setCachedTuple(int i, Tuple t) {
+		if (m_tuples == null) {
+			if (t == null)
+				return;
+			m_tuples = new Tuple[m_numSlots];
 		}
+		m_tuples[i] = t;
 	}
 
 	/**
@@ -156,23 +335,19 @@ public class HeapPage implements Page {
 	}
 
 	/**
-	 * Suck up tuples from the source file.
+	 * @return the offset in the page data of the tuple in slot slotId
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId)
-			throws NoSuchElementException {
+	private int slotOffset(int slotId) {
+		return m_header.length + slotId * m_td.getSize();
+	}
 
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i = 0; i < m_td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException(
-							"error reading empty tuple");
-				}
-			}
-			return null;
+	/**
+	 * Decode the tuple in slot slotId from the page data.
+	 */
+	private Tuple readTuple(int slotId) throws NoSuchElementException {
+		DataInputStream dis;
+		synchronized (m_dataLock) {
+			dis = new DataInputStream(slotStream(slotId));
 		}
 
 		// read fields in the tuple
@@ -192,6 +367,178 @@ public class HeapPage implements Page {
 		return t;
 	}
 
+	/**
+	 * @return a stream of the bytes of the tuple in slot slotId of the page
+	 *         data; m_dataLock must be held
+	 */
+	private ByteArrayInputStream slotStream(int slotId) {
+		int off = slotOffset(slotId);
+		if (m_data.hasArray())
+			return new ByteArrayInputStream(m_data.array(), m_data
+					.arrayOffset() + off, m_td.getSize());
+		byte[] slot = new byte[m_td.getSize()];
+		copy(off, slot, 0, slot.length);
+		return new ByteArrayInputStream(slot);
+	}
+
+	/**
+	 * Copy len bytes at offset off of the page data to dst; m_dataLock must
+	 * be held.
+	 */
+	private void copy(int off, byte[] dst, int dstOff, int len) {
+		for (int k = 0; k < len; k++)
+			dst[dstOff + k] = m_data.get(off + k);
+	}
+
+	/**
+	 * @return the int stored at offset off of the page data; m_dataLock must
+	 *         be held
+	 */
+	private int readInt(int off) {
+		return m_data.getInt(off);
+	}
+
+	/**
+	 * @return the string stored at offset off of the page data; m_dataLock
+	 *         must be held
+	 */
+	private String readString(int off) {
+		int len = readInt(off);
+		if (m_data.hasArray())
+			return new String(m_data.array(), m_data.arrayOffset() + off + 4,
+					len);
+		byte[] b = new byte[len];
+		copy(off + 4, b, 0, len);
+		return new String(b);
+	}
+
+	/**
+	 * Evaluate a filter against the tuple in the used slot i. A tuple not
+	 * decoded yet is evaluated against the page data, so that tuples that do
+	 * not match are never decoded.
+	 * 
+	 * @return true if the tuple satisfies the filter
+	 */
+	boolean matches(int i, TupleFilter filter) {
+		Tuple t = cachedTuple(i);
+		if (t != null)
+			return filter.matches(t);
+		synchronized (m_dataLock) {
+			int off = slotOffset(i);
+			if (m_data.hasArray())
+				return filter.matches(m_data.array(), m_data.arrayOffset()
+						+ off);
+			if (m_slotBuf == null)
+				m_slotBuf = new byte[m_td.getSize()];
+			copy(off, m_slotBuf, 0, m_slotBuf.length);
+			return filter.matches(m_slotBuf, 0);
+		}
+	}
+
+	/**
+	 * Add the tuples of the page that satisfy filter to a batch,
+	 * starting at slot fromSlot, until the batch is full. Tuples not decoded
+	 * yet are copied from the page data straight into the vectors of the
+	 * batch.
+	 *
+	 * @param filter
+	 *            the filter the tuples added must satisfy, or null
+	 * @return the slot to continue from, or the number of slots if every
+	 *         slot has been read
+	 */
+	int readBatch(int fromSlot, TupleBatch b, TupleFilter filter) {
+		return readBatch(fromSlot, b, filter, null, true);
+	}
+
+	/**
+	 * Add the tuples of the page that satisfy filter to a batch, as
+	 * {@link #readBatch(int, TupleBatch, TupleFilter)} does, but with only
+	 * some of their fields.
+	 *
+	 * @param columns
+	 *            the field of the tuples that each field of the batch holds,
+	 *            or -1 for a field of the batch to leave unset; null if the
+	 *            batch holds every field
+	 * @param rids
+	 *            whether to set the record ids of the rows
+	 */
+	int readBatch(int fromSlot, TupleBatch b, TupleFilter filter,
+			int[] columns, boolean rids) {
+		synchronized (m_dataLock) {
+			return readBatchLocked(fromSlot, b, filter, columns, rids);
+		}
+	}
+
+	private int readBatchLocked(int fromSlot, TupleBatch b,
+			TupleFilter filter, int[] columns, boolean rids) {
+		int n = columns == null ? m_fieldOffsets.length : columns.length;
+		int i = fromSlot;
+		for (; i < m_numSlots && !b.isFull(); i++) {
+			if (!isSlotUsed(i)
+					|| (filter != null && !matches(i, filter)))
+				continue;
+			int row = b.addRow();
+			Tuple t = cachedTuple(i);
+			if (t != null && columns == null) {
+				b.setFields(row, 0, t);
+			} else {
+				for (int k = 0; k < n; k++) {
+					int j = columns == null ? k : columns[k];
+					if (j < 0)
+						continue;
+					if (t != null) {
+						Field f = t.getField(j);
+						if (f.getType() == Type.INT_TYPE)
+							b.getInts(k)[row] = ((IntField) f).getValue();
+						else
+							b.getStrings(k)[row] = ((StringField) f).getValue();
+						continue;
+					}
+					int off = slotOffset(i) + m_fieldOffsets[j];
+					if (m_td.getFieldType(j) == Type.INT_TYPE)
+						b.getInts(k)[row] = readInt(off);
+					else
+						b.getStrings(k)[row] = readString(off);
+				}
+			}
+			if (rids)
+				b.getRecordIds()[row] = new RecordId(m_heapPageId, i);
+		}
+		return i;
+	}
+
+	/**
+	 * @return the tuple in the used slot i with only some of its fields. A
+	 *         tuple not decoded yet has only those fields decoded from the
+	 *         page data, and stays undecoded.
+	 * 
+	 * @param columns
+	 *            the field of the tuple that each field of the result is
+	 * @param td
+	 *            the TupleDesc of the result
+	 */
+	Tuple getTuple(int i, int[] columns, TupleDesc td) {
+		Tuple full = cachedTuple(i);
+		Tuple t = new Tuple(td);
+		synchronized (m_dataLock) {
+			for (int k = 0; k < columns.length; k++) {
+				int j = columns[k];
+				if (full != null) {
+					t.setField(k, full.getField(j));
+				} else {
+					int off = slotOffset(i) + m_fieldOffsets[j];
+					if (m_td.getFieldType(j) == Type.INT_TYPE)
+						t.setField(k, new IntField(readInt(off)));
+					else
+						t.setField(k, new StringField(readString(off),
+								Type.STRING_LEN));
+				}
+			}
+		}
+		t.setRecordId(new RecordId(m_heapPageId, i));
+		return t;
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page. Used to
 	 * serialize this page to disk.
@@ -204,7 +551,13 @@ public class HeapPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		synchronized (m_dataLock) {
+			return getPageDataLocked();
+		}
+	}
+
+	private byte[] getPageDataLocked() {
+		int len = m_pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -219,7 +572,7 @@ public class HeapPage implements Page {
 		}
 
 		// create the tuples
-		for (int i = 0; i < m_tuples.length; i++) {
+		for (int i = 0; i < m_numSlots; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
@@ -234,9 +587,27 @@ public class HeapPage implements Page {
 				continue;
 			}
 
-			// non-empty slot
+			// non-empty slot not decoded yet
+			Tuple t = cachedTuple(i);
+			if (t == null) {
+				try {
+					if (m_data.hasArray()) {
+						dos.write(m_data.array(), m_data.arrayOffset()
+								+ slotOffset(i), m_td.getSize());
+					} else {
+						if (m_slotBuf == null)
+							m_slotBuf = new byte[m_td.getSize()];
+						copy(slotOffset(i), m_slotBuf, 0, m_slotBuf.length);
+						dos.write(m_slotBuf);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				continue;
+			}
+
 			for (int j = 0; j < m_td.numFields(); j++) {
-				Field f = m_tuples[i].getField(j);
+				Field f = t.getField(j);
 				try {
 					f.serialize(dos);
 
@@ -247,8 +618,8 @@ public class HeapPage implements Page {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize()
-				- (m_header.length + m_td.getSize() * m_tuples.length); // -
+		int zerolen = m_pageSize
+				- (m_header.length + m_td.getSize() * m_numSlots); // -
 																		// numSlots
 																		// *
 																		// td.getSize();
@@ -277,8 +648,15 @@ public class HeapPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; // all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * @return the data of an empty HeapPage of a table with pages of
+	 *         pageSize bytes
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; // all 0
 	}
 
 	/**
@@ -301,7 +679,7 @@ public class HeapPage implements Page {
 			if (isSlotUsed(tupleIndex)) {
 				markSlotUsed(tupleIndex, false);
 				t.setRecordId(null);
-				m_tuples[tupleIndex] = null;
+				setCachedTuple(tupleIndex, null);
 				return;
 			}
 		} 
@@ -334,11 +712,37 @@ public class HeapPage implements Page {
 					break;
 			}
 			t.setRecordId(new RecordId(m_heapPageId, i));//update the rid
-			m_tuples[i] = t;
+			setCachedTuple(i, t);
 			markSlotUsed(i, true);
 		}
 	}
 
+	/**
+	 * Adds the specified tuple to the given slot of the page. Used in
+	 * row-locking mode, where the caller picks a free slot it was able to
+	 * lock, and to undo a delete.
+	 * 
+	 * @throws DbException
+	 *             if the slot is in use or the tupledesc is mismatched.
+	 */
+	public void insertTuple(Tuple t, int slot) throws DbException {
+		if (slot < 0 || slot >= m_numSlots || isSlotUsed(slot))
+			throw new DbException("slot " + slot + " is not free");
+		if (!m_td.equals(t.getTupleDesc()))
+			throw new DbException("Tuple Desc mismatch");
+		t.setRecordId(new RecordId(m_heapPageId, slot));
+		setCachedTuple(slot, t);
+		markSlotUsed(slot, true);
+	}
+
+	/**
+	 * Empty the given slot. Used to undo an insert in row-locking mode.
+	 */
+	public void clearSlot(int slot) {
+		setCachedTuple(slot, null);
+		markSlotUsed(slot, false);
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction that did
 	 * the dirtying
@@ -361,6 +765,13 @@ public class HeapPage implements Page {
 		return m_tid;
 	}
 
+	/**
+	 * @return the number of slots on this page, used or not.
+	 */
+	public int getNumSlots() {
+		return m_numSlots;
+	}
+
 	/**
 	 * @return the number of empty slots on this page.
 	 */
@@ -408,7 +819,41 @@ public class HeapPage implements Page {
 	 */
 	public Iterator<Tuple> iterator() {
 		// some code goes here
-		return new HeapPageIterator(this);
+		return new HeapPageIterator(this, null, null, null);
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page that satisfy every
+	 *         predicate of filters. Tuples that do not are rejected from the
+	 *         page data, without being decoded.
+	 */
+	public Iterator<Tuple> iterator(Predicate[] filters) {
+		if (filters == null || filters.length == 0)
+			return iterator();
+		return iterator(new PredicateFilter(m_td, filters));
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page that satisfy filter,
+	 *         evaluated against the page data for tuples not decoded yet
+	 */
+	public Iterator<Tuple> iterator(TupleFilter filter) {
+		return new HeapPageIterator(this, filter, null, null);
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page that satisfy filter,
+	 *         each with only some of its fields
+	 * @param filter
+	 *            the filter the tuples must satisfy, or null
+	 * @param columns
+	 *            the field of the tuples that each field returned is
+	 * @param td
+	 *            the TupleDesc of the tuples returned
+	 */
+	public Iterator<Tuple> iterator(TupleFilter filter, int[] columns,
+			TupleDesc td) {
+		return new HeapPageIterator(this, filter, columns, td);
 	}
 
 	/**
@@ -426,7 +871,15 @@ public class HeapPage implements Page {
 			if (!isSlotUsed(i)) {
 				return null;
 			} else {
-				return m_tuples[i];
+				Tuple t = cachedTuple(i);
+				if (t == null) {
+					t = readTuple(i);
+					// a page in a frame decodes its tuples each time, so
+					// that the heap holds only the tuples it changed
+					if (m_frame == null)
+						setCachedTuple(i, t);
+				}
+				return t;
 			}
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new NoSuchElementException();
@@ -452,14 +905,37 @@ public class HeapPage implements Page {
 		 */
 		HeapPage m_heapPage;
 
+		/**
+		 * The filter the tuples returned satisfy, or null.
+		 */
+		TupleFilter m_filter;
+
+		/**
+		 * The fields of the tuples returned, and their TupleDesc, or null
+		 * for whole tuples.
+		 */
+		int[] m_columns;
+		TupleDesc m_columnsTd;
+
 		/**
 		 * Constructor sets the HeapPage for this iterator
 		 * 
 		 * @param p
 		 *            The HeapPage to iterate over
+		 * @param filter
+		 *            The filter the tuples returned must satisfy, or null
+		 * @param columns
+		 *            The fields of the tuples to return, or null
+		 * @param td
+		 *            The TupleDesc of the tuples returned, if columns is not
+		 *            null
 		 */
-		public HeapPageIterator(HeapPage p) {
+		public HeapPageIterator(HeapPage p, TupleFilter filter,
+				int[] columns, TupleDesc td) {
 			m_heapPage = p;
+			m_filter = filter;
+			m_columns = columns;
+			m_columnsTd = td;
 		}
 
 		/**
@@ -469,15 +945,17 @@ public class HeapPage implements Page {
 			if (m_next != null) {
 				return true;
 			}
-			try {
-				while (true) {
-					m_next = m_heapPage.getTuple(m_currentIdx++);
-					if (m_next != null)
-						return true;
+			while (m_currentIdx < m_heapPage.m_numSlots) {
+				int i = m_currentIdx++;
+				if (m_heapPage.isSlotUsed(i)
+						&& (m_filter == null || m_heapPage.matches(i,
+								m_filter))) {
+					m_next = m_columns == null ? m_heapPage.getTuple(i)
+							: m_heapPage.getTuple(i, m_columns, m_columnsTd);
+					return true;
 				}
-			} catch (NoSuchElementException e) {
-				return false;
 			}
+			return false;
 		}
 
 		/**
@@ -56,17 +56,36 @@ public class IntegerAggregator implements Aggregator {
 	 */
 	
 	public void mergeTupleIntoGroup(Tuple tup){
-		Field tupGrpVal;				// for storing the group info
-		IntField tmpResult;			// for storing the intField value for every group and every op
-		
 		if (td == null)
 			td = createTd(tup);
 		
-		IntField tupAggVal = (IntField) tup.getField(aField);
 		if(gbField == Aggregator.NO_GROUPING)
-			tupGrpVal = new IntField(Aggregator.NO_GROUPING);
+			merge(new IntField(Aggregator.NO_GROUPING), (IntField) tup.getField(aField));
 		else
-			tupGrpVal = tup.getField(gbField);
+			merge(tup.getField(gbField), (IntField) tup.getField(aField));
+	}
+
+	public void mergeBatchIntoGroup(TupleBatch b) {
+		if (td == null)
+			td = createTd(b.getTupleDesc());
+
+		int[] values = b.getInts(aField);
+		int[] sel = b.selection();
+		Field noGroup = new IntField(Aggregator.NO_GROUPING);
+		for (int k = 0; k < b.numSelected(); k++) {
+			int row = sel[k];
+			if (gbField == Aggregator.NO_GROUPING)
+				merge(noGroup, new IntField(values[row]));
+			else
+				merge(b.getField(row, gbField), new IntField(values[row]));
+		}
+	}
+
+	/**
+	 * Merge the aggregate value of a tuple into its group.
+	 */
+	private void merge(Field tupGrpVal, IntField tupAggVal) {
+		IntField tmpResult;			// for storing the intField value for every group and every op
 		
 		boolean isNewGroup = grouptoResult.get(tupGrpVal) == null;
 		switch(opItself)
@@ -162,13 +181,21 @@ public class IntegerAggregator implements Aggregator {
 
 	
 	public TupleDesc createTd(Tuple tup)
+    {
+    	return createTd(tup.getTupleDesc());
+    }
+
+	/**
+	 * Create the schema of the aggregate results of tuples with schema inTd.
+	 */
+	private TupleDesc createTd(TupleDesc inTd)
     {
     	// use the TupleDesc constructor
     	
     	String[] tmpStr;
     	Type[] tmpType;
     	
-    	String aggField = tup.getTupleDesc().getFieldName(aField);
+    	String aggField = inTd.getFieldName(aField);
     	
     	// test if there is a grouping or not
     	if(gbField == Aggregator.NO_GROUPING)
@@ -178,8 +205,8 @@ public class IntegerAggregator implements Aggregator {
     	}
     	else
     	{
-    		String groupField = tup.getTupleDesc().getFieldName(gbField);
-        	Type groupType = tup.getTupleDesc().getFieldType(gbField);
+    		String groupField = inTd.getFieldName(gbField);
+        	Type groupType = inTd.getFieldType(gbField);
     		tmpStr = new String[]{groupField, aggField};		// first entry should be the group, second should be the agg value
     	    tmpType = new Type[]{groupType, Type.INT_TYPE};
     	}
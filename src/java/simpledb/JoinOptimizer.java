@@ -13,7 +13,6 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
-    PlanCache pc;
     /**
      * Constructor
      * 
@@ -25,7 +24,6 @@ public class JoinOptimizer {
     public JoinOptimizer(LogicalPlan p, Vector<LogicalJoinNode> joins) {
         this.p = p;
         this.joins = joins;
-        this.pc = new PlanCache();
     }
 
     /**
@@ -35,6 +33,9 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is executed with lj.algorithm; the blocked algorithms hold as
+     * many outer tuples in memory as fit in {@link #getJoinMemory} bytes.
      * 
      * @param lj
      *            The join being considered
@@ -69,12 +70,64 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (!canUse(lj.algorithm, lj.p))
+            throw new ParsingException("Cannot join on " + lj.p + " with "
+                    + lj.algorithm);
+        int blockTuples = Math.max(1, joinMemoryBytes
+                / Math.max(1, plan1.getTupleDesc().getSize()));
+        switch (lj.algorithm) {
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(p, plan1, plan2, blockTuples);
+            break;
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2, blockTuples);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
     }
 
+    /** Default of {@link #getJoinMemory}: 1MB. */
+    public static final int DEFAULT_JOIN_MEMORY = 1 << 20;
+
+    /** Bytes of tuples a join may hold in memory. */
+    private static volatile int joinMemoryBytes = DEFAULT_JOIN_MEMORY;
+
+    /** @return the number of bytes of tuples a join may hold in memory */
+    public static int getJoinMemory() {
+        return joinMemoryBytes;
+    }
+
+    /**
+     * Set the number of bytes of tuples a join may hold in memory: the size
+     * of the blocks of outer tuples of the block nested-loop and hash joins,
+     * and the most a sort-merge join is planned to sort.
+     */
+    public static void setJoinMemory(int bytes) {
+        joinMemoryBytes = bytes;
+    }
+
+    private static final LogicalJoinNode.Algorithm[] ALGORITHMS = LogicalJoinNode.Algorithm
+            .values();
+
+    /** @return true if joins on op can be executed with algorithm a */
+    static boolean canUse(LogicalJoinNode.Algorithm a, Predicate.Op op) {
+        switch (a) {
+        case HASH:
+            return op == Predicate.Op.EQUALS;
+        case SORT_MERGE:
+            return SortMergeJoin.supports(op);
+        default:
+            return true;
+        }
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -103,19 +156,98 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        if (j.algorithm == LogicalJoinNode.Algorithm.NESTED_LOOP)
+            return estimateJoinCost(j, j.algorithm, card1, card2, cost1,
+                    cost2, 0, 0);
+        return estimateJoinCost(j, j.algorithm, card1, card2, cost1, cost2,
+                tupleWidth(j.t1Alias), tupleWidth(j.t2Alias));
+    }
+
+    /**
+     * Estimate the cost of a join executed with a given algorithm. With B
+     * the number of blocks of outer tuples that fit in
+     * {@link #getJoinMemory}, the costs are:
+     * <ul>
+     * <li>nested loop: cost1 + card1*cost2 + card1*card2</li>
+     * <li>block nested loop: cost1 + B*cost2 + card1*card2</li>
+     * <li>hash: cost1 + B*cost2 + card1 + B*card2, building a table of each
+     * block and probing it with each inner tuple</li>
+     * <li>sort-merge: cost1 + cost2 plus sorting and merging both inputs, if
+     * both fit in memory together; infinite otherwise</li>
+     * </ul>
+     * 
+     * @param a
+     *            The algorithm to execute the join with
+     * @param width1
+     *            Size in bytes of the tuples of the left-hand side
+     * @param width2
+     *            Size in bytes of the tuples of the right-hand side
+     * @return The estimated cost, or infinity if j cannot be executed with a
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j,
+            LogicalJoinNode.Algorithm a, int card1, int card2, double cost1,
+            double cost2, int width1, int width2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
-        } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
-            return cost1+(card1*cost2)+(card1*card2);
+        }
+        if (!canUse(a, j.p))
+            return Double.POSITIVE_INFINITY;
+        // in doubles, so large products do not overflow
+        double c1 = card1, c2 = card2;
+        double blocks = Math.max(1, Math.ceil(c1 * width1 / joinMemoryBytes));
+        switch (a) {
+        case BLOCK_NESTED_LOOP:
+            return cost1 + blocks * cost2 + c1 * c2;
+        case HASH:
+            return cost1 + blocks * cost2 + c1 + blocks * c2;
+        case SORT_MERGE:
+            if (c1 * width1 + c2 * width2 > joinMemoryBytes)
+                return Double.POSITIVE_INFINITY;
+            return cost1 + cost2 + sortCost(c1) + sortCost(c2) + c1 + c2;
+        default:
+            return cost1 + c1 * cost2 + c1 * c2;
         }
     }
 
+    /** @return the number of comparisons to sort card tuples */
+    private static double sortCost(double card) {
+        return card < 2 ? 0 : card * Math.log(card) / Math.log(2);
+    }
+
+    /**
+     * @return the algorithm with which the join is cheapest; always
+     *         NESTED_LOOP for subqueries
+     */
+    private LogicalJoinNode.Algorithm cheapestAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, int width1,
+            int width2) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+        if (j instanceof LogicalSubplanJoinNode)
+            return best;
+        double bestCost = estimateJoinCost(j, best, card1, card2, cost1,
+                cost2, width1, width2);
+        for (LogicalJoinNode.Algorithm a : ALGORITHMS) {
+            double c = estimateJoinCost(j, a, card1, card2, cost1, cost2,
+                    width1, width2);
+            if (c < bestCost) {
+                bestCost = c;
+                best = a;
+            }
+        }
+        return best;
+    }
+
+    /** @return the size in bytes of the tuples of a table, or 0 if unknown */
+    private int tupleWidth(String alias) {
+        Integer id = alias == null ? null : this.p.getTableId(alias);
+        if (id == null)
+            return 0;
+        return Database.getCatalog().getTupleDesc(id).getSize();
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -149,68 +281,167 @@ public class JoinOptimizer {
     }
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * Joins on a primary key produce one tuple per tuple of the other
+     * table. Otherwise the selectivity comes from the distinct-value counts
+     * and histograms in the tables' statistics, falling back to fixed
+     * guesses when those are not available.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
+        double cross = (double) card1 * card2;
         switch (joinOp) {
         	case NOT_EQUALS:
         	case EQUALS:
         	{
-        		if (t1pkey) return card2;
-        		if (t2pkey) return card1;
-        		if (card1 > card2) return card1;
-        			return card2;
+        		double equal;
+        		if (t1pkey)
+        			equal = card2;
+        		else if (t2pkey)
+        			equal = card1;
+        		else {
+        			double sel = joinSelectivity(Predicate.Op.EQUALS,
+        					table1Alias, table2Alias, field1PureName,
+        					field2PureName, stats, tableAliasToId);
+        			equal = sel < 0 ? Math.max(card1, card2) : Math.max(1, cross * sel);
+        		}
+        		equal = Math.min(equal, cross);
+        		if (joinOp == Predicate.Op.EQUALS)
+        			return toCardinality(equal);
+        		return toCardinality(cross - equal);
         	}
         	case GREATER_THAN:
         	case GREATER_THAN_OR_EQ:
         	case LESS_THAN:
         	case LESS_THAN_OR_EQ:
         	case LIKE:
-        		// It is fine to assume that a fixed fraction of the cross-product is emitted by range scans (say, 30%)
-        		return (int)((card1 * card2) * 0.3);
+        	{
+        		double sel = joinSelectivity(joinOp, table1Alias, table2Alias,
+        				field1PureName, field2PureName, stats, tableAliasToId);
+        		// without statistics, assume a fixed fraction of the cross-product is emitted by range scans (say, 30%)
+        		if (sel < 0)
+        			sel = 0.3;
+        		return toCardinality(cross * sel);
+        	}
         }
         return 0;
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * @return the selectivity of <tt>table1.field1 op table2.field2</tt> on
+     *         the cross product of the two base tables according to their
+     *         statistics, or -1 if there are none
      */
-    @SuppressWarnings("unchecked")
-    public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
-        Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+    private static double joinSelectivity(Predicate.Op op, String table1Alias,
+            String table2Alias, String field1PureName, String field2PureName,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        if (stats == null || tableAliasToId == null)
+            return -1;
+        Integer id1 = tableAliasToId.get(table1Alias);
+        Integer id2 = tableAliasToId.get(table2Alias);
+        if (id1 == null || id2 == null)
+            return -1;
+        Catalog catalog = Database.getCatalog();
+        TableStats s1 = stats.get(catalog.getTableName(id1));
+        TableStats s2 = stats.get(catalog.getTableName(id2));
+        if (s1 == null || s2 == null)
+            return -1;
+        int f1, f2;
+        try {
+            f1 = catalog.getTupleDesc(id1).fieldNameToIndex(field1PureName);
+            f2 = catalog.getTupleDesc(id2).fieldNameToIndex(field2PureName);
+        } catch (NoSuchElementException e) {
+            return -1;
         }
+        return s1.estimateJoinSelectivity(f1, op, s2, f2);
+    }
+
+    /** Round an estimated cardinality to an int, saturating on overflow. */
+    private static int toCardinality(double card) {
+        if (card >= Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        return (int) Math.max(0, Math.round(card));
+    }
+
+    /**
+     * Largest number of joins that the left-deep enumeration handles; its
+     * plan table has an entry for each of the 2^n subsets of the joins.
+     */
+    static final int MAX_DP_JOINS = 20;
+
+    /**
+     * Joins of at most this many tables whose join graph is a tree are
+     * planned as bushy trees.
+     */
+    private static volatile int bushyTableLimit = 10;
+
+    /**
+     * Joins of at most this many tables are ordered exhaustively; larger ones
+     * are ordered greedily.
+     */
+    private static volatile int exhaustiveTableLimit = 16;
+
+    /**
+     * Time in milliseconds the exhaustive enumerations may take before
+     * {@link #orderJoins} gives up on them and orders the joins greedily.
+     */
+    private static volatile long planningBudgetMillis = 1000;
+
+    /** @return the largest number of tables planned as bushy trees */
+    public static int getBushyTableLimit() {
+        return bushyTableLimit;
+    }
+
+    /** Set the largest number of tables planned as bushy trees. */
+    public static void setBushyTableLimit(int tables) {
+        bushyTableLimit = tables;
+    }
+
+    /** @return the largest number of tables ordered exhaustively */
+    public static int getExhaustiveTableLimit() {
+        return exhaustiveTableLimit;
+    }
 
-        return els;
+    /**
+     * Set the largest number of tables ordered exhaustively. Joins of more
+     * tables, or of more than {@link #MAX_DP_JOINS} joins, are ordered
+     * greedily.
+     */
+    public static void setExhaustiveTableLimit(int tables) {
+        exhaustiveTableLimit = tables;
+    }
+
+    /** @return the planning-time budget of the exhaustive enumerations, in ms */
+    public static long getPlanningBudget() {
+        return planningBudgetMillis;
+    }
 
+    /** Set the planning-time budget of the exhaustive enumerations, in ms. */
+    public static void setPlanningBudget(long millis) {
+        planningBudgetMillis = millis;
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * project description for hints on how this should be implemented.
+     * <p>
+     * The joins are returned in the order they should be executed; each join
+     * combines the subplans that contain its two tables, so the order may
+     * describe a bushy tree. Which plans are considered depends on the size
+     * of the query:
+     * <ul>
+     * <li>up to {@link #getBushyTableLimit} tables joined along a tree of
+     * joins: every bushy tree, by dynamic programming over the subsets of the
+     * tables;</li>
+     * <li>up to {@link #getExhaustiveTableLimit} tables: every left-deep tree,
+     * by dynamic programming over the subsets of the joins;</li>
+     * <li>otherwise, or if the enumeration takes longer than
+     * {@link #getPlanningBudget}: greedy operator ordering, which repeatedly
+     * performs the join with the smallest result.</li>
+     * </ul>
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -222,218 +453,585 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
-     *             join, or or when another internal error occurs
+     *             join, or when the joins do not connect all of their tables
      */
     public Vector<LogicalJoinNode> orderJoins(
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
+        if (joins.isEmpty())
+            return new Vector<LogicalJoinNode>();
+
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        long deadline = System.nanoTime() + planningBudgetMillis * 1000000L;
+        Vector<LogicalJoinNode> order = null;
+        if (g.numTables() <= bushyTableLimit && g.isTree())
+            order = orderBushy(g, stats, deadline);
+        else if (g.numTables() <= exhaustiveTableLimit
+                && joins.size() <= MAX_DP_JOINS)
+            order = orderLeftDeep(g, stats, deadline);
+        // too large a query, or out of time
+        if (order == null)
+            order = orderGreedy(g, stats);
+
+        // If need to print out the join structure
+        if (explain) {
+            this.printJoins(order, stats, filterSelectivities);
+        }
 
-    	// Psudo-code for orderJoins
-    	//	j = set of join nodes
-    	//  for (i in 1...|j|):
-    	//		for s in {all length i subsets of j}
-    	//			bestPlan = {}
-    	//			for s' in {all length d-1 subsets of s}
-    	//				subplan = optjoin(s')
-    	//				plan = best way to join (s-s') to subplan
-    	//				if (cost(plan) < cost(bestPlan))
-    	//					bestPlan = plan
-    	//			optjoin(s) = bestPlan
-    	// return optjoin(j)
-    	    
-    	for(int i=1; i <= joins.size(); i++){
-    		for(Set<LogicalJoinNode> subsetJoinNode: this.enumerateSubsets(joins, i)){
-    			CostCard bestPlan = new CostCard();
-    			bestPlan.cost = Double.MAX_VALUE;
-    			
-    			for(LogicalJoinNode joinNode: subsetJoinNode){
-    				CostCard plan = this.computeCostAndCardOfSubplan(stats, filterSelectivities, joinNode, subsetJoinNode, bestPlan.cost, pc);
-    				if(plan != null) // computeCostAndCardOfSubplan may return null, if no plan can be found
-    					if(plan.cost < bestPlan.cost)
-    						bestPlan = plan;
-
-    			pc.addPlan(subsetJoinNode, bestPlan.cost, bestPlan.card, bestPlan.plan);	
-    			}
-    		}
-    	}
-    	
-    	// If need to print out the join structure
-    	if(explain){
-    		this.printJoins(joins, pc, stats, filterSelectivities);
-    	}
-    	
-    	// return the bestPlan for given set
-        return pc.getOrder(new HashSet<LogicalJoinNode>(joins));
+        return order;
+    }
+
+    /**
+     * Estimate the cost of executing joins in the given order, as
+     * {@link #orderJoins} does when comparing plans.
+     */
+    double estimatePlanCost(Vector<LogicalJoinNode> order,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities)
+            throws ParsingException {
+        Subplan[] steps = simulate(order, stats, filterSelectivities);
+        return steps.length == 0 ? 0 : steps[steps.length - 1].cost;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
+     * The tables and joins of the query, with the scan cost, filtered
+     * cardinality and tuple size of each table.
+     */
+    private class JoinGraph {
+        /** Index of each table of the query. */
+        final HashMap<String, Integer> tableIndex = new HashMap<String, Integer>();
+        final ArrayList<Double> scanCosts = new ArrayList<Double>();
+        final ArrayList<Integer> cards = new ArrayList<Integer>();
+        /** Size in bytes of the tuples of each table. */
+        final ArrayList<Integer> widths = new ArrayList<Integer>();
+        /** Tables of each join; t2 is -1 for a subquery. */
+        final int[] t1, t2;
+        /** Whether each side of each join is on a primary key. */
+        final boolean[] pkey1, pkey2;
+        /** Each join with its inner and outer swapped. */
+        final LogicalJoinNode[] swapped;
+        boolean hasSubplans = false;
+
+        JoinGraph(HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            int n = joins.size();
+            t1 = new int[n];
+            t2 = new int[n];
+            pkey1 = new boolean[n];
+            pkey2 = new boolean[n];
+            swapped = new LogicalJoinNode[n];
+            for (int i = 0; i < n; i++) {
+                LogicalJoinNode j = joins.get(i);
+                t1[i] = table(stats, filterSelectivities, j.t1Alias);
+                pkey1[i] = isPkey(j.t1Alias, j.f1PureName);
+                if (j.t2Alias == null) {
+                    t2[i] = -1;
+                    hasSubplans = true;
+                } else {
+                    t2[i] = table(stats, filterSelectivities, j.t2Alias);
+                    pkey2[i] = isPkey(j.t2Alias, j.f2PureName);
+                }
+                swapped[i] = j.swapInnerOuter();
+            }
+        }
+
+        /** @return the index of a table, adding it if it is new */
+        private int table(HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities, String alias)
+                throws ParsingException {
+            Integer t = tableIndex.get(alias);
+            if (t != null)
+                return t;
+            TableStats s = baseStats(stats, filterSelectivities, alias);
+            t = tableIndex.size();
+            tableIndex.put(alias, t);
+            scanCosts.add(s.estimateScanCost());
+            cards.add(s.estimateTableCardinality(filterSelectivities
+                    .get(alias)));
+            widths.add(tupleWidth(alias));
+            return t;
+        }
+
+        int numTables() {
+            return tableIndex.size();
+        }
+
+        /** @return true if every table is joined to every other along exactly one path */
+        boolean isTree() {
+            if (hasSubplans || joins.size() != numTables() - 1)
+                return false;
+            int[] parent = new int[numTables()];
+            for (int t = 0; t < parent.length; t++)
+                parent[t] = t;
+            for (int i = 0; i < joins.size(); i++) {
+                int a = root(parent, t1[i]), b = root(parent, t2[i]);
+                if (a == b)
+                    return false;
+                parent[a] = b;
+            }
+            return true;
+        }
+
+        private int root(int[] parent, int t) {
+            while (parent[t] != t)
+                t = parent[t];
+            return t;
+        }
+    }
+
+    /**
+     * @return the statistics of the base table of an alias
      * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *             if there is no such table, or no statistics or filter
+     *             selectivity for it
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private TableStats baseStats(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, String alias)
+            throws ParsingException {
+        if (this.p.getTableId(alias) == null)
+            throw new ParsingException("Unknown table " + alias);
+        String name = Database.getCatalog().getTableName(
+                this.p.getTableId(alias));
+        TableStats s = stats.get(name);
+        if (s == null || filterSelectivities.get(alias) == null)
+            throw new ParsingException("No statistics for table " + alias);
+        return s;
+    }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
+    /** @return true if the deadline of a plan enumeration has passed */
+    private static boolean outOfTime(long deadline) {
+        return System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Find the best bushy plan for a query whose join graph is a tree, by
+     * dynamic programming over the subsets of its tables: the best plan of a
+     * connected set of tables joins the best plans of two parts of it along
+     * the one join between them.
+     * 
+     * @return the joins in the order to execute them, or null if the
+     *         deadline passed
+     */
+    private Vector<LogicalJoinNode> orderBushy(JoinGraph g,
+            HashMap<String, TableStats> stats, long deadline) {
+        int tables = g.numTables();
+        int all = (1 << tables) - 1;
+        double[] cost = new double[all + 1];
+        int[] card = new int[all + 1];
+        int[] width = new int[all + 1];
+        boolean[] pkey = new boolean[all + 1];
+        LogicalJoinNode.Algorithm[] algorithm = new LogicalJoinNode.Algorithm[all + 1];
+        // the part of each set holding the outer input of its last join,
+        // and that join, as (index << 1) | 1 if swapped; -1 if no plan
+        int[] outer = new int[all + 1];
+        int[] last = new int[all + 1];
+        Arrays.fill(last, -1);
+        for (int t = 0; t < tables; t++) {
+            cost[1 << t] = g.scanCosts.get(t);
+            card[1 << t] = g.cards.get(t);
+            width[1 << t] = g.widths.get(t);
+        }
+
+        for (int s = 1; s <= all; s++) {
+            if (Integer.bitCount(s) < 2)
+                continue;
+            if ((s & 255) == 0 && outOfTime(deadline))
                 return null;
+            int low = s & -s;
+            width[s] = width[low] + width[s & ~low];
+            double bestCost = Double.MAX_VALUE;
+            int bestJoin = -1, bestOuter = 0;
+            boolean bestSwapped = false;
+            LogicalJoinNode.Algorithm bestAlgorithm = null;
+            // each split once: s1 holds the lowest table of s
+            for (int s1 = (s - 1) & s; s1 != 0; s1 = (s1 - 1) & s) {
+                int s2 = s & ~s1;
+                if ((s1 & low) == 0 || !hasBushyPlan(s1, last)
+                        || !hasBushyPlan(s2, last))
+                    continue;
+                for (int i = 0; i < joins.size(); i++) {
+                    int b1 = 1 << g.t1[i], b2 = 1 << g.t2[i];
+                    int left, right;
+                    if ((s1 & b1) != 0 && (s2 & b2) != 0) {
+                        left = s1;
+                        right = s2;
+                    } else if ((s2 & b1) != 0 && (s1 & b2) != 0) {
+                        left = s2;
+                        right = s1;
+                    } else {
+                        continue;
+                    }
+                    LogicalJoinNode.Algorithm a = cheapestAlgorithm(
+                            joins.get(i), card[left], card[right], cost[left],
+                            cost[right], width[left], width[right]);
+                    double c = estimateJoinCost(joins.get(i), a, card[left],
+                            card[right], cost[left], cost[right], width[left],
+                            width[right]);
+                    LogicalJoinNode.Algorithm as = cheapestAlgorithm(
+                            g.swapped[i], card[right], card[left], cost[right],
+                            cost[left], width[right], width[left]);
+                    double cs = estimateJoinCost(g.swapped[i], as,
+                            card[right], card[left], cost[right], cost[left],
+                            width[right], width[left]);
+                    boolean swap = cs < c;
+                    if (swap)
+                        c = cs;
+                    if (c < bestCost) {
+                        bestCost = c;
+                        bestJoin = i;
+                        bestSwapped = swap;
+                        bestOuter = swap ? right : left;
+                        bestAlgorithm = swap ? as : a;
+                    }
+                    // the join graph is a tree, so no other join crosses
+                    break;
+                }
             }
+            if (bestJoin < 0)
+                continue;
+            int o = bestOuter, in = s & ~o;
+            LogicalJoinNode j = bestSwapped ? g.swapped[bestJoin] : joins
+                    .get(bestJoin);
+            boolean pkeyOuter = Integer.bitCount(o) == 1 ? (bestSwapped ? g.pkey2[bestJoin]
+                    : g.pkey1[bestJoin])
+                    : pkey[o];
+            boolean pkeyInner = Integer.bitCount(in) == 1 ? (bestSwapped ? g.pkey1[bestJoin]
+                    : g.pkey2[bestJoin])
+                    : pkey[in];
+            cost[s] = bestCost;
+            card[s] = estimateJoinCardinality(j, card[o], card[in], pkeyOuter,
+                    pkeyInner, stats);
+            pkey[s] = pkey[o] || pkey[in] || g.pkey1[bestJoin]
+                    || g.pkey2[bestJoin];
+            outer[s] = o;
+            last[s] = (bestJoin << 1) | (bestSwapped ? 1 : 0);
+            algorithm[s] = bestAlgorithm;
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        appendBushy(g, all, outer, last, algorithm, order);
+        return order;
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
+    /** @return true if orderBushy has a plan for the set of tables s */
+    private static boolean hasBushyPlan(int s, int[] last) {
+        return Integer.bitCount(s) == 1 || last[s] >= 0;
+    }
+
+    /** Append the joins of the bushy plan of s to order, inputs first. */
+    private void appendBushy(JoinGraph g, int s, int[] outer, int[] last,
+            LogicalJoinNode.Algorithm[] algorithm, Vector<LogicalJoinNode> order) {
+        if (Integer.bitCount(s) == 1)
+            return;
+        appendBushy(g, outer[s], outer, last, algorithm, order);
+        appendBushy(g, s & ~outer[s], outer, last, algorithm, order);
+        int i = last[s] >> 1;
+        LogicalJoinNode j = (last[s] & 1) != 0 ? g.swapped[i] : joins.get(i);
+        order.add(j.withAlgorithm(algorithm[s]));
+    }
+
+    /**
+     * Find the best left-deep plan by dynamic programming over the subsets
+     * of the joins. Each subset is a bitmask with bit i set for joins.get(i),
+     * and subsets are visited in increasing numeric order, so every subset is
+     * visited after all of its own subsets. The best plan of a subset is
+     * found by trying each of its joins as the last one on top of the best
+     * plan of the rest; plans are kept in a {@link PlanCache} indexed by the
+     * bitmask, and the tables each subset joins are tracked as a bitmask too,
+     * so no sets are built while enumerating.
+     * 
+     * @return the joins in the order to execute them, or null if the
+     *         deadline passed
+     * @throws ParsingException
+     *             if the joins do not connect all of their tables
+     */
+    private Vector<LogicalJoinNode> orderLeftDeep(JoinGraph g,
+            HashMap<String, TableStats> stats, long deadline)
+            throws ParsingException {
+        int n = joins.size();
+        long[] t1Bit = new long[n], t2Bit = new long[n];
+        // joins on a primary key field
+        int pkeyJoins = 0;
+        for (int i = 0; i < n; i++) {
+            t1Bit[i] = 1L << g.t1[i];
+            t2Bit[i] = g.t2[i] < 0 ? 0 : 1L << g.t2[i];
+            if (g.pkey1[i] || g.pkey2[i])
+                pkeyJoins |= 1 << i;
+        }
+
+        int all = (1 << n) - 1;
+        PlanCache pc = new PlanCache(joins);
+        // the tables joined by each subset of the joins, and the size of
+        // the tuples of their join
+        long[] tables = new long[all + 1];
+        int[] widths = new int[all + 1];
+        for (int s = 1; s <= all; s++) {
+            if ((s & 255) == 0 && outOfTime(deadline))
                 return null;
+            int low = Integer.numberOfTrailingZeros(s);
+            int rest0 = s & (s - 1);
+            tables[s] = tables[rest0] | t1Bit[low] | t2Bit[low];
+            widths[s] = widths[rest0];
+            for (long added = tables[s] & ~tables[rest0]; added != 0; added &= added - 1)
+                widths[s] += g.widths.get(Long.numberOfTrailingZeros(added));
+
+            double bestCost = Double.MAX_VALUE;
+            int bestLast = -1;
+            boolean bestSwapped = false;
+            LogicalJoinNode.Algorithm bestAlgorithm = null;
+            int bestCard1 = 0, bestCard2 = 0;
+            boolean bestPkey1 = false, bestPkey2 = false;
+            for (int rest = s; rest != 0; rest &= rest - 1) {
+                int i = Integer.numberOfTrailingZeros(rest);
+                int prev = s & ~(1 << i);
+                double cost1 = g.scanCosts.get(g.t1[i]);
+                int card1 = g.cards.get(g.t1[i]);
+                int width1 = g.widths.get(g.t1[i]);
+                boolean pkey1 = g.pkey1[i];
+                double cost2 = g.t2[i] < 0 ? 0 : g.scanCosts.get(g.t2[i]);
+                int card2 = g.t2[i] < 0 ? 0 : g.cards.get(g.t2[i]);
+                int width2 = g.t2[i] < 0 ? 0 : g.widths.get(g.t2[i]);
+                boolean pkey2 = g.pkey2[i];
+                if (prev == 0) {
+                    // base case -- both are base relations
+                } else if (!pc.hasPlan(prev)) {
+                    continue;
+                } else if ((tables[prev] & t1Bit[i]) != 0) {
+                    // t1 is joined by the best plan of prev
+                    cost1 = pc.getCost(prev);
+                    card1 = pc.getCard(prev);
+                    width1 = widths[prev];
+                    pkey1 = (prev & pkeyJoins) != 0;
+                } else if ((tables[prev] & t2Bit[i]) != 0) {
+                    cost2 = pc.getCost(prev);
+                    card2 = pc.getCard(prev);
+                    width2 = widths[prev];
+                    pkey2 = (prev & pkeyJoins) != 0;
+                } else {
+                    // don't consider this plan if neither table of the join
+                    // is joined by the plan of prev (cross product)
+                    continue;
+                }
+
+                LogicalJoinNode.Algorithm a = cheapestAlgorithm(joins.get(i),
+                        card1, card2, cost1, cost2, width1, width2);
+                double cost = estimateJoinCost(joins.get(i), a, card1, card2,
+                        cost1, cost2, width1, width2);
+                LogicalJoinNode.Algorithm as = cheapestAlgorithm(
+                        g.swapped[i], card2, card1, cost2, cost1, width2,
+                        width1);
+                double costSwapped = estimateJoinCost(g.swapped[i], as, card2,
+                        card1, cost2, cost1, width2, width1);
+                boolean swap = costSwapped < cost;
+                if (swap)
+                    cost = costSwapped;
+                if (cost >= bestCost)
+                    continue;
+                bestCost = cost;
+                bestLast = i;
+                bestSwapped = swap;
+                bestAlgorithm = swap ? as : a;
+                bestCard1 = swap ? card2 : card1;
+                bestCard2 = swap ? card1 : card2;
+                bestPkey1 = swap ? pkey2 : pkey1;
+                bestPkey2 = swap ? pkey1 : pkey2;
             }
+            if (bestLast < 0)
+                continue;
+            LogicalJoinNode j = bestSwapped ? g.swapped[bestLast] : joins
+                    .get(bestLast);
+            int card = estimateJoinCardinality(j, bestCard1, bestCard2,
+                    bestPkey1, bestPkey2, stats);
+            pc.addPlan(s, bestCost, card, bestLast, bestSwapped,
+                    bestAlgorithm);
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        if (!pc.hasPlan(all))
+            throw new ParsingException(
+                    "Query does not include join expressions joining all nodes!");
+        return pc.getOrder(all);
+    }
+
+    /** The estimated cost and cardinality of a subplan. */
+    private static class Subplan {
+        double cost;
+        int card;
+        /** True if one of the joins in the subplan is on a primary key. */
+        boolean pkey;
+        /** Number of base tables in the subplan. */
+        int tables;
+        /** Size in bytes of the tuples of the subplan. */
+        int width;
+        /** The algorithm of the last join, or null for a base table. */
+        LogicalJoinNode.Algorithm algorithm;
+
+        Subplan(double cost, int card, boolean pkey, int tables, int width) {
+            this.cost = cost;
+            this.card = card;
+            this.pkey = pkey;
+            this.tables = tables;
+            this.width = width;
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
+    }
 
-        CostCard cc = new CostCard();
+    /**
+     * @param a
+     *            the algorithm of the join, or null for the cheapest one
+     * @return the subplan of joining left and right with j, left holding
+     *         j.t1 and right j.t2 (null for a subquery)
+     */
+    private Subplan join(LogicalJoinNode j, Subplan left, Subplan right,
+            boolean pkey1, boolean pkey2, LogicalJoinNode.Algorithm a,
+            HashMap<String, TableStats> stats) {
+        double cost2 = right == null ? 0 : right.cost;
+        int card2 = right == null ? 0 : right.card;
+        int width2 = right == null ? 0 : right.width;
+        boolean leftPkey = left.tables == 1 ? pkey1 : left.pkey;
+        boolean rightPkey = right == null ? false : right.tables == 1 ? pkey2
+                : right.pkey;
+        if (a == null)
+            a = cheapestAlgorithm(j, left.card, card2, left.cost, cost2,
+                    left.width, width2);
+        Subplan s = new Subplan(estimateJoinCost(j, a, left.card, card2,
+                left.cost, cost2, left.width, width2),
+                estimateJoinCardinality(j, left.card, card2, leftPkey,
+                        rightPkey, stats), left.pkey || pkey1 || pkey2
+                        || (right != null && right.pkey), left.tables
+                        + (right == null ? 0 : right.tables), left.width
+                        + width2);
+        s.algorithm = a;
+        return s;
+    }
+
+    /**
+     * Order the joins by greedy operator ordering: starting from the base
+     * tables, repeatedly perform the join between two subplans that gives the
+     * smallest result, with the cheaper of its two orientations. Joins
+     * between tables already in one subplan are performed as soon as that
+     * subplan is formed, and joins with subqueries last.
+     * 
+     * @throws ParsingException
+     *             if the joins do not connect all of their tables
+     */
+    private Vector<LogicalJoinNode> orderGreedy(JoinGraph g,
+            HashMap<String, TableStats> stats) throws ParsingException {
+        int n = joins.size();
+        // the subplan each table is in, and the subplans of all tables
+        int[] component = new int[g.numTables()];
+        Subplan[] subplans = new Subplan[g.numTables()];
+        for (int t = 0; t < component.length; t++) {
+            component[t] = t;
+            subplans[t] = new Subplan(g.scanCosts.get(t), g.cards.get(t),
+                    false, 1, g.widths.get(t));
+        }
+        boolean[] done = new boolean[n];
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+
+        while (true) {
+            int best = -1;
+            boolean bestSwapped = false;
+            Subplan bestPlan = null;
+            for (int i = 0; i < n; i++) {
+                if (done[i] || g.t2[i] < 0)
+                    continue;
+                Subplan left = subplans[component[g.t1[i]]];
+                Subplan right = subplans[component[g.t2[i]]];
+                if (left == right)
+                    continue;
+                Subplan plan = join(joins.get(i), left, right, g.pkey1[i],
+                        g.pkey2[i], null, stats);
+                Subplan swappedPlan = join(g.swapped[i], right, left,
+                        g.pkey2[i], g.pkey1[i], null, stats);
+                boolean swap = swappedPlan.cost < plan.cost;
+                if (swap)
+                    plan = swappedPlan;
+                if (bestPlan == null
+                        || plan.card < bestPlan.card
+                        || (plan.card == bestPlan.card && plan.cost < bestPlan.cost)) {
+                    best = i;
+                    bestSwapped = swap;
+                    bestPlan = plan;
+                }
+            }
+            if (best < 0)
+                break;
+
+            // merge the subplan of t2 into that of t1
+            int from = component[g.t2[best]], to = component[g.t1[best]];
+            for (int t = 0; t < component.length; t++)
+                if (component[t] == from)
+                    component[t] = to;
+            subplans[to] = bestPlan;
+            done[best] = true;
+            order.add((bestSwapped ? g.swapped[best] : joins.get(best))
+                    .withAlgorithm(bestPlan.algorithm));
+            for (int i = 0; i < n; i++) {
+                if (!done[i] && g.t2[i] >= 0
+                        && component[g.t1[i]] == component[g.t2[i]]) {
+                    done[i] = true;
+                    order.add(joins.get(i));
+                }
+            }
+        }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
+        for (int t = 1; t < component.length; t++)
+            if (component[t] != component[0])
+                throw new ParsingException(
+                        "Query does not include join expressions joining all nodes!");
+        for (int i = 0; i < n; i++)
+            if (!done[i])
+                order.add(joins.get(i));
+        return order;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * @return the subplan produced by each join of order when the joins are
+     *         executed in that order
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private Subplan[] simulate(Vector<LogicalJoinNode> order,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities)
+            throws ParsingException {
+        HashMap<String, Subplan> subplans = new HashMap<String, Subplan>();
+        Subplan[] steps = new Subplan[order.size()];
+        for (int k = 0; k < order.size(); k++) {
+            LogicalJoinNode j = order.get(k);
+            Subplan left = subplan(subplans, stats, filterSelectivities,
+                    j.t1Alias);
+            Subplan right = j.t2Alias == null ? null : subplan(subplans,
+                    stats, filterSelectivities, j.t2Alias);
+            steps[k] = join(j, left, right, isPkey(j.t1Alias, j.f1PureName),
+                    j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName),
+                    j.algorithm, stats);
+            for (Map.Entry<String, Subplan> e : subplans.entrySet())
+                if (e.getValue() == left || e.getValue() == right)
+                    e.setValue(steps[k]);
         }
-        return false;
+        return steps;
+    }
+
+    /** @return the subplan that alias is in, adding its base table if new */
+    private Subplan subplan(HashMap<String, Subplan> subplans,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities, String alias)
+            throws ParsingException {
+        Subplan s = subplans.get(alias);
+        if (s == null) {
+            TableStats ts = baseStats(stats, filterSelectivities, alias);
+            s = new Subplan(ts.estimateScanCost(), ts
+                    .estimateTableCardinality(filterSelectivities.get(alias)),
+                    false, 1, tupleWidth(alias));
+            subplans.put(alias, s);
+        }
+        return s;
     }
 
     /**
@@ -452,20 +1050,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -473,8 +1057,6 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -482,9 +1064,10 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js,
             HashMap<String, TableStats> stats,
-            HashMap<String, Double> selectivities) {
+            HashMap<String, Double> selectivities) throws ParsingException {
+        Subplan[] steps = simulate(js, stats, selectivities);
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
@@ -502,26 +1085,22 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
 
         System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+        for (int k = 0; k < js.size(); k++) {
+            LogicalJoinNode j = js.get(k);
+            System.out.println("PATH SO FAR = " + js.subList(0, k + 1));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
             String table2Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t2Alias));
 
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+            root = new DefaultMutableTreeNode("Join " + j + " ("
+                    + j.algorithm + ", Cost ="
+                    + steps[k].cost + ", card = " + steps[k].card + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
+            DefaultMutableTreeNode left = n;
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
@@ -533,11 +1112,11 @@ public class JoinOptimizer {
             } else {
                 // make left child root n
                 root.add(n);
-                neither = false;
             }
             m.put(j.t1Alias, root);
 
             n = m.get(j.t2Alias);
+            DefaultMutableTreeNode right = n;
             if (n == null) { // never seen this table before
 
                 n = new DefaultMutableTreeNode(
@@ -555,16 +1134,13 @@ public class JoinOptimizer {
             } else {
                 // make right child root n
                 root.add(n);
-                neither = false;
             }
             m.put(j.t2Alias, root);
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
+            // the tables of both children are now accessed from root
+            for (Map.Entry<String, DefaultMutableTreeNode> e : m.entrySet()) {
+                if (e.getValue() == left || e.getValue() == right)
+                    e.setValue(root);
             }
 
             treetop = root;
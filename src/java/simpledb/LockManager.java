@@ -0,0 +1,441 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LockManager keeps track of the locks held by transactions on behalf of the
+ * BufferPool. Locks are normally taken on pages (PageId); in row-locking mode
+ * they are also taken on individual tuples (RecordId), with intention locks
+ * on the pages that contain them.
+ * <p>
+ * Each lockable object has a set of holders and a FIFO queue of waiting
+ * requests. A request is granted when it is compatible with the current
+ * holders and with every request queued ahead of it, so a stream of readers
+ * cannot starve a writer. A transaction that already holds a lock may convert
+ * it to a stronger mode (e.g. shared to exclusive); conversions are queued
+ * ahead of ordinary requests since the converting transaction already holds
+ * the object.
+ * <p>
+ * Whenever a request has to wait, the waits-for graph is checked for a cycle.
+ * If one is found the youngest transaction on the cycle is chosen as the
+ * victim and its pending request fails with a TransactionAbortedException;
+ * the caller is then expected to abort that transaction, which releases its
+ * locks and lets the others proceed.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /**
+     * Lock modes, from weakest to strongest: intention shared, intention
+     * exclusive, shared, shared with intention exclusive, and exclusive.
+     */
+    public enum Mode {
+	IS, IX, S, SIX, X;
+
+	/** COMPATIBLE[a][b] is true if a and b may be held together. */
+	private static final boolean[][] COMPATIBLE = {
+	        /*          IS     IX     S      SIX    X   */
+	        /* IS  */ { true,  true,  true,  true,  false },
+	        /* IX  */ { true,  true,  false, false, false },
+	        /* S   */ { true,  false, true,  false, false },
+	        /* SIX */ { true,  false, false, false, false },
+	        /* X   */ { false, false, false, false, false } };
+
+	/** @return true if a lock in this mode can coexist with one in m */
+	public boolean compatibleWith(final Mode m) {
+	    return COMPATIBLE[ordinal()][m.ordinal()];
+	}
+
+	/** @return the weakest mode that grants everything this and m grant */
+	public Mode combine(final Mode m) {
+	    if (this == m || m == IS)
+		return this;
+	    if (this == IS)
+		return m;
+	    if (this == X || m == X)
+		return X;
+	    // the remaining pairs are IX, S and SIX in some combination
+	    return SIX;
+	}
+
+	/** @return true if this mode grants everything m grants */
+	public boolean covers(final Mode m) {
+	    return combine(m) == this;
+	}
+
+	/** @return true if this mode allows the holder to modify the object */
+	public boolean allowsWrite() {
+	    return this == IX || this == SIX || this == X;
+	}
+
+	/** @return the page lock mode for the given permissions */
+	public static Mode forPermissions(final Permissions perm) {
+	    return perm == Permissions.READ_WRITE ? X : S;
+	}
+    }
+
+    /** A pending lock request. */
+    private static class Request {
+        final TransactionId tid;
+        final Mode mode;
+
+        Request(TransactionId tid, Mode mode) {
+            this.tid = tid;
+            this.mode = mode;
+        }
+    }
+
+    /** The lock state of a single page or tuple. */
+    private static class LockState {
+        /** Transactions holding the lock and the mode each holds. */
+        final Map<TransactionId, Mode> holders = new HashMap<TransactionId, Mode>();
+        /** Requests waiting for this object, in the order they are served. */
+        final LinkedList<Request> queue = new LinkedList<Request>();
+
+        boolean isFree() {
+            return holders.isEmpty() && queue.isEmpty();
+        }
+    }
+
+    private final Map<Object, LockState> m_locks = new HashMap<Object, LockState>();
+
+    /** The objects locked by each transaction. */
+    private final Map<TransactionId, Set<Object>> m_held = new HashMap<TransactionId, Set<Object>>();
+
+    /** The object each blocked transaction is waiting for. */
+    private final Map<TransactionId, Object> m_waiting = new HashMap<TransactionId, Object>();
+
+    /** Transactions chosen as deadlock victims whose request has not failed yet. */
+    private final Set<TransactionId> m_victims = new HashSet<TransactionId>();
+
+    /**
+     * Acquire a lock on pid for tid, blocking until it can be granted.
+     *
+     * @param tid
+     *            the transaction requesting the lock
+     * @param pid
+     *            the page to lock
+     * @param perm
+     *            READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException
+     *             if waiting for the lock would deadlock and tid was chosen
+     *             as the victim, or if the thread is interrupted
+     */
+    public void acquire(final TransactionId tid, final PageId pid,
+	    final Permissions perm) throws TransactionAbortedException {
+	acquire(tid, pid, Mode.forPermissions(perm));
+    }
+
+    /**
+     * Acquire a lock in the given mode on key (a PageId or a RecordId) for
+     * tid, blocking until it can be granted.
+     *
+     * @throws TransactionAbortedException
+     *             if waiting for the lock would deadlock and tid was chosen
+     *             as the victim, or if the thread is interrupted
+     */
+    public synchronized void acquire(final TransactionId tid, final Object key,
+	    final Mode mode) throws TransactionAbortedException {
+	checkTransaction(tid);
+	LockState state = stateFor(key);
+	Request req = newRequest(state, tid, mode);
+	if (req == null)
+	    return; // already holds a strong enough lock
+
+	m_waiting.put(tid, key);
+	try {
+	    while (!grantable(state, req)) {
+		if (m_victims.remove(tid))
+		    throw new TransactionAbortedException();
+		TransactionId victim = findDeadlockVictim(tid);
+		if (victim != null) {
+		    if (victim.equals(tid))
+			throw new TransactionAbortedException();
+		    m_victims.add(victim);
+		    notifyAll();
+		}
+		try {
+		    wait();
+		} catch (InterruptedException e) {
+		    throw new TransactionAbortedException();
+		}
+	    }
+	    grant(state, req, key);
+	    m_victims.remove(tid);
+	} finally {
+	    m_waiting.remove(tid);
+	    state.queue.remove(req);
+	    if (state.isFree())
+		m_locks.remove(key);
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Acquire a lock in the given mode on key for tid only if that can be
+     * done without waiting.
+     *
+     * @return true if the lock is now held
+     */
+    public synchronized boolean tryAcquire(final TransactionId tid,
+	    final Object key, final Mode mode) {
+	checkTransaction(tid);
+	LockState state = stateFor(key);
+	Request req = newRequest(state, tid, mode);
+	if (req == null)
+	    return true;
+	boolean granted = grantable(state, req);
+	if (granted)
+	    grant(state, req, key);
+	state.queue.remove(req);
+	if (state.isFree())
+	    m_locks.remove(key);
+	return granted;
+    }
+
+    /**
+     * Release whatever lock tid holds on key.
+     */
+    public synchronized void release(final TransactionId tid, final Object key) {
+	LockState state = m_locks.get(key);
+	if (state != null && state.holders.remove(tid) != null) {
+	    if (state.isFree())
+		m_locks.remove(key);
+	}
+	Set<Object> keys = m_held.get(tid);
+	if (keys != null) {
+	    keys.remove(key);
+	    if (keys.isEmpty())
+		m_held.remove(tid);
+	}
+	notifyAll();
+    }
+
+    /**
+     * Release all locks held by tid.
+     */
+    public synchronized void releaseAll(final TransactionId tid) {
+	Set<Object> keys = m_held.remove(tid);
+	if (keys != null) {
+	    for (Object key : keys) {
+		LockState state = m_locks.get(key);
+		if (state != null && state.holders.remove(tid) != null) {
+		    if (state.isFree())
+			m_locks.remove(key);
+		}
+	    }
+	}
+	m_victims.remove(tid);
+	notifyAll();
+    }
+
+    /**
+     * @return true if tid holds a lock of any kind on key
+     */
+    public synchronized boolean holdsLock(final TransactionId tid,
+	    final Object key) {
+	Set<Object> keys = m_held.get(tid);
+	return keys != null && keys.contains(key);
+    }
+
+    /**
+     * @return the mode tid holds key in, or null if it holds no lock on it
+     */
+    public synchronized Mode getMode(final TransactionId tid, final Object key) {
+	LockState state = m_locks.get(key);
+	return state == null ? null : state.holders.get(tid);
+    }
+
+    /**
+     * @return true if tid holds an exclusive lock on key
+     */
+    public synchronized boolean holdsExclusive(final TransactionId tid,
+	    final Object key) {
+	return getMode(tid, key) == Mode.X;
+    }
+
+    /**
+     * @return true if some transaction holds key in a mode that lets it
+     *         modify the object (IX, SIX or X)
+     */
+    public synchronized boolean isWriteLocked(final Object key) {
+	LockState state = m_locks.get(key);
+	if (state == null)
+	    return false;
+	for (Mode m : state.holders.values())
+	    if (m.allowsWrite())
+		return true;
+	return false;
+    }
+
+    /**
+     * @return the pages tid currently holds locks on
+     */
+    public synchronized Set<PageId> getLockedPages(final TransactionId tid) {
+	Set<PageId> pages = new HashSet<PageId>();
+	Set<Object> keys = m_held.get(tid);
+	if (keys != null) {
+	    for (Object key : keys)
+		if (key instanceof PageId)
+		    pages.add((PageId) key);
+	}
+	return pages;
+    }
+
+    private LockState stateFor(final Object key) {
+	LockState state = m_locks.get(key);
+	if (state == null) {
+	    state = new LockState();
+	    m_locks.put(key, state);
+	}
+	return state;
+    }
+
+    /**
+     * Locks are held by transactions; a lock for no transaction could never
+     * be released.
+     *
+     * @throws IllegalArgumentException
+     *             if tid is null
+     */
+    private static void checkTransaction(final TransactionId tid) {
+	if (tid == null)
+	    throw new IllegalArgumentException("cannot lock for a null transaction");
+    }
+
+    /**
+     * Queue a request for mode on behalf of tid.
+     *
+     * @return the queued request, or null if tid already holds a lock that
+     *         covers mode
+     */
+    private Request newRequest(final LockState state, final TransactionId tid,
+	    final Mode mode) {
+	Mode held = state.holders.get(tid);
+	if (held != null && held.covers(mode))
+	    return null;
+	if (held == null) {
+	    Request req = new Request(tid, mode);
+	    state.queue.addLast(req);
+	    return req;
+	}
+
+	// conversions go after any other pending conversions but ahead of
+	// requests from transactions that do not hold the object yet
+	Request req = new Request(tid, held.combine(mode));
+	int pos = 0;
+	for (Request r : state.queue) {
+	    if (!state.holders.containsKey(r.tid))
+		break;
+	    pos++;
+	}
+	state.queue.add(pos, req);
+	return req;
+    }
+
+    /**
+     * A request can be granted if it is compatible with the holders and with
+     * all requests ahead of it in the queue.
+     */
+    private boolean grantable(final LockState state, final Request req) {
+	if (!compatibleWithHolders(state, req))
+	    return false;
+	for (Request r : state.queue) {
+	    if (r == req)
+		return true;
+	    if (!r.mode.compatibleWith(req.mode))
+		return false;
+	}
+	return true;
+    }
+
+    private boolean compatibleWithHolders(final LockState state,
+	    final Request req) {
+	for (Map.Entry<TransactionId, Mode> h : state.holders.entrySet()) {
+	    if (!h.getKey().equals(req.tid)
+		    && !h.getValue().compatibleWith(req.mode))
+		return false;
+	}
+	return true;
+    }
+
+    private void grant(final LockState state, final Request req,
+	    final Object key) {
+	state.holders.put(req.tid, req.mode);
+	Set<Object> keys = m_held.get(req.tid);
+	if (keys == null) {
+	    keys = new HashSet<Object>();
+	    m_held.put(req.tid, keys);
+	}
+	keys.add(key);
+    }
+
+    /**
+     * @return the transactions that tid is waiting for: the incompatible
+     *         holders of the object it wants, plus the incompatible requests
+     *         queued ahead of it.
+     */
+    private Set<TransactionId> waitsFor(final TransactionId tid) {
+	Set<TransactionId> result = new HashSet<TransactionId>();
+	Object key = m_waiting.get(tid);
+	if (key == null)
+	    return result;
+	LockState state = m_locks.get(key);
+	if (state == null)
+	    return result;
+	Request mine = null;
+	for (Request r : state.queue) {
+	    if (r.tid.equals(tid)) {
+		mine = r;
+		break;
+	    }
+	}
+	if (mine == null)
+	    return result;
+
+	for (Map.Entry<TransactionId, Mode> h : state.holders.entrySet()) {
+	    if (!h.getKey().equals(tid) && !h.getValue().compatibleWith(mine.mode))
+		result.add(h.getKey());
+	}
+	for (Request r : state.queue) {
+	    if (r == mine)
+		break;
+	    if (!r.mode.compatibleWith(mine.mode) && !r.tid.equals(tid))
+		result.add(r.tid);
+	}
+	return result;
+    }
+
+    /**
+     * Look for a cycle in the waits-for graph through start.
+     *
+     * @return the youngest transaction on the cycle, or null if start is not
+     *         deadlocked
+     */
+    private TransactionId findDeadlockVictim(final TransactionId start) {
+	Map<TransactionId, TransactionId> parent = new HashMap<TransactionId, TransactionId>();
+	LinkedList<TransactionId> frontier = new LinkedList<TransactionId>();
+	frontier.add(start);
+	parent.put(start, null);
+	while (!frontier.isEmpty()) {
+	    TransactionId cur = frontier.removeFirst();
+	    for (TransactionId next : waitsFor(cur)) {
+		if (next.equals(start)) {
+		    // walk back along the cycle to pick the youngest member
+		    TransactionId victim = start;
+		    for (TransactionId t = cur; t != null; t = parent.get(t)) {
+			if (t.getId() > victim.getId())
+			    victim = t;
+		    }
+		    return victim;
+		}
+		if (!parent.containsKey(next)) {
+		    parent.put(next, cur);
+		    frontier.addLast(next);
+		}
+	    }
+	}
+	return null;
+    }
+}
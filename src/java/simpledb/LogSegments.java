@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * LogSegments is the on-disk storage behind {@link LogFile}. It presents a
+ * single, random-access byte address space (so log record offsets behave
+ * exactly like offsets into one big file) but stores it as a small header
+ * file plus a sequence of fixed-size segment files.
+ * <p>
+ * Offsets [0, HEADER_SIZE) live in the header file itself and hold the
+ * checkpoint pointer. Every other offset <tt>off</tt> lives in segment number
+ * <tt>off / segmentSize</tt>, which is stored next to the header as
+ * <tt>&lt;header name&gt;.&lt;segment number&gt;</tt>, at position
+ * <tt>off % segmentSize</tt>. Since offsets never move, reclaiming log space
+ * is just a matter of deleting the segments that lie wholly before the oldest
+ * offset that is still needed; see {@link #truncateBefore}.
+ * <p>
+ * Reads and writes share a single file pointer and must be serialized by the
+ * caller (LogFile does this with its own monitor). {@link #truncateBefore}
+ * only touches segments below the caller's oldest live offset, so it is safe
+ * to call concurrently with appends.
+ */
+public class LogSegments implements DataInput, DataOutput {
+
+    /** Size of the header region that holds the checkpoint pointer. */
+    public static final int HEADER_SIZE = 8;
+
+    /** Default size of each segment file, in bytes. */
+    public static final long DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    private final File header;
+    private final long segmentSize;
+    private final RandomAccessFile headerFile;
+
+    /** Open segments, by segment number. Guarded by itself. */
+    private final TreeMap<Long, RandomAccessFile> segments = new TreeMap<Long, RandomAccessFile>();
+
+    /** Segments with writes that have not been forced yet. Guarded by segments. */
+    private final Set<Long> unforced = new HashSet<Long>();
+
+    /** Lowest segment number that has not been truncated away. */
+    private volatile long firstSegment;
+
+    private long position = 0;
+    private long length;
+
+    private final byte[] scratch = new byte[LogFile.LONG_SIZE];
+
+    /**
+     * Open (or create) the segmented log whose header is stored in f.
+     * Segments left over from a previous run are picked up so the log can be
+     * recovered.
+     *
+     * @param f the header file; segment files are created in the same
+     *            directory
+     * @param segmentSize the size of each segment file, in bytes
+     */
+    public LogSegments(File f, long segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE)
+            throw new IllegalArgumentException("segment size too small: " + segmentSize);
+        this.header = f.getAbsoluteFile();
+        this.segmentSize = segmentSize;
+        this.headerFile = new RandomAccessFile(header, "rw");
+
+        long first = -1, last = -1;
+        for (long segno : existingSegments()) {
+            if (first == -1 || segno < first)
+                first = segno;
+            if (segno > last)
+                last = segno;
+        }
+        if (last == -1) {
+            firstSegment = 0;
+            length = headerFile.length();
+        } else {
+            firstSegment = first;
+            length = last * segmentSize + segmentFile(last).length();
+        }
+    }
+
+    /** @return the logical length of the log, in bytes */
+    public long length() {
+        return length;
+    }
+
+    /** @return the current read/write offset */
+    public long getFilePointer() {
+        return position;
+    }
+
+    /** Move the read/write offset to pos. */
+    public void seek(long pos) throws IOException {
+        if (pos < 0)
+            throw new IOException("negative seek offset " + pos);
+        position = pos;
+    }
+
+    /** @return the offset of the first byte that has not been truncated */
+    public long firstOffset() {
+        return Math.max(HEADER_SIZE, firstSegment * segmentSize);
+    }
+
+    /**
+     * Set the logical length of the log, deleting or shortening segments past
+     * the new end.
+     */
+    public void setLength(long newLength) throws IOException {
+        synchronized (segments) {
+            long lastKept = newLength <= HEADER_SIZE ? -1 : (newLength - 1) / segmentSize;
+            for (long segno : existingSegments()) {
+                if (segno > lastKept)
+                    deleteSegment(segno);
+            }
+            if (lastKept >= 0)
+                segment(lastKept).setLength(newLength - lastKept * segmentSize);
+            else
+                firstSegment = 0;
+            headerFile.setLength(Math.min(newLength, HEADER_SIZE));
+        }
+        length = newLength;
+        if (position > newLength)
+            position = newLength;
+    }
+
+    /**
+     * Delete every segment that lies entirely before offset. The segment
+     * containing offset, and everything after it, are kept. This does not
+     * copy or rewrite anything, so its cost depends only on the number of
+     * segments dropped.
+     *
+     * @param offset the oldest log offset that must remain readable
+     * @return the number of segments deleted
+     */
+    public int truncateBefore(long offset) throws IOException {
+        if (offset <= HEADER_SIZE)
+            return 0;
+        long keepFrom = offset / segmentSize;
+        int deleted = 0;
+        synchronized (segments) {
+            for (long segno : existingSegments()) {
+                if (segno < keepFrom) {
+                    deleteSegment(segno);
+                    deleted++;
+                }
+            }
+            if (keepFrom > firstSegment)
+                firstSegment = keepFrom;
+        }
+        return deleted;
+    }
+
+    /** Force all outstanding writes to disk. */
+    public void force() throws IOException {
+        headerFile.getChannel().force(true);
+        List<RandomAccessFile> toForce = new ArrayList<RandomAccessFile>();
+        synchronized (segments) {
+            for (long segno : unforced) {
+                RandomAccessFile seg = segments.get(segno);
+                if (seg != null)
+                    toForce.add(seg);
+            }
+            unforced.clear();
+        }
+        for (RandomAccessFile seg : toForce)
+            seg.getChannel().force(true);
+    }
+
+    /** Close the header and all open segments. */
+    public void close() throws IOException {
+        synchronized (segments) {
+            for (RandomAccessFile seg : segments.values())
+                seg.close();
+            segments.clear();
+            unforced.clear();
+        }
+        headerFile.close();
+    }
+
+    // ---- core byte transfer ----
+
+    /**
+     * Read up to len bytes at the current offset.
+     *
+     * @return the number of bytes read, or -1 at the end of the log
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (position >= length)
+            return -1;
+        int n = (int) Math.min(len, length - position);
+        transfer(b, off, n, false);
+        return n;
+    }
+
+    public int read() throws IOException {
+        if (read(scratch, 0, 1) == -1)
+            return -1;
+        return scratch[0] & 0xff;
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (position + len > length)
+            throw new EOFException();
+        transfer(b, off, len, false);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        transfer(b, off, len, true);
+        if (position > length)
+            length = position;
+    }
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(int b) throws IOException {
+        scratch[0] = (byte) b;
+        write(scratch, 0, 1);
+    }
+
+    /**
+     * Move len bytes between b and the log at the current offset, splitting
+     * the transfer at header and segment boundaries.
+     */
+    private void transfer(byte[] b, int off, int len, boolean write)
+            throws IOException {
+        while (len > 0) {
+            RandomAccessFile target;
+            long localPos, boundary;
+            if (position < HEADER_SIZE) {
+                target = headerFile;
+                localPos = position;
+                boundary = HEADER_SIZE;
+            } else {
+                long segno = position / segmentSize;
+                if (segno < firstSegment)
+                    throw new IOException("log offset " + position
+                            + " has been truncated");
+                synchronized (segments) {
+                    target = segment(segno);
+                    if (write)
+                        unforced.add(segno);
+                }
+                localPos = position - segno * segmentSize;
+                boundary = (segno + 1) * segmentSize;
+            }
+            int n = (int) Math.min(len, boundary - position);
+            target.seek(localPos);
+            if (write)
+                target.write(b, off, n);
+            else
+                target.readFully(b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // ---- segment bookkeeping ----
+
+    File segmentFile(long segno) {
+        return new File(header.getParentFile(), header.getName() + "." + segno);
+    }
+
+    /** @return the open file for segment segno, opening it if necessary. */
+    private RandomAccessFile segment(long segno) throws IOException {
+        RandomAccessFile seg = segments.get(segno);
+        if (seg == null) {
+            seg = new RandomAccessFile(segmentFile(segno), "rw");
+            segments.put(segno, seg);
+        }
+        return seg;
+    }
+
+    private void deleteSegment(long segno) throws IOException {
+        RandomAccessFile seg = segments.remove(segno);
+        unforced.remove(segno);
+        if (seg != null)
+            seg.close();
+        File f = segmentFile(segno);
+        if (f.exists() && !f.delete())
+            throw new IOException("unable to delete log segment " + f);
+    }
+
+    /** @return the numbers of all segment files of this log on disk */
+    private List<Long> existingSegments() {
+        List<Long> result = new ArrayList<Long>();
+        String prefix = header.getName() + ".";
+        String[] names = header.getParentFile().list();
+        if (names == null)
+            return result;
+        for (String name : names) {
+            if (!name.startsWith(prefix))
+                continue;
+            try {
+                result.add(Long.parseLong(name.substring(prefix.length())));
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    // ---- DataInput ----
+
+    public int skipBytes(int n) throws IOException {
+        int skipped = (int) Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        readFully(scratch, 0, 1);
+        return scratch[0];
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    public short readShort() throws IOException {
+        readFully(scratch, 0, 2);
+        return (short) (((scratch[0] & 0xff) << 8) | (scratch[1] & 0xff));
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws IOException {
+        return (char) readShort();
+    }
+
+    public int readInt() throws IOException {
+        readFully(scratch, 0, 4);
+        return ((scratch[0] & 0xff) << 24) | ((scratch[1] & 0xff) << 16)
+                | ((scratch[2] & 0xff) << 8) | (scratch[3] & 0xff);
+    }
+
+    public long readLong() throws IOException {
+        long hi = readInt() & 0xffffffffL;
+        long lo = readInt() & 0xffffffffL;
+        return (hi << 32) | lo;
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Read bytes up to the next end of line as RandomAccessFile.readLine()
+     * does, taking each byte as one character.
+     *
+     * @return the line, without its terminator, or null at the end of the log
+     */
+    public String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = read()) != -1 && c != '\n' && c != '\r')
+            line.append((char) c);
+        if (c == -1 && line.length() == 0)
+            return null;
+        if (c == '\r') {
+            long mark = position;
+            if (read() != '\n')
+                position = mark;
+        }
+        return line.toString();
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    // ---- DataOutput ----
+
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    public void writeShort(int v) throws IOException {
+        scratch[0] = (byte) (v >>> 8);
+        scratch[1] = (byte) v;
+        write(scratch, 0, 2);
+    }
+
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    public void writeInt(int v) throws IOException {
+        scratch[0] = (byte) (v >>> 24);
+        scratch[1] = (byte) (v >>> 16);
+        scratch[2] = (byte) (v >>> 8);
+        scratch[3] = (byte) v;
+        write(scratch, 0, 4);
+    }
+
+    public void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            write(s.charAt(i));
+    }
+
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            writeChar(s.charAt(i));
+    }
+
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(s.length() + 2);
+        new DataOutputStream(baos).writeUTF(s);
+        write(baos.toByteArray());
+    }
+}
@@ -23,6 +23,21 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The physical join algorithms a join can be executed with. */
+    public enum Algorithm {
+        /** {@link Join}: rescans the inner for every outer tuple. */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}: rescans the inner for every block of outer tuples. */
+        BLOCK_NESTED_LOOP,
+        /** {@link HashEquiJoin}: probes a hash table of each block of outer tuples; equality only. */
+        HASH,
+        /** {@link SortMergeJoin}: sorts both inputs in memory and merges them; not for NOT_EQUALS or LIKE. */
+        SORT_MERGE
+    }
+
+    /** The algorithm chosen to execute the join */
+    public Algorithm algorithm = Algorithm.NESTED_LOOP;
+
     public LogicalJoinNode() {
     }
 
@@ -60,6 +75,17 @@ public class LogicalJoinNode {
             newp = p;
         
         LogicalJoinNode j2 = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
+        j2.algorithm = algorithm;
+        return j2;
+    }
+
+    /** Return this join if it uses algorithm a, or else a copy of it that
+     * does. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        if (a == algorithm)
+            return this;
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.algorithm = a;
         return j2;
     }
     
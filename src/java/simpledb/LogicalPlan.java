@@ -2,10 +2,13 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -25,7 +28,6 @@ public class LogicalPlan {
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
-    private HashMap<String,DbIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
@@ -38,12 +40,37 @@ public class LogicalPlan {
     private String query;
 //    private Query owner;
 
+    /** The join order kept by {@link #physicalPlan(TransactionId, Map,
+     * boolean, List)}, or null */
+    private Vector<LogicalJoinNode> keptJoinOrder = null;
+    /** The statistics map keptJoinOrder was chosen with, and the
+     * statistics it held for each base table */
+    private Map<String,TableStats> keptStatsSource;
+    private HashMap<String,TableStats> keptStats;
+
+    /** Prefix of the filter constants that stand for the parameters of a
+     * prepared statement; see {@link #parameterMarker}. */
+    static final String PARAMETER_PREFIX = "\u0000?";
+
+    /** Whether physicalPlan fuses an aggregate over a scan into one
+     * pipeline; see {@link FusedAggregate}. */
+    private static boolean fusePipelines = true;
+
+    /** Turn pipeline fusion on or off for the plans made from now on. */
+    public static void setPipelineFusion(boolean fuse) {
+        fusePipelines = fuse;
+    }
+
+    /** @return true if physicalPlan fuses pipelines */
+    public static boolean isPipelineFusion() {
+        return fusePipelines;
+    }
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
         filters = new Vector<LogicalFilterNode>();
         tables = new Vector<LogicalScanNode>();
-        subplanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
@@ -66,6 +93,37 @@ public class LogicalPlan {
         return query;
     }
 
+    /** @return the filter constant that stands for parameter index of a
+     * prepared statement, to be passed to {@link #addFilter} */
+    static String parameterMarker(int index) {
+        return PARAMETER_PREFIX + index;
+    }
+
+    /** @return the index of the parameter the filter constant c stands for,
+     * or -1 if it is a plain constant */
+    static int parameterIndex(String c) {
+        if (!c.startsWith(PARAMETER_PREFIX))
+            return -1;
+        return Integer.parseInt(c.substring(PARAMETER_PREFIX.length()));
+    }
+
+    /** @return the number of parameters of the plan: one more than the
+     * highest parameter index among its filters */
+    public int numParameters() {
+        int n = 0;
+        for (LogicalFilterNode lf : filters)
+            n = Math.max(n, parameterIndex(lf.c) + 1);
+        return n;
+    }
+
+    /** @return true if the plan joins with a subquery */
+    public boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins)
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        return false;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -271,6 +329,26 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Order the joins of this plan with the statistics of its base tables.
+     *  @param tableFilters the filter predicates on each table alias
+     *  @param statsMap filled with the statistics of each base table used
+     */
+    private Vector<LogicalJoinNode> orderJoins(JoinOptimizer jo, Map<String,TableStats> baseTableStats,
+            HashMap<String,List<Predicate>> tableFilters, HashMap<String,TableStats> statsMap,
+            boolean explain) throws ParsingException {
+        HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
+        for (LogicalScanNode table : tables) {
+            String baseTableName = Database.getCatalog().getTableName(table.t);
+            statsMap.put(baseTableName, tableStats(baseTableStats, baseTableName));
+            filterSelectivities.put(table.alias, 1.0);
+        }
+        for (Map.Entry<String,List<Predicate>> e : tableFilters.entrySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(e.getKey())));
+            filterSelectivities.put(e.getKey(), s.estimateSelectivity(e.getValue()));
+        }
+        return jo.orderJoins(statsMap,filterSelectivities,explain);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -285,10 +363,55 @@ public class LogicalPlan {
      *  @return A DbIterator representing this plan.
      */ 
     public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        return physicalPlan(t, baseTableStats, explain, null, false);
+    }
+
+    /** Convert this LogicalPlan into a physical plan, as {@link
+     *   #physicalPlan(TransactionId, Map, boolean)} does, for a plan that
+     *   is executed many times. The join order chosen the first time is
+     *   kept and reused, so later calls neither look up statistics nor
+     *   run the {@link JoinOptimizer}, until the statistics the order was
+     *   chosen with are replaced in baseTableStats, or are rebuilt after
+     *   going stale.
+     *  @param parameters the values of the parameters of the plan's
+     *    filters (see {@link #parameterMarker}), in order
+     *  @throws ParsingException if the logical plan is not valid, or a
+     *    parameter has no value
+     */
+    public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain, List<String> parameters) throws ParsingException {
+        return physicalPlan(t, baseTableStats, explain, parameters, true);
+    }
+
+    /** @return the statistics of table in baseTableStats. Statistics
+     *   missing from it, or gone stale, are resolved through {@link
+     *   TableStats#getTableStats}, which loads saved statistics and
+     *   schedules stale ones for rebuilding; stale statistics are used
+     *   until the rebuilt ones are ready, whatever map they came from */
+    private static TableStats tableStats(Map<String,TableStats> baseTableStats, String table) {
+        TableStats s = baseTableStats.get(table);
+        if (s != null && !s.isStale())
+            return s;
+        TableStats current = TableStats.getTableStats(table);
+        if (s == null || (current != null && !current.isStale()))
+            return current;
+        return s;
+    }
+
+    /** @return true if the statistics the kept join order was chosen with
+     *   are no longer those {@link #tableStats} resolves, because they were
+     *   replaced in its statistics map or rebuilt after going stale */
+    private boolean keptJoinOrderOutdated() {
+        boolean outdated = false;
+        for (Map.Entry<String,TableStats> e : keptStats.entrySet())
+            if (tableStats(keptStatsSource, e.getKey()) != e.getValue())
+                outdated = true;
+        return outdated;
+    }
+
+    private DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain, List<String> parameters, boolean keepJoinOrder) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
+        HashMap<String,DbIterator> subplanMap = new HashMap<String,DbIterator>();
         HashMap<String,String> equivMap = new HashMap<String,String>();
-        HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
-        HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -300,12 +423,11 @@ public class LogicalPlan {
             }
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
-            statsMap.put(baseTableName, baseTableStats.get(baseTableName));
-            filterSelectivities.put(table.alias, 1.0);
-
         }
 
+        // the filters of each table, estimated together so that the
+        // statistics can account for correlated columns
+        HashMap<String,List<Predicate>> tableFilters = new HashMap<String,List<Predicate>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +445,21 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            String c = lf.c;
+            int param = parameterIndex(c);
+            if (param >= 0) {
+                if (parameters == null || param >= parameters.size() || parameters.get(param) == null)
+                    throw new ParsingException("No value for parameter " + (param + 1));
+                c = parameters.get(param);
+            }
+            try {
+                if (ftyp == Type.INT_TYPE)
+                    f = new IntField(Integer.parseInt(c));
+                else
+                    f = new StringField(c, Type.STRING_LEN);
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Value " + c + " of " + lf.fieldQuantifiedName + " is not an integer");
+            }
 
             Predicate p = null;
             try {
@@ -334,21 +467,49 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // evaluated by the scan itself, which never decodes the tuples
+            // that do not match
+            if (subplan instanceof SeqScan)
+                ((SeqScan) subplan).pushFilter(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            if (!tableFilters.containsKey(lf.tableAlias))
+                tableFilters.put(lf.tableAlias, new ArrayList<Predicate>());
+            tableFilters.get(lf.tableAlias).add(p);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
-        
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        // generate classes for the filters of large tables, which pay for
+        // the time compiling them takes
+        for (DbIterator subplan : subplanMap.values()) {
+            if (!(subplan instanceof SeqScan) || ((SeqScan) subplan).getFilters().length == 0)
+                continue;
+            TableStats s = baseTableStats.get(((SeqScan) subplan).getTableName());
+            if (s != null && s.estimateTableCardinality(1.0) >= QueryCompiler.COMPILE_THRESHOLD)
+                ((SeqScan) subplan).compileFilters();
+        }
+
+        pruneColumns(subplanMap);
 
-        Iterator<LogicalJoinNode> joinIt = joins.iterator();
+        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        Vector<LogicalJoinNode> order;
+        synchronized (this) {
+            if (keepJoinOrder && keptJoinOrder != null && !keptJoinOrderOutdated()) {
+                order = keptJoinOrder;
+            } else {
+                HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+                order = orderJoins(jo, baseTableStats, tableFilters, statsMap, explain);
+                if (keepJoinOrder) {
+                    keptJoinOrder = order;
+                    keptStatsSource = baseTableStats;
+                    keptStats = statsMap;
+                }
+            }
+        }
+
+        Iterator<LogicalJoinNode> joinIt = order.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
             DbIterator plan1;
@@ -462,6 +623,12 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
+                if (fusePipelines && node instanceof SeqScan)
+                    aggNode = new FusedAggregate((SeqScan) node,
+                                        td.fieldNameToIndex(aggField),
+                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
+                                getAggOp(aggOp));
+                else
                 aggNode = new Aggregate(node,
                                         td.fieldNameToIndex(aggField),
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
@@ -478,7 +645,54 @@ public class LogicalPlan {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        Project project = new Project(outFields, outTypes, node);
+        // a compiled scan and the projection form a single compiled pipeline
+        if (node instanceof SeqScan && ((SeqScan) node).filtersCompiled())
+            project.compile();
+        return project;
+    }
+
+    /** Have each scan in subplanMap return only the fields the query uses,
+        so that the operators above it decode and copy no others.  Nothing is
+        pruned from a query that outputs every field.
+    */
+    private void pruneColumns(Map<String,DbIterator> subplanMap) {
+        Set<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList)
+            used.add(si.fname);
+        if (aggField != null)
+            used.add(aggField);
+        if (groupByField != null)
+            used.add(groupByField);
+        if (oByField != null)
+            used.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        for (String name : used)
+            if (name == null || name.endsWith(".*"))
+                return;
+
+        for (DbIterator subplan : subplanMap.values()) {
+            if (!(subplan instanceof SeqScan))
+                continue;
+            SeqScan ss = (SeqScan) subplan;
+            TupleDesc td = ss.getTableTupleDesc();
+            ArrayList<Integer> columns = new ArrayList<Integer>();
+            for (int i = 0; i < td.numFields(); i++)
+                if (used.contains(td.getFieldName(i)))
+                    columns.add(i);
+            // a scan must return some field to return its tuples at all
+            if (columns.isEmpty())
+                columns.add(0);
+            if (columns.size() == td.numFields())
+                continue;
+            int[] cols = new int[columns.size()];
+            for (int i = 0; i < cols.length; i++)
+                cols[i] = columns.get(i);
+            ss.setColumns(cols);
+        }
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A most-common-values list: the values that make up a noticeably larger
+ * share of a sample than the average value does, with their frequencies.
+ * Equality predicates on such values are estimated from their own frequency
+ * rather than from a histogram bucket or the number of distinct values.
+ *
+ * @param <T>
+ *            the type of the values; must implement equals and hashCode
+ */
+public class MostCommonValues<T> {
+
+    /** Frequency of each common value, as a fraction of all values. */
+    private final Map<T, Double> m_frequencies;
+
+    /** Sum of the frequencies. */
+    private final double m_total;
+
+    /**
+     * Create a list with the given frequencies.
+     */
+    public MostCommonValues(final Map<T, Double> frequencies) {
+	m_frequencies = new HashMap<T, Double>(frequencies);
+	double total = 0;
+	for (double f : frequencies.values())
+	    total += f;
+	m_total = total;
+    }
+
+    /**
+     * Pick the common values out of a sample. A value is common if it occurs
+     * at least twice and at least 25% more often than the average value.
+     *
+     * @param counts
+     *            the number of occurrences of each distinct value of the
+     *            sample
+     * @param sampled
+     *            the size of the sample
+     * @param max
+     *            the maximum number of values to keep
+     */
+    public static <T> MostCommonValues<T> fromCounts(
+	    final Map<T, Integer> counts, final int sampled, final int max) {
+	Map<T, Double> frequencies = new HashMap<T, Double>();
+	if (!counts.isEmpty()) {
+	    double threshold = Math.max(2, 1.25 * sampled / counts.size());
+	    List<Map.Entry<T, Integer>> entries = new ArrayList<Map.Entry<T, Integer>>(
+		    counts.entrySet());
+	    Collections.sort(entries, new Comparator<Map.Entry<T, Integer>>() {
+		public int compare(final Map.Entry<T, Integer> a,
+		        final Map.Entry<T, Integer> b) {
+		    return b.getValue().compareTo(a.getValue());
+		}
+	    });
+	    for (int k = 0; k < Math.min(max, entries.size()); k++) {
+		Map.Entry<T, Integer> e = entries.get(k);
+		if (e.getValue() < threshold)
+		    break;
+		frequencies.put(e.getKey(), (double) e.getValue() / sampled);
+	    }
+	}
+	return new MostCommonValues<T>(frequencies);
+    }
+
+    /**
+     * @return the frequency of v, or null if it is not a common value
+     */
+    public Double frequency(final T v) {
+	return m_frequencies.get(v);
+    }
+
+    /** @return the sum of the frequencies of all common values */
+    public double totalFrequency() {
+	return m_total;
+    }
+
+    /** @return the number of common values */
+    public int size() {
+	return m_frequencies.size();
+    }
+
+    /** @return the common values and their frequencies */
+    public Map<T, Double> frequencies() {
+	return Collections.unmodifiableMap(m_frequencies);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The text of a SQL statement in the form used as the key of the
+ * {@link QueryPlanCache}: runs of whitespace outside string literals become
+ * one space, the trailing semicolon is dropped and, if asked, integer and
+ * string literals are replaced by '?' placeholders so that statements that
+ * differ only in their constants share a plan. The literals taken out are
+ * kept, in order, as the values of the placeholders.
+ */
+class NormalizedSql {
+
+    private final String m_text;
+    private final String m_markedText;
+    private final List<String> m_literals;
+    private final int m_placeholders;
+
+    private NormalizedSql(final String text, final String markedText,
+	    final List<String> literals, final int placeholders) {
+	m_text = text;
+	m_markedText = markedText;
+	m_literals = literals;
+	m_placeholders = placeholders;
+    }
+
+    /**
+     * Normalize a statement.
+     *
+     * @param sql
+     *            the statement
+     * @param liftLiterals
+     *            true to replace literals by placeholders
+     */
+    static NormalizedSql normalize(final String sql, final boolean liftLiterals) {
+	StringBuilder text = new StringBuilder();
+	StringBuilder marked = new StringBuilder();
+	List<String> literals = new ArrayList<String>();
+	int placeholders = 0;
+	int params = 0;
+	String s = sql.trim();
+	if (s.endsWith(";"))
+	    s = s.substring(0, s.length() - 1).trim();
+
+	int i = 0;
+	while (i < s.length()) {
+	    char c = s.charAt(i);
+	    if (Character.isWhitespace(c)) {
+		while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+		    i++;
+		text.append(' ');
+		marked.append(' ');
+	    } else if (c == '\'') {
+		int end = s.indexOf('\'', i + 1);
+		// quotes doubled inside the literal are left to the SQL parser
+		boolean plain = end > 0
+		        && (end + 1 == s.length() || s.charAt(end + 1) != '\'');
+		if (end < 0)
+		    end = s.length() - 1;
+		String literal = s.substring(i, end + 1);
+		if (liftLiterals && plain) {
+		    literals.add(literal.substring(1, literal.length() - 1));
+		    appendParameter(text, marked, params++);
+		} else {
+		    text.append(literal);
+		    marked.append(literal);
+		}
+		i = end + 1;
+	    } else if (c == '?') {
+		placeholders++;
+		appendParameter(text, marked, params++);
+		i++;
+	    } else if (isNumberStart(s, i)) {
+		int end = i + 1;
+		while (end < s.length() && Character.isDigit(s.charAt(end)))
+		    end++;
+		String literal = s.substring(i, end);
+		if (liftLiterals) {
+		    literals.add(literal);
+		    appendParameter(text, marked, params++);
+		} else {
+		    text.append(literal);
+		    marked.append(literal);
+		}
+		i = end;
+	    } else {
+		int end = i + 1;
+		if (isWordChar(c))
+		    while (end < s.length() && isWordChar(s.charAt(end)))
+			end++;
+		text.append(s, i, end);
+		marked.append(s, i, end);
+		i = end;
+	    }
+	}
+	return new NormalizedSql(text.toString(), marked.toString(),
+	        Collections.unmodifiableList(literals), placeholders);
+    }
+
+    private static void appendParameter(final StringBuilder text,
+	    final StringBuilder marked, final int index) {
+	text.append('?');
+	marked.append('\'').append(LogicalPlan.parameterMarker(index))
+	        .append('\'');
+    }
+
+    private static boolean isWordChar(final char c) {
+	return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$';
+    }
+
+    /**
+     * @return true if an integer literal starts at i: a digit (names, which
+     *         may hold digits, are consumed whole), or a minus sign before
+     *         one after an operator, '(' or ','
+     */
+    private static boolean isNumberStart(final String s, final int i) {
+	if (Character.isDigit(s.charAt(i)))
+	    return true;
+	if (s.charAt(i) != '-' || i + 1 >= s.length()
+	        || !Character.isDigit(s.charAt(i + 1)))
+	    return false;
+	int prev = i - 1;
+	while (prev >= 0 && Character.isWhitespace(s.charAt(prev)))
+	    prev--;
+	return prev >= 0 && "=<>!(,".indexOf(s.charAt(prev)) >= 0;
+    }
+
+    /** @return the normalized text, with '?' for each parameter */
+    String getText() {
+	return m_text;
+    }
+
+    /**
+     * @return the normalized text with each parameter written as a string
+     *         literal holding its {@link LogicalPlan#parameterMarker}, for
+     *         the SQL parser
+     */
+    String getMarkedText() {
+	return m_markedText;
+    }
+
+    /** @return the values of the literals replaced by placeholders */
+    List<String> getLiterals() {
+	return m_literals;
+    }
+
+    /** @return the number of '?' placeholders in the original statement */
+    int getPlaceholders() {
+	return m_placeholders;
+    }
+
+    /** @return the number of parameters: placeholders plus lifted literals */
+    int numParameters() {
+	return m_placeholders + m_literals.size();
+    }
+
+    /** @return true if the statement is a SELECT */
+    boolean isSelect() {
+	return m_text.regionMatches(true, 0, "SELECT ", 0, 7);
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 // import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -42,14 +43,26 @@ public class OperatorCardinality {
 			    (Operator) children[0], tableAliasToId, tableStats);
 		    childC = ((Operator) children[0]).getEstimatedCardinality();
 		} else if (children[0] instanceof SeqScan)
-		    childC = tableStats.get(
-			    ((SeqScan) children[0]).getTableName())
-			    .estimateTableCardinality(1.0);
+		    childC = scanCardinality((SeqScan) children[0], tableStats);
 	    o.setEstimatedCardinality(childC);
 	    return hasJoinPK;
 	}
     }
 
+    /**
+     * @return the estimated cardinality of a scan, with the selectivity of
+     *         the filters pushed into it
+     */
+    private static int scanCardinality(final SeqScan s,
+	    final Map<String, TableStats> tableStats) {
+	TableStats stats = tableStats.get(s.getTableName());
+	Predicate[] filters = s.getFilters();
+	if (filters.length == 0)
+	    return stats.estimateTableCardinality(1.0);
+	return (int) (stats.estimateTableCardinality(1.0)
+	        * stats.estimateSelectivity(Arrays.asList(filters))) + 1;
+    }
+
     private static boolean updateFilterCardinality(final Filter f,
 	    final Map<String, Integer> tableAliasToId,
 	    final Map<String, TableStats> tableStats) {
@@ -76,9 +89,8 @@ public class OperatorCardinality {
 		        .getEstimatedCardinality() * selectivity) + 1);
 		return hasJoinPK;
 	    } else if (child instanceof SeqScan) {
-		f.setEstimatedCardinality((int) (tableStats.get(
-		        ((SeqScan) child).getTableName())
-		        .estimateTableCardinality(1.0) * selectivity) + 1);
+		f.setEstimatedCardinality((int) (scanCardinality(
+		        (SeqScan) child, tableStats) * selectivity) + 1);
 		return false;
 	    }
 	}
@@ -119,8 +131,7 @@ public class OperatorCardinality {
 	    child1Card = child1O.getEstimatedCardinality();
 	    child1Card = child1Card > 0 ? child1Card : 1;
 	} else if (child1 instanceof SeqScan)
-	    child1Card = tableStats.get(((SeqScan) child1).getTableName())
-		    .estimateTableCardinality(1.0);
+	    child1Card = scanCardinality((SeqScan) child1, tableStats);
 
 	if (child2 instanceof Operator) {
 	    Operator child2O = (Operator) child2;
@@ -130,8 +141,7 @@ public class OperatorCardinality {
 	    child2Card = child2O.getEstimatedCardinality();
 	    child2Card = child2Card > 0 ? child2Card : 1;
 	} else if (child2 instanceof SeqScan)
-	    child2Card = tableStats.get(((SeqScan) child2).getTableName())
-		    .estimateTableCardinality(1.0);
+	    child2Card = scanCardinality((SeqScan) child2, tableStats);
 
 	j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
 	        .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
@@ -174,8 +184,7 @@ public class OperatorCardinality {
 	    child1Card = child1O.getEstimatedCardinality();
 	    child1Card = child1Card > 0 ? child1Card : 1;
 	} else if (child1 instanceof SeqScan)
-	    child1Card = tableStats.get(((SeqScan) child1).getTableName())
-		    .estimateTableCardinality(1.0);
+	    child1Card = scanCardinality((SeqScan) child1, tableStats);
 
 	if (child2 instanceof Operator) {
 	    Operator child2O = (Operator) child2;
@@ -185,8 +194,7 @@ public class OperatorCardinality {
 	    child2Card = child2O.getEstimatedCardinality();
 	    child2Card = child2Card > 0 ? child2Card : 1;
 	} else if (child2 instanceof SeqScan)
-	    child2Card = tableStats.get(((SeqScan) child2).getTableName())
-		    .estimateTableCardinality(1.0);
+	    child2Card = scanCardinality((SeqScan) child2, tableStats);
 
 	j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
 	        .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
@@ -214,8 +222,7 @@ public class OperatorCardinality {
 	}
 
 	if (child instanceof SeqScan)
-	    childCard = tableStats.get(((SeqScan) child).getTableName())
-		    .estimateTableCardinality(1.0);
+	    childCard = scanCardinality((SeqScan) child, tableStats);
 
 	String[] tmp = a.groupFieldName().split("[.]");
 	String tableAlias = tmp[0];
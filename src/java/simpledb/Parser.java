@@ -10,6 +10,7 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Vector;
@@ -297,47 +298,54 @@ public class Parser {
 	query.setPhysicalPlan(physicalPlan);
 	query.setLogicalPlan(lp);
 
-	if (physicalPlan != null) {
-	    Class<?> c;
-	    try {
-		c = Class.forName("simpledb.OperatorCardinality");
+	printQueryPlan(physicalPlan, lp);
 
-		Class<?> p = Operator.class;
-		Class<?> h = Map.class;
+	return query;
+    }
 
-		java.lang.reflect.Method m = c.getMethod(
-		        "updateOperatorCardinality", p, h, h);
+    /** Print a physical plan, annotated with the cardinalities estimated
+     * for each of its operators. */
+    private static void printQueryPlan(final DbIterator physicalPlan,
+	    final LogicalPlan lp) {
+	if (physicalPlan == null)
+	    return;
+	Class<?> c;
+	try {
+	    c = Class.forName("simpledb.OperatorCardinality");
 
-		System.out.println("The query plan is:");
-		m.invoke(null, physicalPlan, lp.getTableAliasToIdMapping(),
-		        TableStats.getStatsMap());
-		c = Class.forName("simpledb.QueryPlanVisualizer");
-		m = c.getMethod("printQueryPlanTree", DbIterator.class,
-		        System.out.getClass());
-		m.invoke(c.newInstance(), physicalPlan, System.out);
-	    }
-	    catch (ClassNotFoundException e) {
-	    }
-	    catch (SecurityException e) {
-	    }
-	    catch (NoSuchMethodException e) {
-		e.printStackTrace();
-	    }
-	    catch (IllegalArgumentException e) {
-		e.printStackTrace();
-	    }
-	    catch (IllegalAccessException e) {
-		e.printStackTrace();
-	    }
-	    catch (InvocationTargetException e) {
-		e.printStackTrace();
-	    }
-	    catch (InstantiationException e) {
-		e.printStackTrace();
-	    }
-	}
+	    Class<?> p = Operator.class;
+	    Class<?> h = Map.class;
 
-	return query;
+	    java.lang.reflect.Method m = c.getMethod(
+	            "updateOperatorCardinality", p, h, h);
+
+	    System.out.println("The query plan is:");
+	    m.invoke(null, physicalPlan, lp.getTableAliasToIdMapping(),
+	            TableStats.getStatsMap());
+	    c = Class.forName("simpledb.QueryPlanVisualizer");
+	    m = c.getMethod("printQueryPlanTree", DbIterator.class,
+	            System.out.getClass());
+	    m.invoke(c.newInstance(), physicalPlan, System.out);
+	}
+	catch (ClassNotFoundException e) {
+	}
+	catch (SecurityException e) {
+	}
+	catch (NoSuchMethodException e) {
+	    e.printStackTrace();
+	}
+	catch (IllegalArgumentException e) {
+	    e.printStackTrace();
+	}
+	catch (IllegalAccessException e) {
+	    e.printStackTrace();
+	}
+	catch (InvocationTargetException e) {
+	    e.printStackTrace();
+	}
+	catch (InstantiationException e) {
+	    e.printStackTrace();
+	}
     }
 
     public Query handleInsertStatement(final ZInsert s, final TransactionId tId)
@@ -511,13 +519,100 @@ public class Parser {
 	return curtrans;
     }
 
+    /**
+     * Prepare a SELECT statement whose WHERE clause may compare fields with
+     * '?' placeholders, reusing the statement in the
+     * {@link QueryPlanCache} if it was prepared before.
+     *
+     * @throws simpledb.ParsingException
+     *             if the statement is invalid, is not a SELECT, has
+     *             subqueries or has placeholders elsewhere than as the
+     *             constant of a comparison
+     */
+    public PreparedStatement prepare(final String sql)
+	    throws simpledb.ParsingException {
+	NormalizedSql normalized = NormalizedSql.normalize(sql, false);
+	PreparedStatement ps = Database.getPlanCache().get(
+	        normalized.getText());
+	if (ps == null) {
+	    ps = compile(normalized);
+	    Database.getPlanCache().put(ps);
+	}
+	return ps;
+    }
+
+    private PreparedStatement compile(final NormalizedSql sql)
+	    throws simpledb.ParsingException {
+	ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql
+	        .getMarkedText().concat(";").getBytes()));
+	try {
+	    ZStatement s = p.readStatement();
+	    if (!(s instanceof ZQuery))
+		throw new simpledb.ParsingException(
+		        "Only SELECT statements can be prepared: "
+		                + sql.getText());
+	    LogicalPlan lp = parseQueryLogicalPlan(new TransactionId(),
+		    (ZQuery) s);
+	    lp.setQuery(sql.getText());
+	    return new PreparedStatement(sql.getText(), lp,
+		    sql.numParameters());
+	}
+	catch (Zql.ParseException e) {
+	    throw new simpledb.ParsingException(
+		    "Invalid SQL expression: \n \t " + e);
+	}
+	catch (Zql.TokenMgrError e) {
+	    throw new simpledb.ParsingException(
+		    "Invalid SQL expression: \n \t " + e);
+	}
+	catch (IOException e) {
+	    throw new simpledb.ParsingException(e);
+	}
+    }
+
+    /**
+     * Execute a statement. A SELECT is executed with the plan cached for
+     * the statements that differ from it only in their constants, and its
+     * plan is cached if it has none yet.
+     */
     public void processNextStatement(final String s) {
+	NormalizedSql sql = NormalizedSql.normalize(s, true);
+	PreparedStatement ps = null;
+	if (sql.isSelect() && sql.getPlaceholders() == 0) {
+	    ps = Database.getPlanCache().get(sql.getText());
+	    if (ps == null)
+		try {
+		    ps = compile(sql);
+		    Database.getPlanCache().put(ps);
+		}
+		catch (simpledb.ParsingException e) {
+		    // e.g. a constant outside a comparison: run it uncached,
+		    // which also reports any error in the statement
+		}
+	}
+	if (ps == null) {
+	    try {
+		processNextStatement(new ByteArrayInputStream(
+		        s.getBytes("UTF-8")));
+	    }
+	    catch (UnsupportedEncodingException e) {
+		e.printStackTrace();
+		throw new RuntimeException(e);
+	    }
+	    return;
+	}
 	try {
-	    processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+	    runStatement(null, ps, sql.getLiterals());
 	}
-	catch (UnsupportedEncodingException e) {
+	catch (DbException e) {
+	    e.printStackTrace();
+	}
+	catch (IOException e) {
 	    e.printStackTrace();
-	    throw new RuntimeException(e);
+	}
+	catch (simpledb.ParsingException e) {
+	    System.out
+		    .println("Invalid SQL expression: \n \t" + e.getMessage());
 	}
     }
 
@@ -526,62 +621,10 @@ public class Parser {
 	    ZqlParser p = new ZqlParser(is);
 	    ZStatement s = p.readStatement();
 
-	    Query query = null;
 	    if (s instanceof ZTransactStmt)
 		handleTransactStatement((ZTransactStmt) s);
-	    else {
-		if (!inUserTrans) {
-		    curtrans = new Transaction();
-		    curtrans.start();
-		    System.out.println("Started a new transaction tid = "
-			    + curtrans.getId().getId());
-		}
-		try {
-		    if (s instanceof ZInsert)
-			query = handleInsertStatement((ZInsert) s,
-			        curtrans.getId());
-		    else if (s instanceof ZDelete)
-			query = handleDeleteStatement((ZDelete) s,
-			        curtrans.getId());
-		    else if (s instanceof ZQuery)
-			query = handleQueryStatement((ZQuery) s,
-			        curtrans.getId());
-		    else
-			System.out
-			        .println("Can't parse "
-			                + s
-			                + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
-		    if (query != null)
-			query.execute();
-
-		    if (!inUserTrans && curtrans != null) {
-			curtrans.commit();
-			System.out.println("Transaction "
-			        + curtrans.getId().getId() + " committed.");
-		    }
-		}
-		catch (Throwable a) {
-		    // Whenever error happens, abort the current transaction
-		    if (curtrans != null) {
-			curtrans.abort();
-			System.out.println("Transaction "
-			        + curtrans.getId().getId()
-			        + " aborted because of unhandled error");
-		    }
-		    inUserTrans = false;
-
-		    if (a instanceof simpledb.ParsingException
-			    || a instanceof Zql.ParseException)
-			throw new ParsingException((Exception) a);
-		    if (a instanceof Zql.TokenMgrError)
-			throw (Zql.TokenMgrError) a;
-		    throw new DbException(a.getMessage());
-		}
-		finally {
-		    if (!inUserTrans)
-			curtrans = null;
-		}
-	    }
+	    else
+		runStatement(s, null, null);
 
 	}
 	catch (TransactionAbortedException e) {
@@ -605,6 +648,68 @@ public class Parser {
 	}
     }
 
+    /**
+     * Execute statement s, or prepared statement ps with the given
+     * parameters, in the current user transaction or a transaction of its
+     * own.
+     */
+    private void runStatement(final ZStatement s, final PreparedStatement ps,
+	    final List<String> parameters) throws DbException, IOException,
+	    simpledb.ParsingException {
+	Query query = null;
+	if (!inUserTrans) {
+	    // a stand-alone SELECT reads a snapshot and takes no locks
+	    curtrans = new Transaction(ps != null || s instanceof ZQuery);
+	    curtrans.start();
+	    System.out.println("Started a new transaction tid = "
+		    + curtrans.getId().getId());
+	}
+	try {
+	    if (ps != null) {
+		query = ps.getQuery(curtrans.getId(), parameters, explain);
+		printQueryPlan(query.getPhysicalPlan(), query.getLogicalPlan());
+	    } else if (s instanceof ZInsert)
+		query = handleInsertStatement((ZInsert) s, curtrans.getId());
+	    else if (s instanceof ZDelete)
+		query = handleDeleteStatement((ZDelete) s, curtrans.getId());
+	    else if (s instanceof ZQuery)
+		query = handleQueryStatement((ZQuery) s, curtrans.getId());
+	    else
+		System.out
+		        .println("Can't parse "
+		                + s
+		                + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+	    if (query != null)
+		query.execute();
+
+	    if (!inUserTrans && curtrans != null) {
+		curtrans.commit();
+		System.out.println("Transaction " + curtrans.getId().getId()
+		        + " committed.");
+	    }
+	}
+	catch (Throwable a) {
+	    // Whenever error happens, abort the current transaction
+	    if (curtrans != null) {
+		curtrans.abort();
+		System.out.println("Transaction " + curtrans.getId().getId()
+		        + " aborted because of unhandled error");
+	    }
+	    inUserTrans = false;
+
+	    if (a instanceof simpledb.ParsingException
+		    || a instanceof Zql.ParseException)
+		throw new ParsingException((Exception) a);
+	    if (a instanceof Zql.TokenMgrError)
+		throw (Zql.TokenMgrError) a;
+	    throw new DbException(a.getMessage());
+	}
+	finally {
+	    if (!inUserTrans)
+		curtrans = null;
+	}
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
 	    "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
@@ -692,7 +797,6 @@ public class Parser {
 		    buffer.append(line.substring(0, split + 1));
 		    String cmd = buffer.toString().trim();
 		    cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-		    byte[] statementBytes = cmd.getBytes("UTF-8");
 		    if (cmd.equalsIgnoreCase("quit;")
 			    || cmd.equalsIgnoreCase("exit;")) {
 			shutdown();
@@ -701,8 +805,7 @@ public class Parser {
 		    }
 
 		    long startTime = System.currentTimeMillis();
-		    processNextStatement(new ByteArrayInputStream(
-			    statementBytes));
+		    processNextStatement(cmd);
 		    long time = System.currentTimeMillis() - startTime;
 		    System.out.printf("----------------\n%.2f seconds\n\n",
 			    time / 1000.0);
@@ -0,0 +1,342 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PaxFile is an implementation of a DbFile that stores a collection of tuples
+ * in no particular order, like a HeapFile, but on pages that store them
+ * column by column (see {@link PaxPage}). A scan of some fields of the table
+ * reads only the parts of each page holding those fields, so the bytes read
+ * grow with the fields scanned rather than with the width of the table.
+ * <p>
+ * A table is stored in a PaxFile when it is marked <tt>pax</tt> in the
+ * catalog schema. Pages are always locked whole: PaxFile does not take part
+ * in the row locking of {@link BufferPool#setRowLocking}.
+ *
+ * @see PaxPage
+ * @see HeapFile
+ */
+public class PaxFile implements DbFile {
+
+	/**
+	 * The physical file associated with this PaxFile instance.
+	 */
+	private final File m_file;
+
+	/**
+	 * The description of the tuples stored in this PaxFile.
+	 */
+	private final TupleDesc m_tupleDesc;
+
+	/**
+	 * A unique ID for this PaxFile, the hash code of its absolute file name.
+	 */
+	private final int m_tableid;
+
+	/**
+	 * Bytes read from the file since it was opened.
+	 */
+	private final AtomicLong m_bytesRead = new AtomicLong();
+
+	/**
+	 * Constructs a PAX file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this
+	 *            file.
+	 */
+	public PaxFile(File f, TupleDesc td) {
+		m_file = f;
+		m_tableid = f.getAbsoluteFile().hashCode();
+		m_tupleDesc = td;
+	}
+
+	/**
+	 * Returns the File backing this PaxFile on disk.
+	 */
+	public File getFile() {
+		return m_file;
+	}
+
+	// see DbFile.java for javadocs
+	public int getId() {
+		return m_tableid;
+	}
+
+	// see DbFile.java for javadocs
+	public TupleDesc getTupleDesc() {
+		return m_tupleDesc;
+	}
+
+	// see DbFile.java for javadocs
+	public TupleDesc getStoredTupleDesc() {
+		return m_tupleDesc;
+	}
+
+	/**
+	 * Returns the number of bytes per page of this PaxFile, which is always
+	 * the default.
+	 */
+	public int getPageSize() {
+		return BufferPool.getPageSize();
+	}
+
+	/**
+	 * @return the number of bytes read from the file since it was opened
+	 */
+	public long getBytesRead() {
+		return m_bytesRead.get();
+	}
+
+	/**
+	 * Returns the number of pages in this PaxFile.
+	 */
+	public int numPages() {
+		return (int) (m_file.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * Read the page with only its header; the rest is read by the page as it
+	 * is needed.
+	 *
+	 * @see DbFile#readPage
+	 */
+	public Page readPage(PageId pid) {
+		try {
+			return PaxPage.read((HeapPageId) pid, this);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Read len bytes at offset off of page pgNo into data, at the same offset.
+	 */
+	void readPageBytes(int pgNo, int off, int len, byte[] data)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+		try {
+			raf.seek((long) pgNo * BufferPool.getPageSize() + off);
+			raf.readFully(data, off, len);
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("Read past end of table.");
+		} finally {
+			raf.close();
+		}
+		m_bytesRead.addAndGet(len);
+		Debug.log(1, "PaxFile.readPageBytes: read %d bytes of page %d", len,
+				pgNo);
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+		try {
+			raf.seek((long) page.getId().pageNumber()
+					* BufferPool.getPageSize());
+			raf.write(page.getPageData());
+		} finally {
+			raf.close();
+		}
+		page.markDirty(false, null);
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Page> pagesLists = new ArrayList<Page>();
+		BufferPool bp = Database.getBufferPool();
+		HeapPageId pid;
+		PaxPage page;
+		for (int i = 0; i < numPages(); i++) {
+			pid = new HeapPageId(getId(), i);
+			boolean alreadyLocked = bp.holdsLock(tid, pid);
+			page = (PaxPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+			if (page.getNumEmptySlots() > 0) {
+				page = (PaxPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+				page.insertTuple(t);
+				page.markDirty(true, tid);
+				pagesLists.add(page);
+				return pagesLists;
+			}
+			if (!alreadyLocked)
+				bp.releasePage(tid, pid);
+		}
+		while (true) {
+			synchronized (this) {
+				pid = new HeapPageId(getId(), numPages());
+				writePage(new PaxPage(pid, PaxPage.createEmptyPageData()));
+			}
+			page = (PaxPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+			if (page.getNumEmptySlots() > 0) {
+				page.insertTuple(t);
+				page.markDirty(true, tid);
+				pagesLists.add(page);
+				return pagesLists;
+			}
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		if (t.getRecordId() == null
+				|| t.getRecordId().getPageId().getTableId() != getId())
+			throw new DbException(
+					"tuple cannot be deleted or is not a member of the file");
+		ArrayList<Page> changedPages = new ArrayList<Page>();
+		PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+				t.getRecordId().getPageId(), Permissions.READ_WRITE);
+		page.deleteTuple(t);
+		page.markDirty(true, tid);
+		changedPages.add(page);
+		return changedPages;
+	}
+
+	// see DbFile.java for javadocs
+	public DbFileIterator iterator(TransactionId tid) {
+		return iterator(tid, (Predicate[]) null, allColumns(), m_tupleDesc);
+	}
+
+	/**
+	 * @return the numbers of every field of the table
+	 */
+	private int[] allColumns() {
+		int[] columns = new int[m_tupleDesc.numFields()];
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = i;
+		return columns;
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy the
+	 * predicates of filter, each with only some of its fields. The
+	 * predicates are evaluated column by column, on the parts of each page
+	 * they need.
+	 *
+	 * @see DbFile#iterator(TransactionId, TupleFilter, int[], TupleDesc)
+	 * @see #iterator(TransactionId, Predicate[], int[], TupleDesc)
+	 */
+	public DbFileIterator iterator(TransactionId tid, TupleFilter filter,
+			int[] columns, TupleDesc td) {
+		return iterator(tid, filter == null ? null : filter.getPredicates(),
+				columns != null ? columns : allColumns(), td);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy every
+	 * predicate of filters, each with only some of its fields. Only the
+	 * parts of each page holding those fields and the fields filtered on are
+	 * read.
+	 *
+	 * @param filters
+	 *            predicates on the fields of the table, or null
+	 * @param columns
+	 *            the field of the table that each field returned is
+	 * @param td
+	 *            the TupleDesc of the tuples returned
+	 * @see PaxPage#iterator(Predicate[], int[], TupleDesc)
+	 */
+	public DbFileIterator iterator(final TransactionId tid,
+			final Predicate[] filters, final int[] columns, final TupleDesc td) {
+		return new AbstractDbFileIterator() {
+			private Iterator<Tuple> m_tupleIt;
+			private int m_currentPageNumber = Integer.MAX_VALUE;
+
+			public void open() {
+				m_currentPageNumber = -1;
+			}
+
+			protected Tuple readNext() throws DbException,
+					TransactionAbortedException {
+				while ((m_tupleIt == null || !m_tupleIt.hasNext())
+						&& m_currentPageNumber < numPages() - 1) {
+					m_currentPageNumber++;
+					PaxPage page = (PaxPage) Database.getBufferPool().getPage(
+							tid, new HeapPageId(getId(), m_currentPageNumber),
+							Permissions.READ_ONLY);
+					m_tupleIt = page.iterator(filters, columns, td);
+				}
+				if (m_tupleIt == null || !m_tupleIt.hasNext())
+					return null;
+				return m_tupleIt.next();
+			}
+
+			public void rewind() {
+				close();
+				open();
+			}
+
+			public void close() {
+				super.close();
+				m_tupleIt = null;
+				m_currentPageNumber = Integer.MAX_VALUE;
+			}
+		};
+	}
+
+	// see DbFile.java for javadocs
+	public DbFileIterator diskIterator() {
+		return new AbstractDbFileIterator() {
+			private Iterator<Tuple> m_tupleIt;
+			private int m_nextPageNumber = Integer.MAX_VALUE;
+
+			public void open() {
+				m_nextPageNumber = 0;
+				m_tupleIt = null;
+			}
+
+			protected Tuple readNext() {
+				while ((m_tupleIt == null || !m_tupleIt.hasNext())
+						&& m_nextPageNumber < numPages())
+					m_tupleIt = ((PaxPage) readPage(new HeapPageId(getId(),
+							m_nextPageNumber++))).iterator();
+				if (m_tupleIt == null || !m_tupleIt.hasNext())
+					return null;
+				return m_tupleIt.next();
+			}
+
+			public void rewind() {
+				close();
+				open();
+			}
+
+			public void close() {
+				super.close();
+				m_tupleIt = null;
+				m_nextPageNumber = Integer.MAX_VALUE;
+			}
+		};
+	}
+
+	/**
+	 * Write tuples to f as a PaxFile, replacing what f holds. The pages are
+	 * written directly, not through the BufferPool, so f must not be in use.
+	 *
+	 * @param tuples
+	 *            an iterator over tuples with TupleDesc td, not opened yet
+	 */
+	public static void convert(DbFileIterator tuples, TupleDesc td, File f)
+			throws IOException, DbException, TransactionAbortedException {
+		int numSlots = PaxPage.numSlots(td);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+		try {
+			List<Tuple> page = new ArrayList<Tuple>(numSlots);
+			tuples.open();
+			while (tuples.hasNext()) {
+				page.add(tuples.next());
+				if (page.size() == numSlots) {
+					out.write(PaxPage.createPageData(td, page));
+					page.clear();
+				}
+			}
+			if (!page.isEmpty())
+				out.write(PaxPage.createPageData(td, page));
+		} finally {
+			tuples.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxFile and
+ * implements the Page interface that is used by BufferPool. A PaxPage holds
+ * as many tuples as a HeapPage of the same table, but stores them column by
+ * column (the PAX layout): a header with one bit per slot, as in a HeapPage,
+ * followed by one minipage per field holding the value of that field for
+ * every slot.
+ * <p>
+ * A page read by its PaxFile holds only its header at first, and reads the
+ * minipage of a field from disk the first time the field is asked for, so
+ * that a scan of some fields reads no other bytes of the file.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage implements Page {
+
+	/**
+	 * Page Id.
+	 */
+	final HeapPageId m_pid;
+
+	/**
+	 * Tuple Description of tuples stored in this page.
+	 */
+	final TupleDesc m_td;
+
+	/**
+	 * The number of slots in this page.
+	 */
+	final int m_numSlots;
+
+	/**
+	 * The offset in the page of the minipage of each field.
+	 */
+	final int[] m_minipageOffsets;
+
+	/**
+	 * The page data. The header and the minipages are read and written in
+	 * place.
+	 */
+	final byte[] m_data;
+
+	/**
+	 * Whether the minipage of each field has been read into m_data.
+	 */
+	private final boolean[] m_loaded;
+
+	/**
+	 * The file the minipages not loaded yet are read from, or null once every
+	 * minipage is loaded.
+	 */
+	private PaxFile m_file;
+
+	/**
+	 * the transaction id
+	 */
+	TransactionId m_tid;
+
+	/**
+	 * The before image, or null while it is still what is on disk and the
+	 * page has not been loaded entirely.
+	 */
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a PaxPage from a set of bytes of data read from disk. The page
+	 * has the same number of slots as a HeapPage of its table, and a header
+	 * of the same size; the minipage of each field follows, in field order,
+	 * holding the serialized value of that field for each slot in turn.
+	 *
+	 * @see HeapPage#HeapPage
+	 */
+	public PaxPage(HeapPageId id, byte[] data) throws IOException {
+		this.m_pid = id;
+		this.m_td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.m_numSlots = numSlots(m_td);
+		if (data.length < BufferPool.getPageSize())
+			throw new IOException("page data is " + data.length
+					+ " bytes long");
+		m_data = data.clone();
+		m_minipageOffsets = minipageOffsets(m_td);
+		m_loaded = new boolean[m_td.numFields()];
+		Arrays.fill(m_loaded, true);
+
+		setBeforeImage();
+	}
+
+	/**
+	 * Create a page of file holding only its header, whose minipages are read
+	 * from file as they are needed.
+	 */
+	static PaxPage read(HeapPageId id, PaxFile file) throws IOException {
+		PaxPage p = new PaxPage(id, createEmptyPageData());
+		file.readPageBytes(id.pageNumber(), 0, headerSize(p.m_numSlots),
+				p.m_data);
+		Arrays.fill(p.m_loaded, false);
+		p.m_file = file;
+		p.oldData = null;
+		return p;
+	}
+
+	/**
+	 * @return the number of tuples a page holds, the same as in a HeapPage
+	 */
+	static int numSlots(TupleDesc td) {
+		return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+	}
+
+	/**
+	 * @return the number of bytes in the header of a page with numSlots
+	 *         slots
+	 */
+	static int headerSize(int numSlots) {
+		return (numSlots + 7) / 8;
+	}
+
+	/**
+	 * @return the offset in a page of the minipage of each field of td
+	 */
+	static int[] minipageOffsets(TupleDesc td) {
+		int numSlots = numSlots(td);
+		int[] offsets = new int[td.numFields()];
+		int off = headerSize(numSlots);
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = off;
+			off += numSlots * td.getFieldType(i).getLen();
+		}
+		return offsets;
+	}
+
+	/**
+	 * Read the minipages of fields that have not been read yet.
+	 */
+	synchronized void load(int[] fields) {
+		if (m_file == null)
+			return;
+		for (int f : fields) {
+			if (m_loaded[f])
+				continue;
+			try {
+				m_file.readPageBytes(m_pid.pageNumber(), m_minipageOffsets[f],
+						m_numSlots * m_td.getFieldType(f).getLen(), m_data);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			m_loaded[f] = true;
+		}
+	}
+
+	/**
+	 * Read every minipage not read yet, before the page is changed or
+	 * written.
+	 */
+	synchronized void loadAll() {
+		if (m_file == null)
+			return;
+		int[] fields = new int[m_td.numFields()];
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = i;
+		load(fields);
+		m_file = null;
+		synchronized (oldDataLock) {
+			if (oldData == null)
+				oldData = m_data.clone();
+		}
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public PaxPage getBeforeImage() {
+		loadAll();
+		try {
+			byte[] oldDataRef = null;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new PaxPage(m_pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		byte[] data = getPageData();
+		synchronized (oldDataLock) {
+			oldData = data;
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HeapPageId getId() {
+		return m_pid;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page. Used to
+	 * serialize this page to disk.
+	 *
+	 * @return A byte array correspond to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		loadAll();
+		synchronized (this) {
+			return m_data.clone();
+		}
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * PaxPage. Used to add new, empty pages to the file.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];
+	}
+
+	/**
+	 * Generate the data of a page holding tuples, in the first slots.
+	 *
+	 * @param td
+	 *            the TupleDesc of the table
+	 * @param tuples
+	 *            at most {@link #numSlots} tuples
+	 */
+	static byte[] createPageData(TupleDesc td, List<Tuple> tuples) {
+		byte[] data = createEmptyPageData();
+		int[] offsets = minipageOffsets(td);
+		for (int i = 0; i < tuples.size(); i++) {
+			writeTuple(data, td, offsets, i, tuples.get(i));
+			data[i / 8] |= 1 << (i % 8);
+		}
+		return data;
+	}
+
+	/**
+	 * Write the fields of t into the minipages of data, for slot.
+	 */
+	private static void writeTuple(byte[] data, TupleDesc td, int[] offsets,
+			int slot, Tuple t) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		for (int f = 0; f < td.numFields(); f++) {
+			baos.reset();
+			try {
+				t.getField(f).serialize(dos);
+				dos.flush();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			int len = td.getFieldType(f).getLen();
+			System.arraycopy(baos.toByteArray(), 0, data, offsets[f] + slot
+					* len, len);
+		}
+	}
+
+	/**
+	 * @return field f of the tuple in slot, read from its minipage, which
+	 *         must be loaded
+	 */
+	Field readField(int slot, int f) {
+		Type type = m_td.getFieldType(f);
+		int off = m_minipageOffsets[f] + slot * type.getLen();
+		if (type == Type.INT_TYPE)
+			return new IntField(TupleFilter.readInt(m_data, off));
+		return new StringField(TupleFilter.readString(m_data, off),
+				Type.STRING_LEN);
+	}
+
+	/**
+	 * @return the tuple in slot slotId, or null if the slot is empty
+	 */
+	public Tuple getTuple(int slotId) {
+		if (!isSlotUsed(slotId))
+			return null;
+		loadAll();
+		Tuple t = new Tuple(m_td);
+		for (int f = 0; f < m_td.numFields(); f++)
+			t.setField(f, readField(slotId, f));
+		t.setRecordId(new RecordId(m_pid, slotId));
+		return t;
+	}
+
+	/**
+	 * Delete the specified tuple from the page; the tuple should be updated to
+	 * reflect that it is no longer stored on any page.
+	 *
+	 * @throws DbException
+	 *             if this tuple is not on this page, or tuple slot is already
+	 *             empty.
+	 * @param t
+	 *            The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		loadAll();
+		if (t.getRecordId() != null
+				&& t.getRecordId().getPageId().equals(m_pid)) {
+			int slot = t.getRecordId().tupleno();
+			if (isSlotUsed(slot)) {
+				markSlotUsed(slot, false);
+				t.setRecordId(null);
+				return;
+			}
+		}
+		throw new DbException("tuple not in this page or is already deleted");
+	}
+
+	/**
+	 * Adds the specified tuple to the page; the tuple should be updated to
+	 * reflect that it is now stored on this page.
+	 *
+	 * @throws DbException
+	 *             if the page is full (no empty slots) or tupledesc is
+	 *             mismatch.
+	 * @param t
+	 *            The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!m_td.equals(t.getTupleDesc()))
+			throw new DbException("Tuple Desc mismatch");
+		loadAll();
+		synchronized (this) {
+			for (int i = 0; i < m_numSlots; i++) {
+				if (!isSlotUsed(i)) {
+					writeTuple(m_data, m_td, m_minipageOffsets, i, t);
+					markSlotUsed(i, true);
+					t.setRecordId(new RecordId(m_pid, i));
+					return;
+				}
+			}
+		}
+		throw new DbException("page is full");
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction that did
+	 * the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		m_tid = dirty ? tid : null;
+	}
+
+	/**
+	 * @return the tid of the transaction that last dirtied this page, or null
+	 *         if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		return m_tid;
+	}
+
+	/**
+	 * @return the number of slots on this page, used or not.
+	 */
+	public int getNumSlots() {
+		return m_numSlots;
+	}
+
+	/**
+	 * @return the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		int count = 0;
+		for (int i = 0; i < m_numSlots; i++)
+			if (!isSlotUsed(i))
+				count++;
+		return count;
+	}
+
+	/**
+	 * @return true if associated slot on this page is filled, false otherwise.
+	 */
+	public boolean isSlotUsed(int i) {
+		return (m_data[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	/**
+	 * Abstraction to fill or clear a slot on this page.
+	 */
+	private void markSlotUsed(int i, boolean value) {
+		if (value)
+			m_data[i / 8] |= 1 << (i % 8);
+		else
+			m_data[i / 8] &= ~(1 << (i % 8));
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on this
+	 *         iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator() {
+		int[] fields = new int[m_td.numFields()];
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = i;
+		return iterator(null, fields, m_td);
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page that satisfy every
+	 *         predicate of filters, each with only some of its fields. Only
+	 *         the minipages of those fields and of the fields filtered on are
+	 *         read.
+	 * @param filters
+	 *            predicates on the fields of the table, or null
+	 * @param columns
+	 *            the field of the tuples that each field returned is
+	 * @param td
+	 *            the TupleDesc of the tuples returned
+	 */
+	public Iterator<Tuple> iterator(Predicate[] filters, int[] columns,
+			TupleDesc td) {
+		if (filters == null)
+			filters = new Predicate[0];
+		int[] filterFields = new int[filters.length];
+		for (int i = 0; i < filters.length; i++)
+			filterFields[i] = filters[i].getField();
+		load(filterFields);
+		load(columns);
+		return new PaxPageIterator(filters, columns, td);
+	}
+
+	/**
+	 * Iterator over the used slots of the page that satisfy some filters.
+	 */
+	class PaxPageIterator implements Iterator<Tuple> {
+		private final Predicate[] m_filters;
+		private final int[] m_columns;
+		private final TupleDesc m_columnsTd;
+
+		/**
+		 * The next slot to look at.
+		 */
+		private int m_slot = 0;
+
+		/**
+		 * The next tuple to return.
+		 */
+		private Tuple m_next = null;
+
+		PaxPageIterator(Predicate[] filters, int[] columns, TupleDesc td) {
+			m_filters = filters;
+			m_columns = columns;
+			m_columnsTd = td;
+		}
+
+		public boolean hasNext() {
+			if (m_next != null)
+				return true;
+			while (m_slot < m_numSlots) {
+				int i = m_slot++;
+				if (!isSlotUsed(i) || !matches(i))
+					continue;
+				Tuple t = new Tuple(m_columnsTd);
+				for (int k = 0; k < m_columns.length; k++)
+					t.setField(k, readField(i, m_columns[k]));
+				t.setRecordId(new RecordId(m_pid, i));
+				m_next = t;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean matches(int slot) {
+			for (Predicate p : m_filters)
+				if (!readField(slot, p.getField()).compare(p.getOp(),
+						p.getOperand()))
+					return false;
+			return true;
+		}
+
+		public Tuple next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Tuple t = m_next;
+			m_next = null;
+			return t;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -1,50 +1,96 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.
+ * <p>
+ * A set of joins is a bitmask over the list of joins the cache was created
+ * for, with bit i set if the set contains joins.get(i), and plans are kept
+ * in arrays indexed by that bitmask. Each plan only records the join it does
+ * last, whether its inner and outer were swapped and the algorithm of that
+ * join; the rest of the plan is the cached plan of the set without that join. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
+    private final List<LogicalJoinNode> joins;
+    private final double[] bestCosts;
+    private final int[] bestCardinalities;
+    /** (index of the last join << 1) | 1 if it was swapped, or -1 if there is no plan */
+    private final int[] lastJoins;
+    private final LogicalJoinNode.Algorithm[] algorithms;
+
+    /** Create an empty cache for the subsets of joins
+        @param joins the joins, at most 30 of them
+    */
+    PlanCache(List<LogicalJoinNode> joins) {
+        this.joins = joins;
+        int size = 1 << joins.size();
+        bestCosts = new double[size];
+        bestCardinalities = new int[size];
+        lastJoins = new int[size];
+        algorithms = new LogicalJoinNode.Algorithm[size];
+        Arrays.fill(lastJoins, -1);
+    }
+
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
         specified join set
         @param s the set of joins for which a new ordering (plan) is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param last the index of the join the plan does last, on top of the plan for the rest of s
+        @param swapped true if the plan swaps the inner and outer of the last join
+        @param algorithm the algorithm of the last join
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    void addPlan(int s, double cost, int card, int last, boolean swapped,
+            LogicalJoinNode.Algorithm algorithm) {
+        bestCosts[s] = cost;
+        bestCardinalities[s] = card;
+        lastJoins[s] = (last << 1) | (swapped ? 1 : 0);
+        algorithms[s] = algorithm;
+    }
+
+    /** @return true if there is a plan in the cache for the specified join set */
+    boolean hasPlan(int s) {
+        return lastJoins[s] >= 0;
     }
-    
-    /** Find the best join order in the cache for the specified plan 
+
+    /** @return the index of the join done last by the plan for s */
+    int getLastJoin(int s) {
+        return lastJoins[s] >> 1;
+    }
+
+    /** Find the best join order, with the algorithm of each join, in the cache for the specified plan
         @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @return the best order for s in the cache, or null if there is none
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    Vector<LogicalJoinNode> getOrder(int s) {
+        if (!hasPlan(s))
+            return null;
+        LogicalJoinNode[] order = new LogicalJoinNode[Integer.bitCount(s)];
+        for (int k = order.length - 1; k >= 0; k--) {
+            LogicalJoinNode j = joins.get(getLastJoin(s));
+            if ((lastJoins[s] & 1) != 0)
+                j = j.swapInnerOuter();
+            order[k] = j.withAlgorithm(algorithms[s]);
+            s &= ~(1 << getLastJoin(s));
+        }
+        return new Vector<LogicalJoinNode>(Arrays.asList(order));
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
+
+    /** Find the cost of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(int s) {
+        return bestCosts[s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
+
+    /** Find the cardinality of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(int s) {
+        return bestCardinalities[s];
     }
 }
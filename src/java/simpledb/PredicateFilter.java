@@ -0,0 +1,53 @@
+package simpledb;
+
+/**
+ * Evaluates a conjunction of predicates by interpreting each of them.
+ */
+public class PredicateFilter extends TupleFilter {
+
+	private final boolean[] m_isInt;
+	private final int[] m_offsets;
+
+	/**
+	 * @param td
+	 *            the schema of the table
+	 * @param predicates
+	 *            predicates on the fields of td
+	 */
+	public PredicateFilter(TupleDesc td, Predicate[] predicates) {
+		super(predicates);
+		m_isInt = new boolean[predicates.length];
+		m_offsets = new int[predicates.length];
+		int[] fieldOffsets = fieldOffsets(td);
+		for (int k = 0; k < predicates.length; k++) {
+			int field = predicates[k].getField();
+			m_isInt[k] = td.getFieldType(field) == Type.INT_TYPE;
+			m_offsets[k] = fieldOffsets[field];
+		}
+	}
+
+	public boolean matches(byte[] data, int off) {
+		Predicate[] predicates = getPredicates();
+		for (int k = 0; k < predicates.length; k++) {
+			Predicate p = predicates[k];
+			boolean match;
+			if (m_isInt[k])
+				match = IntField.compare(readInt(data, off + m_offsets[k]),
+						p.getOp(), ((IntField) p.getOperand()).getValue());
+			else
+				match = StringField.compare(
+						readString(data, off + m_offsets[k]), p.getOp(),
+						((StringField) p.getOperand()).getValue());
+			if (!match)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean matches(Tuple t) {
+		for (Predicate p : getPredicates())
+			if (!p.filter(t))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A SELECT statement parsed once, with '?' placeholders for the constants of
+ * the comparisons in its WHERE clause, that can be executed many times with
+ * different values for them. Prepared statements are made with
+ * {@link Parser#prepare} and kept in the {@link QueryPlanCache}.
+ * <p>
+ * The join order is chosen the first time the statement is executed and
+ * reused until the statistics of one of its tables change (see
+ * {@link LogicalPlan#physicalPlan(TransactionId, java.util.Map, boolean, List)}).
+ * A statement made against an earlier version of the catalog can no longer
+ * be executed and must be prepared again.
+ * <p>
+ * Executing a statement does not change it, so one statement may be
+ * executed by several transactions at once.
+ */
+public class PreparedStatement {
+
+    private final String m_sql;
+    private final LogicalPlan m_plan;
+    private final int m_parameters;
+    private final Catalog m_catalog;
+    private final long m_catalogVersion;
+
+    /**
+     * @param sql
+     *            the normalized text of the statement
+     * @param plan
+     *            its logical plan, with a {@link LogicalPlan#parameterMarker}
+     *            as the constant of each parameterized filter
+     * @param parameters
+     *            the number of parameters of the statement
+     * @throws ParsingException
+     *             if the plan has subqueries, or its filters do not take
+     *             exactly the parameters of the statement
+     */
+    PreparedStatement(final String sql, final LogicalPlan plan,
+	    final int parameters) throws ParsingException {
+	if (plan.hasSubqueries())
+	    throw new ParsingException(
+		    "Statements with subqueries cannot be prepared.");
+	if (plan.numParameters() != parameters)
+	    throw new ParsingException(
+		    "Parameters may only stand for the constants of comparisons in the WHERE clause.");
+	m_sql = sql;
+	m_plan = plan;
+	m_parameters = parameters;
+	m_catalog = Database.getCatalog();
+	m_catalogVersion = m_catalog.getVersion();
+    }
+
+    /** @return the normalized text of the statement */
+    public String getSql() {
+	return m_sql;
+    }
+
+    /** @return the number of parameters of the statement */
+    public int getParameterCount() {
+	return m_parameters;
+    }
+
+    /**
+     * @return false if tables or column groups have been added to the catalog
+     *         since the statement was prepared
+     */
+    public boolean isValid() {
+	return Database.getCatalog() == m_catalog
+	        && m_catalog.getVersion() == m_catalogVersion;
+    }
+
+    /**
+     * Make a query executing the statement as part of a transaction.
+     *
+     * @param tid
+     *            the transaction
+     * @param parameters
+     *            the value of each parameter, in order: Integers for integer
+     *            fields and Strings for string fields
+     * @throws ParsingException
+     *             if the number or type of parameters is wrong, or the
+     *             statement is no longer valid
+     */
+    public Query getQuery(final TransactionId tid, final Object... parameters)
+	    throws ParsingException {
+	List<String> values = new ArrayList<String>(parameters.length);
+	for (Object p : parameters) {
+	    if (!(p instanceof Integer) && !(p instanceof String))
+		throw new ParsingException("Parameter " + p
+		        + " is neither an Integer nor a String");
+	    values.add(p.toString());
+	}
+	return getQuery(tid, values, false);
+    }
+
+    /**
+     * Make a query executing the statement, with the parameters already
+     * written as the constants of a SQL statement.
+     */
+    Query getQuery(final TransactionId tid, final List<String> parameters,
+	    final boolean explain) throws ParsingException {
+	if (!isValid())
+	    throw new ParsingException("The catalog has changed since "
+		    + m_sql + " was prepared.");
+	if (parameters.size() != m_parameters)
+	    throw new ParsingException("Expected " + m_parameters
+		    + " parameters but got " + parameters.size() + ": "
+		    + Arrays.toString(parameters.toArray()));
+	Query query = new Query(tid);
+	query.setPhysicalPlan(m_plan.physicalPlan(tid,
+	        TableStats.getStatsMap(), explain, parameters));
+	query.setLogicalPlan(m_plan);
+	return query;
+    }
+}
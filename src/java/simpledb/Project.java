@@ -5,12 +5,16 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private BatchIterator batchChild;
+    private TupleBatch batch;
+    private int[] batchFields;
+    private TupleProjector projector;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -45,6 +49,28 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * Compile the projection into a class that copies the fields with their
+     * ids inlined (see {@link QueryCompiler#compileProjection}), rather than
+     * looping over the list of field ids for each tuple.
+     *
+     * @return true if the projection was compiled
+     */
+    public boolean compile() {
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = outFieldIds.get(i);
+        projector = QueryCompiler.compileProjection(fields);
+        return projector != null;
+    }
+
+    /**
+     * @return true if the projection has been compiled
+     */
+    public boolean isCompiled() {
+        return projector != null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -72,6 +98,10 @@ public class Project extends Operator {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
+            if (projector != null) {
+                projector.project(t, newTuple);
+                return newTuple;
+            }
             for (int i = 0; i < td.numFields(); i++) {
                 newTuple.setField(i, t.getField(outFieldIds.get(i)));
             }
@@ -80,6 +110,26 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns each batch of the child as a batch sharing the vectors of the
+     * fields projected out, without copying them.
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (batchChild == null) {
+            batchChild = BatchAdapter.of(child);
+            batch = TupleBatch.view(td);
+            batchFields = new int[outFieldIds.size()];
+            for (int i = 0; i < batchFields.length; i++)
+                batchFields[i] = outFieldIds.get(i);
+        }
+        TupleBatch b = batchChild.nextBatch();
+        if (b == null)
+            return null;
+        batch.projectFrom(b, batchFields);
+        return batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +140,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batchChild = null;
 	}
     }
     
@@ -107,10 +107,21 @@ public class Query implements Serializable {
 
         this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        if (op instanceof BatchIterator) {
+            // run the plan a batch at a time
+            BatchIterator it = (BatchIterator) op;
+            TupleBatch b;
+            while ((b = it.nextBatch()) != null) {
+                for (int i = 0; i < b.numSelected(); i++)
+                    System.out.println(b.getTuple(b.selection()[i]));
+                cnt += b.numSelected();
+            }
+        } else {
+            while (this.hasNext()) {
+                Tuple tup = this.next();
+                System.out.println(tup);
+                cnt++;
+            }
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
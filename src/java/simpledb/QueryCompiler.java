@@ -0,0 +1,391 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates classes specialized to the filters and projections of a query,
+ * in place of the operators that interpret them tuple by tuple. A
+ * {@link TupleFilter} is generated with the offset of each field and each
+ * comparison inlined, so that the page data is tested without any Field
+ * being made and without a switch on the operator; a {@link TupleProjector}
+ * is generated with the field ids inlined.
+ * <p>
+ * The classes are generated as Java source and compiled in memory with the
+ * system Java compiler. When it is not available (the database runs on a
+ * JRE) or fails, the compile methods return null and the callers keep
+ * interpreting. Compiling takes far longer than interpreting a small table,
+ * so {@link LogicalPlan} only compiles the scans of large tables; the
+ * classes are cached by their source, which holds the layout and operators
+ * but not the constants, so that queries differing only in their constants
+ * are compiled once.
+ */
+public class QueryCompiler {
+
+	/** Number of generated classes kept for reuse. */
+	public static final int CACHE_CAPACITY = 64;
+
+	/** Tables with at least this many tuples have their scans compiled. */
+	public static final int COMPILE_THRESHOLD = 10000;
+
+	private static final String PACKAGE = "simpledb.gen";
+
+	private static boolean m_enabled = true;
+
+	/**
+	 * Set once no system compiler is found (the database runs on a JRE), to
+	 * stop looking for one. A class that fails to compile does not set it.
+	 */
+	private static volatile boolean m_unavailable = false;
+
+	private static int m_compilations = 0;
+
+	/**
+	 * The generated classes, least recently used first, by their source. A
+	 * class is entered before it is compiled, so that threads needing the
+	 * same class wait for the one compile and those needing other classes do
+	 * not wait at all. Guarded by QueryCompiler.class.
+	 */
+	private static final LinkedHashMap<String, FutureTask<Class<?>>> m_classes = new LinkedHashMap<String, FutureTask<Class<?>>>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(
+				Map.Entry<String, FutureTask<Class<?>>> eldest) {
+			return size() > CACHE_CAPACITY;
+		}
+	};
+
+	/**
+	 * Turn compilation on or off. While it is off the compile methods return
+	 * null.
+	 */
+	public static synchronized void setEnabled(boolean enabled) {
+		m_enabled = enabled;
+	}
+
+	/**
+	 * @return true if compilation is on and a compiler is available
+	 */
+	public static synchronized boolean isEnabled() {
+		return m_enabled && !m_unavailable
+				&& ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	/**
+	 * @return the number of classes compiled so far, not counting those
+	 *         found in the cache
+	 */
+	public static synchronized int getCompilations() {
+		return m_compilations;
+	}
+
+	/**
+	 * Generate a filter evaluating a conjunction of predicates.
+	 *
+	 * @param td
+	 *            the schema of the tuples filtered, as stored in pages
+	 * @param predicates
+	 *            predicates on the fields of td, whose operands have the type
+	 *            of their field
+	 * @return the filter, or null if it could not be compiled
+	 */
+	public static TupleFilter compileFilter(TupleDesc td, Predicate[] predicates) {
+		if (predicates.length == 0 || !isEnabled())
+			return null;
+		int[] offsets = TupleFilter.fieldOffsets(td);
+		List<Integer> ints = new ArrayList<Integer>();
+		List<String> strings = new ArrayList<String>();
+		StringBuilder fields = new StringBuilder();
+		StringBuilder init = new StringBuilder();
+		List<String> dataTests = new ArrayList<String>();
+		List<String> tupleTests = new ArrayList<String>();
+		for (Predicate p : predicates) {
+			int f = p.getField();
+			String c;
+			if (td.getFieldType(f) == Type.INT_TYPE) {
+				c = "i" + ints.size();
+				fields.append("    private final int " + c + ";\n");
+				init.append("        " + c + " = ints[" + ints.size() + "];\n");
+				ints.add(((IntField) p.getOperand()).getValue());
+				dataTests.add(intTest("readInt(data, off + " + offsets[f] + ")",
+						p.getOp(), c));
+				tupleTests.add(intTest("((simpledb.IntField) t.getField(" + f
+						+ ")).getValue()", p.getOp(), c));
+			} else {
+				c = "s" + strings.size();
+				fields.append("    private final String " + c + ";\n");
+				init.append("        " + c + " = strings[" + strings.size()
+						+ "];\n");
+				strings.add(((StringField) p.getOperand()).getValue());
+				dataTests.add(stringTest("readString(data, off + " + offsets[f]
+						+ ")", p.getOp(), c));
+				tupleTests.add(stringTest("((simpledb.StringField) t.getField("
+						+ f + ")).getValue()", p.getOp(), c));
+			}
+		}
+		String source = "package " + PACKAGE + ";\n\n"
+				+ "public final class CompiledFilter extends simpledb.TupleFilter {\n"
+				+ fields + "\n"
+				+ "    public CompiledFilter(simpledb.Predicate[] predicates,\n"
+				+ "            int[] ints, String[] strings) {\n"
+				+ "        super(predicates);\n"
+				+ init + "    }\n\n"
+				+ "    public boolean matches(byte[] data, int off) {\n"
+				+ "        return " + join(dataTests) + ";\n" + "    }\n\n"
+				+ "    public boolean matches(simpledb.Tuple t) {\n"
+				+ "        return " + join(tupleTests) + ";\n" + "    }\n"
+				+ "}\n";
+		Class<?> c = load("CompiledFilter", source);
+		if (c == null)
+			return null;
+		int[] intValues = new int[ints.size()];
+		for (int i = 0; i < intValues.length; i++)
+			intValues[i] = ints.get(i);
+		try {
+			return (TupleFilter) c.getConstructor(Predicate[].class,
+					int[].class, String[].class).newInstance(predicates,
+					intValues, strings.toArray(new String[strings.size()]));
+		} catch (Exception e) {
+			Debug.log("QueryCompiler: cannot instantiate %s: %s", c, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Generate a projector setting field i of its output to field fields[i]
+	 * of its input.
+	 *
+	 * @return the projector, or null if it could not be compiled
+	 */
+	public static TupleProjector compileProjection(int[] fields) {
+		if (!isEnabled())
+			return null;
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < fields.length; i++)
+			body.append("        out.setField(" + i + ", in.getField("
+					+ fields[i] + "));\n");
+		String source = "package " + PACKAGE + ";\n\n"
+				+ "public final class CompiledProjector extends simpledb.TupleProjector {\n"
+				+ "    public void project(simpledb.Tuple in, simpledb.Tuple out) {\n"
+				+ body + "    }\n" + "}\n";
+		Class<?> c = load("CompiledProjector", source);
+		if (c == null)
+			return null;
+		try {
+			return (TupleProjector) c.getConstructor().newInstance();
+		} catch (Exception e) {
+			Debug.log("QueryCompiler: cannot instantiate %s: %s", c, e);
+			return null;
+		}
+	}
+
+	private static String intTest(String value, Predicate.Op op, String c) {
+		switch (op) {
+		case EQUALS:
+		case LIKE:
+			return value + " == " + c;
+		case NOT_EQUALS:
+			return value + " != " + c;
+		case GREATER_THAN:
+			return value + " > " + c;
+		case GREATER_THAN_OR_EQ:
+			return value + " >= " + c;
+		case LESS_THAN:
+			return value + " < " + c;
+		case LESS_THAN_OR_EQ:
+			return value + " <= " + c;
+		}
+		return "false";
+	}
+
+	private static String stringTest(String value, Predicate.Op op, String c) {
+		switch (op) {
+		case EQUALS:
+			return value + ".equals(" + c + ")";
+		case NOT_EQUALS:
+			return "!" + value + ".equals(" + c + ")";
+		case GREATER_THAN:
+			return value + ".compareTo(" + c + ") > 0";
+		case GREATER_THAN_OR_EQ:
+			return value + ".compareTo(" + c + ") >= 0";
+		case LESS_THAN:
+			return value + ".compareTo(" + c + ") < 0";
+		case LESS_THAN_OR_EQ:
+			return value + ".compareTo(" + c + ") <= 0";
+		case LIKE:
+			return value + ".indexOf(" + c + ") >= 0";
+		}
+		return "false";
+	}
+
+	private static String join(List<String> tests) {
+		StringBuilder sb = new StringBuilder();
+		for (String t : tests) {
+			if (sb.length() > 0)
+				sb.append("\n            && ");
+			sb.append("(").append(t).append(")");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the class compiled from source, from the cache if it has been
+	 *         compiled before, or null if it cannot be compiled
+	 */
+	static Class<?> load(String simpleName, final String source) {
+		final String name = PACKAGE + "." + simpleName;
+		FutureTask<Class<?>> task;
+		boolean compileHere = false;
+		synchronized (QueryCompiler.class) {
+			task = m_classes.get(source);
+			if (task == null) {
+				task = new FutureTask<Class<?>>(new Callable<Class<?>>() {
+					public Class<?> call() {
+						return define(name, source);
+					}
+				});
+				m_classes.put(source, task);
+				compileHere = true;
+			}
+		}
+		// compiled outside the lock, which only guards the cache
+		if (compileHere)
+			task.run();
+		Class<?> c;
+		try {
+			c = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Debug.log("QueryCompiler: cannot compile %s: %s", name,
+					e.getCause());
+			c = null;
+		}
+		if (c == null) {
+			// not cached, so that a later plan tries again
+			synchronized (QueryCompiler.class) {
+				if (m_classes.get(source) == task)
+					m_classes.remove(source);
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return the class name compiled from source and loaded, or null if it
+	 *         does not compile
+	 */
+	private static Class<?> define(String name, String source) {
+		byte[] bytes = compile(name, source);
+		if (bytes == null)
+			return null;
+		synchronized (QueryCompiler.class) {
+			m_compilations++;
+		}
+		return new GeneratedClassLoader().define(name, bytes);
+	}
+
+	/**
+	 * @return the bytecode of the class name compiled from source, or null
+	 *         if it does not compile
+	 */
+	private static byte[] compile(String name, final String source) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			m_unavailable = true;
+			return null;
+		}
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		final Map<String, ByteArrayOutputStream> output = new HashMap<String, ByteArrayOutputStream>();
+		JavaFileManager fm = new ForwardingJavaFileManager<JavaFileManager>(
+				compiler.getStandardFileManager(diagnostics, null, null)) {
+			public JavaFileObject getJavaFileForOutput(Location location,
+					final String className, JavaFileObject.Kind kind,
+					FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///"
+						+ className.replace('.', '/') + kind.extension), kind) {
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						output.put(className, out);
+						return out;
+					}
+				};
+			}
+		};
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///"
+				+ name.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+				JavaFileObject.Kind.SOURCE) {
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		List<String> options = Arrays.asList("-classpath", classPath(),
+				"-proc:none");
+		boolean ok;
+		try {
+			ok = compiler.getTask(null, fm, diagnostics, options, null,
+					Arrays.asList(file)).call();
+		} catch (RuntimeException e) {
+			Debug.log("QueryCompiler: cannot compile %s: %s", name, e);
+			return null;
+		}
+		if (!ok || !output.containsKey(name)) {
+			Debug.log("QueryCompiler: cannot compile %s: %s", name,
+					diagnostics.getDiagnostics());
+			return null;
+		}
+		return output.get(name).toByteArray();
+	}
+
+	/**
+	 * @return the class path of the JVM, with the location the simpledb
+	 *         classes were loaded from
+	 */
+	private static String classPath() {
+		String cp = System.getProperty("java.class.path");
+		try {
+			File self = new File(QueryCompiler.class.getProtectionDomain()
+					.getCodeSource().getLocation().toURI());
+			cp = self.getPath() + File.pathSeparator + cp;
+		} catch (Exception e) {
+			// keep the class path of the JVM
+		}
+		return cp;
+	}
+
+	/**
+	 * Loads each generated class, in a loader of its own, so that classes of
+	 * the same name can be loaded for different queries.
+	 */
+	private static class GeneratedClassLoader extends ClassLoader {
+		GeneratedClassLoader() {
+			super(QueryCompiler.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An LRU cache of {@link PreparedStatement}s, keyed by their normalized SQL
+ * text, so that statements executed again skip parsing and planning.
+ * Statements prepared against an earlier version of the catalog are dropped
+ * when looked up; statements whose table statistics changed keep their
+ * entry and choose a new join order when next executed.
+ *
+ * @Threadsafe
+ */
+public class QueryPlanCache {
+
+    /** Default number of statements cached. */
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final int m_capacity;
+
+    /** The statements, least recently used first. */
+    private final LinkedHashMap<String, PreparedStatement> m_statements;
+
+    private long m_hits = 0;
+    private long m_misses = 0;
+
+    /**
+     * @param capacity
+     *            the largest number of statements to keep
+     */
+    public QueryPlanCache(final int capacity) {
+	m_capacity = capacity;
+	m_statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f,
+	        true) {
+	    private static final long serialVersionUID = 1L;
+
+	    protected boolean removeEldestEntry(
+		    final Map.Entry<String, PreparedStatement> eldest) {
+		return size() > m_capacity;
+	    }
+	};
+    }
+
+    /**
+     * @return the statement cached for the normalized text sql, or null if
+     *         there is none or it is no longer valid
+     */
+    public synchronized PreparedStatement get(final String sql) {
+	PreparedStatement ps = m_statements.get(sql);
+	if (ps != null && !ps.isValid()) {
+	    m_statements.remove(sql);
+	    ps = null;
+	}
+	if (ps == null)
+	    m_misses++;
+	else
+	    m_hits++;
+	return ps;
+    }
+
+    /**
+     * Add a statement, replacing any with the same text and evicting the
+     * least recently used statement if the cache is full.
+     */
+    public synchronized void put(final PreparedStatement ps) {
+	m_statements.put(ps.getSql(), ps);
+    }
+
+    /** Remove every statement. */
+    public synchronized void clear() {
+	m_statements.clear();
+    }
+
+    /** @return the number of statements cached */
+    public synchronized int size() {
+	return m_statements.size();
+    }
+
+    /** @return the number of lookups that found a valid statement */
+    public synchronized long getHits() {
+	return m_hits;
+    }
+
+    /** @return the number of lookups that did not */
+    public synchronized long getMisses() {
+	return m_misses;
+    }
+}
@@ -10,6 +10,8 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String BLOCK_JOIN = "⨝(block)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
@@ -27,7 +29,8 @@ public class QueryPlanVisualizer {
 	Operator o = (Operator) root;
 	DbIterator[] children = o.getChildren();
 
-	if (o instanceof Join || o instanceof HashEquiJoin) {
+	if (o instanceof Join || o instanceof HashEquiJoin
+	        || o instanceof BlockNestedLoopJoin || o instanceof SortMergeJoin) {
 	    int d1 = calculateQueryPlanTreeDepth(children[0]);
 	    int d2 = calculateQueryPlanTreeDepth(children[1]);
 	    return Math.max(d1, d2) + 3;
@@ -66,13 +69,17 @@ public class QueryPlanVisualizer {
 	    SeqScan s = (SeqScan) queryPlan;
 	    String tableName = s.getTableName();
 	    String alias = s.getAlias();
-	    // TupleDesc td = s.getTupleDesc();
 	    if (!tableName.equals(alias))
 		alias = " " + alias;
 	    else
 		alias = "";
 	    thisNode.text = String
 		    .format("%1$s(%2$s)", SCAN, tableName + alias);
+	    TupleDesc td = s.getTableTupleDesc();
+	    for (Predicate p : s.getFilters())
+		thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+		        td.getFieldName(p.getField()) + p.getOp()
+		                + p.getOperand());
 	    if (SCAN.length() / 2 < parentUpperBarStartShift) {
 		thisNode.upBarPosition = currentStartPosition
 		        + parentUpperBarStartShift;
@@ -134,19 +141,31 @@ public class QueryPlanVisualizer {
 		thisNode.leftChild = left;
 		thisNode.rightChild = right;
 		thisNode.height = currentDepth;
-	    } else if (plan instanceof HashEquiJoin) {
-		HashEquiJoin j = (HashEquiJoin) plan;
-		JoinPredicate jp = j.getJoinPredicate();
-		TupleDesc td = j.getTupleDesc();
+	    } else if (plan instanceof HashEquiJoin
+		    || plan instanceof BlockNestedLoopJoin
+		    || plan instanceof SortMergeJoin) {
+		String joinText;
+		JoinPredicate jp;
+		if (plan instanceof HashEquiJoin) {
+		    joinText = HASH_JOIN;
+		    jp = ((HashEquiJoin) plan).getJoinPredicate();
+		} else if (plan instanceof BlockNestedLoopJoin) {
+		    joinText = BLOCK_JOIN;
+		    jp = ((BlockNestedLoopJoin) plan).getJoinPredicate();
+		} else {
+		    joinText = MERGE_JOIN;
+		    jp = ((SortMergeJoin) plan).getJoinPredicate();
+		}
+		TupleDesc td = plan.getTupleDesc();
 		String field1 = td.getFieldName(jp.getField1());
 		String field2 = td.getFieldName(jp.getField2()
 		        + children[0].getTupleDesc().numFields());
 		thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-		        HASH_JOIN, field1 + jp.getOperator() + field2,
-		        j.getEstimatedCardinality());
+		        joinText, field1 + jp.getOperator() + field2,
+		        plan.getEstimatedCardinality());
 		int upBarShift = parentUpperBarStartShift;
-		if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-		    upBarShift = HASH_JOIN.length() / 2;
+		if (joinText.length() / 2 > parentUpperBarStartShift)
+		    upBarShift = joinText.length() / 2;
 		SubTreeDescriptor left = buildTree(queryPlanDepth, currentDepth
 		        + 3 + adjustDepth, children[0], currentStartPosition,
 		        upBarShift);
@@ -155,7 +174,7 @@ public class QueryPlanVisualizer {
 		        currentStartPosition + left.width + SPACE.length(), 0);
 		thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
 		thisNode.textStartPosition = thisNode.upBarPosition
-		        - HASH_JOIN.length() / 2;
+		        - joinText.length() / 2;
 		thisNode.width = Math.max(
 		        left.width + right.width + SPACE.length(),
 		        thisNode.textStartPosition + thisNode.text.length()
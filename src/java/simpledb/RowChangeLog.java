@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * RowChangeLog remembers the tuple-level changes made by running transactions
+ * in row-locking mode, so that an aborting transaction can undo its own
+ * inserts and deletes without discarding the changes other transactions made
+ * to the same pages.
+ * <p>
+ * It also records which transactions have uncommitted changes on each page.
+ * A page with uncommitted changes must not be written to disk (NO STEAL), so
+ * a committing transaction writes the pages it was the last writer of as
+ * they are, and for the rest writes their committed image, with the changes
+ * of the other running writers undone.
+ * <p>
+ * Not synchronized; BufferPool only calls into it while holding its own
+ * monitor.
+ */
+public class RowChangeLog {
+
+    /** One insert or delete of a single slot. */
+    private static class Change {
+        final PageId pid;
+        final int slot;
+        /** The deleted tuple, or null if the change was an insert. */
+        final Tuple deleted;
+
+        Change(PageId pid, int slot, Tuple deleted) {
+            this.pid = pid;
+            this.slot = slot;
+            this.deleted = deleted;
+        }
+    }
+
+    /** Changes made by each transaction, oldest first. */
+    private final Map<TransactionId, LinkedList<Change>> m_changes = new HashMap<TransactionId, LinkedList<Change>>();
+
+    /** Transactions with (possibly) uncommitted changes on each page. */
+    private final Map<PageId, Set<TransactionId>> m_writers = new HashMap<PageId, Set<TransactionId>>();
+
+    /** Pages each transaction has registered as a writer of. */
+    private final Map<TransactionId, Set<PageId>> m_pages = new HashMap<TransactionId, Set<PageId>>();
+
+    /**
+     * Register tid as a writer of pid. Must happen before the page is
+     * modified so the page cannot be flushed while the change is in flight.
+     */
+    public void addWriter(final TransactionId tid, final PageId pid) {
+	Set<TransactionId> writers = m_writers.get(pid);
+	if (writers == null) {
+	    writers = new HashSet<TransactionId>();
+	    m_writers.put(pid, writers);
+	}
+	writers.add(tid);
+	Set<PageId> pages = m_pages.get(tid);
+	if (pages == null) {
+	    pages = new HashSet<PageId>();
+	    m_pages.put(tid, pages);
+	}
+	pages.add(pid);
+    }
+
+    /** Record that tid inserted a tuple into the given slot of pid. */
+    public void recordInsert(final TransactionId tid, final PageId pid,
+	    final int slot) {
+	changesOf(tid).addLast(new Change(pid, slot, null));
+    }
+
+    /** Record that tid deleted tuple t from the given slot of pid. */
+    public void recordDelete(final TransactionId tid, final PageId pid,
+	    final int slot, final Tuple t) {
+	changesOf(tid).addLast(new Change(pid, slot, t));
+    }
+
+    /** @return the pages tid has registered as a writer of */
+    public Set<PageId> pagesChangedBy(final TransactionId tid) {
+	Set<PageId> pages = m_pages.get(tid);
+	if (pages == null)
+	    return Collections.emptySet();
+	return new HashSet<PageId>(pages);
+    }
+
+    /** @return true if any running transaction may have changed pid */
+    public boolean hasWriters(final PageId pid) {
+	return m_writers.containsKey(pid);
+    }
+
+    /** @return true if a transaction other than tid may have changed pid */
+    public boolean hasOtherWriters(final PageId pid, final TransactionId tid) {
+	Set<TransactionId> writers = m_writers.get(pid);
+	if (writers == null)
+	    return false;
+	return writers.size() > 1 || !writers.contains(tid);
+    }
+
+    /**
+     * Forget the changes of tid; called when it commits.
+     */
+    public void forget(final TransactionId tid) {
+	m_changes.remove(tid);
+	Set<PageId> pages = m_pages.remove(tid);
+	if (pages == null)
+	    return;
+	for (PageId pid : pages) {
+	    Set<TransactionId> writers = m_writers.get(pid);
+	    if (writers != null) {
+		writers.remove(tid);
+		if (writers.isEmpty())
+		    m_writers.remove(pid);
+	    }
+	}
+    }
+
+    /**
+     * Undo the changes of tid, newest first, on the cached pages, and forget
+     * them; called when it aborts.
+     *
+     * @param pages
+     *            the BufferPool's cached pages
+     */
+    public void undo(final TransactionId tid, final Map<PageId, Page> pages) {
+	LinkedList<Change> changes = m_changes.get(tid);
+	if (changes != null) {
+	    Iterator<Change> it = changes.descendingIterator();
+	    while (it.hasNext()) {
+		Change c = it.next();
+		HeapPage page = (HeapPage) pages.get(c.pid);
+		if (page == null)
+		    continue; // pages with uncommitted changes are never evicted
+		synchronized (page) {
+		    undoChange(page, c);
+		}
+	    }
+	}
+	forget(tid);
+    }
+
+    /**
+     * @return a copy of page with the changes of all its running writers
+     *         undone, i.e. its last committed contents
+     */
+    public HeapPage committedImage(final HeapPage page) {
+	return committedImage(page, null);
+    }
+
+    /**
+     * @return a copy of page with the changes of its running writers other
+     *         than committing undone, i.e. its contents once committing has
+     *         committed
+     */
+    public HeapPage committedImage(final HeapPage page,
+	    final TransactionId committing) {
+	HeapPage copy;
+	synchronized (page) {
+	    try {
+		copy = new HeapPage(page.getId(), page.getPageData());
+	    } catch (java.io.IOException e) {
+		throw new RuntimeException(e);
+	    }
+	}
+	Set<TransactionId> writers = m_writers.get(page.getId());
+	if (writers == null)
+	    return copy;
+	// writers hold exclusive locks on the slots they touch, so the order
+	// between different transactions does not matter
+	for (TransactionId tid : writers) {
+	    if (committing != null && committing.equals(tid))
+		continue;
+	    LinkedList<Change> changes = m_changes.get(tid);
+	    if (changes == null)
+		continue;
+	    Iterator<Change> it = changes.descendingIterator();
+	    while (it.hasNext()) {
+		Change c = it.next();
+		if (c.pid.equals(page.getId()))
+		    undoChange(copy, c);
+	    }
+	}
+	return copy;
+    }
+
+    private LinkedList<Change> changesOf(final TransactionId tid) {
+	LinkedList<Change> changes = m_changes.get(tid);
+	if (changes == null) {
+	    changes = new LinkedList<Change>();
+	    m_changes.put(tid, changes);
+	}
+	return changes;
+    }
+
+    private static void undoChange(final HeapPage page, final Change c) {
+	if (c.deleted == null) {
+	    page.clearSlot(c.slot);
+	} else {
+	    try {
+		page.insertTuple(c.deleted, c.slot);
+	    } catch (DbException e) {
+		// the deleter held an exclusive lock on the slot until now
+		throw new RuntimeException(e);
+	    }
+	}
+    }
+}
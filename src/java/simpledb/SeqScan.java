@@ -9,7 +9,7 @@ import simpledb.TupleDesc.TDItem;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
     
@@ -17,6 +17,17 @@ public class SeqScan implements DbIterator {
     private int tableIdItself;
     private String tAlias;
     private DbFileIterator iterItself;
+    private Predicate[] filtersItself = new Predicate[0];
+    /** The filters pushed, compiled by compileFilters, or null. */
+    private TupleFilter compiledItself;
+    /** The filter of the open scan, or null. */
+    private TupleFilter filterItself;
+    /** The field of the table each field returned is, or null for all. */
+    private int[] columnsItself;
+    private TupleBatch batchItself;
+    /** The page and slot nextBatch continues from, for heap files. */
+    private int batchPageItself;
+    private int batchSlotItself;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -74,28 +85,212 @@ public class SeqScan implements DbIterator {
         // some code goes here
     	tableIdItself = tableid;
     	tAlias = tableAlias;
+    	columnsItself = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Push a filter into the scan: only the tuples that satisfy every filter
+     * pushed are returned. Heap files evaluate the filters against the page
+     * data, so the tuples rejected are never decoded. Must be called before
+     * the scan is opened.
+     * 
+     * @param p
+     *            a predicate on a field of the table
+     */
+    public void pushFilter(Predicate p) {
+    	filtersItself = Arrays.copyOf(filtersItself, filtersItself.length + 1);
+    	filtersItself[filtersItself.length - 1] = p;
+    	compiledItself = null;
+    }
+
+    /**
+     * Compile the filters pushed into the scan into a class that evaluates
+     * them with their fields and operators inlined (see
+     * {@link QueryCompiler#compileFilter}). Scans whose filters are not
+     * compiled interpret them.
+     *
+     * @return true if the filters were compiled
+     */
+    public boolean compileFilters() {
+    	if (filtersItself.length == 0)
+    		return false;
+    	compiledItself = QueryCompiler.compileFilter(
+    			Database.getCatalog().getTupleDesc(tableIdItself), filtersItself);
+    	return compiledItself != null;
+    }
+
+    /**
+     * @return true if the filters pushed into the scan have been compiled
+     */
+    public boolean filtersCompiled() {
+    	return compiledItself != null;
+    }
+
+    /**
+     * @return the filter evaluating the predicates pushed, or null if there
+     *         are none
+     */
+    private TupleFilter filter() {
+    	if (filtersItself.length == 0)
+    		return null;
+    	if (compiledItself != null)
+    		return compiledItself;
+    	return new PredicateFilter(
+    			Database.getCatalog().getTupleDesc(tableIdItself), filtersItself);
+    }
+
+    /**
+     * Return only some of the fields of the table, so that the operators
+     * above the scan copy no more than they use. Only those fields are
+     * decoded from heap pages. The filters pushed still refer to the fields
+     * of the table. Must be called before the scan is opened.
+     *
+     * @param columns
+     *            the field of the table each field returned is, in order;
+     *            null to return every field
+     */
+    public void setColumns(int[] columns) {
+    	columnsItself = columns;
+    	batchItself = null;
+    }
+
+    /**
+     * @return the field of the table each field returned is, or null if
+     *         every field is returned
+     */
+    public int[] getColumns() {
+    	return columnsItself;
+    }
+
+    /**
+     * @return the filters pushed into the scan
+     */
+    public Predicate[] getFilters() {
+    	return filtersItself;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-    	iterItself = Database.getCatalog().getDatabaseFile(tableIdItself).iterator(tidItself);		//get the DbFile iterator from the database with tid
+    	DbFile f = Database.getCatalog().getDatabaseFile(tableIdItself);
+    	filterItself = filter();
+    	if (filterItself == null && columnsItself == null)
+    		iterItself = f.iterator(tidItself);		//get the DbFile iterator from the database with tid
+    	else
+    		iterItself = f.iterator(tidItself, filterItself, columnsItself,
+    				getTupleDesc());
     	iterItself.open();
+    	batchPageItself = 0;
+    	batchSlotItself = 0;
+    }
+
+    /**
+     * Run the scan as the producer of a fused pipeline (see
+     * {@link FusedAggregate}): the tuples of a heap file that satisfy the
+     * filters are read from each page straight into b, decoding only the
+     * fields needed, and b is handed to consumer each time it fills up.
+     * No Tuple is made for the tuples read from page data, and the scan need
+     * not be open.
+     *
+     * @param fields
+     *            the fields to decode
+     * @param b
+     *            a batch with the TupleDesc of the scan
+     * @return false if the table is not a heap file, and nothing was read
+     */
+    boolean produce(boolean[] fields, TupleBatch b, BatchConsumer consumer)
+            throws DbException, TransactionAbortedException {
+    	DbFile f = Database.getCatalog().getDatabaseFile(tableIdItself);
+    	if (!(f instanceof HeapFile))
+    		return false;
+    	HeapFile hf = (HeapFile) f;
+    	TupleFilter filter = filter();
+    	int[] columns = new int[fields.length];
+    	for (int k = 0; k < columns.length; k++)
+    		columns[k] = !fields[k] ? -1
+    				: columnsItself == null ? k : columnsItself[k];
+    	b.clear();
+    	for (int pgNo = 0; pgNo < hf.numPages(); pgNo++) {
+    		HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+    				tidItself, new HeapPageId(hf.getId(), pgNo),
+    				Permissions.READ_ONLY);
+    		int slot = 0;
+    		while (slot < page.getNumSlots()) {
+    			slot = page.readBatch(slot, b, filter, columns, false);
+    			if (b.isFull()) {
+    				consumer.consume(b);
+    				b.clear();
+    			}
+    		}
+    	}
+    	if (b.numSelected() > 0)
+    		consumer.consume(b);
+    	b.clear();
+    	return true;
+    }
+
+    /**
+     * Heap files are read a page at a time straight into the batch (see
+     * {@link HeapPage#readBatch}); other files through their iterator.
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+    	if (batchItself == null)
+    		batchItself = new TupleBatch(getTupleDesc(),
+    				TupleBatch.DEFAULT_CAPACITY);
+    	batchItself.clear();
+    	DbFile f = Database.getCatalog().getDatabaseFile(tableIdItself);
+    	if (f instanceof HeapFile) {
+    		HeapFile hf = (HeapFile) f;
+    		while (!batchItself.isFull()
+    				&& batchPageItself < hf.numPages()) {
+    			HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+    					tidItself, new HeapPageId(hf.getId(),
+    							batchPageItself), Permissions.READ_ONLY);
+    			batchSlotItself = page.readBatch(batchSlotItself,
+    					batchItself, filterItself, columnsItself, true);
+    			if (batchSlotItself == page.getNumSlots()) {
+    				batchPageItself++;
+    				batchSlotItself = 0;
+    			}
+    		}
+    	} else {
+    		while (!batchItself.isFull() && iterItself.hasNext())
+    			batchItself.appendTuple(iterItself.next());
+    	}
+    	return batchItself.numSelected() > 0 ? batchItself : null;
     }
 
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
-     * name.
+     * name. Only the fields given to {@link #setColumns} are included.
      * 
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
+    	TupleDesc td = getTableTupleDesc();
+    	if (columnsItself == null)
+    		return td;
+    	Type[] types = new Type[columnsItself.length];
+    	String[] names = new String[columnsItself.length];
+    	for (int k = 0; k < columnsItself.length; k++) {
+    		types[k] = td.getFieldType(columnsItself[k]);
+    		names[k] = td.getFieldName(columnsItself[k]);
+    	}
+    	return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the TupleDesc of every field of the table, with the names
+     *         getTupleDesc gives them; the filters pushed refer to its fields
+     */
+    public TupleDesc getTableTupleDesc() {
         // some code goes here
     	
     	TupleDesc tmpTd = Database.getCatalog().getTupleDesc(tableIdItself);			//get the original tupleDesc
@@ -135,5 +330,7 @@ public class SeqScan implements DbIterator {
             TransactionAbortedException {
         // some code goes here
     	iterItself.rewind();
+    	batchPageItself = 0;
+    	batchSlotItself = 0;
     }
 }
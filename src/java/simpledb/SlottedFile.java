@@ -0,0 +1,297 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedFile is an implementation of a DbFile that stores a collection of
+ * tuples in no particular order, like a HeapFile, but on pages that store
+ * strings with their length rather than padded to {@link Type#STRING_LEN}
+ * bytes (see {@link SlottedPage}). Tables of short strings take far fewer
+ * pages, and so far less I/O to scan, than in a HeapFile.
+ * <p>
+ * A table is stored in a SlottedFile when it is marked <tt>varlen</tt> in the
+ * catalog schema. Pages are always locked whole: SlottedFile does not take
+ * part in the row locking of {@link BufferPool#setRowLocking}.
+ *
+ * @see SlottedPage
+ * @see HeapFile
+ */
+public class SlottedFile implements DbFile {
+
+	/**
+	 * The physical file associated with this SlottedFile instance.
+	 */
+	private final File m_file;
+
+	/**
+	 * The description of the tuples stored in this SlottedFile.
+	 */
+	private final TupleDesc m_tupleDesc;
+
+	/**
+	 * A unique ID for this SlottedFile, the hash code of its absolute file
+	 * name.
+	 */
+	private final int m_tableid;
+
+	/**
+	 * Constructs a slotted file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this
+	 *            file.
+	 */
+	public SlottedFile(File f, TupleDesc td) {
+		m_file = f;
+		m_tableid = f.getAbsoluteFile().hashCode();
+		m_tupleDesc = td;
+	}
+
+	/**
+	 * Returns the File backing this SlottedFile on disk.
+	 */
+	public File getFile() {
+		return m_file;
+	}
+
+	// see DbFile.java for javadocs
+	public int getId() {
+		return m_tableid;
+	}
+
+	// see DbFile.java for javadocs
+	public TupleDesc getTupleDesc() {
+		return m_tupleDesc;
+	}
+
+	// see DbFile.java for javadocs
+	public TupleDesc getStoredTupleDesc() {
+		return m_tupleDesc;
+	}
+
+	/**
+	 * Returns the number of bytes per page of this SlottedFile, which is always
+	 * the default.
+	 */
+	public int getPageSize() {
+		return BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns the number of pages in this SlottedFile.
+	 */
+	public int numPages() {
+		return (int) (m_file.length() / BufferPool.getPageSize());
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		int pageSize = BufferPool.getPageSize();
+		byte[] data = new byte[pageSize];
+		try {
+			RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+			try {
+				raf.seek((long) pid.pageNumber() * pageSize);
+				raf.readFully(data);
+			} catch (EOFException e) {
+				throw new IllegalArgumentException("Read past end of table.");
+			} finally {
+				raf.close();
+			}
+			Debug.log(1, "SlottedFile.readPage: read page %d",
+					pid.pageNumber());
+			return new SlottedPage((HeapPageId) pid, data);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+		try {
+			raf.seek((long) page.getId().pageNumber()
+					* BufferPool.getPageSize());
+			raf.write(page.getPageData());
+		} finally {
+			raf.close();
+		}
+		page.markDirty(false, null);
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Page> pagesLists = new ArrayList<Page>();
+		BufferPool bp = Database.getBufferPool();
+		HeapPageId pid;
+		SlottedPage page;
+		for (int i = 0; i < numPages(); i++) {
+			pid = new HeapPageId(getId(), i);
+			boolean alreadyLocked = bp.holdsLock(tid, pid);
+			page = (SlottedPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+			if (page.fits(t)) {
+				page = (SlottedPage) bp.getPage(tid, pid,
+						Permissions.READ_WRITE);
+				page.insertTuple(t);
+				page.markDirty(true, tid);
+				pagesLists.add(page);
+				return pagesLists;
+			}
+			if (!alreadyLocked)
+				bp.releasePage(tid, pid);
+		}
+		while (true) {
+			synchronized (this) {
+				pid = new HeapPageId(getId(), numPages());
+				writePage(new SlottedPage(pid,
+						SlottedPage.createEmptyPageData()));
+			}
+			page = (SlottedPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+			if (page.fits(t)) {
+				page.insertTuple(t);
+				page.markDirty(true, tid);
+				pagesLists.add(page);
+				return pagesLists;
+			}
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		if (t.getRecordId() == null
+				|| t.getRecordId().getPageId().getTableId() != getId())
+			throw new DbException(
+					"tuple cannot be deleted or is not a member of the file");
+		ArrayList<Page> changedPages = new ArrayList<Page>();
+		SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid,
+				t.getRecordId().getPageId(), Permissions.READ_WRITE);
+		page.deleteTuple(t);
+		page.markDirty(true, tid);
+		changedPages.add(page);
+		return changedPages;
+	}
+
+	// see DbFile.java for javadocs
+	public DbFileIterator iterator(TransactionId tid) {
+		return iterator(tid, null, null, null);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy filter,
+	 * each with only some of its fields.
+	 *
+	 * @see DbFile#iterator(TransactionId, TupleFilter, int[], TupleDesc)
+	 * @see SlottedPage#iterator(TupleFilter, int[], TupleDesc)
+	 */
+	public DbFileIterator iterator(final TransactionId tid,
+			final TupleFilter filter, final int[] columns, final TupleDesc td) {
+		return new AbstractDbFileIterator() {
+			private Iterator<Tuple> m_tupleIt;
+			private int m_currentPageNumber = Integer.MAX_VALUE;
+
+			public void open() {
+				m_currentPageNumber = -1;
+			}
+
+			protected Tuple readNext() throws DbException,
+					TransactionAbortedException {
+				while ((m_tupleIt == null || !m_tupleIt.hasNext())
+						&& m_currentPageNumber < numPages() - 1) {
+					m_currentPageNumber++;
+					SlottedPage page = (SlottedPage) Database.getBufferPool()
+							.getPage(tid, new HeapPageId(getId(),
+									m_currentPageNumber),
+									Permissions.READ_ONLY);
+					m_tupleIt = page.iterator(filter, columns, td);
+				}
+				if (m_tupleIt == null || !m_tupleIt.hasNext())
+					return null;
+				return m_tupleIt.next();
+			}
+
+			public void rewind() {
+				close();
+				open();
+			}
+
+			public void close() {
+				super.close();
+				m_tupleIt = null;
+				m_currentPageNumber = Integer.MAX_VALUE;
+			}
+		};
+	}
+
+	// see DbFile.java for javadocs
+	public DbFileIterator diskIterator() {
+		return new AbstractDbFileIterator() {
+			private Iterator<Tuple> m_tupleIt;
+			private int m_nextPageNumber = Integer.MAX_VALUE;
+
+			public void open() {
+				m_nextPageNumber = 0;
+				m_tupleIt = null;
+			}
+
+			protected Tuple readNext() {
+				while ((m_tupleIt == null || !m_tupleIt.hasNext())
+						&& m_nextPageNumber < numPages())
+					m_tupleIt = ((SlottedPage) readPage(new HeapPageId(getId(),
+							m_nextPageNumber++))).iterator();
+				if (m_tupleIt == null || !m_tupleIt.hasNext())
+					return null;
+				return m_tupleIt.next();
+			}
+
+			public void rewind() {
+				close();
+				open();
+			}
+
+			public void close() {
+				super.close();
+				m_tupleIt = null;
+				m_nextPageNumber = Integer.MAX_VALUE;
+			}
+		};
+	}
+
+	/**
+	 * Write tuples to f as a SlottedFile, replacing what f holds, with as
+	 * many tuples on each page as fit. The pages are written directly, not
+	 * through the BufferPool, so f must not be in use.
+	 *
+	 * @param tuples
+	 *            an iterator over tuples with the fields of td, not opened
+	 *            yet
+	 */
+	public static void convert(DbFileIterator tuples, TupleDesc td, File f)
+			throws IOException, DbException, TransactionAbortedException {
+		int pageSize = BufferPool.getPageSize();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+		try {
+			List<byte[]> page = new ArrayList<byte[]>();
+			int used = SlottedPage.HEADER_SIZE;
+			tuples.open();
+			while (tuples.hasNext()) {
+				byte[] record = SlottedPage.encode(tuples.next());
+				int space = record.length + SlottedPage.SLOT_SIZE;
+				if (used + space > pageSize) {
+					out.write(SlottedPage.createPageData(page));
+					page.clear();
+					used = SlottedPage.HEADER_SIZE;
+				}
+				page.add(record);
+				used += space;
+			}
+			if (!page.isEmpty())
+				out.write(SlottedPage.createPageData(page));
+		} finally {
+			tuples.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,438 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedFile and
+ * implements the Page interface that is used by BufferPool. Unlike a
+ * HeapPage, whose slots all have the size of a tuple with every string padded
+ * to {@link Type#STRING_LEN} bytes, a SlottedPage stores each tuple in as many
+ * bytes as it needs: strings are stored with their length and no padding. The
+ * page holds as many tuples as fit.
+ * <p>
+ * The page starts with the number of slots in its slot directory, followed
+ * by the directory: the offset and length of the tuple in each slot, or an
+ * offset of 0 for an empty slot. The tuples are packed at the end of the page,
+ * growing towards the directory. The number of a slot, which the RecordId of
+ * its tuple holds, does not change while the tuple is on the page; the tuples
+ * are moved together whenever the page is written, so that space freed by
+ * deletes is reused.
+ *
+ * @see SlottedFile
+ * @see HeapPage
+ */
+public class SlottedPage implements Page {
+
+	/**
+	 * Bytes of the count of slots at the start of the page.
+	 */
+	static final int HEADER_SIZE = 4;
+
+	/**
+	 * Bytes of each entry of the slot directory: an offset and a length.
+	 */
+	static final int SLOT_SIZE = 8;
+
+	/**
+	 * Page Id.
+	 */
+	final HeapPageId m_pid;
+
+	/**
+	 * Tuple Description of tuples stored in this page.
+	 */
+	final TupleDesc m_td;
+
+	/**
+	 * The encoded tuple in each slot, or null for an empty slot.
+	 */
+	final ArrayList<byte[]> m_records;
+
+	/**
+	 * The tuples decoded so far, by slot; null for the tuples not decoded yet.
+	 */
+	final ArrayList<Tuple> m_tuples;
+
+	/**
+	 * The bytes of the page in use, by the header, the slot directory and the
+	 * tuples.
+	 */
+	int m_usedBytes;
+
+	/**
+	 * the transaction id
+	 */
+	TransactionId m_tid;
+
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a SlottedPage from a set of bytes of data read from disk, in the
+	 * format described in the class comment.
+	 *
+	 * @throws IOException
+	 *             if data is not a valid page
+	 */
+	public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+		this.m_pid = id;
+		this.m_td = Database.getCatalog().getTupleDesc(id.getTableId());
+		int pageSize = BufferPool.getPageSize();
+		if (data.length < pageSize)
+			throw new IOException("page data is " + data.length
+					+ " bytes long");
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+				data));
+		int numSlots = dis.readInt();
+		if (numSlots < 0 || HEADER_SIZE + numSlots * SLOT_SIZE > pageSize)
+			throw new IOException("bad slot count " + numSlots);
+		m_records = new ArrayList<byte[]>(numSlots);
+		m_tuples = new ArrayList<Tuple>(numSlots);
+		int directoryEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+		m_usedBytes = directoryEnd;
+		for (int i = 0; i < numSlots; i++) {
+			int off = dis.readInt();
+			int len = dis.readInt();
+			if (off == 0) {
+				m_records.add(null);
+			} else {
+				if (off < directoryEnd || len < 0 || off + len > pageSize)
+					throw new IOException("bad slot " + i + " at " + off);
+				m_records.add(Arrays.copyOfRange(data, off, off + len));
+				m_usedBytes += len;
+			}
+			m_tuples.add(null);
+		}
+
+		setBeforeImage();
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public SlottedPage getBeforeImage() {
+		try {
+			byte[] oldDataRef = null;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new SlottedPage(m_pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HeapPageId getId() {
+		return m_pid;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page, with
+	 * the tuples packed at its end. Used to serialize this page to disk.
+	 *
+	 * @return A byte array correspond to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		return createPageData(m_records);
+	}
+
+	/**
+	 * Generate the data of a page holding records, which must fit on it.
+	 *
+	 * @param records
+	 *            the tuple in each slot, encoded by {@link #encode}, or null
+	 *            for an empty slot
+	 */
+	static byte[] createPageData(List<byte[]> records) {
+		int pageSize = BufferPool.getPageSize();
+		byte[] data = new byte[pageSize];
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_SIZE
+				+ records.size() * SLOT_SIZE);
+		DataOutputStream dos = new DataOutputStream(baos);
+		int end = pageSize;
+		try {
+			dos.writeInt(records.size());
+			for (byte[] record : records) {
+				if (record == null) {
+					dos.writeInt(0);
+					dos.writeInt(0);
+				} else {
+					end -= record.length;
+					System.arraycopy(record, 0, data, end, record.length);
+					dos.writeInt(end);
+					dos.writeInt(record.length);
+				}
+			}
+			dos.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		byte[] directory = baos.toByteArray();
+		System.arraycopy(directory, 0, data, 0, directory.length);
+		return data;
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * SlottedPage. Used to add new, empty pages to the file.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];
+	}
+
+	/**
+	 * Encode the fields of t: integers in four bytes, and strings as their
+	 * length in two bytes followed by their characters.
+	 */
+	static byte[] encode(Tuple t) {
+		TupleDesc td = t.getTupleDesc();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			for (int i = 0; i < td.numFields(); i++) {
+				Field f = t.getField(i);
+				if (td.getFieldType(i) == Type.INT_TYPE) {
+					dos.writeInt(((IntField) f).getValue());
+				} else {
+					String s = ((StringField) f).getValue();
+					if (s.length() > Type.STRING_LEN)
+						s = s.substring(0, Type.STRING_LEN);
+					dos.writeShort(s.length());
+					dos.writeBytes(s);
+				}
+			}
+			dos.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Decode the tuple in slot slotId.
+	 */
+	private Tuple decode(int slotId) {
+		byte[] record = m_records.get(slotId);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+				record));
+		Tuple t = new Tuple(m_td);
+		try {
+			for (int i = 0; i < m_td.numFields(); i++) {
+				if (m_td.getFieldType(i) == Type.INT_TYPE) {
+					t.setField(i, new IntField(dis.readInt()));
+				} else {
+					byte[] bs = new byte[dis.readUnsignedShort()];
+					dis.readFully(bs);
+					t.setField(i, new StringField(new String(bs),
+							Type.STRING_LEN));
+				}
+			}
+		} catch (IOException e) {
+			throw new NoSuchElementException("bad tuple in slot " + slotId
+					+ " of " + m_pid.pageNumber());
+		}
+		t.setRecordId(new RecordId(m_pid, slotId));
+		return t;
+	}
+
+	/**
+	 * @return the tuple in slot slotId, or null if the slot is empty
+	 */
+	public Tuple getTuple(int slotId) {
+		if (!isSlotUsed(slotId))
+			return null;
+		Tuple t = m_tuples.get(slotId);
+		if (t == null) {
+			t = decode(slotId);
+			m_tuples.set(slotId, t);
+		}
+		return t;
+	}
+
+	/**
+	 * @return the number of bytes of the page not in use
+	 */
+	public int getFreeSpace() {
+		return BufferPool.getPageSize() - m_usedBytes;
+	}
+
+	/**
+	 * @return the first empty slot, or the number of slots if none is empty
+	 */
+	private int emptySlot() {
+		for (int i = 0; i < m_records.size(); i++)
+			if (m_records.get(i) == null)
+				return i;
+		return m_records.size();
+	}
+
+	/**
+	 * @return the number of bytes inserting a tuple encoded as record takes
+	 */
+	private int spaceFor(byte[] record) {
+		return record.length
+				+ (emptySlot() == m_records.size() ? SLOT_SIZE : 0);
+	}
+
+	/**
+	 * @return true if t fits on the page
+	 */
+	public boolean fits(Tuple t) {
+		return spaceFor(encode(t)) <= getFreeSpace();
+	}
+
+	/**
+	 * Delete the specified tuple from the page; the tuple should be updated to
+	 * reflect that it is no longer stored on any page.
+	 *
+	 * @throws DbException
+	 *             if this tuple is not on this page, or tuple slot is already
+	 *             empty.
+	 * @param t
+	 *            The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		if (t.getRecordId() != null
+				&& t.getRecordId().getPageId().equals(m_pid)) {
+			int slot = t.getRecordId().tupleno();
+			if (isSlotUsed(slot)) {
+				m_usedBytes -= m_records.get(slot).length;
+				m_records.set(slot, null);
+				m_tuples.set(slot, null);
+				t.setRecordId(null);
+				return;
+			}
+		}
+		throw new DbException("tuple not in this page or is already deleted");
+	}
+
+	/**
+	 * Adds the specified tuple to the page; the tuple should be updated to
+	 * reflect that it is now stored on this page.
+	 *
+	 * @throws DbException
+	 *             if the tuple does not fit on the page or tupledesc is
+	 *             mismatch.
+	 * @param t
+	 *            The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!m_td.equals(t.getTupleDesc()))
+			throw new DbException("Tuple Desc mismatch");
+		byte[] record = encode(t);
+		int space = spaceFor(record);
+		if (space > getFreeSpace())
+			throw new DbException("page is full");
+		int slot = emptySlot();
+		if (slot == m_records.size()) {
+			m_records.add(record);
+			m_tuples.add(null);
+		} else {
+			m_records.set(slot, record);
+		}
+		m_usedBytes += space;
+		t.setRecordId(new RecordId(m_pid, slot));
+		m_tuples.set(slot, t);
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction that did
+	 * the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		m_tid = dirty ? tid : null;
+	}
+
+	/**
+	 * @return the tid of the transaction that last dirtied this page, or null
+	 *         if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		return m_tid;
+	}
+
+	/**
+	 * @return the number of slots in the slot directory, used or not.
+	 */
+	public int getNumSlots() {
+		return m_records.size();
+	}
+
+	/**
+	 * @return true if associated slot on this page is filled, false otherwise.
+	 */
+	public boolean isSlotUsed(int i) {
+		return i >= 0 && i < m_records.size() && m_records.get(i) != null;
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on this
+	 *         iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator() {
+		return iterator(null, null, null);
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page that satisfy filter,
+	 *         each with only some of its fields
+	 * @param filter
+	 *            the filter the tuples must satisfy, or null
+	 * @param columns
+	 *            the field of the tuples that each field returned is, or null
+	 *            for whole tuples
+	 * @param td
+	 *            the TupleDesc of the tuples returned, if columns is not null
+	 */
+	public Iterator<Tuple> iterator(final TupleFilter filter,
+			final int[] columns, final TupleDesc td) {
+		return new Iterator<Tuple>() {
+			private int m_slot = 0;
+			private Tuple m_next = null;
+
+			public boolean hasNext() {
+				while (m_next == null && m_slot < m_records.size()) {
+					Tuple t = getTuple(m_slot++);
+					if (t == null || (filter != null && !filter.matches(t)))
+						continue;
+					if (columns == null) {
+						m_next = t;
+					} else {
+						m_next = new Tuple(td);
+						for (int k = 0; k < columns.length; k++)
+							m_next.setField(k, t.getField(columns[k]));
+						m_next.setRecordId(t.getRecordId());
+					}
+				}
+				return m_next != null;
+			}
+
+			public Tuple next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Tuple t = m_next;
+				m_next = null;
+				return t;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
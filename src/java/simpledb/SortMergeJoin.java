@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+/**
+ * A join that reads both inputs into memory, sorts them on their join fields
+ * and merges them. Supports equality and the range predicates; the tuples
+ * matching an outer tuple are a run of the sorted inner relation, and the
+ * bounds of that run only move forward as the outer tuples increase.
+ */
+public class SortMergeJoin extends Operator {
+
+	private static final long serialVersionUID = 1L;
+
+	private JoinPredicate m_predicate;
+	private DbIterator m_outer;
+	private DbIterator m_inner;
+	private final TupleDesc m_td;
+
+	private final ArrayList<Tuple> m_outerTuples = new ArrayList<Tuple>();
+	private final ArrayList<Tuple> m_innerTuples = new ArrayList<Tuple>();
+	/** Position of the current outer tuple. */
+	private int m_outerPos;
+	/** First inner tuple not less than, and first one greater than, the current outer tuple. */
+	private int m_lo, m_hi;
+	/** The run of inner tuples matching the current outer tuple. */
+	private int m_pos, m_end;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children; any but
+	 *            NOT_EQUALS and LIKE
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 * @throws IllegalArgumentException
+	 *             if p cannot be evaluated by merging
+	 */
+	public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		if (!supports(p.getOperator()))
+			throw new IllegalArgumentException("cannot merge join on "
+					+ p.getOperator());
+		m_predicate = p;
+		m_outer = child1;
+		m_inner = child2;
+		m_td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+	}
+
+	/** @return true if joins on op can be executed by merging */
+	public static boolean supports(Predicate.Op op) {
+		return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+	}
+
+	public JoinPredicate getJoinPredicate() {
+		return m_predicate;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return m_td;
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException {
+		m_outer.open();
+		m_inner.open();
+		super.open();
+		sort(m_outer, m_outerTuples, m_predicate.getField1());
+		sort(m_inner, m_innerTuples, m_predicate.getField2());
+		start();
+	}
+
+	public void close() {
+		m_outer.close();
+		m_inner.close();
+		super.close();
+		m_outerTuples.clear();
+		m_innerTuples.clear();
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		// the inputs are already in memory
+		start();
+	}
+
+	private static void sort(DbIterator child, ArrayList<Tuple> tuples,
+			int field) throws DbException, TransactionAbortedException {
+		tuples.clear();
+		while (child.hasNext())
+			tuples.add(child.next());
+		Collections.sort(tuples, new TupleComparator(field, true));
+	}
+
+	private void start() {
+		m_outerPos = -1;
+		m_lo = 0;
+		m_hi = 0;
+		m_pos = 0;
+		m_end = 0;
+	}
+
+	/** Move to the next outer tuple and find the inner tuples matching it. */
+	private void advance() {
+		m_outerPos++;
+		if (m_outerPos >= m_outerTuples.size())
+			return;
+		Field key = m_outerTuples.get(m_outerPos).getField(
+				m_predicate.getField1());
+		int f2 = m_predicate.getField2();
+		int n = m_innerTuples.size();
+		while (m_lo < n
+				&& m_innerTuples.get(m_lo).getField(f2).compare(
+						Predicate.Op.LESS_THAN, key))
+			m_lo++;
+		if (m_hi < m_lo)
+			m_hi = m_lo;
+		while (m_hi < n
+				&& !m_innerTuples.get(m_hi).getField(f2).compare(
+						Predicate.Op.GREATER_THAN, key))
+			m_hi++;
+
+		switch (m_predicate.getOperator()) {
+		case EQUALS:
+			m_pos = m_lo;
+			m_end = m_hi;
+			break;
+		case LESS_THAN:
+			m_pos = m_hi;
+			m_end = n;
+			break;
+		case LESS_THAN_OR_EQ:
+			m_pos = m_lo;
+			m_end = n;
+			break;
+		case GREATER_THAN:
+			m_pos = 0;
+			m_end = m_lo;
+			break;
+		default: // GREATER_THAN_OR_EQ
+			m_pos = 0;
+			m_end = m_hi;
+			break;
+		}
+	}
+
+	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while (m_pos >= m_end) {
+			if (m_outerPos >= m_outerTuples.size() - 1)
+				return null;
+			advance();
+		}
+		Tuple outer = m_outerTuples.get(m_outerPos);
+		Tuple inner = m_innerTuples.get(m_pos++);
+		Tuple t = new Tuple(m_td);
+		int n1 = outer.getTupleDesc().numFields();
+		for (int i = 0; i < n1; i++)
+			t.setField(i, outer.getField(i));
+		for (int i = 0; i < inner.getTupleDesc().numFields(); i++)
+			t.setField(n1 + i, inner.getField(i));
+		return t;
+	}
+
+	@Override
+	public DbIterator[] getChildren() {
+		return new DbIterator[] { m_outer, m_inner };
+	}
+
+	@Override
+	public void setChildren(DbIterator[] children) {
+		m_outer = children[0];
+		m_inner = children[1];
+	}
+}
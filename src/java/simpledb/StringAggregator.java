@@ -72,21 +72,62 @@ public class StringAggregator implements Aggregator {
     	grouptoCount.put(tmpGroup, tmpCount);												// update the count number for that group
     	
     }
+
+    /**
+     * Merge the selected rows of a batch, counting the rows of each group
+     * @param b the batch whose rows have an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(TupleBatch b) {
+    	if(b.numSelected() == 0)
+    		return;
+    	if(td == null)
+    		td = createTd(b.getTupleDesc());
+
+    	if(gbField == Aggregator.NO_GROUPING)
+    	{
+    		addCount(new IntField(Aggregator.NO_GROUPING), b.numSelected());
+    		return;
+    	}
+    	int[] sel = b.selection();
+    	for(int k = 0; k < b.numSelected(); k++)
+    		addCount(b.getField(sel[k], gbField), 1);
+    }
+
+    /**
+     * Add n to the count of a group
+     */
+    private void addCount(Field group, int n) {
+    	IntField count = grouptoCount.get(group);
+    	grouptoCount.put(group, new IntField(count == null ? n : count.getValue() + n));
+    }
     /**
      *  Create a schema for the aggregate results of the tuples
      *  @param tup is the input tuple that need to be extracted the aggregate field and group field
      *  @return a TupleDesc object that stores the schema for the aggregate results
      */
     public TupleDesc createTd(Tuple tup)
+    {
+    	return createTd(tup.getTupleDesc());
+    }
+
+    /**
+     *  Create a schema for the aggregate results of tuples with schema inTd
+     */
+    private TupleDesc createTd(TupleDesc inTd)
     {
     	// use the TupleDesc constructor
     	
     	String[] tmpStr;
     	Type[] tmpType;
     	
-    	String aggField = tup.getTupleDesc().getFieldName(aField);
-    	String groupField = tup.getTupleDesc().getFieldName(gbField);
-    	Type groupType = tup.getTupleDesc().getFieldType(gbField);
+    	String aggField = inTd.getFieldName(aField);
+    	String groupField = null;
+    	Type groupType = null;
+    	if(gbField != Aggregator.NO_GROUPING)
+    	{
+    		groupField = inTd.getFieldName(gbField);
+    		groupType = inTd.getFieldType(gbField);
+    	}
     	
     	// test if there is a grouping or not
     	if(gbField == Aggregator.NO_GROUPING)
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The dictionary of the string fields of a {@link DictionaryFile}: a code for
+ * each distinct string stored, numbered from 0 in the order the strings were
+ * first stored. Codes never change, so the dictionary is only appended to,
+ * both in memory and in its file.
+ */
+public class StringDictionary {
+
+	private final File m_file;
+
+	/**
+	 * The field of each code, shared by every tuple holding the code.
+	 */
+	private final ArrayList<CodedStringField> m_fields = new ArrayList<CodedStringField>();
+
+	private final HashMap<String, Integer> m_codes = new HashMap<String, Integer>();
+
+	/**
+	 * Open the dictionary stored in f, or an empty one if f does not exist.
+	 */
+	public StringDictionary(File f) {
+		m_file = f;
+		if (!f.exists())
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f)));
+			try {
+				while (true) {
+					String s;
+					try {
+						s = in.readUTF();
+					} catch (EOFException e) {
+						break;
+					}
+					add(s);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read " + f, e);
+		}
+	}
+
+	private void add(String s) {
+		m_codes.put(s, m_fields.size());
+		m_fields.add(new CodedStringField(s, this, m_fields.size()));
+	}
+
+	/**
+	 * @return the number of strings in the dictionary
+	 */
+	public synchronized int size() {
+		return m_fields.size();
+	}
+
+	/**
+	 * @return the code of s, or -1 if s is not in the dictionary
+	 */
+	public synchronized int getCode(String s) {
+		Integer code = m_codes.get(s);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * @return the code of s, adding s to the dictionary if it is not in it
+	 */
+	public synchronized int encode(String s) throws IOException {
+		Integer code = m_codes.get(s);
+		if (code != null)
+			return code;
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(
+				m_file, true));
+		try {
+			out.writeUTF(s);
+		} finally {
+			out.close();
+		}
+		add(s);
+		return m_fields.size() - 1;
+	}
+
+	/**
+	 * @return the field of code
+	 */
+	public synchronized CodedStringField getField(int code) {
+		return m_fields.get(code);
+	}
+}
@@ -77,7 +77,15 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		return compare(value, op, iVal.value);
+	}
+
+	/**
+	 * Compare two string values as StringField.compare does, for callers
+	 * that read them without making Fields.
+	 */
+	static boolean compare(String value, Predicate.Op op, String operand) {
+		int cmpVal = value.compareTo(operand);
 
 		switch (op) {
 		case EQUALS:
@@ -99,7 +107,7 @@ public class StringField implements Field {
 			return cmpVal <= 0;
 
 		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+			return value.indexOf(operand) >= 0;
 		}
 
 		return false;
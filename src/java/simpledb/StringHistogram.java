@@ -1,82 +1,216 @@
 package simpledb;
 
-/** A class to represent a fixed-width histogram over a single String-based field.
- */
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/** A class to represent a histogram over a single String-based field.
+    <p>
+    Values are kept in a reservoir sample of up to {@link #SAMPLE_SIZE}
+    strings. Sorted, the sample serves as a set of equi-depth bucket
+    boundaries that are compared in full, so long strings with a common
+    prefix (URLs, e-mail addresses) are told apart. Values that occur
+    noticeably more often than average in the sample form a most-common-values
+    list with their own frequencies; the remaining frequency is spread over
+    the other distinct values, counted with a {@link HyperLogLog} sketch of
+    every value added. LIKE predicates are evaluated against the sample.
+    <p>
+    When every value fits in the sample the estimates are exact.
+*/
 public class StringHistogram {
-    IntHistogram hist;
+    /** Maximum number of strings kept in the sample. */
+    static final int SAMPLE_SIZE = 4096;
+
+    /** Maximum number of most common values. */
+    private final int maxMcvs;
+
+    /** The sample; sorted once the histogram is built. */
+    private String[] sample = new String[16];
+
+    /** Number of entries of sample in use. */
+    private int sampled = 0;
+
+    /** Number of values added. */
+    private long total = 0;
+
+    private final Random random = new Random(0);
+
+    private final HyperLogLog distinct;
+
+    /** True if sample is sorted and the MCVs are up to date. */
+    private boolean built = false;
+
+    /** The most common values of the sample. */
+    private MostCommonValues<String> mcvs;
 
     /** Create a new StringHistogram with a specified number of buckets.
-        <p>
-        Our implementation is written in terms of an IntHistogram by converting
-        each String to an integer.
-        @param buckets the number of buckets */
+        @param buckets the maximum number of most common values to keep */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        maxMcvs = buckets;
+        distinct = new HyperLogLog();
     }
 
-    /** Convert a string to an integer, with the property that 
-        if the return value(s1) < return value(s2), then s1 < s2
-    */
-    private int stringToInt(String s) {
-        int i ;
-        int v = 0;
-        for (i = 3; i >= 0;i--) {
-            if (s.length() > 3-i) {
-                int ci = (int)s.charAt(3-i);
-                v += (ci) << (i * 8);
-            } 
+    private StringHistogram(int buckets, HyperLogLog distinct) {
+        maxMcvs = buckets;
+        this.distinct = distinct;
+    }
+
+    /** Add a new value to the histogram */
+    public synchronized void addValue(String s) {
+        distinct.add(s);
+        int slot = -1;
+        if (total < SAMPLE_SIZE) {
+            if (sampled == sample.length)
+                sample = Arrays.copyOf(sample, Math.min(2 * sampled, SAMPLE_SIZE));
+            slot = sampled++;
+        } else {
+            long r = (long) (random.nextDouble() * (total + 1));
+            if (r < SAMPLE_SIZE)
+                slot = (int) r;
         }
-        
-        // XXX: hack to avoid getting wrong results for
-        // strings which don't output in the range min to max
-        if (!(s.equals("") || s.equals("zzzz"))) {
-	        if (v < minVal()) {
-	        	v = minVal();
-	        } 
-	        
-	        if (v > maxVal()) {
-	        	v = maxVal();
-	        }
+        if (slot >= 0)
+            sample[slot] = s;
+        total++;
+        built = false;
+    }
+
+    /** Sort the sample and pick out the most common values. */
+    private synchronized void build() {
+        if (built)
+            return;
+        Arrays.sort(sample, 0, sampled);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < sampled; i++) {
+            Integer c = counts.get(sample[i]);
+            counts.put(sample[i], c == null ? 1 : c + 1);
         }
-        
-        return v;
+        mcvs = MostCommonValues.fromCounts(counts, sampled, maxMcvs);
+        built = true;
+    }
+
+    /** @return true if every value added is in the sample */
+    private boolean isComplete() {
+        return total == sampled;
     }
 
-    /** @return the maximum value indexed by the histogram */
-    int maxVal() {
-        return stringToInt("zzzz");
+    /** @return the fraction of the sample less than s (or equal, if orEqual) */
+    private double fractionBelow(String s, boolean orEqual) {
+        int lo = 0, hi = sampled;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = sample[mid].compareTo(s);
+            if (cmp < 0 || (orEqual && cmp == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return (double) lo / sampled;
     }
 
-    /** @return the minimum value indexed by the histogram */
-    int minVal() {
-        return stringToInt("");
+    /** @return the fraction of values equal to s */
+    private double equal(String s) {
+        if (isComplete())
+            return fractionBelow(s, true) - fractionBelow(s, false);
+        Double freq = mcvs.frequency(s);
+        if (freq != null)
+            return freq;
+        long others = Math.max(1, distinct.estimate() - mcvs.size());
+        return (1 - mcvs.totalFrequency()) / others;
     }
 
-    /** Add a new value to thte histogram */
-    public void addValue(String s) {
-        int val = stringToInt(s);
-        hist.addValue(val);
+    /** @return the fraction of values containing s */
+    private double like(String s) {
+        int matches = 0;
+        for (int i = 0; i < sampled; i++)
+            if (sample[i].indexOf(s) >= 0)
+                matches++;
+        // a pattern missing from an incomplete sample may still be present
+        if (matches == 0 && !isComplete())
+            return 0.5 / sampled;
+        return (double) matches / sampled;
     }
 
-    /** Estimate the selectivity (as a double between 0 and 1) of the specified predicate over the specified string 
+    /** Estimate the selectivity (as a double between 0 and 1) of the specified predicate over the specified string
         @param op The operation being applied
-        @param s The string to apply op to 
+        @param s The string to apply op to
     */
     public double estimateSelectivity(Predicate.Op op, String s) {
-        int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
+        build();
+        if (sampled == 0)
+            return 0;
+        double sel;
+        switch (op) {
+            case EQUALS:
+                sel = equal(s);
+                break;
+            case NOT_EQUALS:
+                sel = 1 - equal(s);
+                break;
+            case LESS_THAN:
+                sel = fractionBelow(s, false);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = fractionBelow(s, true);
+                break;
+            case GREATER_THAN:
+                sel = 1 - fractionBelow(s, true);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1 - fractionBelow(s, false);
+                break;
+            case LIKE:
+                sel = like(s);
+                break;
+            default:
+                return -1;
+        }
+        return Math.min(1, Math.max(0, sel));
     }
-    
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
      * */
     public double avgSelectivity()
     {
-        return hist.avgSelectivity();
+        build();
+        double sel = 0;
+        for (double f : mcvs.frequencies().values())
+            sel += f * f;
+        double rest = 1 - mcvs.totalFrequency();
+        long others = Math.max(1, distinct.estimate() - mcvs.size());
+        return sel + rest * rest / others;
+    }
+
+    /** Save this histogram so it can be recreated with {@link #read}. */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeInt(maxMcvs);
+        out.writeLong(total);
+        out.writeInt(sampled);
+        for (int i = 0; i < sampled; i++)
+            out.writeUTF(sample[i]);
+        distinct.write(out);
+    }
+
+    /** Read a histogram saved with {@link #write}. */
+    public static StringHistogram read(DataInput in) throws IOException {
+        int buckets = in.readInt();
+        long total = in.readLong();
+        String[] sample = new String[in.readInt()];
+        for (int i = 0; i < sample.length; i++)
+            sample[i] = in.readUTF();
+        StringHistogram h = new StringHistogram(buckets, HyperLogLog.read(in));
+        h.total = total;
+        h.sample = sample;
+        h.sampled = sample.length;
+        return h;
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,51 @@
 package simpledb;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query.
+ * <p>
+ * Statistics are gathered in a single sequential pass over the table's file,
+ * bypassing the BufferPool. Tuple counts are exact and the number of distinct
+ * values of each column is estimated with a {@link HyperLogLog} sketch;
+ * integer columns get {@link EquiDepthHistogram}s built from a reservoir
+ * sample of up to {@link #SAMPLE_SIZE} tuples, so tables that fit in the
+ * sample get exact histograms. Values much more frequent than average in the
+ * sample form a {@link MostCommonValues} list per column. Groups of correlated
+ * columns declared in the catalog (see {@link Catalog#addColumnGroup}) get
+ * {@link ColumnGroupStats}, so conjunctions on them are not estimated as if
+ * the columns were independent.
+ * <p>
+ * The statistics of a HeapFile are saved in a sidecar file next to it (see
+ * {@link #statsFile}) and loaded from there the first time the table is
+ * looked up. The tuple count follows the insert and delete counters of the
+ * HeapFile; once enough of the table has changed, or the file no longer
+ * matches the saved statistics, they are rebuilt in the background while the
+ * old ones stay in use.
  * 
  * This class is not needed in implementing lab1 and lab2.
  */
@@ -17,8 +55,114 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /**
+     * Fraction of a table that must have been inserted or deleted before its
+     * statistics are rebuilt.
+     */
+    static final double REFRESH_FRACTION = 0.2;
+
+    /** Identifies a statistics sidecar file and its format version. */
+    private static final int STATS_FILE_MAGIC = 0x53544154;
+    private static final int STATS_FILE_VERSION = 4;
+
+    /** Rebuilds stale statistics in the background. */
+    private static final ExecutorService refresher = Executors
+	    .newSingleThreadExecutor(new java.util.concurrent.ThreadFactory() {
+		public Thread newThread(final Runnable r) {
+		    Thread t = new Thread(r, "TableStats refresher");
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+
+    /** Tables whose statistics are being rebuilt. */
+    private static final Set<String> refreshing = Collections
+	    .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Return the statistics of a table, loading them from its sidecar file
+     * (or, failing that, computing and saving them) the first time the table
+     * is asked for. Schedules a background rebuild if they are stale.
+     *
+     * @return the statistics, or null if there is no such table
+     */
     public static TableStats getTableStats(final String tablename) {
-	return statsMap.get(tablename);
+	TableStats s = statsMap.get(tablename);
+	if (s == null) {
+	    s = load(tablename);
+	    if (s == null)
+		return null;
+	    TableStats other = statsMap.putIfAbsent(tablename, s);
+	    if (other != null)
+		s = other;
+	}
+	if (s.isStale())
+	    scheduleRefresh(tablename, s.tableid);
+	return s;
+    }
+
+    /**
+     * Load the statistics of a table from its sidecar file, or compute and
+     * save them if there is none.
+     */
+    private static TableStats load(final String tablename) {
+	int tableid;
+	try {
+	    tableid = Database.getCatalog().getTableId(tablename);
+	}
+	catch (NoSuchElementException e) {
+	    return null;
+	}
+	DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+	if (file instanceof HeapFile) {
+	    File sidecar = statsFile((HeapFile) file);
+	    if (sidecar.exists()) {
+		try {
+		    return new TableStats(tableid, IOCOSTPERPAGE, sidecar);
+		}
+		catch (IOException e) {
+		    // unreadable or outdated format; rebuild it below
+		}
+	    }
+	}
+	TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
+	s.save();
+	return s;
+    }
+
+    /**
+     * Rebuild the statistics of a table in the background, unless that is
+     * already under way.
+     */
+    private static void scheduleRefresh(final String tablename,
+	    final int tableid) {
+	if (!refreshing.add(tablename))
+	    return;
+	refresher.execute(new Runnable() {
+	    public void run() {
+		try {
+		    TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
+		    s.save();
+		    statsMap.put(tablename, s);
+		}
+		finally {
+		    refreshing.remove(tablename);
+		}
+	    }
+	});
+    }
+
+    /**
+     * @return the sidecar file holding the saved statistics of f: its data
+     *         file with the extension replaced by ".stats"
+     */
+    public static File statsFile(final HeapFile f) {
+	String name = f.getFile().getName();
+	int dot = name.lastIndexOf('.');
+	if (dot > 0)
+	    name = name.substring(0, dot);
+	return new File(f.getFile().getAbsoluteFile().getParentFile(), name
+	        + ".stats");
     }
 
     public static void setTableStats(final String tablename,
@@ -52,14 +196,45 @@ public class TableStats {
 	return statsMap;
     }
 
+    /**
+     * Compute statistics for every table in the catalog that has no saved
+     * statistics, scanning up to one table per available processor at a
+     * time. Saved statistics are loaded lazily by {@link #getTableStats}.
+     */
     public static void computeStatistics() {
 	Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
 	System.out.println("Computing table stats.");
-	while (tableIt.hasNext()) {
-	    int tableid = tableIt.next();
-	    TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-	    setTableStats(Database.getCatalog().getTableName(tableid), s);
+	ExecutorService pool = Executors.newFixedThreadPool(Runtime
+	        .getRuntime().availableProcessors());
+	Map<Integer, Future<TableStats>> pending = new HashMap<Integer, Future<TableStats>>();
+	try {
+	    while (tableIt.hasNext()) {
+		final int tableid = tableIt.next();
+		DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+		if (file instanceof HeapFile
+		        && statsFile((HeapFile) file).exists())
+		    continue;
+		pending.put(tableid, pool.submit(new Callable<TableStats>() {
+		    public TableStats call() {
+			TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
+			s.save();
+			return s;
+		    }
+		}));
+	    }
+	    for (Map.Entry<Integer, Future<TableStats>> e : pending.entrySet())
+		setTableStats(Database.getCatalog().getTableName(e.getKey()), e
+		        .getValue().get());
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	}
+	finally {
+	    pool.shutdownNow();
 	}
 	System.out.println("Done.");
     }
@@ -71,6 +246,11 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Maximum number of tuples sampled to build the integer histograms.
+     */
+    static final int SAMPLE_SIZE = 100000;
+
     private final DbFile databaseFile;
 
     private final TupleDesc td;
@@ -81,15 +261,31 @@ public class TableStats {
 
     private int num_tuples;
 
-    private final Map<String, IntHistogram> intHistograms;
+    /**
+     * Insert and delete counters of the HeapFile when the statistics were
+     * built, and the length and modification time of its file.
+     */
+    private final long insertsAtBuild, deletesAtBuild, fileLengthAtBuild,
+	    fileModifiedAtBuild;
+
+    /**
+     * Set if the statistics were loaded from a sidecar file that does not
+     * match the data file any more.
+     */
+    private boolean outdated = false;
+
+    private final Map<String, EquiDepthHistogram> intHistograms;
 
     private final Map<String, StringHistogram> stringHistograms;
 
-    private class MinMax {
-	public int max, min;
-    }
+    /** Distinct-value sketch of every column. */
+    private final Map<String, HyperLogLog> distinctSketches;
+
+    /** Most common values of the integer columns. */
+    private final Map<String, MostCommonValues<Integer>> intMcvs;
 
-    private final Map<String, MinMax> minMaxMap;
+    /** Statistics of the column groups declared in the catalog. */
+    private final List<ColumnGroupStats> columnGroups;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -108,64 +304,73 @@ public class TableStats {
 	num_tuples = 0;
 	td = databaseFile.getTupleDesc();
 
-	intHistograms = new HashMap<String, IntHistogram>();
+	intHistograms = new HashMap<String, EquiDepthHistogram>();
 	stringHistograms = new HashMap<String, StringHistogram>();
-	minMaxMap = new HashMap<String, MinMax>();
+	distinctSketches = new HashMap<String, HyperLogLog>();
+	intMcvs = new HashMap<String, MostCommonValues<Integer>>();
+	columnGroups = new ArrayList<ColumnGroupStats>();
+	for (int[] group : Database.getCatalog().getColumnGroups(tableid))
+	    columnGroups.add(new ColumnGroupStats(group));
+
+	if (databaseFile instanceof HeapFile) {
+	    HeapFile hf = (HeapFile) databaseFile;
+	    insertsAtBuild = hf.getInsertCount();
+	    deletesAtBuild = hf.getDeleteCount();
+	    fileLengthAtBuild = hf.getFile().length();
+	    fileModifiedAtBuild = hf.getFile().lastModified();
+	} else {
+	    insertsAtBuild = deletesAtBuild = fileLengthAtBuild = fileModifiedAtBuild = 0;
+	}
+
+	int numFields = td.numFields();
+	// reservoir sample of the integer columns, one row per sampled tuple
+	int[][] sample = new int[numFields][];
+	int sampled = 0;
+	Random random = new Random(tableid);
+	HyperLogLog[] sketches = new HyperLogLog[numFields];
+	for (int i = 0; i < numFields; i++) {
+	    sketches[i] = new HyperLogLog();
+	    distinctSketches.put(td.getFieldName(i), sketches[i]);
+	    if (td.getFieldType(i).equals(Type.INT_TYPE)) {
+		sample[i] = new int[1024];
+	    } else {
+		stringHistograms.put(td.getFieldName(i), new StringHistogram(
+		        NUM_HIST_BINS));
+	    }
+	}
 
-	DbFileIterator iterator = databaseFile.iterator(null);
+	DbFileIterator iterator = databaseFile.diskIterator();
 	try {
 	    iterator.open();
-
 	    while (iterator.hasNext()) {
 		Tuple tuple = iterator.next();
-		for (int i = 0; i < td.numFields(); i++) {
-		    Field field = tuple.getField(i);
-		    if (field instanceof StringField)
-			continue;
-		    IntField f = (IntField) field;
-		    String name = td.getFieldName(i);
-		    int v = f.getValue();
-		    if (f.getType().equals(Type.INT_TYPE)) {
-			MinMax m = minMaxMap.get(name);
-			if (m == null) {
-			    m = new MinMax();
-			    m.min = v;
-			    m.max = v;
-			} else {
-			    if (m.min > v)
-				m.min = v;
-			    if (m.max < v)
-				m.max = v;
-			}
-			minMaxMap.put(name, m);
-		    }
+		// slot of the sample this tuple goes to, or -1 if it is skipped
+		int slot = -1;
+		if (num_tuples < SAMPLE_SIZE) {
+		    slot = sampled++;
+		} else {
+		    int r = random.nextInt(num_tuples + 1);
+		    if (r < SAMPLE_SIZE)
+			slot = r;
 		}
-	    }
-
-	    iterator.rewind();
-	    while (iterator.hasNext()) {
 		num_tuples++;
-		Tuple tuple = iterator.next();
-		for (int i = 0; i < td.numFields(); i++) {
+		for (ColumnGroupStats g : columnGroups)
+		    g.addTuple(tuple);
+
+		for (int i = 0; i < numFields; i++) {
 		    Field f = tuple.getField(i);
-		    String name = td.getFieldName(i);
-		    if (f.getType().equals(Type.INT_TYPE)) {
-			IntHistogram g = intHistograms.get(name);
-			if (g == null) // not exist
-			    g = new IntHistogram(NUM_HIST_BINS,
-				    minMaxMap.get(name).min,
-				    minMaxMap.get(name).max);
-			g.addValue(((IntField) f).getValue());
-			intHistograms.put(td.getFieldName(i), g);
-		    } else {
-			// string type
-			StringHistogram g = stringHistograms.get(td
-				.getFieldName(i));
-			if (g == null) // not exist
-			    g = new StringHistogram(NUM_HIST_BINS);
-			g.addValue(((StringField) f).getValue());
-			stringHistograms.put(td.getFieldName(i), g);
+		    sketches[i].add(f);
+		    if (sample[i] == null) {
+			stringHistograms.get(td.getFieldName(i)).addValue(
+			        ((StringField) f).getValue());
+			continue;
 		    }
+		    if (slot < 0)
+			continue;
+		    if (slot == sample[i].length)
+			sample[i] = java.util.Arrays.copyOf(sample[i], Math.min(
+			        2 * slot, SAMPLE_SIZE));
+		    sample[i][slot] = ((IntField) f).getValue();
 		}
 	    }
 	}
@@ -175,10 +380,190 @@ public class TableStats {
 	catch (TransactionAbortedException e) {
 	    e.printStackTrace();
 	}
-
 	finally {
 	    iterator.close();
 	}
+
+	if (num_tuples == 0)
+	    return;
+	for (int i = 0; i < numFields; i++) {
+	    if (sample[i] == null)
+		continue;
+	    intHistograms.put(td.getFieldName(i), new EquiDepthHistogram(
+		    NUM_HIST_BINS, sample[i], sampled));
+	    // the histogram left the sample sorted, so equal values are adjacent
+	    Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+	    for (int j = 0; j < sampled;) {
+		int run = 1;
+		while (j + run < sampled && sample[i][j + run] == sample[i][j])
+		    run++;
+		counts.put(sample[i][j], run);
+		j += run;
+	    }
+	    intMcvs.put(td.getFieldName(i), MostCommonValues.fromCounts(counts,
+		    sampled, NUM_HIST_BINS));
+	}
+    }
+
+    /**
+     * Load statistics saved by {@link #save} from a sidecar file.
+     *
+     * @throws IOException
+     *             if the file cannot be read or is not a statistics file for
+     *             this table's schema
+     */
+    private TableStats(final int tableid, final int ioCostPerPage,
+	    final File sidecar) throws IOException {
+	databaseFile = Database.getCatalog().getDatabaseFile(tableid);
+	this.tableid = tableid;
+	this.ioCostPerPage = ioCostPerPage;
+	td = databaseFile.getTupleDesc();
+	intHistograms = new HashMap<String, EquiDepthHistogram>();
+	stringHistograms = new HashMap<String, StringHistogram>();
+	distinctSketches = new HashMap<String, HyperLogLog>();
+	intMcvs = new HashMap<String, MostCommonValues<Integer>>();
+	columnGroups = new ArrayList<ColumnGroupStats>();
+
+	DataInputStream in = new DataInputStream(new BufferedInputStream(
+	        new FileInputStream(sidecar)));
+	try {
+	    if (in.readInt() != STATS_FILE_MAGIC
+		    || in.readInt() != STATS_FILE_VERSION)
+		throw new IOException(sidecar + " is not a statistics file");
+	    long savedLength = in.readLong();
+	    long savedModified = in.readLong();
+	    num_tuples = in.readInt();
+	    if (in.readInt() != td.numFields())
+		throw new IOException(sidecar + " does not match the schema");
+	    for (int i = 0; i < td.numFields(); i++) {
+		distinctSketches.put(td.getFieldName(i), HyperLogLog.read(in));
+		if (!in.readBoolean())
+		    continue;
+		if (td.getFieldType(i).equals(Type.INT_TYPE)) {
+		    intHistograms.put(td.getFieldName(i), EquiDepthHistogram
+			    .read(in));
+		    Map<Integer, Double> mcvs = new HashMap<Integer, Double>();
+		    for (int n = in.readInt(); n > 0; n--)
+			mcvs.put(in.readInt(), in.readDouble());
+		    intMcvs.put(td.getFieldName(i),
+			    new MostCommonValues<Integer>(mcvs));
+		} else
+		    stringHistograms.put(td.getFieldName(i), StringHistogram
+			    .read(in));
+	    }
+	    for (int n = in.readInt(); n > 0; n--)
+		columnGroups.add(ColumnGroupStats.read(in, td));
+	    // the counters restart with every run, so the file itself is the
+	    // only clue that the table changed after the statistics were saved
+	    HeapFile hf = (HeapFile) databaseFile;
+	    insertsAtBuild = hf.getInsertCount();
+	    deletesAtBuild = hf.getDeleteCount();
+	    fileLengthAtBuild = savedLength;
+	    fileModifiedAtBuild = savedModified;
+	    outdated = hf.getFile().length() != savedLength
+		    || hf.getFile().lastModified() != savedModified
+		    || !sameGroups(Database.getCatalog().getColumnGroups(tableid));
+	}
+	finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * Save these statistics to the sidecar file of the table, if it is a
+     * HeapFile. Failures are reported but otherwise ignored, since the
+     * statistics can always be recomputed.
+     */
+    void save() {
+	if (!(databaseFile instanceof HeapFile))
+	    return;
+	File sidecar = statsFile((HeapFile) databaseFile);
+	File tmp = new File(sidecar.getPath() + ".tmp");
+	try {
+	    DataOutputStream out = new DataOutputStream(
+		    new BufferedOutputStream(new FileOutputStream(tmp)));
+	    try {
+		out.writeInt(STATS_FILE_MAGIC);
+		out.writeInt(STATS_FILE_VERSION);
+		out.writeLong(fileLengthAtBuild);
+		out.writeLong(fileModifiedAtBuild);
+		out.writeInt(num_tuples);
+		out.writeInt(td.numFields());
+		for (int i = 0; i < td.numFields(); i++) {
+		    String name = td.getFieldName(i);
+		    distinctSketches.get(name).write(out);
+		    if (td.getFieldType(i).equals(Type.INT_TYPE)) {
+			out.writeBoolean(intHistograms.containsKey(name));
+			if (intHistograms.containsKey(name)) {
+			    intHistograms.get(name).write(out);
+			    Map<Integer, Double> mcvs = intMcvs.get(name)
+				    .frequencies();
+			    out.writeInt(mcvs.size());
+			    for (Map.Entry<Integer, Double> e : mcvs.entrySet()) {
+				out.writeInt(e.getKey());
+				out.writeDouble(e.getValue());
+			    }
+			}
+		    } else {
+			out.writeBoolean(stringHistograms.containsKey(name));
+			if (stringHistograms.containsKey(name))
+			    stringHistograms.get(name).write(out);
+		    }
+		}
+		out.writeInt(columnGroups.size());
+		for (ColumnGroupStats g : columnGroups)
+		    g.write(out);
+	    }
+	    finally {
+		out.close();
+	    }
+	    // replace the old file in one step so readers never see half of it
+	    if (!tmp.renameTo(sidecar)) {
+		sidecar.delete();
+		if (!tmp.renameTo(sidecar))
+		    throw new IOException("cannot rename " + tmp + " to "
+			    + sidecar);
+	    }
+	}
+	catch (IOException e) {
+	    System.err.println("Could not save statistics of table " + tableid
+		    + ": " + e.getMessage());
+	    tmp.delete();
+	}
+    }
+
+    /**
+     * @return true if the column groups of these statistics are the given
+     *         ones, in order
+     */
+    private boolean sameGroups(final List<int[]> groups) {
+	if (groups.size() != columnGroups.size())
+	    return false;
+	for (int i = 0; i < groups.size(); i++)
+	    if (!Arrays.equals(groups.get(i), columnGroups.get(i).getFields()))
+		return false;
+	return true;
+    }
+
+    /**
+     * @return the number of tuples inserted plus deleted since these
+     *         statistics were built
+     */
+    private long changesSinceBuild() {
+	if (!(databaseFile instanceof HeapFile))
+	    return 0;
+	HeapFile hf = (HeapFile) databaseFile;
+	return hf.getInsertCount() - insertsAtBuild + hf.getDeleteCount()
+	        - deletesAtBuild;
+    }
+
+    /**
+     * @return true if these statistics should be rebuilt
+     */
+    boolean isStale() {
+	return outdated
+	        || changesSinceBuild() > REFRESH_FRACTION
+	                * Math.max(num_tuples, 1);
     }
 
     /**
@@ -213,7 +598,14 @@ public class TableStats {
 	    final Field constant) {
 	Type fieldType = td.getFieldType(field);
 	if (fieldType.equals(Type.INT_TYPE)) {
-	    IntHistogram intHistogram = intHistograms.get(td
+	    MostCommonValues<Integer> mcvs = intMcvs.get(td.getFieldName(field));
+	    if (mcvs != null
+		    && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+		Double freq = mcvs.frequency(((IntField) constant).getValue());
+		if (freq != null)
+		    return op == Predicate.Op.EQUALS ? freq : 1 - freq;
+	    }
+	    EquiDepthHistogram intHistogram = intHistograms.get(td
 		    .getFieldName(field));
 	    double value = intHistogram.estimateSelectivity(op,
 		    ((IntField) constant).getValue());
@@ -227,11 +619,131 @@ public class TableStats {
 	}
     }
 
+    /**
+     * Estimate the selectivity of the conjunction of the given predicates on
+     * the table. Predicates on a column group declared in the catalog are
+     * estimated together from the group's statistics, taking the group that
+     * covers the most predicates first; the rest are assumed independent.
+     *
+     * @return The estimated fraction of tuples that satisfy all predicates
+     */
+    public double estimateSelectivity(final List<Predicate> preds) {
+	List<Predicate> rest = new ArrayList<Predicate>(preds);
+	double sel = 1.0;
+	while (true) {
+	    ColumnGroupStats best = null;
+	    int covered = 1;
+	    for (ColumnGroupStats g : columnGroups) {
+		int n = g.covered(rest);
+		if (n > covered) {
+		    best = g;
+		    covered = n;
+		}
+	    }
+	    if (best == null)
+		break;
+	    List<Predicate> together = new ArrayList<Predicate>();
+	    for (Iterator<Predicate> it = rest.iterator(); it.hasNext();) {
+		Predicate p = it.next();
+		if (best.covered(Collections.singletonList(p)) > 0) {
+		    together.add(p);
+		    it.remove();
+		}
+	    }
+	    sel *= best.estimateSelectivity(together);
+	}
+	for (Predicate p : rest)
+	    sel *= estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+	return sel;
+    }
+
+    /**
+     * @return the estimated number of distinct values of a field, between 1
+     *         and the number of tuples in the table
+     */
+    public long numDistinctValues(final int field) {
+	long ndv = distinctSketches.get(td.getFieldName(field)).estimate();
+	return Math.max(1, Math.min(ndv, totalTuples()));
+    }
+
+    /**
+     * Estimate the selectivity of the join predicate
+     * <tt>field op other.otherField</tt> on the cross product of this table
+     * and other.
+     * <p>
+     * Equality joins assume the values of the column with fewer distinct
+     * values all find a match in the other column, restricted to the range
+     * both histograms cover. Range joins compare each bucket of this
+     * column's histogram against the other column's histogram.
+     *
+     * @return the estimated fraction of the cross product that satisfies
+     *         the predicate, or -1 if the statistics cannot tell
+     */
+    public double estimateJoinSelectivity(final int field,
+	    final Predicate.Op op, final TableStats other, final int otherField) {
+	EquiDepthHistogram h1 = intHistograms.get(td.getFieldName(field));
+	EquiDepthHistogram h2 = other.intHistograms.get(other.td
+	        .getFieldName(otherField));
+	double ndv1 = numDistinctValues(field);
+	double ndv2 = other.numDistinctValues(otherField);
+
+	switch (op) {
+	    case EQUALS:
+	    case NOT_EQUALS: {
+		double eq;
+		if (h1 == null || h2 == null) {
+		    eq = 1.0 / Math.max(ndv1, ndv2);
+		} else {
+		    int lo = Math.max(h1.min(), h2.min());
+		    int hi = Math.min(h1.max(), h2.max());
+		    double f1 = h1.fractionBetween(lo, hi);
+		    double f2 = h2.fractionBetween(lo, hi);
+		    if (f1 == 0 || f2 == 0)
+			eq = 0;
+		    else
+			eq = f1 * f2
+			        / Math.max(Math.max(ndv1 * f1, ndv2 * f2), 1);
+		}
+		return op == Predicate.Op.EQUALS ? eq : 1 - eq;
+	    }
+	    case GREATER_THAN:
+	    case GREATER_THAN_OR_EQ:
+	    case LESS_THAN:
+	    case LESS_THAN_OR_EQ: {
+		if (h1 == null || h2 == null)
+		    return -1;
+		// t1.a < t2.b holds where t2.b > t1.a
+		Predicate.Op flipped;
+		if (op == Predicate.Op.GREATER_THAN)
+		    flipped = Predicate.Op.LESS_THAN;
+		else if (op == Predicate.Op.GREATER_THAN_OR_EQ)
+		    flipped = Predicate.Op.LESS_THAN_OR_EQ;
+		else if (op == Predicate.Op.LESS_THAN)
+		    flipped = Predicate.Op.GREATER_THAN;
+		else
+		    flipped = Predicate.Op.GREATER_THAN_OR_EQ;
+		double sel = 0;
+		for (int b = 0; b < h1.numBuckets(); b++)
+		    sel += h1.bucketFraction(b)
+			    * h2.estimateSelectivity(flipped, h1
+			            .bucketMidpoint(b));
+		return sel;
+	    }
+	    default:
+		return -1;
+	}
+    }
+
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-	return num_tuples;
+	if (!(databaseFile instanceof HeapFile))
+	    return num_tuples;
+	HeapFile hf = (HeapFile) databaseFile;
+	long n = num_tuples + (hf.getInsertCount() - insertsAtBuild)
+	        - (hf.getDeleteCount() - deletesAtBuild);
+	return (int) Math.max(n, 0);
     }
 
     /**
@@ -244,7 +756,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(final double selectivityFactor) {
-	return (int) (num_tuples * selectivityFactor);
+	return (int) (totalTuples() * selectivityFactor);
     }
 
     /**
@@ -260,6 +772,10 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-	return ((HeapFile) databaseFile).numPages() * ioCostPerPage;
+	// costPerPageIO is that of a page of the default size; a table with
+	// larger pages reads more bytes per page
+	double pageCost = ioCostPerPage
+		* ((double) databaseFile.getPageSize() / BufferPool.getPageSize());
+	return databaseFile.numPages() * pageCost;
     }
 }
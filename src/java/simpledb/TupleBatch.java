@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A batch of rows stored column by column, for operators that process many
+ * rows per call (see {@link BatchIterator}). Each field is a vector: an int[]
+ * for integer fields and a String[] for string fields. The rows of the batch
+ * are those in the selection vector, so that an operator can drop rows by
+ * narrowing the selection rather than by moving data.
+ * <p>
+ * A string field filled from the dictionary-encoded field of a
+ * {@link DictionaryFile} also has a vector of the codes of its strings, and
+ * {@link #getField} returns the dictionary's own {@link CodedStringField}
+ * for them, so that grouping and hash joins on the field compare codes
+ * rather than strings.
+ */
+public class TupleBatch {
+
+	/** Default number of rows in a batch. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final TupleDesc m_td;
+	private int m_capacity;
+	/** The vector of each field: an int[] or a String[]. */
+	private final Object[] m_columns;
+	/**
+	 * The code vector of each string field holding coded strings, or null:
+	 * the code of the string of each row, or -1 if it has none.
+	 */
+	private final int[][] m_codes;
+	/** The dictionary the codes of each field are in, or null. */
+	private final StringDictionary[] m_dictionaries;
+	/** The record id of each row, or null. */
+	private RecordId[] m_rids;
+	/** The number of rows stored. */
+	private int m_size;
+	/** The rows of the batch, in order, in its first m_selected entries. */
+	private int[] m_selection;
+	private int m_selected;
+
+	/**
+	 * Create an empty batch.
+	 *
+	 * @param td
+	 *            the schema of the rows
+	 * @param capacity
+	 *            the number of rows the batch can hold
+	 */
+	public TupleBatch(TupleDesc td, int capacity) {
+		m_td = td;
+		m_capacity = capacity;
+		m_columns = new Object[td.numFields()];
+		for (int i = 0; i < m_columns.length; i++) {
+			if (td.getFieldType(i) == Type.INT_TYPE)
+				m_columns[i] = new int[capacity];
+			else
+				m_columns[i] = new String[capacity];
+		}
+		m_codes = new int[m_columns.length][];
+		m_dictionaries = new StringDictionary[m_columns.length];
+		m_rids = new RecordId[capacity];
+		m_selection = new int[capacity];
+	}
+
+	/**
+	 * Create a batch that holds no vectors of its own, to be filled by
+	 * {@link #projectFrom}.
+	 */
+	static TupleBatch view(TupleDesc td) {
+		return new TupleBatch(td, 0);
+	}
+
+	public TupleDesc getTupleDesc() {
+		return m_td;
+	}
+
+	/** @return the number of rows the batch can hold */
+	public int capacity() {
+		return m_capacity;
+	}
+
+	/** @return true if no more rows can be added */
+	public boolean isFull() {
+		return m_size == m_capacity;
+	}
+
+	/** @return the number of rows stored, selected or not */
+	public int size() {
+		return m_size;
+	}
+
+	/** @return the number of rows selected */
+	public int numSelected() {
+		return m_selected;
+	}
+
+	/**
+	 * @return the selection vector: the selected rows, in order, are its
+	 *         first {@link #numSelected} entries. May be narrowed in place,
+	 *         followed by a call to {@link #setNumSelected}.
+	 */
+	public int[] selection() {
+		return m_selection;
+	}
+
+	/**
+	 * Keep only the first n entries of the selection vector.
+	 */
+	public void setNumSelected(int n) {
+		m_selected = n;
+	}
+
+	/** @return the vector of integer field i */
+	public int[] getInts(int i) {
+		return (int[]) m_columns[i];
+	}
+
+	/** @return the vector of string field i */
+	public String[] getStrings(int i) {
+		return (String[]) m_columns[i];
+	}
+
+	/**
+	 * @return the code vector of string field i, with -1 for the rows whose
+	 *         string has no code, or null if no row of the field has one
+	 */
+	public int[] getCodes(int i) {
+		return m_codes[i];
+	}
+
+	/**
+	 * @return the dictionary the codes of field i are in, or null
+	 */
+	public StringDictionary getDictionary(int i) {
+		return m_dictionaries[i];
+	}
+
+	/** @return the record id of each row; entries may be null */
+	public RecordId[] getRecordIds() {
+		return m_rids;
+	}
+
+	/** Remove every row. */
+	public void clear() {
+		m_size = 0;
+		m_selected = 0;
+	}
+
+	/**
+	 * Add a selected row, whose fields the caller then writes into the
+	 * vectors.
+	 *
+	 * @return the index of the row
+	 */
+	public int addRow() {
+		int row = m_size++;
+		m_rids[row] = null;
+		m_selection[m_selected++] = row;
+		return row;
+	}
+
+	/**
+	 * Write the fields of t into row, as the fields of the batch from
+	 * offset on.
+	 */
+	void setFields(int row, int offset, Tuple t) {
+		int n = t.getTupleDesc().numFields();
+		for (int i = 0; i < n; i++) {
+			Field f = t.getField(i);
+			if (m_td.getFieldType(offset + i) == Type.INT_TYPE) {
+				getInts(offset + i)[row] = ((IntField) f).getValue();
+			} else {
+				getStrings(offset + i)[row] = ((StringField) f).getValue();
+				setCode(offset + i, row, f);
+			}
+		}
+	}
+
+	/**
+	 * Record the code of f, the string of field i of row, if it has one in
+	 * the dictionary of the field. The first coded string written to a field
+	 * picks its dictionary.
+	 */
+	private void setCode(int i, int row, Field f) {
+		StringDictionary d = f instanceof CodedStringField ? ((CodedStringField) f)
+				.getDictionary() : null;
+		if (d != null && m_dictionaries[i] == null) {
+			m_dictionaries[i] = d;
+			m_codes[i] = new int[m_capacity];
+			Arrays.fill(m_codes[i], -1);
+		}
+		if (m_codes[i] != null)
+			m_codes[i][row] = d == m_dictionaries[i] ? ((CodedStringField) f)
+					.getCode() : -1;
+	}
+
+	/**
+	 * Copy field srcField of srcRow of src, with its code, into field i of
+	 * row.
+	 */
+	void copyField(int i, int row, TupleBatch src, int srcField, int srcRow) {
+		if (m_td.getFieldType(i) == Type.INT_TYPE) {
+			getInts(i)[row] = src.getInts(srcField)[srcRow];
+			return;
+		}
+		getStrings(i)[row] = src.getStrings(srcField)[srcRow];
+		if (src.m_codes[srcField] != null || m_codes[i] != null)
+			setCode(i, row, src.getField(srcRow, srcField));
+	}
+
+	/**
+	 * Add a selected row holding the fields and record id of t.
+	 */
+	public void appendTuple(Tuple t) {
+		int row = addRow();
+		setFields(row, 0, t);
+		m_rids[row] = t.getRecordId();
+	}
+
+	/**
+	 * @return field i of row, as a Field
+	 */
+	public Field getField(int row, int i) {
+		if (m_td.getFieldType(i) == Type.INT_TYPE)
+			return new IntField(getInts(i)[row]);
+		String s = getStrings(i)[row];
+		int[] codes = m_codes[i];
+		if (codes != null && codes[row] >= 0) {
+			CodedStringField f = m_dictionaries[i].getField(codes[row]);
+			// a string written into the vector directly has no code; its
+			// row may still hold the code of an earlier string
+			if (f.getValue() == s)
+				return f;
+		}
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	/**
+	 * @return a Tuple holding row of the batch
+	 */
+	public Tuple getTuple(int row) {
+		Tuple t = new Tuple(m_td);
+		for (int i = 0; i < m_columns.length; i++)
+			t.setField(i, getField(row, i));
+		t.setRecordId(m_rids[row]);
+		return t;
+	}
+
+	/**
+	 * Make this batch a projection of src onto some of its fields, sharing
+	 * the vectors of src: it holds the rows of src until src changes.
+	 *
+	 * @param fields
+	 *            the field of src each field of this batch is
+	 */
+	void projectFrom(TupleBatch src, int[] fields) {
+		for (int i = 0; i < fields.length; i++) {
+			m_columns[i] = src.m_columns[fields[i]];
+			m_codes[i] = src.m_codes[fields[i]];
+			m_dictionaries[i] = src.m_dictionaries[fields[i]];
+		}
+		m_rids = src.m_rids;
+		m_selection = src.m_selection;
+		m_selected = src.m_selected;
+		m_size = src.m_size;
+		m_capacity = src.m_capacity;
+	}
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+/**
+ * A conjunction of predicates on the fields of a table, as pushed into a
+ * {@link SeqScan}. It is evaluated either against a decoded Tuple or against
+ * a tuple still stored in page data, so that the tuples that do not match
+ * are never decoded. {@link PredicateFilter} interprets the predicates;
+ * {@link QueryCompiler} generates subclasses with the predicates inlined.
+ */
+public abstract class TupleFilter {
+
+	private final Predicate[] m_predicates;
+
+	/**
+	 * @param predicates
+	 *            the predicates the filter evaluates
+	 */
+	protected TupleFilter(Predicate[] predicates) {
+		m_predicates = predicates;
+	}
+
+	/**
+	 * @return the predicates the filter evaluates, for files that evaluate
+	 *         them on something other than tuples stored as the fields of
+	 *         the table are serialized
+	 */
+	public Predicate[] getPredicates() {
+		return m_predicates;
+	}
+
+	/**
+	 * @param data
+	 *            page data
+	 * @param off
+	 *            the offset in data of a tuple, stored as the fields of the
+	 *            table are serialized
+	 * @return true if the tuple satisfies every predicate
+	 */
+	public abstract boolean matches(byte[] data, int off);
+
+	/**
+	 * @return true if t satisfies every predicate
+	 */
+	public abstract boolean matches(Tuple t);
+
+	/**
+	 * @return the int serialized at offset off of data
+	 */
+	protected static int readInt(byte[] data, int off) {
+		return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+				| ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+	}
+
+	/**
+	 * @return the string serialized at offset off of data, decoded as
+	 *         Type.STRING_TYPE.parse does
+	 */
+	protected static String readString(byte[] data, int off) {
+		return new String(data, off + 4, readInt(data, off));
+	}
+
+	/**
+	 * @return the offset of each field of td in a serialized tuple
+	 */
+	static int[] fieldOffsets(TupleDesc td) {
+		int[] offsets = new int[td.numFields()];
+		for (int j = 1; j < offsets.length; j++)
+			offsets[j] = offsets[j - 1] + td.getFieldType(j - 1).getLen();
+		return offsets;
+	}
+}
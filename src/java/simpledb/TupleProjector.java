@@ -0,0 +1,14 @@
+package simpledb;
+
+/**
+ * Copies some of the fields of a tuple into another, as a {@link Project}
+ * does. {@link QueryCompiler} generates subclasses with the field ids
+ * inlined.
+ */
+public abstract class TupleProjector {
+
+	/**
+	 * Set the fields of out from those of in.
+	 */
+	public abstract void project(Tuple in, Tuple out);
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * VersionStore keeps the superseded committed images of pages so that
+ * snapshot (read-only) transactions can keep reading the database as it was
+ * when they started, without taking page locks.
+ * <p>
+ * When a transaction commits at timestamp T, the image each of its pages had
+ * before the commit is added here as "valid until T". A snapshot taken at
+ * timestamp S sees, for every page, the oldest stored image that is valid
+ * until some T &gt; S; if there is none, nothing has been committed to that
+ * page since S and the page's current committed image is the right one.
+ * <p>
+ * Not synchronized; BufferPool only calls into it while holding its own
+ * monitor.
+ */
+public class VersionStore {
+
+    /** A committed page image and the commit timestamp that replaced it. */
+    private static class Version {
+        final long validUntil;
+        final Page image;
+
+        Version(long validUntil, Page image) {
+            this.validUntil = validUntil;
+            this.image = image;
+        }
+    }
+
+    /** Old versions of each page, oldest first. */
+    private final Map<PageId, LinkedList<Version>> m_versions = new HashMap<PageId, LinkedList<Version>>();
+
+    /**
+     * Remember image as the committed contents of its page up to (but not
+     * including) commit timestamp validUntil.
+     */
+    public void addVersion(final Page image, final long validUntil) {
+	LinkedList<Version> chain = m_versions.get(image.getId());
+	if (chain == null) {
+	    chain = new LinkedList<Version>();
+	    m_versions.put(image.getId(), chain);
+	}
+	chain.addLast(new Version(validUntil, image));
+    }
+
+    /**
+     * @return the image of pid visible to a snapshot taken at snapshotTs, or
+     *         null if the current committed image is visible
+     */
+    public Page lookup(final PageId pid, final long snapshotTs) {
+	LinkedList<Version> chain = m_versions.get(pid);
+	if (chain == null)
+	    return null;
+	for (Version v : chain) {
+	    if (v.validUntil > snapshotTs)
+		return v.image;
+	}
+	return null;
+    }
+
+    /**
+     * Drop every version that no snapshot at or after oldestSnapshotTs can
+     * see.
+     */
+    public void garbageCollect(final long oldestSnapshotTs) {
+	Iterator<LinkedList<Version>> chains = m_versions.values().iterator();
+	while (chains.hasNext()) {
+	    LinkedList<Version> chain = chains.next();
+	    while (!chain.isEmpty()
+		    && chain.getFirst().validUntil <= oldestSnapshotTs)
+		chain.removeFirst();
+	    if (chain.isEmpty())
+		chains.remove();
+	}
+    }
+
+    /** Drop all versions. */
+    public void clear() {
+	m_versions.clear();
+    }
+
+    /** @return the number of page versions currently retained */
+    public int size() {
+	int n = 0;
+	for (LinkedList<Version> chain : m_versions.values())
+	    n += chain.size();
+	return n;
+    }
+}
@@ -1,12 +1,17 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
 import junit.framework.JUnit4TestAdapter;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -17,6 +22,8 @@ import simpledb.systemtest.SystemTestUtil;
 public class CatalogTest extends SimpleDbTestBase {
     private static String name = "test";
 	private String nameThisTestRun;
+    /** Holds the schema loadSchema reads and the files of its tables. */
+    private File schemaDir;
     
     @Before public void addTables() throws Exception {
         Database.getCatalog().clear();
@@ -69,6 +76,109 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.addColumnGroup()
+     */
+    @Test public void addColumnGroup() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(3, "f");
+        Database.getCatalog().addTable(new SkeletonFile(-3, td), "grouped");
+        Database.getCatalog().addColumnGroup(-3, "f2", "f0");
+
+        assertEquals(1, Database.getCatalog().getColumnGroups(-3).size());
+        assertEquals(2, Database.getCatalog().getColumnGroups(-3).get(0)[0]);
+        assertEquals(0, Database.getCatalog().getColumnGroups(-3).get(0)[1]);
+        assertEquals(0, Database.getCatalog().getColumnGroups(-1).size());
+
+        try {
+            Database.getCatalog().addColumnGroup(-3, "f0", "foo");
+            Assert.fail("Should not group unknown field foo");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+    }
+
+    @After public void deleteSchemaFiles() {
+        if (schemaDir == null)
+            return;
+        for (File f : schemaDir.listFiles())
+            f.delete();
+        schemaDir.delete();
+    }
+
+    /**
+     * Load a schema of the given lines; the files of its tables are created
+     * in a directory of their own, deleted after the test.
+     */
+    private void loadSchema(String... lines) throws Exception {
+        schemaDir = File.createTempFile("catalog", "");
+        schemaDir.delete();
+        schemaDir.mkdir();
+        File schema = new File(schemaDir, "catalog.schema");
+        PrintWriter w = new PrintWriter(schema);
+        for (String line : lines)
+            w.println(line);
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    }
+
+    /**
+     * Unit test for Catalog.loadSchema(): each storage marker picks the
+     * matching DbFile, and pk marks the primary key
+     */
+    @Test public void loadSchemaFormats() throws Exception {
+        loadSchema("rows (a int, b int)",
+                "cols (a int pk, b string) pax",
+                "names (a int pk, b string) varlen",
+                "cold (a int, b string) compressed",
+                "coded (a int pk, b string dict, c string)");
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDatabaseFile(c.getTableId("rows")) instanceof HeapFile);
+        assertTrue(c.getDatabaseFile(c.getTableId("cols")) instanceof PaxFile);
+        assertEquals("a", c.getPrimaryKey(c.getTableId("cols")));
+        assertTrue(c.getDatabaseFile(c.getTableId("names")) instanceof SlottedFile);
+        assertTrue(c.getDatabaseFile(c.getTableId("cold")) instanceof CompressedHeapFile);
+        DbFile f = c.getDatabaseFile(c.getTableId("coded"));
+        assertTrue(f instanceof DictionaryFile);
+        assertTrue(((DictionaryFile) f).isCoded(1));
+        assertFalse(((DictionaryFile) f).isCoded(2));
+        assertEquals("a", c.getPrimaryKey(f.getId()));
+    }
+
+    /**
+     * Unit test for the pagesize clause of Catalog.loadSchema()
+     */
+    @Test public void loadSchemaPageSize() throws Exception {
+        loadSchema("facts (a int, b int) pagesize(65536)",
+                "cold (a int, b string) compressed pagesize(262144)",
+                "coded (a int, b string dict) pagesize(131072)",
+                "oltp (a int pk, b int)");
+        Catalog c = Database.getCatalog();
+        assertEquals(65536, c.getPageSize(c.getTableId("facts")));
+        assertEquals(262144, c.getPageSize(c.getTableId("cold")));
+        assertTrue(c.getDatabaseFile(c.getTableId("cold")) instanceof CompressedHeapFile);
+        assertEquals(131072, c.getPageSize(c.getTableId("coded")));
+        assertEquals(BufferPool.getPageSize(), c.getPageSize(c.getTableId("oltp")));
+    }
+
+    /**
+     * Unit test for the stats clauses of Catalog.loadSchema(), after any
+     * storage marker and page size
+     */
+    @Test public void loadSchemaColumnGroups() throws Exception {
+        loadSchema("facts (a int, b int, c int) pagesize(65536) stats(a, b) stats(c, a)",
+                "cols (a int, b string) pax stats(b, a)",
+                "plain (a int, b int)");
+        Catalog c = Database.getCatalog();
+        int facts = c.getTableId("facts");
+        assertEquals(2, c.getColumnGroups(facts).size());
+        assertEquals(0, c.getColumnGroups(facts).get(0)[0]);
+        assertEquals(1, c.getColumnGroups(facts).get(0)[1]);
+        assertEquals(2, c.getColumnGroups(facts).get(1)[0]);
+        assertEquals(1, c.getColumnGroups(c.getTableId("cols")).size());
+        assertEquals(1, c.getColumnGroups(c.getTableId("cols")).get(0)[0]);
+        assertEquals(0, c.getColumnGroups(c.getTableId("plain")).size());
+    }
+
     /**
      * JUnit suite target
      */
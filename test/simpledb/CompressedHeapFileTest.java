@@ -0,0 +1,128 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile heap;
+    private CompressedHeapFile compressed;
+    private TransactionId tid;
+
+    /**
+     * Create the same table as a HeapFile and as a CompressedHeapFile.
+     */
+    @Before
+    public void setUp() throws Exception {
+        heap = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        File data = File.createTempFile("compressed", ".dat");
+        data.deleteOnExit();
+        CompressedHeapFile.indexFile(data).deleteOnExit();
+        CompressedHeapFile.convert(heap.getFile(), data);
+        compressed = new CompressedHeapFile(data, heap.getTupleDesc());
+        Database.getCatalog().addTable(compressed, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.iterator() and
+     * CompressedHeapFile.diskIterator()
+     */
+    @Test
+    public void sameTuples() throws Exception {
+        assertEquals(heap.numPages(), compressed.numPages());
+        assertEquals(ROWS, TestUtil.assertSameTuples(heap, compressed, tid).size());
+    }
+
+    /**
+     * The compressed file and the bytes a scan reads are a fraction of the
+     * heap file.
+     */
+    @Test
+    public void smaller() throws Exception {
+        long size = compressed.getFile().length();
+        assertTrue(size * 2 < heap.getFile().length());
+        assertEquals(compressed.numPages() * CompressedHeapFile.INDEX_ENTRY_SIZE,
+                CompressedHeapFile.indexFile(compressed.getFile()).length());
+
+        long before = compressed.getBytesRead();
+        SeqScan ss = new SeqScan(tid, compressed.getId(), "t");
+        ss.open();
+        while (ss.hasNext())
+            ss.next();
+        ss.close();
+        assertEquals(size, compressed.getBytesRead() - before);
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.writePage(), through inserts and
+     * deletes, and CompressedHeapFile.compact()
+     */
+    @Test
+    public void insertDeleteCompact() throws Exception {
+        List<String> expected = TestUtil.readTuples(heap.iterator(tid));
+        int pages = compressed.numPages();
+        // enough tuples to fill the last page and append a new one
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(compressed.getTupleDesc());
+            for (int f = 0; f < 3; f++)
+                t.setField(f, new IntField(-1 - i * 3 - f));
+            Database.getBufferPool().insertTuple(tid, compressed.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(compressed.numPages() > pages);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(ROWS + 1000,
+                TestUtil.readTuples(compressed.iterator(tid)).size());
+        DbFileIterator it = compressed.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() < 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        long size = compressed.getFile().length();
+        compressed.compact();
+        assertTrue(compressed.getFile().length() <= size);
+        assertEquals(expected, TestUtil.readTuples(compressed.iterator(tid)));
+
+        // a reopened file reads the same index
+        CompressedHeapFile reopened = new CompressedHeapFile(compressed.getFile(),
+                compressed.getTupleDesc());
+        assertEquals(compressed.numPages(), reopened.numPages());
+        assertEquals(expected, TestUtil.readTuples(reopened.diskIterator()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DictionaryFileTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE,
+            Type.STRING_TYPE };
+    private static final int ROWS = 2000;
+    /** The number of rows whose string s is s3. */
+    private static final int S3_ROWS = (ROWS + 3) / 7;
+
+    private TupleDesc td;
+    private HeapFile heap;
+    private DictionaryFile dict;
+    private String dictName;
+    private TransactionId tid;
+
+    /**
+     * Create the same table, with a string field of 7 distinct values, as a
+     * HeapFile and as a DictionaryFile coding that field.
+     */
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(TYPES, new String[] { "a", "s", "t" });
+        List<String> rows = new ArrayList<String>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(i + ",s" + (i % 7) + ",name" + i);
+        heap = SystemTestUtil.createHeapFile(td, rows);
+
+        File dictData = File.createTempFile("dict", ".dat");
+        dictData.deleteOnExit();
+        DictionaryFile.dictionaryFile(dictData).deleteOnExit();
+        dict = new DictionaryFile(dictData, td, new int[] { 1 });
+        dictName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(dict, dictName);
+        dict.load(heap.diskIterator());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for DictionaryFile.load() and DictionaryFile.iterator()
+     */
+    @Test
+    public void sameTuples() throws Exception {
+        assertEquals(ROWS, TestUtil.assertSameTuples(heap, dict, tid).size());
+        assertEquals(7, dict.getDictionary().size());
+        assertTrue(dict.numPages() < heap.numPages());
+    }
+
+    /**
+     * Predicates on coded fields, on codes and on strings, and projections
+     * give the same tuples as over the heap file.
+     */
+    @Test
+    public void filters() throws Exception {
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+                Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.LIKE };
+        String[] operands = { "s3", "s4", "zz", "" };
+        int[] columns = { 2, 1 };
+        TupleDesc pruned = new TupleDesc(new Type[] { Type.STRING_TYPE,
+                Type.STRING_TYPE }, new String[] { "t", "s" });
+        for (Predicate.Op op : ops) {
+            for (String operand : operands) {
+                Predicate[] filters = {
+                        new Predicate(1, op, new StringField(operand,
+                                Type.STRING_LEN)),
+                        new Predicate(0, Predicate.Op.LESS_THAN,
+                                new IntField(1500)) };
+                List<String> expected = TestUtil.readTuples(
+                        heap.iterator(tid, filters));
+                assertEquals(op + " " + operand, expected, TestUtil.readTuples(
+                        dict.iterator(tid, filters, null, td)));
+                List<String> expectedPruned = new ArrayList<String>();
+                DbFileIterator it = heap.iterator(tid, filters);
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    Tuple p = new Tuple(pruned);
+                    p.setField(0, t.getField(2));
+                    p.setField(1, t.getField(1));
+                    expectedPruned.add(p.toString());
+                }
+                it.close();
+                assertEquals(expectedPruned, TestUtil.readTuples(
+                        dict.iterator(tid, filters, columns, pruned)));
+            }
+        }
+
+        // compiled or not, the filter is evaluated on the codes
+        for (boolean compile : new boolean[] { false, true }) {
+            SeqScan ss = new SeqScan(tid, dict.getId(), "d");
+            ss.pushFilter(new Predicate(1, Predicate.Op.EQUALS, new StringField(
+                    "s3", Type.STRING_LEN)));
+            if (compile)
+                ss.compileFilters();
+            ss.open();
+            int n = 0;
+            while (ss.hasNext()) {
+                assertEquals("s3", ((StringField) ss.next().getField(1)).getValue());
+                n++;
+            }
+            ss.close();
+            assertEquals(S3_ROWS, n);
+        }
+    }
+
+    /**
+     * Coded fields are shared per code and equal by code, so they group and
+     * join like the strings they code.
+     */
+    @Test
+    public void codedFields() throws Exception {
+        Map<Field, Integer> counts = new HashMap<Field, Integer>();
+        DbFileIterator it = dict.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Field f = it.next().getField(1);
+            assertTrue(f instanceof CodedStringField);
+            assertSame(dict.getDictionary().getField(
+                    ((CodedStringField) f).getCode()), f);
+            Integer c = counts.get(f);
+            counts.put(f, c == null ? 1 : c + 1);
+        }
+        it.close();
+        assertEquals(7, counts.size());
+
+        // equal to, and hashed like, the uncoded string
+        StringField s3 = new StringField("s3", Type.STRING_LEN);
+        Field coded = dict.getDictionary().getField(
+                dict.getDictionary().getCode("s3"));
+        assertEquals(s3, coded);
+        assertEquals(coded, s3);
+        assertEquals(s3.hashCode(), coded.hashCode());
+        assertEquals((Integer) S3_ROWS, counts.get(s3));
+        assertFalse(coded.compare(Predicate.Op.EQUALS, dict.getDictionary()
+                .getField(dict.getDictionary().getCode("s4"))));
+
+        Aggregate agg = new Aggregate(new SeqScan(tid, dict.getId(), "d"), 0,
+                1, Aggregator.Op.COUNT);
+        agg.open();
+        int groups = 0;
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            int count = ((IntField) t.getField(1)).getValue();
+            // grouped by the codes the batches of the scan carry
+            assertTrue(t.getField(0) instanceof CodedStringField);
+            assertEquals(counts.get(t.getField(0)).intValue(), count);
+            groups++;
+        }
+        agg.close();
+        assertEquals(7, groups);
+    }
+
+    /**
+     * A new string inserted is added to the dictionary, which a reopened
+     * file reads back.
+     */
+    @Test
+    public void insertNewString() throws Exception {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new StringField("newname", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, dict.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(8, dict.getDictionary().size());
+
+        DictionaryFile reopened = new DictionaryFile(dict.getFile(), td,
+                new int[] { 1 });
+        assertEquals(7, reopened.getDictionary().getCode("new"));
+        Database.getCatalog().addTable(reopened, dictName);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        Predicate[] filters = { new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("new", Type.STRING_LEN)) };
+        List<String> found = TestUtil.readTuples(
+                reopened.iterator(tid, filters, null, td));
+        assertEquals(1, found.size());
+        assertEquals(t.toString(), found.get(0));
+        assertEquals(ROWS + 1,
+                TestUtil.readTuples(reopened.iterator(tid)).size());
+    }
+
+    /**
+     * Batches read from a DictionaryFile carry the codes of the coded field,
+     * and hand out the dictionary's own fields for them, so that a hash join
+     * on the field, like grouping, compares codes.
+     */
+    @Test
+    public void batchesCarryCodes() throws Exception {
+        SeqScan ss = new SeqScan(tid, dict.getId(), "d");
+        ss.open();
+        TupleBatch b = ss.nextBatch();
+        assertSame(dict.getDictionary(), b.getDictionary(1));
+        assertNull(b.getCodes(2));
+        int[] sel = b.selection();
+        for (int k = 0; k < b.numSelected(); k++) {
+            int code = b.getCodes(1)[sel[k]];
+            assertEquals(dict.getDictionary().getCode(b.getStrings(1)[sel[k]]), code);
+            assertSame(dict.getDictionary().getField(code), b.getField(sel[k], 1));
+        }
+        ss.close();
+
+        // one row per string on the build side: each probe row matches one
+        DbIterator build = new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(7)), new SeqScan(tid, dict.getId(), "b"));
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1,
+                Predicate.Op.EQUALS, 1), build, new SeqScan(tid, dict.getId(), "p"));
+        join.open();
+        int rows = 0;
+        while ((b = join.nextBatch()) != null) {
+            sel = b.selection();
+            for (int k = 0; k < b.numSelected(); k++) {
+                Field probed = b.getField(sel[k], 4);
+                assertTrue(probed instanceof CodedStringField);
+                assertSame(probed, b.getField(sel[k], 1));
+                rows++;
+            }
+        }
+        join.close();
+        assertEquals(ROWS, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryFileTest.class);
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class EquiDepthHistogramTest {
+
+	/**
+	 * Test that a heavily skewed column is estimated well: one value makes
+	 * up half of the data, the rest is spread over 1..1000.
+	 */
+	@Test public void skewedValuesTest() {
+		int[] values = new int[2000];
+		for (int c = 0; c < 1000; c++) {
+			values[c] = 7;
+			values[1000 + c] = c + 1;
+		}
+		EquiDepthHistogram h = new EquiDepthHistogram(10, values, values.length);
+
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.EQUALS, 7), 0.01);
+		Assert.assertEquals(0.0005, h.estimateSelectivity(Op.EQUALS, 500), 0.001);
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.GREATER_THAN, 500), 0.02);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, 1), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 5000), 0.001);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 1000), 0.001);
+	}
+
+	/**
+	 * Test that all equality selectivities add up to 1.
+	 */
+	@Test public void equalitiesSumToOneTest() {
+		int[] values = new int[10000];
+		for (int c = 0; c < values.length; c++)
+			values[c] = (c * 23) % 101 - 50;
+		EquiDepthHistogram h = new EquiDepthHistogram(16, values, values.length);
+
+		double selectivity = 0.0;
+		for (int c = -50; c <= 50; c++)
+			selectivity += h.estimateSelectivity(Op.EQUALS, c);
+		Assert.assertEquals(1.0, selectivity, 0.01);
+	}
+
+	/**
+	 * Test that a histogram survives being saved and read back.
+	 */
+	@Test public void writeReadTest() throws Exception {
+		int[] values = new int[] { 5, 1, 3, 3, 9, 12, 3, 4 };
+		EquiDepthHistogram h = new EquiDepthHistogram(3, values, values.length);
+
+		java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+		h.write(new java.io.DataOutputStream(bytes));
+		EquiDepthHistogram read = EquiDepthHistogram.read(new java.io.DataInputStream(
+				new java.io.ByteArrayInputStream(bytes.toByteArray())));
+
+		Assert.assertEquals(h.toString(), read.toString());
+		Assert.assertEquals(h.estimateSelectivity(Op.LESS_THAN, 6),
+				read.estimateSelectivity(Op.LESS_THAN, 6), 1e-9);
+	}
+}
@@ -0,0 +1,227 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for FrameArena.allocate() and FrameArena.free()
+     */
+    @Test
+    public void allocate() {
+        // 2 chunks of 4 blocks
+        FrameArena arena = new FrameArena(8 * 100, 100, 4 * 100);
+        FrameArena.Frame a = arena.allocate(100);
+        FrameArena.Frame b = arena.allocate(150);
+        assertEquals(100, a.getBuffer().capacity());
+        assertEquals(150, b.getBuffer().capacity());
+        assertTrue(a.getBuffer().isDirect());
+        assertEquals(300, arena.getUsedBytes());
+
+        // 2 blocks do not fit in what is left of the first chunk
+        FrameArena.Frame c = arena.allocate(200);
+        assertNotNull(c);
+        assertEquals(500, arena.getUsedBytes());
+        assertNull(arena.allocate(300));
+        assertNull(arena.allocate(500));
+
+        // frames do not overlap
+        a.getBuffer().put(99, (byte) 1);
+        b.getBuffer().put(0, (byte) 2);
+        c.getBuffer().put(0, (byte) 3);
+        assertEquals(1, a.getBuffer().get(99));
+        assertEquals(2, b.getBuffer().get(0));
+
+        arena.free(b);
+        assertEquals(300, arena.getUsedBytes());
+        FrameArena.Frame d = arena.allocate(300);
+        assertNotNull(d);
+        assertEquals(3, c.getBuffer().get(0));
+        assertNull(arena.allocate(300));
+        assertNotNull(arena.allocate(200));
+        assertNull(arena.allocate(100));
+    }
+
+    /**
+     * Cached HeapPages keep their data in frames, and decode their tuples
+     * from there.
+     */
+    @Test
+    public void offHeapPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(hf.numPages());
+        List<String> expected = TestUtil.readSortedTuples(hf.diskIterator());
+        assertEquals(expected, TestUtil.readSortedTuples(hf.iterator(tid)));
+        assertEquals((long) hf.numPages() * BufferPool.getPageSize(),
+                bp.getOffHeapBytes());
+        assertEquals(bp.getUsedBytes(), bp.getOffHeapBytes());
+
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0),
+                Permissions.READ_ONLY);
+        Iterator<Tuple> it = p.iterator();
+        assertTrue(it.hasNext());
+        it.next();
+        assertNull(p.cachedTuple(0));
+        byte[] data = p.getPageData();
+        assertTrue(Arrays.equals(data, p.getBeforeImage().getPageData()));
+    }
+
+    /**
+     * A page evicted from the pool still reads the same once its frame holds
+     * another page.
+     */
+    @Test
+    public void evictedPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(1);
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0),
+                Permissions.READ_ONLY);
+        byte[] data = p.getPageData();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(BufferPool.getPageSize(), bp.getOffHeapBytes());
+        assertTrue(Arrays.equals(data, p.getPageData()));
+        assertTrue(Arrays.equals(data, p.getBeforeImage().getPageData()));
+    }
+
+    /**
+     * Changes are kept on the heap until they commit, when they are written
+     * to the frame as the new before image.
+     */
+    @Test
+    public void commit() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_WRITE);
+        byte[] before = p.getPageData();
+        Tuple t = p.getTuple(0);
+        Database.getBufferPool().deleteTuple(tid, t);
+        Tuple inserted = new Tuple(hf.getTupleDesc());
+        inserted.setField(0, new IntField(-1));
+        inserted.setField(1, new IntField(-1));
+        p.insertTuple(inserted);
+        // into the slot just deleted from
+        int slot = inserted.getRecordId().tupleno();
+        assertEquals(0, slot);
+        assertSame(inserted, p.cachedTuple(slot));
+        assertTrue(Arrays.equals(before, p.getBeforeImage().getPageData()));
+        Database.getBufferPool().transactionComplete(tid);
+        assertNull(p.cachedTuple(slot));
+        assertEquals(inserted.toString(), p.getTuple(slot).toString());
+
+        tid = new TransactionId();
+        assertSame(p, Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_ONLY));
+        assertTrue(Arrays.equals(p.getPageData(), p.getBeforeImage()
+                .getPageData()));
+        assertEquals(ROWS, TestUtil.readTuples(hf.iterator(tid)).size());
+        assertEquals(ROWS, TestUtil.readTuples(hf.diskIterator()).size());
+    }
+
+    /**
+     * In row-locking mode a commit drops the tuples of its own changes, and
+     * keeps those of changes to the page not committed yet.
+     */
+    @Test
+    public void rowLockingCommit() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getBufferPool().setRowLocking(true);
+        try {
+            TransactionId other = new TransactionId();
+            Tuple mine = new Tuple(hf.getTupleDesc());
+            mine.setField(0, new IntField(-1));
+            mine.setField(1, new IntField(-1));
+            Tuple theirs = new Tuple(hf.getTupleDesc());
+            theirs.setField(0, new IntField(-2));
+            theirs.setField(1, new IntField(-2));
+            HeapPage p = (HeapPage) hf.insertTuple(tid, mine).get(0);
+            assertSame(p, hf.insertTuple(other, theirs).get(0));
+            Database.getBufferPool().transactionComplete(tid);
+
+            assertNull(p.cachedTuple(mine.getRecordId().tupleno()));
+            assertSame(theirs, p.cachedTuple(theirs.getRecordId().tupleno()));
+            assertEquals(mine.toString(), p.getTuple(
+                    mine.getRecordId().tupleno()).toString());
+            Database.getBufferPool().transactionComplete(other);
+            assertNull(p.cachedTuple(theirs.getRecordId().tupleno()));
+            tid = new TransactionId();
+            assertEquals(ROWS + 2, TestUtil.readTuples(hf.iterator(tid)).size());
+        } finally {
+            Database.getBufferPool().setRowLocking(false);
+        }
+    }
+
+    /**
+     * Pages of different sizes share the arena, evicting pages to find room
+     * for a frame.
+     */
+    @Test
+    public void mixedSizes() throws Exception {
+        int large = 4 * BufferPool.getPageSize();
+        File data = File.createTempFile("large", ".dat");
+        data.deleteOnExit();
+        HeapFile lf = new HeapFile(data, hf.getTupleDesc(), large);
+        Database.getCatalog().addTable(lf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = new Tuple(lf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, lf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(lf.numPages() > 2);
+
+        tid = new TransactionId();
+        BufferPool bp = Database.resetBufferPool(6);
+        for (int i = 0; i < lf.numPages(); i++) {
+            // the least recently used small pages are every other one, so
+            // evicting them leaves no run of blocks for a large page
+            for (int j = 0; j < 6; j++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), j),
+                        Permissions.READ_ONLY);
+            for (int j = 1; j < 6; j += 2)
+                bp.getPage(tid, new HeapPageId(hf.getId(), j),
+                        Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(lf.getId(), i),
+                    Permissions.READ_ONLY);
+            assertTrue(bp.getUsedBytes() <= bp.getMaxBytes());
+            assertEquals(bp.getUsedBytes(), bp.getOffHeapBytes());
+        }
+        assertEquals(5000, TestUtil.readTuples(lf.iterator(tid)).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -121,6 +121,30 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.diskIterator()
+     */
+    @Test
+    public void testDiskIterator() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+
+        DbFileIterator it = twoPageFile.diskIterator();
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count++;
+        }
+        assertEquals(520, count);
+
+        it.rewind();
+        assertTrue(it.hasNext());
+        it.close();
+        assertFalse(Database.getBufferPool().holdsLock(tid,
+                new HeapPageId(twoPageFile.getId(), 0)));
+    }
+
     /**
      * JUnit suite target
      */
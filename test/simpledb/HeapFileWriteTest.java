@@ -43,6 +43,30 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePages() with a run of adjacent pages and a
+     * gap, passed out of order
+     */
+    @Test public void writePages() throws Exception {
+        java.util.ArrayList<Page> pages = new java.util.ArrayList<Page>();
+        for (int pgNo : new int[] { 3, 0, 1 }) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        empty.writePages(pages);
+
+        assertEquals(4, empty.numPages());
+        for (Page p : pages) {
+            assertNull(p.isDirty());
+            HeapPage read = (HeapPage) empty.readPage(p.getId());
+            Tuple t = read.iterator().next();
+            assertEquals(new IntField(p.getId().pageNumber()), t.getField(0));
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -99,6 +100,72 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[])
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] filters = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947))
+        };
+        Iterator<Tuple> it = page.iterator(filters);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            if (EXAMPLE_VALUES[row][0] > 30000 && EXAMPLE_VALUES[row][1] <= 44947) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+                assertEquals(row, tup.getRecordId().tupleno());
+            } else {
+                // rejected from the page data, without being decoded
+                assertNull(page.cachedTuple(row));
+            }
+        }
+        assertFalse(it.hasNext());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[]) on string fields, and on
+     * tuples inserted after the page was read
+     */
+    @Test public void testFilteredIteratorStrings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPageId spid = new HeapPageId(-2, 0);
+        String[] names = { "ann", "bob", "carl", "bobby", "dora" };
+        HeapPage page = new HeapPage(spid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < names.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(names[i], Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        page = new HeapPage(spid, page.getPageData());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(names.length));
+        t.setField(1, new StringField("bo", Type.STRING_LEN));
+        page.insertTuple(t);
+
+        Iterator<Tuple> it = page.iterator(new Predicate[] {
+            new Predicate(1, Predicate.Op.LIKE, new StringField("bo", Type.STRING_LEN)) });
+        for (int expected : new int[] { 1, 3, 5 }) {
+            assertTrue(it.hasNext());
+            assertEquals(expected, ((IntField) it.next().getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+
+        it = page.iterator(new Predicate[] {
+            new Predicate(1, Predicate.Op.GREATER_THAN, new StringField("bob", Type.STRING_LEN)) });
+        for (int expected : new int[] { 2, 3, 4 }) {
+            assertTrue(it.hasNext());
+            assertEquals(expected, ((IntField) it.next().getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,42 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class HyperLogLogTest {
+
+	/**
+	 * Small counts are exact enough to tell apart, and duplicates are not
+	 * counted twice.
+	 */
+	@Test public void smallCountTest() {
+		HyperLogLog h = new HyperLogLog();
+		for (int rep = 0; rep < 10; rep++)
+			for (int c = 0; c < 100; c++)
+				h.add(c);
+		Assert.assertEquals(100, h.estimate(), 3);
+	}
+
+	/**
+	 * Large counts are within a few percent.
+	 */
+	@Test public void largeCountTest() {
+		HyperLogLog h = new HyperLogLog();
+		for (int c = 0; c < 1000000; c++)
+			h.add("http://example.com/some/long/path/" + c);
+		Assert.assertEquals(1000000, h.estimate(), 50000);
+	}
+
+	/**
+	 * Merging two sketches counts the union.
+	 */
+	@Test public void mergeTest() {
+		HyperLogLog a = new HyperLogLog(), b = new HyperLogLog();
+		for (int c = 0; c < 20000; c++) {
+			a.add(c);
+			b.add(c + 10000);
+		}
+		a.merge(b);
+		Assert.assertEquals(30000, a.estimate(), 1500);
+	}
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how long JoinOptimizer.orderJoins takes to order chain and star
+ * queries of increasing numbers of joins. Run with "ant benchmark", or
+ * directly with the largest number of joins as the optional argument.
+ */
+public class JoinOptimizerBenchmark {
+	/** Number of timed runs per query; the fastest one is reported. */
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int maxJoins = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		Database.reset();
+
+		// one small table per alias, with cardinalities spread over two
+		// orders of magnitude so the orders differ in cost
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		LogicalPlan plan = new LogicalPlan();
+		String[] aliases = new String[maxJoins + 1];
+		for (int t = 0; t <= maxJoins; t++) {
+			aliases[t] = "t" + t;
+			HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 + (t * 397) % 5000,
+					1000, null, new ArrayList<ArrayList<Integer>>(), "c");
+			Database.getCatalog().addTable(f, aliases[t]);
+			stats.put(aliases[t], new TableStats(f.getId(), 1000));
+			filterSelectivities.put(aliases[t], 1.0);
+			plan.addScan(f.getId(), aliases[t]);
+		}
+
+		System.out.println("joins\tchain ms\tstar ms");
+		for (int n = 2; n <= maxJoins; n += 2) {
+			Vector<LogicalJoinNode> chain = new Vector<LogicalJoinNode>();
+			Vector<LogicalJoinNode> star = new Vector<LogicalJoinNode>();
+			for (int i = 0; i < n; i++) {
+				chain.add(new LogicalJoinNode(aliases[i], aliases[i + 1], "c1", "c0",
+						Predicate.Op.EQUALS));
+				star.add(new LogicalJoinNode(aliases[0], aliases[i + 1], "c0", "c0",
+						Predicate.Op.EQUALS));
+			}
+			System.out.printf("%d\t%.2f\t%.2f%n", n,
+					time(plan, chain, stats, filterSelectivities),
+					time(plan, star, stats, filterSelectivities));
+		}
+	}
+
+	/** @return the fastest of RUNS runs of orderJoins on joins, in ms */
+	private static double time(LogicalPlan plan, Vector<LogicalJoinNode> joins,
+			HashMap<String, TableStats> stats,
+			HashMap<String, Double> filterSelectivities) throws ParsingException {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < RUNS; r++) {
+			long start = System.nanoTime();
+			new JoinOptimizer(plan, joins).orderJoins(stats, filterSelectivities, false);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+}
@@ -466,4 +466,142 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		// Make sure that "a" is the outermost table in the join
 		Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a") || result.get(result.size() - 1).t1Alias.equals("a"));
 	}
+
+	/**
+	 * Add count tables of two columns and rows[i] rows to the catalog, named
+	 * prefix + i, with their statistics and a scan of each in plan
+	 */
+	private void addTables(String prefix, int[] rows, LogicalPlan plan,
+			HashMap<String, TableStats> stats,
+			HashMap<String, Double> filterSelectivities) throws Exception {
+		for (int i = 0; i < rows.length; i++) {
+			HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows[i], 100, null,
+					new ArrayList<ArrayList<Integer>>(), "c");
+			Database.getCatalog().addTable(f, prefix + i);
+			stats.put(prefix + i, new TableStats(f.getId(), 103));
+			filterSelectivities.put(prefix + i, 1.0);
+			plan.addScan(f.getId(), prefix + i);
+		}
+	}
+
+	/**
+	 * Check that order performs every join of nodes once, and that every
+	 * join combines two different subplans of a tree-shaped join graph
+	 */
+	private void assertExecutable(Vector<LogicalJoinNode> nodes, Vector<LogicalJoinNode> order) {
+		Assert.assertEquals(nodes.size(), order.size());
+		Assert.assertTrue(order.containsAll(nodes));
+		HashMap<String, String> subplanOf = new HashMap<String, String>();
+		for (LogicalJoinNode j : order) {
+			String s1 = subplanOf.containsKey(j.t1Alias) ? subplanOf.get(j.t1Alias) : j.t1Alias;
+			String s2 = subplanOf.containsKey(j.t2Alias) ? subplanOf.get(j.t2Alias) : j.t2Alias;
+			Assert.assertFalse(s1.equals(s2));
+			subplanOf.put(j.t1Alias, s1);
+			subplanOf.put(j.t2Alias, s1);
+			for (java.util.Map.Entry<String, String> e : subplanOf.entrySet())
+				if (e.getValue().equals(s2))
+					e.setValue(s1);
+		}
+	}
+
+	/**
+	 * Verify that bushy plans are never estimated to cost more than the best
+	 * left-deep plan of the same query
+	 */
+	@Test public void bushyOrderJoinsTest() throws Exception {
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		LogicalPlan plan = new LogicalPlan();
+		addTables("bushy", new int[] { 2000, 50, 1000, 3000, 20, 800 }, plan, stats, filterSelectivities);
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		for (int i = 0; i < 5; i++)
+			nodes.add(new LogicalJoinNode("bushy" + i, "bushy" + (i + 1), "c1", "c0", Predicate.Op.EQUALS));
+
+		int limit = JoinOptimizer.getBushyTableLimit();
+		try {
+			JoinOptimizer j = new JoinOptimizer(plan, nodes);
+			Vector<LogicalJoinNode> bushy = j.orderJoins(stats, filterSelectivities, false);
+			assertExecutable(nodes, bushy);
+
+			JoinOptimizer.setBushyTableLimit(0);
+			Vector<LogicalJoinNode> leftDeep = j.orderJoins(stats, filterSelectivities, false);
+			assertExecutable(nodes, leftDeep);
+
+			Assert.assertTrue(j.estimatePlanCost(bushy, stats, filterSelectivities)
+					<= j.estimatePlanCost(leftDeep, stats, filterSelectivities) * (1 + 1e-9));
+		} finally {
+			JoinOptimizer.setBushyTableLimit(limit);
+		}
+	}
+
+	/**
+	 * Verify that a star query too wide to order exhaustively, or out of
+	 * planning time, is still ordered quickly
+	 */
+	@Test(timeout=60000) public void greedyOrderJoinsTest() throws Exception {
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		LogicalPlan plan = new LogicalPlan();
+		int[] rows = new int[20];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = i == 0 ? 5000 : 10 * i;
+		addTables("star", rows, plan, stats, filterSelectivities);
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		for (int i = 1; i < rows.length; i++)
+			nodes.add(new LogicalJoinNode("star0", "star" + i, "c" + (i % 2), "c0", Predicate.Op.EQUALS));
+
+		JoinOptimizer j = new JoinOptimizer(plan, nodes);
+		assertExecutable(nodes, j.orderJoins(stats, filterSelectivities, false));
+
+		int limit = JoinOptimizer.getExhaustiveTableLimit();
+		long budget = JoinOptimizer.getPlanningBudget();
+		try {
+			JoinOptimizer.setExhaustiveTableLimit(rows.length);
+			JoinOptimizer.setPlanningBudget(0);
+			assertExecutable(nodes, j.orderJoins(stats, filterSelectivities, false));
+		} finally {
+			JoinOptimizer.setExhaustiveTableLimit(limit);
+			JoinOptimizer.setPlanningBudget(budget);
+		}
+	}
+
+	/**
+	 * Verify that the optimizer picks the join algorithm along with the
+	 * order: hashing for equality, sorting for a range join that fits in
+	 * memory, and blocks of the outer for one that does not
+	 */
+	@Test public void joinAlgorithmTest() throws Exception {
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		LogicalPlan plan = new LogicalPlan();
+		plan.addScan(tableId1, tableName1);
+		plan.addScan(tableId2, tableName2);
+		stats.put(tableName1, stats1);
+		stats.put(tableName2, stats2);
+		filterSelectivities.put(tableName1, 1.0);
+		filterSelectivities.put(tableName2, 1.0);
+		Vector<LogicalJoinNode> eq = new Vector<LogicalJoinNode>();
+		eq.add(new LogicalJoinNode(tableName1, tableName2, "c1", "c2", Predicate.Op.EQUALS));
+		Vector<LogicalJoinNode> range = new Vector<LogicalJoinNode>();
+		range.add(new LogicalJoinNode(tableName1, tableName2, "c1", "c2", Predicate.Op.LESS_THAN));
+
+		JoinOptimizer j = new JoinOptimizer(plan, eq);
+		LogicalJoinNode chosen = j.orderJoins(stats, filterSelectivities, false).get(0);
+		Assert.assertEquals(LogicalJoinNode.Algorithm.HASH, chosen.algorithm);
+		Assert.assertTrue(j.estimatePlanCost(new Vector<LogicalJoinNode>(Collections.singletonList(chosen)), stats, filterSelectivities)
+				< j.estimatePlanCost(eq, stats, filterSelectivities));
+		Assert.assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE,
+				new JoinOptimizer(plan, range).orderJoins(stats, filterSelectivities, false).get(0).algorithm);
+
+		int memory = JoinOptimizer.getJoinMemory();
+		try {
+			JoinOptimizer.setJoinMemory(4096);
+			Assert.assertEquals(LogicalJoinNode.Algorithm.HASH,
+					new JoinOptimizer(plan, eq).orderJoins(stats, filterSelectivities, false).get(0).algorithm);
+			Assert.assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP,
+					new JoinOptimizer(plan, range).orderJoins(stats, filterSelectivities, false).get(0).algorithm);
+		} finally {
+			JoinOptimizer.setJoinMemory(memory);
+		}
+	}
 }
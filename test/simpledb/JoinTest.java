@@ -105,6 +105,44 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /** @return the number of tuples op returns from where it is */
+  private int drain(DbIterator op) throws Exception {
+    int n = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for the blocked and sorting join operators: they return the
+   * same tuples as Join, and again after rewind()
+   */
+  @Test public void joinAlgorithms() throws Exception {
+    JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    JoinPredicate gt = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    DbIterator[] ops = {
+        new BlockNestedLoopJoin(gt, scan1, scan2, 3),
+        new SortMergeJoin(gt, scan1, scan2),
+        new HashEquiJoin(eq, scan1, scan2, 3),
+        new BlockNestedLoopJoin(eq, scan1, scan2, 3),
+        new SortMergeJoin(eq, scan1, scan2) };
+    for (int i = 0; i < ops.length; i++) {
+      DbIterator expected = i < 2 ? gtJoin : eqJoin;
+      ops[i].open();
+      expected.open();
+      int n = drain(expected);
+      assertEquals(n, drain(ops[i]));
+      ops[i].rewind();
+      assertEquals(n, drain(ops[i]));
+      expected.rewind();
+      TestUtil.matchAllTuples(expected, ops[i]);
+      ops[i].close();
+      expected.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,158 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest {
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Attempt to acquire a lock in a new thread and report whether it was
+     * granted or failed within the given time.
+     */
+    static class Grabber extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired = false;
+        volatile Exception error = null;
+
+        Grabber(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+                lm.releaseAll(tid);
+            }
+        }
+    }
+
+    private Grabber grab(TransactionId tid, PageId pid, Permissions perm)
+            throws InterruptedException {
+        Grabber g = new Grabber(lm, tid, pid, perm);
+        g.start();
+        g.join(200);
+        return g;
+    }
+
+    @Test public void nullTransactionRejected() throws Exception {
+        try {
+            lm.acquire(null, p0, Permissions.READ_ONLY);
+            fail("a lock for no transaction could never be released");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(lm.holdsLock(null, p0));
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+    }
+
+    @Test public void sharedLocksAreCompatible() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(grab(tid2, p0, Permissions.READ_ONLY).acquired);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    @Test public void exclusiveBlocksUntilRelease() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        Grabber g = grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(g.acquired);
+
+        lm.releaseAll(tid1);
+        g.join(1000);
+        assertTrue(g.acquired);
+        assertFalse(lm.holdsLock(tid1, p0));
+    }
+
+    @Test public void upgradeSoleHolder() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        assertFalse(grab(tid2, p0, Permissions.READ_ONLY).acquired);
+    }
+
+    @Test public void writerNotStarvedByReaders() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        Grabber writer = grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(writer.acquired);
+
+        // a later reader queues behind the waiting writer
+        Grabber reader = grab(new TransactionId(), p0, Permissions.READ_ONLY);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid1);
+        writer.join(1000);
+        assertTrue(writer.acquired);
+        assertFalse(reader.acquired);
+    }
+
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+
+        Grabber g1 = grab(tid1, p1, Permissions.READ_WRITE);
+        Grabber g2 = grab(tid2, p0, Permissions.READ_WRITE);
+        g1.join(1000);
+        g2.join(1000);
+
+        assertTrue(g2.error instanceof TransactionAbortedException);
+        assertTrue(g1.acquired);
+        assertNull(g1.error);
+    }
+
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+
+        Grabber g1 = grab(tid1, p0, Permissions.READ_WRITE);
+        Grabber g2 = grab(tid2, p0, Permissions.READ_WRITE);
+        g1.join(1000);
+        g2.join(1000);
+
+        assertTrue(g1.acquired ^ g2.acquired);
+        assertTrue(g1.error != null || g2.error != null);
+    }
+
+    @Test public void intentionModes() throws Exception {
+        lm.acquire(tid1, p0, LockManager.Mode.IX);
+        assertTrue(lm.tryAcquire(tid2, p0, LockManager.Mode.IX));
+        assertFalse(lm.tryAcquire(new TransactionId(), p0, LockManager.Mode.S));
+
+        lm.releaseAll(tid2);
+        lm.acquire(tid1, p0, LockManager.Mode.S);
+        assertEquals(LockManager.Mode.SIX, lm.getMode(tid1, p0));
+        assertTrue(lm.tryAcquire(tid2, p0, LockManager.Mode.IS));
+        assertFalse(lm.tryAcquire(tid2, p0, LockManager.Mode.IX));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogSegmentsTest {
+
+    private File dir;
+    private File header;
+
+    @Before public void setUp() throws Exception {
+        dir = File.createTempFile("logsegments", "");
+        dir.delete();
+        dir.mkdir();
+        header = new File(dir, "log");
+    }
+
+    @After public void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    /**
+     * Values written across segment boundaries read back unchanged, and the
+     * log can be reopened from its segments.
+     */
+    @Test public void readWriteAcrossSegments() throws Exception {
+        LogSegments log = new LogSegments(header, 16);
+        log.writeLong(-1);
+        for (int i = 0; i < 100; i++)
+            log.writeInt(i);
+        log.writeUTF("a string that spans several segments");
+        assertEquals(LogSegments.HEADER_SIZE + 400 + 38, log.length());
+        log.close();
+
+        log = new LogSegments(header, 16);
+        assertEquals(LogSegments.HEADER_SIZE + 400 + 38, log.length());
+        assertEquals(-1, log.readLong());
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, log.readInt());
+        assertEquals("a string that spans several segments", log.readUTF());
+        try {
+            log.readInt();
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+        log.close();
+    }
+
+    /**
+     * Lines read back with any of the usual terminators, across segment
+     * boundaries.
+     */
+    @Test public void readLine() throws Exception {
+        LogSegments log = new LogSegments(header, 16);
+        log.writeLong(-1);
+        log.writeBytes("first line in the log\nsecond\r\rthird\r\nlast");
+        log.seek(8);
+        assertEquals("first line in the log", log.readLine());
+        assertEquals("second", log.readLine());
+        assertEquals("", log.readLine());
+        assertEquals("third", log.readLine());
+        assertEquals("last", log.readLine());
+        assertNull(log.readLine());
+        log.close();
+    }
+
+    /**
+     * Truncation deletes whole segments before the given offset and leaves
+     * the header and later records readable at their original offsets.
+     */
+    @Test public void truncateBefore() throws Exception {
+        LogSegments log = new LogSegments(header, 16);
+        log.writeLong(-1);
+        for (int i = 0; i < 100; i++)
+            log.writeInt(i);
+        int before = dir.list().length;
+
+        long keep = LogSegments.HEADER_SIZE + 50 * 4;
+        int deleted = log.truncateBefore(keep);
+        assertTrue(deleted > 0);
+        assertEquals(before - deleted, dir.list().length);
+        assertTrue(log.firstOffset() <= keep);
+
+        log.seek(0);
+        assertEquals(-1, log.readLong());
+        log.seek(keep);
+        for (int i = 50; i < 100; i++)
+            assertEquals(i, log.readInt());
+
+        log.seek(LogSegments.HEADER_SIZE);
+        try {
+            log.readInt();
+            fail("expected IOException reading a truncated offset");
+        } catch (IOException e) {
+            // expected
+        }
+        log.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
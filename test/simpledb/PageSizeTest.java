@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int ROWS = 40000;
+    private static final int LARGE = 64 * 1024;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile small;
+    private HeapFile large;
+    private TransactionId tid;
+
+    /**
+     * Create the same table with pages of the default size and with 64K
+     * pages.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        small = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+        File data = File.createTempFile("large", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, LARGE, 2);
+        large = new HeapFile(data, small.getTupleDesc(), LARGE);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapFile with a page size of its own
+     */
+    @Test
+    public void largePages() throws Exception {
+        assertEquals(LARGE, large.getPageSize());
+        assertEquals(LARGE, Database.getCatalog().getPageSize(large.getId()));
+        assertEquals(BufferPool.getPageSize(),
+                Database.getCatalog().getPageSize(small.getId()));
+        assertEquals(large.getFile().length() / LARGE, large.numPages());
+        assertTrue(large.numPages() < small.numPages());
+        int slots = ((HeapPage) large.readPage(new HeapPageId(large.getId(), 0)))
+                .getNumSlots();
+        assertEquals((LARGE * 8) / (small.getTupleDesc().getSize() * 8 + 1), slots);
+
+        assertEquals(ROWS, TestUtil.assertSameTuples(small, large, tid).size());
+    }
+
+    /**
+     * Pages inserted into and written back to a large-page file are written
+     * whole, at their own offsets.
+     */
+    @Test
+    public void insert() throws Exception {
+        int pages = large.numPages();
+        int slots = ((HeapPage) large.readPage(new HeapPageId(large.getId(), 0)))
+                .getNumSlots();
+        for (int i = 0; i < slots + 1; i++) {
+            Tuple t = new Tuple(large.getTupleDesc());
+            t.setField(0, new IntField(-i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, large.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(large.numPages() > pages);
+        assertEquals(0, large.getFile().length() % LARGE);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(ROWS + slots + 1,
+                TestUtil.readTuples(large.iterator(tid)).size());
+    }
+
+    /**
+     * The BufferPool holds pages of both sizes within its byte budget.
+     */
+    @Test
+    public void mixedBudget() throws Exception {
+        long budget = 3L * LARGE + 8L * BufferPool.getPageSize();
+        BufferPool bp = Database.resetBufferPoolBytes(budget);
+        assertEquals(budget, bp.getMaxBytes());
+        assertEquals(0, bp.getUsedBytes());
+
+        int smallPages = small.numPages();
+        for (int i = 0; i < large.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(large.getId(), i),
+                    Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(small.getId(), i % smallPages),
+                    Permissions.READ_ONLY);
+            assertTrue(bp.getUsedBytes() <= budget);
+        }
+        assertTrue(large.numPages() > 3);
+        assertTrue(bp.getUsedBytes() > 2L * LARGE);
+        bp.transactionComplete(tid);
+
+        // a page larger than the whole pool is refused, evicting nothing
+        tid = new TransactionId();
+        bp = Database.resetBufferPoolBytes(12L * BufferPool.getPageSize());
+        for (int i = 0; i < 12; i++)
+            bp.getPage(tid, new HeapPageId(small.getId(), i),
+                    Permissions.READ_ONLY);
+        assertEquals(12L * BufferPool.getPageSize(), bp.getUsedBytes());
+        try {
+            bp.getPage(tid, new HeapPageId(large.getId(), 0),
+                    Permissions.READ_ONLY);
+            fail("a 64K page does not fit in 48K");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(12L * BufferPool.getPageSize(), bp.getUsedBytes());
+
+        // a large page evicts as many small pages as it takes
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+        bp = Database.resetBufferPoolBytes(LARGE + 4L * BufferPool.getPageSize());
+        for (int i = 0; i < LARGE / BufferPool.getPageSize() + 4; i++)
+            bp.getPage(tid, new HeapPageId(small.getId(), i),
+                    Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(bp.getMaxBytes(), bp.getUsedBytes());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+/**
+ * Measures the bytes read from disk by scans of some of the fields of a wide
+ * table, stored as a HeapFile and as a PaxFile. The table has 20 fields, every
+ * other one a string. Run with "ant pax-benchmark", or directly with the
+ * number of rows as the optional argument.
+ */
+public class PaxBenchmark {
+	private static final int FIELDS = 20;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		Database.reset();
+		Type[] types = new Type[FIELDS];
+		String[] names = new String[FIELDS];
+		for (int i = 0; i < FIELDS; i++) {
+			types[i] = i % 2 == 0 ? Type.INT_TYPE : Type.STRING_TYPE;
+			names[i] = "f" + i;
+		}
+		TupleDesc td = new TupleDesc(types, names);
+
+		File text = File.createTempFile("pax", ".txt");
+		text.deleteOnExit();
+		FileWriter w = new FileWriter(text);
+		for (int r = 0; r < rows; r++) {
+			for (int i = 0; i < FIELDS; i++)
+				w.write((i > 0 ? "," : "") + (i % 2 == 0 ? "" + r % 1000 : "s" + r));
+			w.write("\n");
+		}
+		w.close();
+		File heapData = File.createTempFile("pax", ".dat");
+		heapData.deleteOnExit();
+		HeapFileEncoder.convert(text, heapData, BufferPool.getPageSize(), FIELDS, types);
+		HeapFile heap = new HeapFile(heapData, td);
+		Database.getCatalog().addTable(heap, "heap");
+		File paxData = File.createTempFile("pax", ".dat");
+		paxData.deleteOnExit();
+		PaxFile.convert(heap.diskIterator(), td, paxData);
+		PaxFile pax = new PaxFile(paxData, td);
+		Database.getCatalog().addTable(pax, "pax");
+
+		System.out.println("columns\theap bytes\tpax bytes\tpax bytes/column\tpax/heap");
+		for (int[] columns : new int[][] { { 0 }, { 0, 2 }, { 0, 1 }, { 0, 2, 4, 6, 8 },
+				allColumns() }) {
+			// HeapFile always reads whole pages
+			long heapBytes = (long) scan(heap, columns) * BufferPool.getPageSize();
+			long before = pax.getBytesRead();
+			scan(pax, columns);
+			long paxBytes = pax.getBytesRead() - before;
+			System.out.printf("%s\t%d\t%d\t%d\t%.3f%n", describe(columns), heapBytes,
+					paxBytes, paxBytes / columns.length, (double) paxBytes / heapBytes);
+		}
+	}
+
+	private static int[] allColumns() {
+		int[] columns = new int[FIELDS];
+		for (int i = 0; i < FIELDS; i++)
+			columns[i] = i;
+		return columns;
+	}
+
+	private static String describe(int[] columns) {
+		if (columns.length == FIELDS)
+			return "all";
+		StringBuilder sb = new StringBuilder();
+		for (int c : columns)
+			sb.append(sb.length() > 0 ? "," : "").append("f").append(c);
+		return sb.toString();
+	}
+
+	/**
+	 * Scan some fields of f, starting with an empty buffer pool.
+	 *
+	 * @return the number of pages of f
+	 */
+	private static int scan(DbFile f, int[] columns) throws Exception {
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		TransactionId tid = new TransactionId();
+		SeqScan ss = new SeqScan(tid, f.getId(), "t");
+		ss.setColumns(columns.length == FIELDS ? null : columns);
+		ss.open();
+		int n = 0;
+		while (ss.hasNext()) {
+			ss.next();
+			n++;
+		}
+		ss.close();
+		Database.getBufferPool().transactionComplete(tid);
+		if (n == 0)
+			throw new IllegalStateException("scan returned no tuples");
+		return f instanceof HeapFile ? ((HeapFile) f).numPages()
+				: ((PaxFile) f).numPages();
+	}
+}
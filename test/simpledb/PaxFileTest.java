@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE,
+            Type.INT_TYPE, Type.STRING_TYPE };
+    private static final int ROWS = 500;
+
+    private TupleDesc td;
+    private HeapFile heap;
+    private PaxFile pax;
+    private TransactionId tid;
+
+    /**
+     * Create the same table as a HeapFile and as a PaxFile.
+     */
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(TYPES, new String[] { "a", "s", "b", "t" });
+        List<String> rows = new ArrayList<String>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(i + ",s" + (i % 7) + "," + (i % 10) + ",t" + i);
+        heap = SystemTestUtil.createHeapFile(td, rows);
+
+        File paxData = File.createTempFile("pax", ".dat");
+        paxData.deleteOnExit();
+        PaxFile.convert(heap.diskIterator(), td, paxData);
+        pax = new PaxFile(paxData, td);
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for PaxFile.iterator()
+     */
+    @Test
+    public void sameTuples() throws Exception {
+        assertEquals(heap.numPages(), pax.numPages());
+        assertEquals(ROWS, TestUtil.assertSameTuples(heap, pax, tid).size());
+    }
+
+    /**
+     * Collecting statistics reads the pages from disk and leaves no locks
+     * behind.
+     */
+    @Test
+    public void statsTakeNoLocks() throws Exception {
+        TableStats stats = new TableStats(pax.getId(), 1000);
+        assertEquals(ROWS, stats.totalTuples());
+        HeapPageId pid = new HeapPageId(pax.getId(), 0);
+        assertFalse(Database.getBufferPool().holdsLock(null, pid));
+        Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid));
+    }
+
+    /**
+     * A scan of one field reads the headers and that field only.
+     */
+    @Test
+    public void readsScannedColumns() throws Exception {
+        Predicate[] filters = { new Predicate(2, Predicate.Op.EQUALS, new IntField(3)) };
+        TupleDesc out = new TupleDesc(new Type[] { Type.INT_TYPE });
+        long before = pax.getBytesRead();
+        List<String> result = TestUtil.readTuples(
+                pax.iterator(tid, filters, new int[] { 2 }, out));
+        assertEquals(ROWS / 10, result.size());
+
+        int slots = PaxPage.numSlots(td);
+        long expected = (long) pax.numPages() * (PaxPage.headerSize(slots) + slots * 4);
+        assertEquals(expected, pax.getBytesRead() - before);
+        assertTrue(pax.getBytesRead() - before < pax.getFile().length() / 10);
+    }
+
+    /**
+     * A SeqScan of a PaxFile returns the fields it was asked for, filtered.
+     */
+    @Test
+    public void seqScan() throws Exception {
+        SeqScan expected = new SeqScan(tid, heap.getId(), "x");
+        expected.pushFilter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(4)));
+        expected.setColumns(new int[] { 3, 0 });
+        SeqScan actual = new SeqScan(tid, pax.getId(), "x");
+        actual.pushFilter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(4)));
+        actual.setColumns(new int[] { 3, 0 });
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+
+        List<String> e = new ArrayList<String>();
+        expected.open();
+        while (expected.hasNext())
+            e.add(expected.next().toString());
+        expected.close();
+        List<String> a = new ArrayList<String>();
+        actual.open();
+        while (actual.hasNext())
+            a.add(actual.next().toString());
+        actual.close();
+        assertEquals(ROWS * 4 / 10, a.size());
+        assertEquals(e, a);
+    }
+
+    /**
+     * Unit test for PaxFile.insertTuple() and PaxFile.deleteTuple()
+     */
+    @Test
+    public void insertAndDelete() throws Exception {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new IntField(-2));
+        t.setField(3, new StringField("row", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS + 1, TestUtil.readTuples(pax.iterator(tid)).size());
+
+        // read the inserted tuple back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = pax.iterator(tid);
+        it.open();
+        Tuple found = null;
+        while (it.hasNext()) {
+            Tuple next = it.next();
+            if (((IntField) next.getField(0)).getValue() == -1)
+                found = next;
+        }
+        it.close();
+        assertNotNull(found);
+        assertEquals("row", ((StringField) found.getField(3)).getValue());
+
+        Database.getBufferPool().deleteTuple(tid, found);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(TestUtil.readTuples(heap.iterator(tid)),
+                TestUtil.readTuples(pax.iterator(tid)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the rows per second of a scan with two filters and a projection,
+ * with the filters and projection interpreted and compiled by
+ * QueryCompiler. Run with "ant compiler-benchmark", or directly with the
+ * number of rows as the optional argument.
+ */
+public class QueryCompilerBenchmark {
+	/** Number of timed runs per mode; the fastest one is reported. */
+	private static final int RUNS = 15;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		Database.reset();
+		HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows, 1000, null,
+				new ArrayList<ArrayList<Integer>>(), "c");
+		// keep the table in memory, so the scans are not timing the disk
+		Database.resetBufferPool(f.numPages() + 10);
+
+		// the modes take turns, so that neither runs on a JVM warmed up by
+		// the other only
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		int[] result = new int[2];
+		for (int r = 0; r <= RUNS; r++) {
+			for (int mode = 0; mode < 2; mode++) {
+				long start = System.nanoTime();
+				result[mode] = run(f, mode == 1);
+				// the first run reads the pages into the buffer pool
+				if (r > 0)
+					best[mode] = Math.min(best[mode], System.nanoTime() - start);
+			}
+		}
+		System.out.println("mode\trows/s\tresult rows");
+		for (int mode = 0; mode < 2; mode++)
+			System.out.printf("%s\t%.0f\t%d%n", mode == 1 ? "compiled" : "interpreted",
+					rows / (best[mode] / 1e9), result[mode]);
+	}
+
+	/**
+	 * Run the query once, interpreted or compiled.
+	 *
+	 * @return the number of rows it returned
+	 */
+	private static int run(HeapFile f, boolean compiled) throws Exception {
+		TransactionId tid = new TransactionId();
+		SeqScan ss = new SeqScan(tid, f.getId(), "t");
+		ss.pushFilter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)));
+		ss.pushFilter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)));
+		ArrayList<Integer> fields = new ArrayList<Integer>();
+		fields.add(3);
+		fields.add(1);
+		Project p = new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ss);
+		if (compiled && !(ss.compileFilters() && p.compile()))
+			throw new IllegalStateException("no Java compiler available");
+
+		int result = 0;
+		p.open();
+		while (p.hasNext()) {
+			p.next();
+			result++;
+		}
+		p.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return result;
+	}
+}
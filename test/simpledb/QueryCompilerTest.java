@@ -0,0 +1,199 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryCompilerTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+    private static final String[] STRINGS = { "", "a", "ab", "b", "ba", "bab" };
+
+    @After public void enable() {
+        QueryCompiler.setEnabled(true);
+    }
+
+    private static Tuple tuple(int a, String s, int b) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(b));
+        return t;
+    }
+
+    /** @return t serialized as a page stores it */
+    private static byte[] bytes(Tuple t) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(out);
+        for (int i = 0; i < TD.numFields(); i++)
+            t.getField(i).serialize(dos);
+        dos.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Generated filters agree with the interpreter for every operator, on
+     * both tuples and page data.
+     */
+    @Test public void filterMatchesInterpreter() throws Exception {
+        if (!QueryCompiler.isEnabled())
+            return; // no compiler: the interpreter is used
+        Random r = new Random(7);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 60; i++)
+            tuples.add(tuple(r.nextInt(5) - 2, STRINGS[r.nextInt(STRINGS.length)], r.nextInt(5)));
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate[] preds = {
+                new Predicate(1, op, new StringField("ab", Type.STRING_LEN)),
+                new Predicate(0, op, new IntField(0)),
+                new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(3)) };
+            for (int n = 1; n <= preds.length; n++) {
+                Predicate[] ps = new Predicate[n];
+                System.arraycopy(preds, preds.length - n, ps, 0, n);
+                TupleFilter compiled = QueryCompiler.compileFilter(TD, ps);
+                assertNotNull(compiled);
+                assertSame(ps, compiled.getPredicates());
+                TupleFilter interpreted = new PredicateFilter(TD, ps);
+                for (Tuple t : tuples) {
+                    byte[] data = bytes(t);
+                    assertEquals(interpreted.matches(t), compiled.matches(t));
+                    assertEquals(interpreted.matches(t), compiled.matches(data, 0));
+                    assertEquals(interpreted.matches(t), interpreted.matches(data, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters differing only in their constants share a generated class.
+     */
+    @Test public void cacheIgnoresConstants() {
+        if (!QueryCompiler.isEnabled())
+            return;
+        Predicate[] five = { new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5)) };
+        Predicate[] seven = { new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(7)) };
+        TupleFilter f5 = QueryCompiler.compileFilter(TD, five);
+        int compilations = QueryCompiler.getCompilations();
+        TupleFilter f7 = QueryCompiler.compileFilter(TD, seven);
+        assertEquals(compilations, QueryCompiler.getCompilations());
+        assertEquals(f5.getClass(), f7.getClass());
+        Tuple t = tuple(6, "a", 0);
+        assertTrue(f5.matches(t));
+        assertFalse(f7.matches(t));
+
+        QueryCompiler.setEnabled(false);
+        assertNull(QueryCompiler.compileFilter(TD, five));
+        assertNull(QueryCompiler.compileProjection(new int[] { 0 }));
+    }
+
+    /**
+     * Unit test for QueryCompiler.compileProjection()
+     */
+    @Test public void projection() {
+        if (!QueryCompiler.isEnabled())
+            return;
+        TupleProjector p = QueryCompiler.compileProjection(new int[] { 2, 1, 2 });
+        assertNotNull(p);
+        Tuple out = new Tuple(new TupleDesc(
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }));
+        p.project(tuple(1, "x", 9), out);
+        assertEquals(new IntField(9), out.getField(0));
+        assertEquals(new StringField("x", Type.STRING_LEN), out.getField(1));
+        assertEquals(new IntField(9), out.getField(2));
+    }
+
+    /**
+     * A class that fails to compile is not loaded, and does not stop others
+     * from being compiled.
+     */
+    @Test public void failedCompile() {
+        if (!QueryCompiler.isEnabled())
+            return;
+        assertNull(QueryCompiler.load("Broken", "package simpledb.gen;\n"
+                + "public final class Broken { int x = ; }\n"));
+        assertTrue(QueryCompiler.isEnabled());
+        assertNotNull(QueryCompiler.compileProjection(new int[] { 1 }));
+    }
+
+    /**
+     * A class found in the cache is returned while another class is being
+     * compiled.
+     */
+    @Test public void compilesOutsideLock() throws Exception {
+        if (!QueryCompiler.isEnabled())
+            return;
+        assertNotNull(QueryCompiler.compileProjection(new int[] { 0 }));
+        StringBuilder source = new StringBuilder(
+                "package simpledb.gen;\npublic final class Slow {\n");
+        for (int i = 0; i < 500; i++)
+            source.append("    int m" + i + "(int x) { return x * " + i
+                    + " + m" + (i + 1) % 500 + "(x - 1); }\n");
+        source.append("}\n");
+        final String slowSource = source.toString();
+        Thread slow = new Thread() {
+            public void run() {
+                QueryCompiler.load("Slow", slowSource);
+            }
+        };
+        slow.start();
+        Thread.sleep(100); // long enough to start compiling, not to finish
+        assertNotNull(QueryCompiler.compileProjection(new int[] { 0 }));
+        boolean stillCompiling = slow.isAlive();
+        slow.join();
+        assertTrue(stillCompiling);
+    }
+
+    /**
+     * The planner compiles the filters and projection of a scan of a large
+     * table, and the plan returns the same tuples.
+     */
+    @Test public void compiledPlan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2,
+                QueryCompiler.COMPILE_THRESHOLD + 100, 1000, null, tuples, "c");
+        String name = Database.getCatalog().getTableName(f.getId());
+        TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) < 100 && t.get(1) >= 500)
+                expected.add(new ArrayList<Integer>(java.util.Arrays.asList(t.get(1))));
+
+        for (boolean enabled : new boolean[] { true, false }) {
+            QueryCompiler.setEnabled(enabled);
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(f.getId(), "t");
+            lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "100");
+            lp.addFilter("t.c1", Predicate.Op.GREATER_THAN_OR_EQ, "500");
+            lp.addProjectField("t.c1", null);
+            Project root = (Project) lp.physicalPlan(new TransactionId(),
+                    TableStats.getStatsMap(), false);
+            assertEquals(enabled && QueryCompiler.isEnabled(), root.isCompiled());
+            SystemTestUtil.matchTuples(root, expected);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryCompilerTest.class);
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.Assert;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryPlanCacheTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples1;
+    private ArrayList<ArrayList<Integer>> tuples2;
+    private HeapFile f1;
+    private HeapFile f2;
+    private String name1;
+    private String name2;
+
+    @Before public void createTables() throws Exception {
+        tuples1 = new ArrayList<ArrayList<Integer>>();
+        f1 = SystemTestUtil.createRandomHeapFile(2, 40, 20, null, tuples1, "c");
+        name1 = Database.getCatalog().getTableName(f1.getId());
+        tuples2 = new ArrayList<ArrayList<Integer>>();
+        f2 = SystemTestUtil.createRandomHeapFile(2, 30, 20, null, tuples2, "c");
+        name2 = Database.getCatalog().getTableName(f2.getId());
+        TableStats.setTableStats(name1, new TableStats(f1.getId(), 1));
+        TableStats.setTableStats(name2, new TableStats(f2.getId(), 1));
+    }
+
+    /** A plan selecting the tuples of table 1 with c0 greater than parameter 0. */
+    private LogicalPlan selectPlan() throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f1.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, LogicalPlan.parameterMarker(0));
+        lp.addProjectField("*", null);
+        return lp;
+    }
+
+    private static ArrayList<ArrayList<Integer>> greaterThan(
+            ArrayList<ArrayList<Integer>> tuples, int v) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) > v)
+                result.add(t);
+        return result;
+    }
+
+    /**
+     * Unit test for NormalizedSql.normalize()
+     */
+    @Test public void normalize() {
+        NormalizedSql sql = NormalizedSql.normalize(
+                "SELECT  *\n FROM t1 WHERE t1.c0 = 5 AND t1.c1 > -3\tAND t1.s = 'a  b';", true);
+        assertEquals("SELECT * FROM t1 WHERE t1.c0 = ? AND t1.c1 > ? AND t1.s = ?", sql.getText());
+        assertEquals(Arrays.asList("5", "-3", "a  b"), sql.getLiterals());
+        assertEquals(0, sql.getPlaceholders());
+        assertEquals(3, sql.numParameters());
+        assertTrue(sql.isSelect());
+
+        // statements differing only in their constants share a key
+        assertEquals(sql.getText(), NormalizedSql.normalize(
+                "SELECT * FROM t1 WHERE t1.c0 = 7 AND t1.c1 > 2 AND  t1.s = 'x'", true).getText());
+
+        sql = NormalizedSql.normalize("SELECT * FROM t1 WHERE t1.c0 = ? AND t1.c1 = 4", false);
+        assertEquals("SELECT * FROM t1 WHERE t1.c0 = ? AND t1.c1 = 4", sql.getText());
+        assertEquals(1, sql.getPlaceholders());
+        assertEquals(1, sql.numParameters());
+        assertEquals("SELECT * FROM t1 WHERE t1.c0 = '" + LogicalPlan.parameterMarker(0)
+                + "' AND t1.c1 = 4", sql.getMarkedText());
+        assertFalse(NormalizedSql.normalize("DELETE FROM t1", true).isSelect());
+    }
+
+    /**
+     * Unit test for the LRU eviction of QueryPlanCache
+     */
+    @Test public void evictsLeastRecentlyUsed() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(2);
+        PreparedStatement a = new PreparedStatement("a", selectPlan(), 1);
+        PreparedStatement b = new PreparedStatement("b", selectPlan(), 1);
+        PreparedStatement c = new PreparedStatement("c", selectPlan(), 1);
+        cache.put(a);
+        cache.put(b);
+        assertSame(a, cache.get("a"));
+        cache.put(c);
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertSame(c, cache.get("c"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * Statements prepared before the catalog changed are dropped.
+     */
+    @Test public void catalogChangeInvalidates() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(QueryPlanCache.DEFAULT_CAPACITY);
+        PreparedStatement ps = new PreparedStatement("a", selectPlan(), 1);
+        cache.put(ps);
+        assertTrue(ps.isValid());
+
+        long version = Database.getCatalog().getVersion();
+        SystemTestUtil.createRandomHeapFile(1, 1, null, null);
+        assertTrue(Database.getCatalog().getVersion() > version);
+
+        assertFalse(ps.isValid());
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        try {
+            ps.getQuery(new TransactionId(), 1);
+            Assert.fail("executed a statement prepared against an earlier catalog");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A prepared statement is executed with different values for its parameter.
+     */
+    @Test public void parameters() throws Exception {
+        PreparedStatement ps = new PreparedStatement("a", selectPlan(), 1);
+        TransactionId tid = new TransactionId();
+        for (int v : new int[] { 5, 15, 5 })
+            SystemTestUtil.matchTuples(ps.getQuery(tid, v).getPhysicalPlan(),
+                    greaterThan(tuples1, v));
+
+        try {
+            ps.getQuery(tid);
+            Assert.fail("executed a statement without its parameter");
+        } catch (ParsingException e) {
+            // expected
+        }
+        try {
+            ps.getQuery(tid, "x");
+            Assert.fail("compared an integer field with a string");
+        } catch (ParsingException e) {
+            // expected
+        }
+        try {
+            new PreparedStatement("b", selectPlan(), 2);
+            Assert.fail("prepared a statement with a parameter the plan does not take");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The kept join order is replaced when the statistics change, and the
+     * statement still returns the right tuples.
+     */
+    @Test public void statsChange() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f1.getId(), "t1");
+        lp.addScan(f2.getId(), "t2");
+        lp.addJoin("t1.c1", "t2.c1", Predicate.Op.EQUALS);
+        lp.addFilter("t1.c0", Predicate.Op.GREATER_THAN, LogicalPlan.parameterMarker(0));
+        lp.addProjectField("t1.c0", null);
+        lp.addProjectField("t2.c0", null);
+        PreparedStatement ps = new PreparedStatement("a", lp, 1);
+
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 3; round++) {
+            int v = 4 * round;
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t1 : greaterThan(tuples1, v))
+                for (ArrayList<Integer> t2 : tuples2)
+                    if (t1.get(1).equals(t2.get(1)))
+                        expected.add(new ArrayList<Integer>(Arrays.asList(t1.get(0), t2.get(0))));
+            SystemTestUtil.matchTuples(ps.getQuery(tid, v).getPhysicalPlan(), expected);
+            TableStats.setTableStats(round % 2 == 0 ? name1 : name2,
+                    new TableStats(round % 2 == 0 ? f1.getId() : f2.getId(), 1));
+        }
+    }
+
+    /**
+     * Stale statistics are rebuilt when a statement is planned with a copy of
+     * the global statistics, and the rebuilt ones replace them.
+     */
+    @Test public void staleStatsInCopiedMap() throws Exception {
+        TableStats before = TableStats.getTableStats(name1);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; i++) {
+            Tuple t = new Tuple(f1.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f1.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(before.isStale());
+
+        tid = new TransactionId();
+        HashMap<String,TableStats> copy = new HashMap<String,TableStats>(TableStats.getStatsMap());
+        LogicalPlan lp = selectPlan();
+        ArrayList<String> parameters = new ArrayList<String>(Arrays.asList("100"));
+        lp.physicalPlan(tid, copy, false, parameters);
+        for (int i = 0; i < 500 && TableStats.getStatsMap().get(name1) == before; i++)
+            Thread.sleep(10);
+        TableStats rebuilt = TableStats.getStatsMap().get(name1);
+        assertFalse(rebuilt == before);
+        assertFalse(rebuilt.isStale());
+        assertSame(before, copy.get(name1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryPlanCacheTest.class);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE,
+            Type.STRING_TYPE };
+    private static final int ROWS = 2000;
+
+    private TupleDesc td;
+    private HeapFile heap;
+    private SlottedFile slotted;
+    private TransactionId tid;
+
+    /**
+     * Create the same table of short strings as a HeapFile and as a
+     * SlottedFile.
+     */
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(TYPES, new String[] { "a", "s", "t" });
+        List<String> rows = new ArrayList<String>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(i + ",s" + (i % 7) + ",name" + i);
+        heap = SystemTestUtil.createHeapFile(td, rows);
+
+        File slottedData = File.createTempFile("slotted", ".dat");
+        slottedData.deleteOnExit();
+        SlottedFile.convert(heap.diskIterator(), td, slottedData);
+        slotted = new SlottedFile(slottedData, td);
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for SlottedFile.iterator()
+     */
+    @Test
+    public void sameTuples() throws Exception {
+        assertEquals(ROWS, TestUtil.assertSameTuples(heap, slotted, tid).size());
+    }
+
+    /**
+     * Short strings take a fraction of the pages they take in a HeapFile.
+     */
+    @Test
+    public void fewerPages() throws Exception {
+        assertTrue(slotted.numPages() > 0);
+        assertTrue(slotted.numPages() * 5 < heap.numPages());
+    }
+
+    /**
+     * A SeqScan of a SlottedFile returns the fields it was asked for, filtered.
+     */
+    @Test
+    public void seqScan() throws Exception {
+        List<String> result = new ArrayList<String>();
+        for (DbFile f : new DbFile[] { heap, slotted }) {
+            SeqScan ss = new SeqScan(tid, f.getId(), "x");
+            ss.pushFilter(new Predicate(1, Predicate.Op.EQUALS,
+                    new StringField("s3", Type.STRING_LEN)));
+            ss.setColumns(new int[] { 2 });
+            ss.open();
+            StringBuilder sb = new StringBuilder();
+            while (ss.hasNext())
+                sb.append(ss.next()).append('\n');
+            ss.close();
+            result.add(sb.toString());
+        }
+        assertTrue(result.get(0).length() > 0);
+        assertEquals(result.get(0), result.get(1));
+    }
+
+    /**
+     * Unit test for SlottedPage.insertTuple(), SlottedPage.deleteTuple() and
+     * SlottedPage.getPageData()
+     */
+    @Test
+    public void pageSpace() throws Exception {
+        HeapPageId pid = new HeapPageId(slotted.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; ; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s", Type.STRING_LEN));
+            t.setField(2, new StringField(i % 2 == 0 ? "" : "long string " + i,
+                    Type.STRING_LEN));
+            if (!page.fits(t))
+                break;
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        assertTrue(page.getFreeSpace() >= 0);
+        assertTrue(inserted.size() > heapSlots(td) * 5);
+        try {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(0));
+            t.setField(1, new StringField("does not fit", Type.STRING_LEN));
+            t.setField(2, new StringField("", Type.STRING_LEN));
+            page.insertTuple(t);
+            fail("inserted into a full page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the space of a deleted tuple is reused, in its slot
+        Tuple deleted = inserted.get(7);
+        page.deleteTuple(deleted);
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("x", Type.STRING_LEN));
+        t.setField(2, new StringField("", Type.STRING_LEN));
+        assertTrue(page.fits(t));
+        page.insertTuple(t);
+        assertEquals(7, t.getRecordId().tupleno());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(page.getNumSlots(), copy.getNumSlots());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        for (int i = 0; i < copy.getNumSlots(); i++)
+            assertEquals(page.getTuple(i).toString(), copy.getTuple(i).toString());
+    }
+
+    private static int heapSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Unit test for SlottedFile.insertTuple() and SlottedFile.deleteTuple()
+     */
+    @Test
+    public void insertAndDelete() throws Exception {
+        int pages = slotted.numPages();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new StringField("row", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, slotted.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = slotted.iterator(tid);
+        it.open();
+        Tuple found = null;
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple next = it.next();
+            n++;
+            if (((IntField) next.getField(0)).getValue() == -1)
+                found = next;
+        }
+        it.close();
+        assertEquals(ROWS + 1, n);
+        assertNotNull(found);
+        assertEquals("row", ((StringField) found.getField(2)).getValue());
+        assertTrue(slotted.numPages() <= pages + 1);
+
+        Database.getBufferPool().deleteTuple(tid, found);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(TestUtil.readTuples(heap.iterator(tid)),
+                TestUtil.readTuples(slotted.iterator(tid)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class StringHistogramTest {
+
+	/**
+	 * Test that strings sharing a long prefix are told apart.
+	 */
+	@Test public void longCommonPrefixTest() {
+		StringHistogram h = new StringHistogram(100);
+		for (int c = 0; c < 1000; c++)
+			h.addValue("http://example.com/page/" + (1000 + c));
+
+		Assert.assertEquals(0.001, h.estimateSelectivity(Op.EQUALS, "http://example.com/page/1500"), 0.0001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, "http://example.com/page/"), 0.0001);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN, "http://example.com/page/1500"), 0.01);
+		Assert.assertEquals(0.1, h.estimateSelectivity(Op.LIKE, "/page/19"), 0.01);
+	}
+
+	/**
+	 * Test estimates when the values do not fit into the sample: a common
+	 * value is recognised, and rare values get a small share.
+	 */
+	@Test public void sampledTest() {
+		StringHistogram h = new StringHistogram(100);
+		for (int c = 0; c < 100000; c++)
+			h.addValue(c % 4 == 0 ? "user@common.org" : "user" + c + "@example.com");
+
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.EQUALS, "user@common.org"), 0.03);
+		Assert.assertEquals(1.0 / 75000, h.estimateSelectivity(Op.EQUALS, "user17@example.com"), 0.0001);
+		Assert.assertEquals(0.75, h.estimateSelectivity(Op.LIKE, "@example.com"), 0.03);
+		Assert.assertTrue(h.estimateSelectivity(Op.LIKE, "nobody") > 0);
+	}
+
+	/**
+	 * Test that a histogram survives being saved and read back.
+	 */
+	@Test public void writeReadTest() throws Exception {
+		StringHistogram h = new StringHistogram(10);
+		for (int c = 0; c < 50; c++)
+			h.addValue("value" + (c % 7));
+
+		java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+		h.write(new java.io.DataOutputStream(bytes));
+		StringHistogram read = StringHistogram.read(new java.io.DataInputStream(
+				new java.io.ByteArrayInputStream(bytes.toByteArray())));
+
+		for (Op op : new Op[] { Op.EQUALS, Op.LESS_THAN, Op.LIKE })
+			Assert.assertEquals(h.estimateSelectivity(op, "value3"),
+					read.estimateSelectivity(op, "value3"), 1e-9);
+	}
+}
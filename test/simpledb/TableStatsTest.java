@@ -1,7 +1,10 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -152,4 +155,84 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that statistics saved to the sidecar file are loaded back
+	 * unchanged on the next lookup
+	 */
+	@Test public void savedStatsAreReloaded() {
+		TableStats computed = TableStats.getTableStats(this.tableName);
+		File sidecar = TableStats.statsFile(this.f);
+		try {
+			Assert.assertTrue(sidecar.exists());
+
+			TableStats.getStatsMap().remove(this.tableName);
+			TableStats loaded = TableStats.getTableStats(this.tableName);
+			Assert.assertNotSame(computed, loaded);
+			Assert.assertEquals(computed.totalTuples(), loaded.totalTuples());
+			Field v = new IntField(16);
+			for (int col = 0; col < 10; col++)
+				Assert.assertEquals(
+						computed.estimateSelectivity(col, Predicate.Op.LESS_THAN, v),
+						loaded.estimateSelectivity(col, Predicate.Op.LESS_THAN, v),
+						1e-9);
+		} finally {
+			TableStats.getStatsMap().remove(this.tableName);
+			sidecar.delete();
+		}
+	}
+
+	/**
+	 * Verify that the tuple count follows inserts and deletes without a
+	 * rescan
+	 */
+	@Test public void totalTuplesFollowsChanges() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 5; i++)
+			this.f.insertTuple(tid, Utility.getHeapTuple(i, 10));
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(1025, s.totalTuples());
+		Assert.assertEquals(1025, s.estimateTableCardinality(1.0));
+	}
+
+	/**
+	 * Verify that a conjunction on a column group declared in the catalog is
+	 * estimated from the group, and that the group is saved and reloaded
+	 */
+	@Test public void columnGroupSelectivity() throws Exception {
+		// c0 and c1 are always equal, so c0 = 3 AND c1 = 3 holds for 10%
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 2000; i++)
+			rows.add(new ArrayList<Integer>(Arrays.asList(i % 10, i % 10)));
+		File data = File.createTempFile("table", ".dat");
+		data.deleteOnExit();
+		HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 2);
+		HeapFile hf = Utility.openHeapFile(2, "c", data);
+		String name = Database.getCatalog().getTableName(hf.getId());
+		List<Predicate> same = Arrays.asList(
+				new Predicate(0, Predicate.Op.EQUALS, new IntField(3)),
+				new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+		List<Predicate> different = Arrays.asList(
+				new Predicate(0, Predicate.Op.EQUALS, new IntField(3)),
+				new Predicate(1, Predicate.Op.EQUALS, new IntField(4)));
+
+		Assert.assertEquals(0.01, new TableStats(hf.getId(), IO_COST).estimateSelectivity(same), 1e-9);
+
+		Database.getCatalog().addColumnGroup(hf.getId(), "c0", "c1");
+		File sidecar = TableStats.statsFile(hf);
+		try {
+			TableStats s = TableStats.getTableStats(name);
+			Assert.assertEquals(0.1, s.estimateSelectivity(same), 1e-9);
+			Assert.assertEquals(0.0, s.estimateSelectivity(different), 1e-9);
+
+			TableStats.getStatsMap().remove(name);
+			TableStats loaded = TableStats.getTableStats(name);
+			Assert.assertNotSame(s, loaded);
+			Assert.assertEquals(0.1, loaded.estimateSelectivity(same), 1e-9);
+		} finally {
+			TableStats.getStatsMap().remove(name);
+			sidecar.delete();
+		}
+	}
 }
@@ -166,6 +166,44 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the tuples of it, as strings, in the order it returns them
+     */
+    public static List<String> readTuples(DbFileIterator it)
+            throws DbException, TransactionAbortedException {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next().toString());
+        it.close();
+        return result;
+    }
+
+    /**
+     * @return the tuples of it, as strings, sorted
+     */
+    public static List<String> readSortedTuples(DbFileIterator it)
+            throws DbException, TransactionAbortedException {
+        List<String> result = readTuples(it);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Assert that actual holds the tuples of expected in the same order, both
+     * read through the buffer pool for tid and read straight from disk.
+     *
+     * @return the tuples, as strings
+     */
+    public static List<String> assertSameTuples(DbFile expected,
+            DbFile actual, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        List<String> tuples = readTuples(expected.iterator(tid));
+        assertEquals(tuples, readTuples(actual.iterator(tid)));
+        assertEquals(tuples, readTuples(actual.diskIterator()));
+        return tuples;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -236,6 +274,23 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public DbFileIterator diskIterator() {
+            throw new RuntimeException("not implemented");
+        }
+
+        public DbFileIterator iterator(TransactionId tid, TupleFilter filter,
+                int[] columns, TupleDesc td) {
+            throw new RuntimeException("not implemented");
+        }
+
+        public TupleDesc getStoredTupleDesc() {
+            return td;
+        }
+
+        public int getPageSize() {
+            return BufferPool.getPageSize();
+        }
+
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private static TupleDesc td() {
+        return new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "i", "s" });
+    }
+
+    private static Tuple tuple(TupleDesc td, int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Unit test for TupleBatch.appendTuple() and TupleBatch.getTuple()
+     */
+    @Test public void appendAndGet() {
+        TupleDesc td = td();
+        TupleBatch b = new TupleBatch(td, 3);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(b.isFull());
+            Tuple t = tuple(td, i, "s" + i);
+            t.setRecordId(new RecordId(new HeapPageId(1, 0), i));
+            b.appendTuple(t);
+        }
+        assertTrue(b.isFull());
+        assertEquals(3, b.size());
+        assertEquals(3, b.numSelected());
+        assertArrayEquals(new int[] { 0, 1, 2 }, b.getInts(0));
+        assertEquals("s1", b.getStrings(1)[1]);
+
+        Tuple t = b.getTuple(2);
+        assertEquals(new IntField(2), t.getField(0));
+        assertEquals(new StringField("s2", Type.STRING_LEN), t.getField(1));
+        assertEquals(new RecordId(new HeapPageId(1, 0), 2), t.getRecordId());
+
+        b.clear();
+        assertEquals(0, b.size());
+        assertEquals(0, b.numSelected());
+        b.addRow();
+        assertNull(b.getRecordIds()[0]);
+    }
+
+    /**
+     * Narrowing the selection drops rows without moving the vectors.
+     */
+    @Test public void selection() {
+        TupleDesc td = td();
+        TupleBatch b = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY);
+        for (int i = 0; i < 10; i++)
+            b.appendTuple(tuple(td, i, "x"));
+        int[] sel = b.selection();
+        int n = 0;
+        for (int k = 0; k < b.numSelected(); k++)
+            if (b.getInts(0)[sel[k]] % 3 == 0)
+                sel[n++] = sel[k];
+        b.setNumSelected(n);
+
+        assertEquals(10, b.size());
+        assertEquals(4, b.numSelected());
+        for (int k = 0; k < n; k++)
+            assertEquals(3 * k, ((IntField) b.getTuple(sel[k]).getField(0)).getValue());
+    }
+
+    /**
+     * Unit test for TupleBatch.projectFrom()
+     */
+    @Test public void projectFrom() {
+        TupleDesc td = td();
+        TupleBatch src = new TupleBatch(td, 4);
+        for (int i = 0; i < 4; i++)
+            src.appendTuple(tuple(td, i, "s" + i));
+        src.selection()[0] = 3;
+        src.setNumSelected(1);
+
+        TupleBatch p = TupleBatch.view(new TupleDesc(
+                new Type[] { Type.STRING_TYPE }, new String[] { "s" }));
+        p.projectFrom(src, new int[] { 1 });
+        assertEquals(1, p.numSelected());
+        Tuple t = p.getTuple(p.selection()[0]);
+        assertEquals(1, t.getTupleDesc().numFields());
+        assertEquals(new StringField("s3", Type.STRING_LEN), t.getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
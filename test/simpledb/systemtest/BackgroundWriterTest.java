@@ -0,0 +1,197 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that the background writer writes out committed dirty pages, leaves
+ * pages that are being changed alone, and does not hold up the buffer pool
+ * while it writes.
+ */
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    /** A HeapFile whose writes wait until they are let through. */
+    static class BlockingHeapFile extends HeapFile {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        BlockingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            writing.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+            super.writePages(pages);
+        }
+    }
+
+    /** A HeapFile whose writes fail while failing is set. */
+    static class FailingHeapFile extends HeapFile {
+        volatile boolean failing = true;
+
+        FailingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            if (failing)
+                throw new IOException("disk full");
+            super.writePages(pages);
+        }
+    }
+
+    private BufferPool bp;
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.stopBackgroundWriter();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Delete the first tuple of page pgNo for tid, leaving the page dirty in
+     * the pool, and release the page lock if release is set, as if tid had
+     * committed without flushing it.
+     */
+    private HeapPage deleteFirst(HeapFile f, int pgNo, boolean release)
+            throws Exception {
+        HeapPageId pid = new HeapPageId(f.getId(), pgNo);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        if (release)
+            bp.releasePage(tid, pid);
+        return page;
+    }
+
+    /** Wait up to a few seconds for page to be written out. */
+    private static void awaitClean(Page page) throws InterruptedException {
+        for (int i = 0; i < 500 && page.isDirty() != null; i++)
+            Thread.sleep(10);
+    }
+
+    @Test public void writesCommittedPages() throws Exception {
+        HeapPage committed = deleteFirst(table, 0, true);
+        HeapPage changing = deleteFirst(table, 1, false);
+        bp.startBackgroundWriter(10);
+        bp.startBackgroundWriter(10); // already running
+        awaitClean(committed);
+        assertNull(committed.isDirty());
+        assertEquals(1999, TestUtil.readTuples(table.diskIterator()).size());
+
+        // NO STEAL: the page tid still holds for writing stays in memory
+        Thread.sleep(100);
+        assertNotNull(changing.isDirty());
+        bp.stopBackgroundWriter();
+        bp.stopBackgroundWriter(); // already stopped
+    }
+
+    @Test public void writesWithoutHoldingPool() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000,
+                null, null);
+        BlockingHeapFile blocking = new BlockingHeapFile(f,
+                Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(blocking, SystemTestUtil.getUUID());
+        HeapPage page = deleteFirst(blocking, 0, true);
+
+        bp.startBackgroundWriter(10);
+        final TransactionId reader = new TransactionId();
+        final boolean[] read = new boolean[1];
+        try {
+            assertTrue(blocking.writing.await(5, TimeUnit.SECONDS));
+            Thread other = new Thread() {
+                public void run() {
+                    try {
+                        bp.getPage(reader, new HeapPageId(table.getId(), 2),
+                                Permissions.READ_ONLY);
+                        read[0] = true;
+                    } catch (Exception e) {
+                        // not expected
+                    }
+                }
+            };
+            other.start();
+            other.join(2000);
+            assertTrue(read[0]);
+        } finally {
+            blocking.proceed.countDown();
+        }
+        bp.transactionComplete(reader);
+
+        awaitClean(page);
+        assertNull(page.isDirty());
+        assertEquals(1999, TestUtil.readTuples(blocking.diskIterator())
+                .size());
+    }
+
+    @Test public void reportsFailedWrites() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000,
+                null, null);
+        FailingHeapFile failing = new FailingHeapFile(f,
+                Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        HeapPage page = deleteFirst(failing, 0, true);
+
+        bp.startBackgroundWriter(10);
+        // a transaction with nothing to write is told of the failure
+        TransactionId other = new TransactionId();
+        IOException reported = null;
+        for (int i = 0; i < 500 && reported == null; i++) {
+            try {
+                bp.flushPages(other);
+                Thread.sleep(10);
+            } catch (IOException e) {
+                reported = e;
+            }
+        }
+        assertNotNull(reported);
+        assertTrue(reported.getMessage().contains("disk full"));
+        assertNotNull(page.isDirty());
+
+        // each failure is reported once, and the page is written when the
+        // disk recovers
+        bp.stopBackgroundWriter();
+        failing.failing = false;
+        try {
+            bp.flushPages(other);
+        } catch (IOException e) {
+            // a retry may have failed before the writer stopped
+        }
+        bp.flushPages(other);
+        bp.flushAllPages();
+        assertNull(page.isDirty());
+        assertEquals(1999, TestUtil.readTuples(failing.diskIterator()).size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs plans a batch at a time and checks that they return the tuples the
+ * tuple-at-a-time plans do.
+ */
+public class BatchTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private ArrayList<ArrayList<Integer>> tuples1;
+    private ArrayList<ArrayList<Integer>> tuples2;
+    private HeapFile f1;
+    private HeapFile f2;
+    private TransactionId tid;
+
+    @Before public void createTables() throws Exception {
+        tuples1 = new ArrayList<ArrayList<Integer>>();
+        f1 = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples1);
+        tuples2 = new ArrayList<ArrayList<Integer>>();
+        f2 = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, tuples2);
+        tid = new TransactionId();
+    }
+
+    private static void matchBatches(BatchIterator it, List<ArrayList<Integer>> expected)
+            throws Exception {
+        SystemTestUtil.matchTuples(new BatchTupleIterator(it), expected);
+    }
+
+    @Test public void scan() throws Exception {
+        matchBatches(new SeqScan(tid, f1.getId(), "t"), tuples1);
+    }
+
+    @Test public void filterProject() throws Exception {
+        SeqScan ss = new SeqScan(tid, f1.getId(), "t");
+        ss.pushFilter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(70)));
+        Filter f = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(25)), ss);
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Project p = new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, f);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples1)
+            if (t.get(2) < 70 && t.get(0) >= 25)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+        matchBatches(p, expected);
+
+        // the same plan read a tuple at a time
+        SystemTestUtil.matchTuples(p, expected);
+    }
+
+    @Test public void aggregate() throws Exception {
+        Filter f = new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(3)),
+                new SeqScan(tid, f1.getId(), "t"));
+        Aggregate a = new Aggregate(f, 2, 0, Aggregator.Op.SUM);
+
+        Map<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples1) {
+            if (t.get(1) == 3)
+                continue;
+            Integer s = sums.get(t.get(0));
+            sums.put(t.get(0), (s == null ? 0 : s) + t.get(2));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet())
+            expected.add(new ArrayList<Integer>(Arrays.asList(e.getKey(), e.getValue())));
+        matchBatches(a, expected);
+    }
+
+    @Test public void hashJoin() throws Exception {
+        // a small block size, so the inner relation is scanned several times
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, f1.getId(), "t1"), new SeqScan(tid, f2.getId(), "t2"), 700);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1)
+            for (ArrayList<Integer> t2 : tuples2)
+                if (t1.get(1).equals(t2.get(0))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    expected.add(t);
+                }
+        matchBatches(j, expected);
+        SystemTestUtil.matchTuples(j, expected);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchTest.class);
+    }
+}
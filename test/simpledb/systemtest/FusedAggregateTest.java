@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that an aggregate fused with its scan returns what the separate
+ * operators do.
+ */
+public class FusedAggregateTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, 5000, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+    }
+
+    @After public void fuse() {
+        LogicalPlan.setPipelineFusion(true);
+    }
+
+    private SeqScan scan(HeapFile f) {
+        SeqScan ss = new SeqScan(tid, f.getId(), "t");
+        ss.pushFilter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(10)));
+        return ss;
+    }
+
+    /** @return the tuples of it */
+    private static ArrayList<ArrayList<Integer>> run(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return result;
+    }
+
+    @Test public void intAggregates() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int group : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                ArrayList<ArrayList<Integer>> expected =
+                        run(new Aggregate(scan(table), 2, group, op));
+                SystemTestUtil.matchTuples(new FusedAggregate(scan(table), 2, group, op),
+                        expected);
+            }
+        }
+    }
+
+    @Test public void stringCount() throws Exception {
+        File text = File.createTempFile("fused", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 3000; i++)
+            w.write(i % 7 + "," + (i % 20) + ",s" + (i % 3) + "\n");
+        w.close();
+        File data = File.createTempFile("fused", ".dat");
+        data.deleteOnExit();
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 3, types);
+        HeapFile f = new HeapFile(data, new TupleDesc(types, new String[] { "a", "b", "s" }));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        for (int group : new int[] { Aggregator.NO_GROUPING, 0 }) {
+            ArrayList<ArrayList<Integer>> expected =
+                    run(new Aggregate(scan(f), 2, group, Aggregator.Op.COUNT));
+            assertTrue(expected.size() > 0);
+            SystemTestUtil.matchTuples(new FusedAggregate(scan(f), 2, group,
+                    Aggregator.Op.COUNT), expected);
+        }
+    }
+
+    @Test public void planned() throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        TableStats.setTableStats(name, new TableStats(table.getId(), 1));
+        for (boolean fuse : new boolean[] { true, false }) {
+            LogicalPlan.setPipelineFusion(fuse);
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(table.getId(), "t");
+            lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "10");
+            lp.addProjectField("t.c0", null);
+            lp.addProjectField("t.c2", "sum");
+            lp.addAggregate("sum", "t.c2", "t.c0");
+            DbIterator root = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            DbIterator agg = ((Operator) root).getChildren()[0];
+            assertEquals(fuse, agg instanceof FusedAggregate);
+            SystemTestUtil.matchTuples(root, run(new Aggregate(scan(table), 2, 0,
+                    Aggregator.Op.SUM)));
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FusedAggregateTest.class);
+    }
+}
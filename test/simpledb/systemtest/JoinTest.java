@@ -69,6 +69,58 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    /**
+     * Join two random tables on op with every join algorithm that supports
+     * it, holding few tuples in memory so the blocked joins take many passes.
+     */
+    private void validateAlgorithms(Predicate.Op op)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 60, 20, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 40, 20, null, t2Tuples);
+
+        ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(0)))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, op, 0);
+        ArrayList<DbIterator> joins = new ArrayList<DbIterator>();
+        joins.add(new BlockNestedLoopJoin(p, new SeqScan(tid, table1.getId(), ""),
+                new SeqScan(tid, table2.getId(), ""), 7));
+        if (op == Predicate.Op.EQUALS)
+            joins.add(new HashEquiJoin(p, new SeqScan(tid, table1.getId(), ""),
+                    new SeqScan(tid, table2.getId(), ""), 7));
+        joins.add(new SortMergeJoin(p, new SeqScan(tid, table1.getId(), ""),
+                new SeqScan(tid, table2.getId(), "")));
+        for (DbIterator joinOp : joins)
+            SystemTestUtil.matchTuples(joinOp, expectedResults);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEqualityAlgorithms()
+            throws IOException, DbException, TransactionAbortedException {
+        validateAlgorithms(Predicate.Op.EQUALS);
+    }
+
+    @Test public void testRangeAlgorithms()
+            throws IOException, DbException, TransactionAbortedException {
+        validateAlgorithms(Predicate.Op.LESS_THAN);
+        validateAlgorithms(Predicate.Op.LESS_THAN_OR_EQ);
+        validateAlgorithms(Predicate.Op.GREATER_THAN);
+        validateAlgorithms(Predicate.Op.GREATER_THAN_OR_EQ);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
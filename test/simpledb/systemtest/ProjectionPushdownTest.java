@@ -0,0 +1,134 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that scans returning only some fields of their table return the
+ * same fields of the same tuples the full scans do, and that the planner has
+ * its scans return only the fields a query uses.
+ */
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(4, 3000, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+    }
+
+    private SeqScan scan(HeapFile f, String alias) {
+        SeqScan ss = new SeqScan(tid, f.getId(), alias);
+        ss.pushFilter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(10)));
+        return ss;
+    }
+
+    /** @return the tuples of it, with fields fields of each */
+    private static ArrayList<ArrayList<Integer>> run(DbIterator it, int... fields)
+            throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int f : fields)
+                row.add(((IntField) t.getField(f)).getValue());
+            result.add(row);
+        }
+        it.close();
+        return result;
+    }
+
+    @Test public void tuples() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = run(scan(table, "t"), 3, 0);
+        SeqScan ss = scan(table, "t");
+        ss.setColumns(new int[] { 3, 0 });
+        TupleDesc td = ss.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t.c3", td.getFieldName(0));
+        assertEquals("t.c0", td.getFieldName(1));
+        SystemTestUtil.matchTuples(ss, expected);
+    }
+
+    @Test public void batches() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = run(scan(table, "t"), 2);
+        SeqScan ss = scan(table, "t");
+        ss.setColumns(new int[] { 2 });
+        SystemTestUtil.matchTuples(new BatchTupleIterator(ss), expected);
+    }
+
+    @Test public void fused() throws Exception {
+        ArrayList<ArrayList<Integer>> expected =
+                run(new Aggregate(scan(table, "t"), 2, 0, Aggregator.Op.SUM), 0, 1);
+        SeqScan ss = scan(table, "t");
+        ss.setColumns(new int[] { 0, 2 });
+        SystemTestUtil.matchTuples(new FusedAggregate(ss, 1, 0, Aggregator.Op.SUM),
+                expected);
+    }
+
+    /** Add the scans in the plan rooted at it to scans. */
+    private static void findScans(DbIterator it, List<SeqScan> scans) {
+        if (it instanceof SeqScan)
+            scans.add((SeqScan) it);
+        else if (it instanceof Operator)
+            for (DbIterator child : ((Operator) it).getChildren())
+                findScans(child, scans);
+    }
+
+    @Test public void planned() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(3, 1000, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "d");
+        TableStats.setTableStats(Database.getCatalog().getTableName(table.getId()),
+                new TableStats(table.getId(), 1));
+        TableStats.setTableStats(Database.getCatalog().getTableName(other.getId()),
+                new TableStats(other.getId(), 1));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addScan(other.getId(), "o");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "10");
+        lp.addJoin("t.c2", "o.d0", Predicate.Op.EQUALS);
+        lp.addProjectField("t.c3", null);
+        lp.addProjectField("o.d2", null);
+        DbIterator root = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+        List<SeqScan> scans = new ArrayList<SeqScan>();
+        findScans(root, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan ss : scans) {
+            if (ss.getAlias().equals("t"))
+                assertArrayEquals(new int[] { 2, 3 }, ss.getColumns());
+            else
+                assertArrayEquals(new int[] { 0, 2 }, ss.getColumns());
+        }
+
+        ArrayList<ArrayList<Integer>> expected = run(new Join(
+                new JoinPredicate(2, Predicate.Op.EQUALS, 0), scan(table, "t"),
+                new SeqScan(tid, other.getId(), "o")), 3, 6);
+        SystemTestUtil.matchTuples(root, expected);
+    }
+
+    @Test public void everyField() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        DbIterator root = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        List<SeqScan> scans = new ArrayList<SeqScan>();
+        findScans(root, scans);
+        assertNull(scans.get(0).getColumns());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ProjectionPushdownTest.class);
+    }
+}
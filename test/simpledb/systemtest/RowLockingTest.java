@@ -0,0 +1,193 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that in row-locking mode concurrent writers to the same page only
+ * conflict on the same row, and that aborts undo only their own changes.
+ */
+public class RowLockingTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.getBufferPool().setRowLocking(true);
+        table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().setRowLocking(false);
+    }
+
+    private static Tuple makeTuple(int value) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    @Test public void concurrentInsertsIntoSamePage() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+
+        // both land on page 0 without blocking each other
+        table.insertTuple(t1.getId(), makeTuple(1));
+        table.insertTuple(t2.getId(), makeTuple(2));
+
+        t1.abort();
+        t2.commit();
+
+        Transaction reader = new Transaction();
+        reader.start();
+        ArrayList<Tuple> rows = scan(reader.getId());
+        assertEquals(11, rows.size());
+        boolean found2 = false;
+        for (Tuple t : rows) {
+            int v = ((IntField) t.getField(0)).getValue();
+            if (t.getRecordId().getPageId().pageNumber() == 0 && v == 2)
+                found2 = true;
+        }
+        assertTrue(found2);
+        reader.commit();
+    }
+
+    @Test public void commitWritesOwnRowsOnly() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        table.insertTuple(t1.getId(), makeTuple(-1));
+        table.insertTuple(t2.getId(), makeTuple(-2));
+
+        // t2's row is on disk as soon as it commits, but t1's is not
+        t2.commit();
+        ArrayList<Integer> onDisk = diskValues();
+        assertEquals(11, onDisk.size());
+        assertTrue(onDisk.contains(-2));
+        assertFalse(onDisk.contains(-1));
+
+        t1.commit();
+        onDisk = diskValues();
+        assertEquals(12, onDisk.size());
+        assertTrue(onDisk.contains(-1));
+    }
+
+    @Test public void failedInsertDoesNotBlockFlush() throws Exception {
+        int slots = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        table = SystemTestUtil.createRandomHeapFile(2, slots, null, null);
+        Transaction setup = new Transaction();
+        setup.start();
+        Tuple victim = scan(setup.getId()).get(0);
+        setup.commit();
+
+        // the only free slot of page 0 is locked by t1, so t2 inserts
+        // into a new page without becoming a writer of page 0
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        table.deleteTuple(t1.getId(), victim);
+        table.insertTuple(t2.getId(), makeTuple(-1));
+        t1.commit();
+
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        Page page = Database.getBufferPool().getPage(t2.getId(), pid,
+                Permissions.READ_ONLY);
+        assertNull(page.isDirty());
+        assertEquals(slots - 1, diskValues().size());
+        t2.commit();
+        assertEquals(slots, diskValues().size());
+    }
+
+    /** @return the first field of each tuple of the table on disk */
+    private ArrayList<Integer> diskValues() throws Exception {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        DbFileIterator it = table.diskIterator();
+        it.open();
+        while (it.hasNext())
+            result.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return result;
+    }
+
+    @Test public void abortRestoresDeletedRow() throws Exception {
+        Transaction setup = new Transaction();
+        setup.start();
+        ArrayList<Tuple> before = scan(setup.getId());
+        setup.commit();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        table.deleteTuple(t1.getId(), before.get(0));
+        table.insertTuple(t2.getId(), makeTuple(7));
+        t1.abort();
+        t2.commit();
+
+        Transaction reader = new Transaction();
+        reader.start();
+        assertEquals(11, scan(reader.getId()).size());
+        reader.commit();
+    }
+
+    @Test public void sameRowConflicts() throws Exception {
+        Transaction setup = new Transaction();
+        setup.start();
+        final Tuple victim = scan(setup.getId()).get(0);
+        setup.commit();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        final Transaction t2 = new Transaction();
+        t2.start();
+        final RecordId rid = victim.getRecordId();
+        table.deleteTuple(t1.getId(), victim);
+
+        final boolean[] locked = new boolean[1];
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    Database.getBufferPool().lockTuple(t2.getId(), rid);
+                    locked[0] = true;
+                } catch (TransactionAbortedException e) {
+                    // not expected
+                }
+            }
+        };
+        other.start();
+        other.join(200);
+        assertFalse(locked[0]);
+
+        t1.commit();
+        other.join(1000);
+        assertTrue(locked[0]);
+        t2.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
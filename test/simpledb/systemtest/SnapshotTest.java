@@ -0,0 +1,99 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that read-only transactions see a stable snapshot without taking
+ * locks.
+ */
+public class SnapshotTest extends SimpleDbTestBase {
+
+    private static int count(HeapFile table, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.open();
+        int n = 0;
+        while (ss.hasNext()) {
+            ss.next();
+            n++;
+        }
+        ss.close();
+        return n;
+    }
+
+    private static Tuple makeTuple(int value) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    @Test public void readerSeesStartingSnapshot() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        Transaction writer = new Transaction();
+        writer.start();
+
+        Database.getBufferPool().insertTuple(writer.getId(), table.getId(), makeTuple(1));
+
+        // the writer holds an exclusive lock, but the reader neither blocks
+        // nor sees the uncommitted row
+        assertEquals(10, count(table, reader.getId()));
+
+        writer.commit();
+        assertEquals(10, count(table, reader.getId()));
+
+        Transaction later = new Transaction(true);
+        later.start();
+        assertEquals(11, count(table, later.getId()));
+
+        reader.commit();
+        later.commit();
+    }
+
+    @Test public void snapshotSurvivesSeveralCommits() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+
+        for (int i = 0; i < 3; i++) {
+            Transaction writer = new Transaction();
+            writer.start();
+            Database.getBufferPool().insertTuple(writer.getId(), table.getId(), makeTuple(i));
+            writer.commit();
+        }
+        assertEquals(10, count(table, reader.getId()));
+        reader.commit();
+
+        Transaction later = new Transaction(true);
+        later.start();
+        assertEquals(13, count(table, later.getId()));
+        later.commit();
+    }
+
+    @Test public void snapshotCannotWrite() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            Database.getBufferPool().getPage(reader.getId(),
+                    new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        reader.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb.systemtest;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -85,6 +86,31 @@ public class SystemTestUtil {
         return temp;
     }
 
+    /**
+     * Create a HeapFile of the given rows, each a line of comma separated
+     * fields as HeapFileEncoder reads them, and add it to the catalog.
+     */
+    public static HeapFile createHeapFile(TupleDesc td, List<String> rows)
+            throws IOException {
+        File text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (String row : rows)
+            w.write(row + "\n");
+        w.close();
+
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(text, temp, BufferPool.getPageSize(),
+                types.length, types);
+        HeapFile hf = new HeapFile(temp, td);
+        Database.getCatalog().addTable(hf, getUUID());
+        return hf;
+    }
+
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {